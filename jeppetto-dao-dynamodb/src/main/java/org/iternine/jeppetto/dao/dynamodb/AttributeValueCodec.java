@@ -0,0 +1,634 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.persistable.PersistableList;
+import org.iternine.jeppetto.dao.persistable.PersistableMap;
+import org.iternine.jeppetto.dao.persistable.PersistableSet;
+import org.iternine.jeppetto.enhance.Enhancer;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Converts values of one Java type to and from AttributeValues.  Codecs are resolved once per type (see forType())
+ * and cached, so converting a value doesn't repeat the type tests of ConversionUtil or look up enhancers for nested
+ * objects.  Enhanced DynamoDBPersistable classes hold a codec for each of their fields.
+ *
+ * Conversions match those of ConversionUtil.  In particular, sets are written as string sets and may be read from
+ * either string or number sets.
+ *
+ * Codecs are composed at run time rather than generated as source for each entity.  The enhancer's template
+ * (dynamoDBPersistable.vm) already binds each field's codec when the enhanced class is initialized, so converting a
+ * field costs a virtual call, much as generated code would.  Generating the conversions themselves would duplicate
+ * these rules in the template, and still leave values typed only at run time (Object and interface fields, or
+ * subclasses of the declared type) to a lookup like DynamicCodec's.
+ */
+public abstract class AttributeValueCodec {
+
+    //-------------------------------------------------------------
+    // Variables - Private - Static
+    //-------------------------------------------------------------
+
+    private static final Map<Class, AttributeValueCodec> SCALAR_CODECS = new HashMap<>();
+    private static final ConcurrentMap<List<Class>, AttributeValueCodec> CODECS = new ConcurrentHashMap<>();
+    private static final AttributeValueCodec DYNAMIC_CODEC = new DynamicCodec();
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    static {
+        AttributeValueCodec stringCodec = new ScalarCodec() {
+            @Override
+            public AttributeValue encode(Object value) {
+                return new AttributeValue((String) value);
+            }
+
+            @Override
+            Object fromString(String string) {
+                return string;
+            }
+        };
+        AttributeValueCodec integerCodec = new NumberCodec() {
+            @Override
+            Object fromString(String string) {
+                return Integer.valueOf(string);
+            }
+        };
+        AttributeValueCodec longCodec = new NumberCodec() {
+            @Override
+            Object fromString(String string) {
+                return Long.valueOf(string);
+            }
+        };
+        AttributeValueCodec doubleCodec = new NumberCodec() {
+            @Override
+            Object fromString(String string) {
+                return Double.valueOf(string);
+            }
+        };
+        AttributeValueCodec floatCodec = new NumberCodec() {
+            @Override
+            Object fromString(String string) {
+                return Float.valueOf(string);
+            }
+        };
+        AttributeValueCodec shortCodec = new NumberCodec() {
+            @Override
+            Object fromString(String string) {
+                return Short.valueOf(string);
+            }
+        };
+        AttributeValueCodec byteCodec = new NumberCodec() {
+            @Override
+            Object fromString(String string) {
+                return Byte.valueOf(string);
+            }
+        };
+        AttributeValueCodec booleanCodec = new ScalarCodec() {
+            @Override
+            public AttributeValue encode(Object value) {
+                return new AttributeValue().withBOOL((Boolean) value);
+            }
+
+            @Override
+            public Object decode(AttributeValue attributeValue) {
+                return attributeValue.getBOOL();
+            }
+
+            @Override
+            Object fromString(String string) {
+                return Boolean.valueOf(string);
+            }
+        };
+        AttributeValueCodec characterCodec = new ScalarCodec() {
+            @Override
+            public AttributeValue encode(Object value) {
+                return new AttributeValue(value.toString());
+            }
+
+            @Override
+            Object fromString(String string) {
+                return string.charAt(0);
+            }
+        };
+
+        SCALAR_CODECS.put(String.class, stringCodec);
+        SCALAR_CODECS.put(Integer.class, integerCodec);
+        SCALAR_CODECS.put(int.class, integerCodec);
+        SCALAR_CODECS.put(Long.class, longCodec);
+        SCALAR_CODECS.put(long.class, longCodec);
+        SCALAR_CODECS.put(Double.class, doubleCodec);
+        SCALAR_CODECS.put(double.class, doubleCodec);
+        SCALAR_CODECS.put(Float.class, floatCodec);
+        SCALAR_CODECS.put(float.class, floatCodec);
+        SCALAR_CODECS.put(Short.class, shortCodec);
+        SCALAR_CODECS.put(short.class, shortCodec);
+        SCALAR_CODECS.put(Byte.class, byteCodec);
+        SCALAR_CODECS.put(byte.class, byteCodec);
+        SCALAR_CODECS.put(Boolean.class, booleanCodec);
+        SCALAR_CODECS.put(boolean.class, booleanCodec);
+        SCALAR_CODECS.put(Character.class, characterCodec);
+        SCALAR_CODECS.put(char.class, characterCodec);
+        SCALAR_CODECS.put(BigDecimal.class, new NumberCodec() {
+            @Override
+            Object fromString(String string) {
+                return new BigDecimal(string);
+            }
+        });
+        SCALAR_CODECS.put(BigInteger.class, new NumberCodec() {
+            @Override
+            Object fromString(String string) {
+                return new BigInteger(string);
+            }
+        });
+        SCALAR_CODECS.put(byte[].class, new AttributeValueCodec() {
+            @Override
+            public AttributeValue encode(Object value) {
+                return new AttributeValue().withB(ByteBuffer.wrap((byte[]) value));
+            }
+
+            @Override
+            public Object decode(AttributeValue attributeValue) {
+                return attributeValue.getB().array();
+            }
+        });
+        SCALAR_CODECS.put(Date.class, new ScalarCodec() {
+            @Override
+            public AttributeValue encode(Object value) {
+                return new AttributeValue().withN(toString(value));
+            }
+
+            @Override
+            public Object decode(AttributeValue attributeValue) {
+                return fromString(attributeValue.getN());
+            }
+
+            @Override
+            String toString(Object value) {
+                return Long.toString(((Date) value).getTime());
+            }
+
+            @Override
+            Object fromString(String string) {
+                return new Date(Long.parseLong(string));
+            }
+        });
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public - Static
+    //-------------------------------------------------------------
+
+    /**
+     * @param type type of the values to convert
+     * @param collectionType type of the elements (or, for maps, the values) when type is a collection, or null
+     *
+     * @return the codec for the type
+     */
+    public static AttributeValueCodec forType(Class type, Class collectionType) {
+        if (type == null || type == Object.class) {
+            return DYNAMIC_CODEC;
+        }
+
+        AttributeValueCodec codec = SCALAR_CODECS.get(type);
+
+        if (codec != null) {
+            return codec;
+        }
+
+        List<Class> key = Arrays.asList(type, collectionType);
+
+        codec = CODECS.get(key);
+
+        if (codec == null) {
+            codec = createCodec(type, collectionType);
+
+            AttributeValueCodec existing = CODECS.putIfAbsent(key, codec);
+
+            if (existing != null) {
+                codec = existing;
+            }
+        }
+
+        return codec;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public - Abstract
+    //-------------------------------------------------------------
+
+    /**
+     * @param value non-null value to convert
+     *
+     * @return the AttributeValue representing the value
+     */
+    public abstract AttributeValue encode(Object value);
+
+
+    public abstract Object decode(AttributeValue attributeValue);
+
+
+    //-------------------------------------------------------------
+    // Methods - Package
+    //-------------------------------------------------------------
+
+    /**
+     * @return the representation of the value as an element of a string set
+     */
+    String toString(Object value) {
+        return value.toString();
+    }
+
+
+    Object fromString(String string) {
+        throw new RuntimeException("Unhandled type: " + getClass());
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private - Static
+    //-------------------------------------------------------------
+
+    @SuppressWarnings("unchecked")
+    private static AttributeValueCodec createCodec(Class type, Class collectionType) {
+        // Checked in the same order as ConversionUtil
+        if (String.class.isAssignableFrom(type)) {
+            return SCALAR_CODECS.get(String.class);
+        } else if (Number.class.isAssignableFrom(type)) {
+            return new NumberCodec() {
+                @Override
+                public Object decode(AttributeValue attributeValue) {
+                    return new BigDecimal(attributeValue.getN());
+                }
+            };
+        } else if (Date.class.isAssignableFrom(type)) {
+            return SCALAR_CODECS.get(Date.class);
+        } else if (Enum.class.isAssignableFrom(type)) {
+            return new EnumCodec(type.isEnum() ? type : type.getSuperclass());
+        } else if (Set.class.isAssignableFrom(type)) {
+            return new SetCodec(collectionType == null ? SCALAR_CODECS.get(String.class) : forType(collectionType, null));
+        } else if (List.class.isAssignableFrom(type)) {
+            return new ListCodec(forType(collectionType, null));
+        } else if (Map.class.isAssignableFrom(type)) {
+            return new MapCodec(forType(collectionType, null));
+        } else if (AttributeValue.class.isAssignableFrom(type)) {
+            return new AttributeValueCodec() {
+                @Override
+                public AttributeValue encode(Object value) {
+                    return (AttributeValue) value;
+                }
+
+                @Override
+                public Object decode(AttributeValue attributeValue) {
+                    return attributeValue;
+                }
+            };
+        } else if (type.isArray() || type.isInterface() || type.isPrimitive()) {
+            return DYNAMIC_CODEC;
+        } else {
+            return new ObjectCodec(type);
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class - ScalarCodec
+    //-------------------------------------------------------------
+
+    private static abstract class ScalarCodec extends AttributeValueCodec {
+
+        @Override
+        public Object decode(AttributeValue attributeValue) {
+            return fromString(attributeValue.getS());
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class - NumberCodec
+    //-------------------------------------------------------------
+
+    private static abstract class NumberCodec extends AttributeValueCodec {
+
+        @Override
+        public AttributeValue encode(Object value) {
+            return new AttributeValue().withN(value.toString());
+        }
+
+
+        @Override
+        public Object decode(AttributeValue attributeValue) {
+            return fromString(attributeValue.getN());
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class - EnumCodec
+    //-------------------------------------------------------------
+
+    private static class EnumCodec extends AttributeValueCodec {
+
+        private final Class<Enum> enumType;
+
+
+        private EnumCodec(Class<Enum> enumType) {
+            this.enumType = enumType;
+        }
+
+
+        @Override
+        public AttributeValue encode(Object value) {
+            return new AttributeValue(((Enum) value).name());
+        }
+
+
+        @Override
+        public Object decode(AttributeValue attributeValue) {
+            return fromString(attributeValue.getS());
+        }
+
+
+        @Override
+        String toString(Object value) {
+            return ((Enum) value).name();
+        }
+
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Object fromString(String string) {
+            return Enum.valueOf(enumType, string);
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class - SetCodec
+    //-------------------------------------------------------------
+
+    private static class SetCodec extends AttributeValueCodec {
+
+        private final AttributeValueCodec elementCodec;
+
+
+        private SetCodec(AttributeValueCodec elementCodec) {
+            this.elementCodec = elementCodec;
+        }
+
+
+        @Override
+        public AttributeValue encode(Object value) {
+            Set valueSet = (Set) value;
+            Collection<String> strings = new HashSet<>(valueSet.size());    // Distinct values may share a string form
+
+            for (Object next : valueSet) {
+                strings.add(forType(next.getClass(), null).toString(next));
+            }
+
+            return new AttributeValue().withSS(strings);
+        }
+
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object decode(AttributeValue attributeValue) {
+            List<String> strings = attributeValue.getSS() != null ? attributeValue.getSS() : attributeValue.getNS();
+            Set result = new PersistableSet(strings.size());
+
+            for (String string : strings) {
+                result.add(elementCodec.fromString(string));
+            }
+
+            return result;
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class - ListCodec
+    //-------------------------------------------------------------
+
+    private static class ListCodec extends AttributeValueCodec {
+
+        private final AttributeValueCodec elementCodec;
+
+
+        private ListCodec(AttributeValueCodec elementCodec) {
+            this.elementCodec = elementCodec;
+        }
+
+
+        @Override
+        public AttributeValue encode(Object value) {
+            List valueList = (List) value;
+            List<AttributeValue> attributeValues = new ArrayList<>(valueList.size());
+
+            for (Object next : valueList) {
+                attributeValues.add(next == null ? null : elementCodec.encode(next));
+            }
+
+            return new AttributeValue().withL(attributeValues);
+        }
+
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object decode(AttributeValue attributeValue) {
+            List<AttributeValue> attributeValues = attributeValue.getL();
+            List result = new PersistableList(attributeValues.size());
+
+            for (AttributeValue value : attributeValues) {
+                result.add(elementCodec.decode(value));
+            }
+
+            return result;
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class - MapCodec
+    //-------------------------------------------------------------
+
+    private static class MapCodec extends AttributeValueCodec {
+
+        private final AttributeValueCodec valueCodec;
+
+
+        private MapCodec(AttributeValueCodec valueCodec) {
+            this.valueCodec = valueCodec;
+        }
+
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public AttributeValue encode(Object value) {
+            Map<String, ?> valueMap = (Map<String, ?>) value;
+            Map<String, AttributeValue> attributeValueMap = new HashMap<>(valueMap.size());
+
+            for (Map.Entry<String, ?> entry : valueMap.entrySet()) {
+                attributeValueMap.put(entry.getKey(), entry.getValue() == null ? null : valueCodec.encode(entry.getValue()));
+            }
+
+            return new AttributeValue().withM(attributeValueMap);
+        }
+
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object decode(AttributeValue attributeValue) {
+            Map<String, AttributeValue> attributeValues = attributeValue.getM();
+            Map result = new PersistableMap(attributeValues.size());
+
+            for (Map.Entry<String, AttributeValue> entry : attributeValues.entrySet()) {
+                result.put(entry.getKey(), valueCodec.decode(entry.getValue()));
+            }
+
+            return result;
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class - ObjectCodec
+    //-------------------------------------------------------------
+
+    /**
+     * Converts an object to and from a map of its fields.  Values of a subclass of the declared type are converted
+     * using the subclass' codec.
+     */
+    private static class ObjectCodec extends AttributeValueCodec {
+
+        private final Class type;
+        private volatile Enhancer enhancer;     // Resolved on first use since nested types may refer back to this one
+
+
+        private ObjectCodec(Class type) {
+            this.type = type;
+        }
+
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public AttributeValue encode(Object value) {
+            if (value.getClass() != type && !(value instanceof DynamoDBPersistable)) {
+                return forType(value.getClass(), null).encode(value);
+            }
+
+            DynamoDBPersistable dynamoDBPersistable = (DynamoDBPersistable) getEnhancer().enhance(value);
+
+            return new AttributeValue().withM(ConversionUtil.getItemFromObject(dynamoDBPersistable));
+        }
+
+
+        @Override
+        public Object decode(AttributeValue attributeValue) {
+            Object object = getEnhancer().newInstance();
+
+            ((DynamoDBPersistable) object).__putAll(attributeValue.getM());
+
+            return object;
+        }
+
+
+        @SuppressWarnings("unchecked")
+        private Enhancer getEnhancer() {
+            if (enhancer == null) {
+                enhancer = EnhancerHelper.getPersistableEnhancer(type);
+            }
+
+            return enhancer;
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class - DynamicCodec
+    //-------------------------------------------------------------
+
+    /**
+     * Used when the declared type doesn't determine the conversion (e.g. Object or an unparameterized List element).
+     * Values are encoded according to their runtime type and decoded according to the AttributeValue's type.
+     */
+    private static class DynamicCodec extends AttributeValueCodec {
+
+        @Override
+        public AttributeValue encode(Object value) {
+            AttributeValueCodec codec = forType(value.getClass(), null);
+
+            if (codec == this) {
+                throw new JeppettoException("Unable to convert value of type " + value.getClass().getName());
+            }
+
+            return codec.encode(value);
+        }
+
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object decode(AttributeValue attributeValue) {
+            if (attributeValue.getS() != null) {
+                return attributeValue.getS();
+            } else if (attributeValue.getN() != null) {
+                return new BigDecimal(attributeValue.getN());
+            } else if (attributeValue.getBOOL() != null) {
+                return attributeValue.getBOOL();
+            } else if (attributeValue.getB() != null) {
+                return attributeValue.getB().array();
+            } else if (attributeValue.getSS() != null) {
+                return new PersistableSet(new HashSet<>(attributeValue.getSS()));
+            } else if (attributeValue.getNS() != null) {
+                return new PersistableSet(new HashSet<>(attributeValue.getNS()));
+            } else if (attributeValue.getL() != null) {
+                return new ListCodec(this).decode(attributeValue);
+            } else if (attributeValue.getM() != null) {
+                return new MapCodec(this).decode(attributeValue);
+            }
+
+            return null;
+        }
+
+
+        @Override
+        Object fromString(String string) {
+            return string;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+
+
+/**
+ * A token bucket that paces requests against a capacity limit (in capacity units per second).  Since the capacity a
+ * request consumes is only known once it completes, callers acquire() before issuing a request, which waits until
+ * the bucket is no longer in debt, and then consume() the units reported by DynamoDB.  The bucket holds at most one
+ * second's worth of units, so idle periods allow only a short burst.
+ *
+ * Instances are thread-safe and are shared by all requests against the same table or index.  Time is read, and
+ * waited for, through a TimeSource, which defaults to the system's.
+ */
+public class CapacityLimiter {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    public static final TimeSource SYSTEM_TIME = new TimeSource() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+
+        @Override
+        public void sleep(long millis)
+                throws InterruptedException {
+            Thread.sleep(millis);
+        }
+    };
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final double unitsPerSecond;
+    private final TimeSource timeSource;
+    private double availableUnits;
+    private long lastRefillNanos;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    public CapacityLimiter(double unitsPerSecond) {
+        this(unitsPerSecond, SYSTEM_TIME);
+    }
+
+
+    public CapacityLimiter(double unitsPerSecond, TimeSource timeSource) {
+        if (unitsPerSecond <= 0) {
+            throw new JeppettoException("Capacity limit must be positive: " + unitsPerSecond);
+        }
+
+        this.unitsPerSecond = unitsPerSecond;
+        this.timeSource = timeSource;
+        this.availableUnits = unitsPerSecond;
+        this.lastRefillNanos = timeSource.nanoTime();
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    /**
+     * Waits until capacity is available.
+     *
+     * @return the number of milliseconds spent waiting
+     */
+    public long acquire() {
+        long waitedMillis = 0;
+
+        while (true) {
+            long waitMillis;
+
+            synchronized (this) {
+                refill();
+
+                if (availableUnits >= 0) {
+                    return waitedMillis;
+                }
+
+                waitMillis = Math.max(1, (long) Math.ceil(-availableUnits * 1000 / unitsPerSecond));
+            }
+
+            try {
+                timeSource.sleep(waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new JeppettoException(e);
+            }
+
+            waitedMillis += waitMillis;
+        }
+    }
+
+
+    /**
+     * @param units capacity units consumed by a completed request
+     */
+    public synchronized void consume(double units) {
+        refill();
+
+        availableUnits -= units;
+    }
+
+
+    public double getUnitsPerSecond() {
+        return unitsPerSecond;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private void refill() {
+        long now = timeSource.nanoTime();
+
+        availableUnits = Math.min(unitsPerSecond, availableUnits + (now - lastRefillNanos) * unitsPerSecond / 1e9);
+        lastRefillNanos = now;
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Interface
+    //-------------------------------------------------------------
+
+    public interface TimeSource {
+
+        /**
+         * @return the current value of a monotonic clock, in nanoseconds (see System.nanoTime())
+         */
+        long nanoTime();
+
+
+        /**
+         * Waits for the given time to pass.
+         */
+        void sleep(long millis)
+                throws InterruptedException;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+/**
+ * Running totals of the requests made for a single DAO operation or against a single table or index, the capacity
+ * units they consumed, and the time they spent waiting on a CapacityLimiter.
+ */
+public class CapacityMetrics {
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private long requests;
+    private double capacityUnits;
+    private long throttledMillis;
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+
+    public synchronized double getCapacityUnits() {
+        return capacityUnits;
+    }
+
+
+    public synchronized long getThrottledMillis() {
+        return throttledMillis;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Package
+    //-------------------------------------------------------------
+
+    synchronized void recordRequest(long throttledMillis) {
+        this.requests++;
+        this.throttledMillis += throttledMillis;
+    }
+
+
+    synchronized void recordCapacityUnits(double capacityUnits) {
+        this.capacityUnits += capacityUnits;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Object
+    //-------------------------------------------------------------
+
+    @Override
+    public synchronized String toString() {
+        return "CapacityMetrics{requests=" + requests + ", capacityUnits=" + capacityUnits
+               + ", throttledMillis=" + throttledMillis + '}';
+    }
+}
@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.NoSuchItemException;
+import org.iternine.jeppetto.dao.QueryModel;
+import org.iternine.jeppetto.dao.ResultFromUpdate;
+import org.iternine.jeppetto.dao.dynamodb.expression.ConditionExpressionBuilder;
+import org.iternine.jeppetto.dao.dynamodb.expression.UpdateExpressionBuilder;
+import org.iternine.jeppetto.dao.dynamodb.iterable.BatchGetIterable;
+import org.iternine.jeppetto.dao.dynamodb.iterable.DynamoDBPage;
+import org.iternine.jeppetto.dao.updateobject.UpdateObject;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Issues the DAO's asynchronous operations through an AmazonDynamoDBAsync client.  Requests are built by the DAO as
+ * for the blocking operations, and results are delivered through DynamoDBFutures.
+ */
+final class DynamoDBAsyncHelper<T, ID> {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamoDBAsyncHelper.class);
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final DynamoDBQueryModelDAO<T, ID> dynamoDBQueryModelDAO;
+    private final Class<T> entityClass;
+    private final String tableName;
+    private final AmazonDynamoDB dynamoDB;
+    private final AmazonDynamoDBAsync dynamoDBAsync;
+    private final boolean enableScans;
+    private static ScheduledExecutorService retryScheduler;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    DynamoDBAsyncHelper(DynamoDBQueryModelDAO<T, ID> dynamoDBQueryModelDAO, Class<T> entityClass, String tableName,
+                        AmazonDynamoDB dynamoDB, boolean enableScans) {
+        this.dynamoDBQueryModelDAO = dynamoDBQueryModelDAO;
+        this.entityClass = entityClass;
+        this.tableName = tableName;
+        this.dynamoDB = dynamoDB;
+        this.dynamoDBAsync = dynamoDB instanceof AmazonDynamoDBAsync ? (AmazonDynamoDBAsync) dynamoDB : null;
+        this.enableScans = enableScans;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Package
+    //-------------------------------------------------------------
+
+    Future<T> findByIdAsync(final ID id, DynamoDBCallback<T> callback)
+            throws JeppettoException {
+        AmazonDynamoDBAsync client = getAsyncClient();
+        DynamoDBFuture<T> future = new DynamoDBFuture<>(callback);
+
+        GetItemRequest getItemRequest = dynamoDBQueryModelDAO.buildGetItemRequest(id);
+
+        future.addRequest(client.getItemAsync(getItemRequest, new DynamoDBFuture.Completion<GetItemRequest, GetItemResult, T>(future) {
+            @Override
+            protected T convert(GetItemResult result) {
+                if (result.getItem() == null) {
+                    throw new NoSuchItemException(entityClass.getSimpleName(), id.toString());
+                }
+
+                return dynamoDBQueryModelDAO.getObjectFromItem(result.getItem());
+            }
+        }));
+
+        return future;
+    }
+
+
+    Future<List<T>> findByIdsAsync(Collection<ID> ids, DynamoDBCallback<List<T>> callback)
+            throws JeppettoException {
+        Set<Map<String, AttributeValue>> keys = new LinkedHashSet<>();    // BatchGetItem rejects duplicate keys
+
+        for (ID id : ids) {
+            keys.add(dynamoDBQueryModelDAO.getKeyFrom(id));
+        }
+
+        AsyncBatchGet asyncBatchGet = new AsyncBatchGet(getAsyncClient(), new ArrayList<>(keys), new DynamoDBFuture<>(callback));
+
+        asyncBatchGet.start();
+
+        return asyncBatchGet.future;
+    }
+
+
+    Future<Void> saveAsync(T entity, DynamoDBCallback<Void> callback)
+            throws JeppettoException {
+        AmazonDynamoDBAsync client = getAsyncClient();
+        final DynamoDBPersistable dynamoDBPersistable =
+                (DynamoDBPersistable) dynamoDBQueryModelDAO.getTableMetadata().persistableEnhancer.enhance(entity);
+        final AmazonWebServiceRequest saveRequest = dynamoDBQueryModelDAO.buildSaveRequest(dynamoDBPersistable);
+        DynamoDBFuture<Void> future = new DynamoDBFuture<>(callback);
+
+        if (saveRequest instanceof PutItemRequest) {
+            future.addRequest(client.putItemAsync((PutItemRequest) saveRequest, new DynamoDBFuture.Completion<PutItemRequest, PutItemResult, Void>(future) {
+                @Override
+                protected Void convert(PutItemResult result) {
+                    dynamoDBPersistable.__markPersisted(dynamoDB.toString());
+
+                    return null;
+                }
+
+
+                @Override
+                protected Exception translate(Exception e) {
+                    return dynamoDBQueryModelDAO.asSaveException(e, saveRequest);
+                }
+            }));
+        } else {
+            future.addRequest(client.updateItemAsync((UpdateItemRequest) saveRequest, new DynamoDBFuture.Completion<UpdateItemRequest, UpdateItemResult, Void>(future) {
+                @Override
+                protected Void convert(UpdateItemResult result) {
+                    dynamoDBPersistable.__markPersisted(dynamoDB.toString());
+
+                    return null;
+                }
+
+
+                @Override
+                protected Exception translate(Exception e) {
+                    return dynamoDBQueryModelDAO.asSaveException(e, saveRequest);
+                }
+            }));
+        }
+
+        return future;
+    }
+
+
+    Future<Void> deleteAsync(T entity, DynamoDBCallback<Void> callback)
+            throws JeppettoException {
+        DynamoDBTableMetadata<T> tableMetadata = dynamoDBQueryModelDAO.getTableMetadata();
+
+        if (entity == null) {
+            throw new JeppettoException("entity is null; nothing to delete.");
+        }
+
+        return deleteItemAsync(tableMetadata.getKeyFrom((DynamoDBPersistable) tableMetadata.persistableEnhancer.enhance(entity)), callback);
+    }
+
+
+    Future<Void> deleteByIdAsync(ID id, DynamoDBCallback<Void> callback)
+            throws JeppettoException {
+        if (id == null) {
+            throw new JeppettoException("id is null; unable to delete entity.");
+        }
+
+        return deleteItemAsync(dynamoDBQueryModelDAO.getKeyFrom(id), callback);
+    }
+
+
+    <U extends T> Future<T> updateByIdAsync(U updateObject, ID id, DynamoDBCallback<T> callback)
+            throws JeppettoException {
+        AmazonDynamoDBAsync client = getAsyncClient();
+        final ResultFromUpdate resultFromUpdate = dynamoDBQueryModelDAO.getResultFromUpdate(updateObject);
+        UpdateItemRequest updateItemRequest = dynamoDBQueryModelDAO.buildUpdateItemRequest(dynamoDBQueryModelDAO.getKeyFrom(id),
+                                                                                           new UpdateExpressionBuilder((UpdateObject) updateObject),
+                                                                                           null, resultFromUpdate);
+        DynamoDBFuture<T> future = new DynamoDBFuture<>(callback);
+
+        future.addRequest(client.updateItemAsync(updateItemRequest, new DynamoDBFuture.Completion<UpdateItemRequest, UpdateItemResult, T>(future) {
+            @Override
+            protected T convert(UpdateItemResult result) {
+                return resultFromUpdate == ResultFromUpdate.ReturnNone ? null : dynamoDBQueryModelDAO.getObjectFromItem(result.getAttributes());
+            }
+        }));
+
+        return future;
+    }
+
+
+    Future<DynamoDBPage<T>> findPageUsingQueryModelAsync(QueryModel queryModel, String position,
+                                                         DynamoDBCallback<DynamoDBPage<T>> callback)
+            throws JeppettoException {
+        DynamoDBTableMetadata<T> tableMetadata = dynamoDBQueryModelDAO.getTableMetadata();
+
+        AmazonDynamoDBAsync client = getAsyncClient();
+        ConditionExpressionBuilder conditionExpressionBuilder = tableMetadata.conditionExpressions.builderFor(queryModel);
+        DynamoDBFuture<DynamoDBPage<T>> future = new DynamoDBFuture<>(callback);
+
+        if (dynamoDBQueryModelDAO.getFanOutHelper().isShardedHashKeyQuery(conditionExpressionBuilder)) {
+            throw new JeppettoException("Conditions on a sharded hash key require a query per shard; use findUsingQueryModel() instead.");
+        } else if (conditionExpressionBuilder.hasHashKeyCondition()) {
+            QueryRequest queryRequest = dynamoDBQueryModelDAO.buildQueryRequest(queryModel, conditionExpressionBuilder);
+
+            dynamoDBQueryModelDAO.applyIndex(conditionExpressionBuilder, queryRequest, queryModel.getSorts());
+            dynamoDBQueryModelDAO.applyExpressions(conditionExpressionBuilder, queryRequest, tableMetadata.projectionExpression,
+                                                   tableMetadata.projectionExpressionNames);
+
+            queryRequest.setExclusiveStartKey(DynamoDBPage.toExclusiveStartKey(position));
+
+            future.addRequest(client.queryAsync(queryRequest, new DynamoDBFuture.Completion<QueryRequest, QueryResult, DynamoDBPage<T>>(future) {
+                @Override
+                protected DynamoDBPage<T> convert(QueryResult result) {
+                    return new DynamoDBPage<>(dynamoDBQueryModelDAO.getObjectsFromItems(result.getItems()), result.getLastEvaluatedKey());
+                }
+            }));
+        } else if (dynamoDBQueryModelDAO.getFanOutHelper().getHashKeyWithinCondition(queryModel) != null) {
+            throw new JeppettoException("'Within' conditions on a hash key require a query per value; use findUsingQueryModel() instead.");
+        } else if (enableScans) {
+            logger.info("Condition does not specify a hash key -- using 'scan' to search.");
+
+            conditionExpressionBuilder.convertRangeKeyConditionToExpression();
+
+            ScanRequest scanRequest = dynamoDBQueryModelDAO.buildScanRequest(queryModel, conditionExpressionBuilder,
+                                                                             tableMetadata.projectionExpression,
+                                                                             tableMetadata.projectionExpressionNames);
+
+            scanRequest.setExclusiveStartKey(DynamoDBPage.toExclusiveStartKey(position));
+
+            future.addRequest(client.scanAsync(scanRequest, new DynamoDBFuture.Completion<ScanRequest, ScanResult, DynamoDBPage<T>>(future) {
+                @Override
+                protected DynamoDBPage<T> convert(ScanResult result) {
+                    return new DynamoDBPage<>(dynamoDBQueryModelDAO.getObjectsFromItems(result.getItems()), result.getLastEvaluatedKey());
+                }
+            }));
+        } else {
+            throw new JeppettoException("Find cannot be satisfied without a scan and scans have not been enabled."
+                                        + "  Configure this DAO with 'enableScans' = true to allow this.");
+        }
+
+        return future;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private AmazonDynamoDBAsync getAsyncClient() {
+        if (dynamoDBAsync == null) {
+            throw new JeppettoException("Asynchronous operations require the DAO's 'db' to be an AmazonDynamoDBAsync.");
+        }
+
+        return dynamoDBAsync;
+    }
+
+
+    private Future<Void> deleteItemAsync(Map<String, AttributeValue> key, DynamoDBCallback<Void> callback) {
+        AmazonDynamoDBAsync client = getAsyncClient();
+        DynamoDBFuture<Void> future = new DynamoDBFuture<>(callback);
+
+        future.addRequest(client.deleteItemAsync(new DeleteItemRequest(tableName, key),
+                                                 new DynamoDBFuture.Completion<DeleteItemRequest, DeleteItemResult, Void>(future) {
+            @Override
+            protected Void convert(DeleteItemResult result) {
+                return null;
+            }
+        }));
+
+        return future;
+    }
+
+
+    private static synchronized ScheduledExecutorService getRetryScheduler() {
+        if (retryScheduler == null) {
+            retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "jeppetto-dynamodb-retry");
+
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+        }
+
+        return retryScheduler;
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Classes
+    //-------------------------------------------------------------
+
+    /**
+     * Reads items by key with BatchGetItem requests issued through the async client.  Unprocessed keys are retried
+     * once their backoff elapses, and the future is completed with the items in key order once every request's keys
+     * have been processed.
+     */
+    private class AsyncBatchGet {
+        private final AmazonDynamoDBAsync client;
+        private final List<Map<String, AttributeValue>> keys;
+        private final DynamoDBFuture<List<T>> future;
+        private final KeysAndAttributes keysAndAttributes = dynamoDBQueryModelDAO.buildKeysAndAttributes();
+        private final Map<Map<String, AttributeValue>, Map<String, AttributeValue>> itemsByKey = new ConcurrentHashMap<>();
+        private final AtomicInteger pendingRequests = new AtomicInteger();
+
+
+        private AsyncBatchGet(AmazonDynamoDBAsync client, List<Map<String, AttributeValue>> keys, DynamoDBFuture<List<T>> future) {
+            this.client = client;
+            this.keys = keys;
+            this.future = future;
+        }
+
+
+        private void start() {
+            if (keys.isEmpty()) {
+                future.complete(new ArrayList<T>());
+
+                return;
+            }
+
+            pendingRequests.set((keys.size() + BatchGetIterable.MAX_KEYS_PER_REQUEST - 1) / BatchGetIterable.MAX_KEYS_PER_REQUEST);
+
+            for (int i = 0; i < keys.size(); i += BatchGetIterable.MAX_KEYS_PER_REQUEST) {
+                batchGet(keys.subList(i, Math.min(i + BatchGetIterable.MAX_KEYS_PER_REQUEST, keys.size())), new ExponentialBackoff());
+            }
+        }
+
+
+        private void batchGet(List<Map<String, AttributeValue>> requestKeys, final ExponentialBackoff backoff) {
+            if (future.isDone()) {
+                return;     // Another request failed, or the operation was cancelled
+            }
+
+            KeysAndAttributes requestKeysAndAttributes = new KeysAndAttributes().withKeys(requestKeys)
+                                                                                .withConsistentRead(keysAndAttributes.getConsistentRead())
+                                                                                .withProjectionExpression(keysAndAttributes.getProjectionExpression())
+                                                                                .withExpressionAttributeNames(keysAndAttributes.getExpressionAttributeNames());
+            BatchGetItemRequest batchGetItemRequest = new BatchGetItemRequest().withRequestItems(Collections.singletonMap(tableName, requestKeysAndAttributes));
+
+            try {
+                future.addRequest(client.batchGetItemAsync(batchGetItemRequest, new AsyncHandler<BatchGetItemRequest, BatchGetItemResult>() {
+                    @Override
+                    public void onSuccess(BatchGetItemRequest request, BatchGetItemResult result) {
+                        try {
+                            processResult(result, backoff);
+                        } catch (Exception e) {
+                            future.fail(e);
+                        }
+                    }
+
+
+                    @Override
+                    public void onError(Exception e) {
+                        future.fail(e);
+                    }
+                }));
+            } catch (RuntimeException e) {
+                future.fail(e);
+            }
+        }
+
+
+        private void processResult(BatchGetItemResult result, final ExponentialBackoff backoff) {
+            List<Map<String, AttributeValue>> responses = result.getResponses() == null ? null : result.getResponses().get(tableName);
+            KeysAndAttributes unprocessedKeys = result.getUnprocessedKeys() == null ? null : result.getUnprocessedKeys().get(tableName);
+
+            for (Map<String, AttributeValue> item : DynamoDBQueryModelDAO.nullToEmpty(responses)) {
+                itemsByKey.put(dynamoDBQueryModelDAO.getTableMetadata().getKeyFrom(item), item);
+            }
+
+            if (unprocessedKeys != null && unprocessedKeys.getKeys() != null && !unprocessedKeys.getKeys().isEmpty()) {
+                final List<Map<String, AttributeValue>> retryKeys = unprocessedKeys.getKeys();
+                long delayMillis = backoff.nextDelayMillis();
+
+                if (delayMillis < 0) {
+                    throw new JeppettoException(retryKeys.size() + " keys were not processed after " + backoff.getRetries() + " retries.");
+                }
+
+                getRetryScheduler().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        batchGet(retryKeys, backoff);
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS);
+            } else if (pendingRequests.decrementAndGet() == 0) {
+                List<T> objects = new ArrayList<>(itemsByKey.size());
+
+                for (Map<String, AttributeValue> key : keys) {
+                    Map<String, AttributeValue> item = itemsByKey.get(key);
+
+                    if (item != null) {
+                        objects.add(dynamoDBQueryModelDAO.getObjectFromItem(item));
+                    }
+                }
+
+                future.complete(objects);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+
+
+/**
+ * Receives the outcome of an asynchronous DynamoDBQueryModelDAO operation.  Callbacks are invoked on one of the async
+ * client's threads, so they should hand off, rather than perform, any blocking work.
+ */
+public interface DynamoDBCallback<V> {
+
+    /**
+     * @param result of the operation
+     */
+    void onSuccess(V result);
+
+
+    /**
+     * @param e describing the failure, e.g. an OptimisticLockException or NoSuchItemException
+     */
+    void onFailure(JeppettoException e);
+}
@@ -0,0 +1,439 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.Capacity;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Tracks, and optionally limits, the capacity consumed by a DAO's requests against its table.  The monitor wraps the
+ * DAO's AmazonDynamoDB client, asking DynamoDB to return the consumed capacity (ReturnConsumedCapacity = INDEXES) of
+ * every GetItem, PutItem, UpdateItem, DeleteItem, Query, Scan, BatchGetItem and BatchWriteItem request.
+ *
+ * The following DAO properties configure the monitor:
+ *
+ *   readCapacityLimit              - read capacity units per second for requests against the table
+ *   writeCapacityLimit             - write capacity units per second for requests against the table
+ *   readCapacityLimit.[indexName]  - read capacity units per second for queries of a global secondary index
+ *   writeCapacityLimit.[indexName] - write capacity units per second consumed by a global secondary index
+ *   capacityMetrics                - if "true", collect metrics even if no limits are configured
+ *
+ * Reads of local secondary indexes consume the table's capacity.  Since writes may consume capacity on any global
+ * secondary index, each write waits on the table's and all the indexes' write limiters.
+ *
+ * If the client is an AmazonDynamoDBAsync, requests issued with an AsyncHandler are measured too, and the capacity
+ * they consume counts against the limits.  They are never paced, though, since that would block the caller.
+ */
+public class DynamoDBCapacityMonitor {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final String READ_CAPACITY_LIMIT = "readCapacityLimit";
+    private static final String WRITE_CAPACITY_LIMIT = "writeCapacityLimit";
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final String tableName;
+    private final CapacityLimiter tableReadLimiter;
+    private final CapacityLimiter tableWriteLimiter;
+    private final Map<String, CapacityLimiter> indexReadLimiters = new HashMap<>();
+    private final Map<String, CapacityLimiter> indexWriteLimiters = new HashMap<>();
+    private final ConcurrentMap<String, CapacityMetrics> operationMetrics = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CapacityMetrics> resourceMetrics = new ConcurrentHashMap<>();
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    public DynamoDBCapacityMonitor(String tableName, Map<String, Object> daoProperties) {
+        this(tableName, daoProperties, CapacityLimiter.SYSTEM_TIME);
+    }
+
+
+    /**
+     * @param timeSource time source of the monitor's CapacityLimiters
+     */
+    public DynamoDBCapacityMonitor(String tableName, Map<String, Object> daoProperties, CapacityLimiter.TimeSource timeSource) {
+        this.tableName = tableName;
+        this.tableReadLimiter = getLimiter(daoProperties, READ_CAPACITY_LIMIT, timeSource);
+        this.tableWriteLimiter = getLimiter(daoProperties, WRITE_CAPACITY_LIMIT, timeSource);
+
+        for (String property : daoProperties.keySet()) {
+            if (property.startsWith(READ_CAPACITY_LIMIT + ".")) {
+                indexReadLimiters.put(property.substring(READ_CAPACITY_LIMIT.length() + 1), getLimiter(daoProperties, property, timeSource));
+            } else if (property.startsWith(WRITE_CAPACITY_LIMIT + ".")) {
+                indexWriteLimiters.put(property.substring(WRITE_CAPACITY_LIMIT.length() + 1), getLimiter(daoProperties, property, timeSource));
+            }
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public - Static
+    //-------------------------------------------------------------
+
+    /**
+     * @return true if the DAO properties ask for capacity limits or metrics
+     */
+    public static boolean isConfigured(Map<String, Object> daoProperties) {
+        if (Boolean.parseBoolean((String) daoProperties.get("capacityMetrics"))) {     // null okay - defaults to false
+            return true;
+        }
+
+        for (String property : daoProperties.keySet()) {
+            if (property.startsWith(READ_CAPACITY_LIMIT) || property.startsWith(WRITE_CAPACITY_LIMIT)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    /**
+     * @param dynamoDB client to monitor
+     *
+     * @return a client that delegates to the given one, pacing and measuring requests on the way
+     */
+    public AmazonDynamoDB monitor(final AmazonDynamoDB dynamoDB) {
+        Class<?> clientInterface = dynamoDB instanceof AmazonDynamoDBAsync ? AmazonDynamoDBAsync.class : AmazonDynamoDB.class;
+
+        return (AmazonDynamoDB) Proxy.newProxyInstance(clientInterface.getClassLoader(),
+                                                       new Class<?>[] { clientInterface },
+                                                       new MonitoringInvocationHandler(dynamoDB));
+    }
+
+
+    /**
+     * @return metrics keyed by operation (e.g. "Query", "BatchWriteItem")
+     */
+    public Map<String, CapacityMetrics> getOperationMetrics() {
+        return Collections.unmodifiableMap(operationMetrics);
+    }
+
+
+    /**
+     * @return consumed capacity keyed by the table name, or "[tableName]/[indexName]" for indexes
+     */
+    public Map<String, CapacityMetrics> getResourceMetrics() {
+        return Collections.unmodifiableMap(resourceMetrics);
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private long acquire(Object request) {
+        if (request instanceof QueryRequest) {
+            String indexName = ((QueryRequest) request).getIndexName();
+            CapacityLimiter limiter = indexName != null && indexReadLimiters.containsKey(indexName) ? indexReadLimiters.get(indexName)
+                                                                                                    : tableReadLimiter;
+
+            return limiter == null ? 0 : limiter.acquire();
+        } else if (request instanceof GetItemRequest || request instanceof ScanRequest || request instanceof BatchGetItemRequest) {
+            return tableReadLimiter == null ? 0 : tableReadLimiter.acquire();
+        } else {
+            long throttledMillis = tableWriteLimiter == null ? 0 : tableWriteLimiter.acquire();
+
+            for (CapacityLimiter limiter : indexWriteLimiters.values()) {
+                throttledMillis += limiter.acquire();
+            }
+
+            return throttledMillis;
+        }
+    }
+
+
+    private void consume(boolean read, ConsumedCapacity consumedCapacity, CapacityMetrics metrics) {
+        if (consumedCapacity == null || consumedCapacity.getCapacityUnits() == null
+            || !tableName.equals(consumedCapacity.getTableName())) {
+            return;
+        }
+
+        metrics.recordCapacityUnits(consumedCapacity.getCapacityUnits());
+
+        CapacityLimiter tableLimiter = read ? tableReadLimiter : tableWriteLimiter;
+        Map<String, CapacityLimiter> indexLimiters = read ? indexReadLimiters : indexWriteLimiters;
+
+        if (consumedCapacity.getTable() == null) {
+            // No per-index breakdown; attribute everything to the table.
+            consume(tableName, consumedCapacity.getCapacityUnits(), tableLimiter);
+
+            return;
+        }
+
+        consume(tableName, consumedCapacity.getTable().getCapacityUnits(), tableLimiter);
+
+        if (consumedCapacity.getLocalSecondaryIndexes() != null) {
+            for (Map.Entry<String, Capacity> entry : consumedCapacity.getLocalSecondaryIndexes().entrySet()) {
+                consume(tableName + "/" + entry.getKey(), entry.getValue().getCapacityUnits(), tableLimiter);
+            }
+        }
+
+        if (consumedCapacity.getGlobalSecondaryIndexes() != null) {
+            for (Map.Entry<String, Capacity> entry : consumedCapacity.getGlobalSecondaryIndexes().entrySet()) {
+                consume(tableName + "/" + entry.getKey(), entry.getValue().getCapacityUnits(), indexLimiters.get(entry.getKey()));
+            }
+        }
+    }
+
+
+    private void consume(String resource, Double capacityUnits, CapacityLimiter limiter) {
+        if (capacityUnits == null) {
+            return;
+        }
+
+        getMetrics(resourceMetrics, resource).recordCapacityUnits(capacityUnits);
+
+        if (limiter != null) {
+            limiter.consume(capacityUnits);
+        }
+    }
+
+
+    private static CapacityMetrics getMetrics(ConcurrentMap<String, CapacityMetrics> metricsMap, String key) {
+        CapacityMetrics metrics = metricsMap.get(key);
+
+        if (metrics == null) {
+            CapacityMetrics existing = metricsMap.putIfAbsent(key, metrics = new CapacityMetrics());
+
+            if (existing != null) {
+                metrics = existing;
+            }
+        }
+
+        return metrics;
+    }
+
+
+    private static CapacityLimiter getLimiter(Map<String, Object> daoProperties, String property,
+                                              CapacityLimiter.TimeSource timeSource) {
+        String limit = (String) daoProperties.get(property);
+
+        return limit == null ? null : new CapacityLimiter(Double.parseDouble(limit), timeSource);
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class - MonitoringInvocationHandler
+    //-------------------------------------------------------------
+
+    private class MonitoringInvocationHandler
+            implements InvocationHandler {
+
+        private final AmazonDynamoDB dynamoDB;
+
+
+        private MonitoringInvocationHandler(AmazonDynamoDB dynamoDB) {
+            this.dynamoDB = dynamoDB;
+        }
+
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            boolean async = method.getName().endsWith("Async");
+            Object request = args != null && args.length == (async ? 2 : 1) ? args[0] : null;
+            boolean read;
+
+            // Only the request-object forms of the data plane operations (and their async forms that accept an
+            // AsyncHandler) are monitored.
+            if (request instanceof GetItemRequest) {
+                ((GetItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+                read = true;
+            } else if (request instanceof QueryRequest) {
+                ((QueryRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+                read = true;
+            } else if (request instanceof ScanRequest) {
+                ((ScanRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+                read = true;
+            } else if (request instanceof BatchGetItemRequest) {
+                ((BatchGetItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+                read = true;
+            } else if (request instanceof PutItemRequest) {
+                ((PutItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+                read = false;
+            } else if (request instanceof UpdateItemRequest) {
+                ((UpdateItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+                read = false;
+            } else if (request instanceof DeleteItemRequest) {
+                ((DeleteItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+                read = false;
+            } else if (request instanceof BatchWriteItemRequest) {
+                ((BatchWriteItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES);
+                read = false;
+            } else {
+                return invokeDelegate(method, args);
+            }
+
+            String operation = request.getClass().getSimpleName().replace("Request", "");
+            CapacityMetrics metrics = getMetrics(operationMetrics, operation);
+
+            if (async) {
+                metrics.recordRequest(0);
+
+                //noinspection unchecked
+                args[1] = new MeasuringAsyncHandler(read, metrics, (AsyncHandler) args[1]);
+
+                return invokeDelegate(method, args);
+            }
+
+            metrics.recordRequest(acquire(request));
+
+            Object result = invokeDelegate(method, args);
+
+            consumeAll(read, result, metrics);
+
+            return result;
+        }
+
+
+        private Object invokeDelegate(Method method, Object[] args)
+                throws Throwable {
+            try {
+                return method.invoke(dynamoDB, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+
+        private void consumeAll(boolean read, Object result, CapacityMetrics metrics) {
+            for (ConsumedCapacity consumedCapacity : getConsumedCapacities(result)) {
+                consume(read, consumedCapacity, metrics);
+            }
+        }
+
+
+        private List<ConsumedCapacity> getConsumedCapacities(Object result) {
+            ConsumedCapacity consumedCapacity;
+
+            if (result instanceof GetItemResult) {
+                consumedCapacity = ((GetItemResult) result).getConsumedCapacity();
+            } else if (result instanceof QueryResult) {
+                consumedCapacity = ((QueryResult) result).getConsumedCapacity();
+            } else if (result instanceof ScanResult) {
+                consumedCapacity = ((ScanResult) result).getConsumedCapacity();
+            } else if (result instanceof PutItemResult) {
+                consumedCapacity = ((PutItemResult) result).getConsumedCapacity();
+            } else if (result instanceof UpdateItemResult) {
+                consumedCapacity = ((UpdateItemResult) result).getConsumedCapacity();
+            } else if (result instanceof DeleteItemResult) {
+                consumedCapacity = ((DeleteItemResult) result).getConsumedCapacity();
+            } else if (result instanceof BatchGetItemResult) {
+                return nullToEmpty(((BatchGetItemResult) result).getConsumedCapacity());
+            } else if (result instanceof BatchWriteItemResult) {
+                return nullToEmpty(((BatchWriteItemResult) result).getConsumedCapacity());
+            } else {
+                consumedCapacity = null;
+            }
+
+            return consumedCapacity == null ? Collections.<ConsumedCapacity>emptyList() : Collections.singletonList(consumedCapacity);
+        }
+
+
+        private List<ConsumedCapacity> nullToEmpty(List<ConsumedCapacity> consumedCapacities) {
+            return consumedCapacities == null ? Collections.<ConsumedCapacity>emptyList() : consumedCapacities;
+        }
+
+
+        //-------------------------------------------------------------
+        // Inner Class - MeasuringAsyncHandler
+        //-------------------------------------------------------------
+
+        /**
+         * Records the capacity consumed by an async request before passing its outcome to the caller's handler.
+         */
+        private class MeasuringAsyncHandler
+                implements AsyncHandler<AmazonWebServiceRequest, Object> {
+
+            private final boolean read;
+            private final CapacityMetrics metrics;
+            private final AsyncHandler<AmazonWebServiceRequest, Object> delegate;
+
+
+            private MeasuringAsyncHandler(boolean read, CapacityMetrics metrics, AsyncHandler<AmazonWebServiceRequest, Object> delegate) {
+                this.read = read;
+                this.metrics = metrics;
+                this.delegate = delegate;
+            }
+
+
+            @Override
+            public void onSuccess(AmazonWebServiceRequest request, Object result) {
+                consumeAll(read, result, metrics);
+
+                if (delegate != null) {
+                    delegate.onSuccess(request, result);
+                }
+            }
+
+
+            @Override
+            public void onError(Exception e) {
+                if (delegate != null) {
+                    delegate.onError(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.Map;
+
+
+/**
+ * A single change to an item in a table, as read from the table's DynamoDB Stream by a DynamoDBChangeFeed.
+ */
+public class DynamoDBChangeEvent<T> {
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final Type type;
+    private final Map<String, AttributeValue> key;
+    private final T newEntity;
+    private final T oldEntity;
+    private final String shardId;
+    private final String sequenceNumber;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    DynamoDBChangeEvent(Type type, Map<String, AttributeValue> key, T newEntity, T oldEntity, String shardId,
+                        String sequenceNumber) {
+        this.type = type;
+        this.key = key;
+        this.newEntity = newEntity;
+        this.oldEntity = oldEntity;
+        this.shardId = shardId;
+        this.sequenceNumber = sequenceNumber;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Getter/Setter
+    //-------------------------------------------------------------
+
+    public Type getType() {
+        return type;
+    }
+
+
+    /**
+     * @return the key attributes of the changed item, as stored in the table
+     */
+    public Map<String, AttributeValue> getKey() {
+        return key;
+    }
+
+
+    /**
+     * @return the object as of this change for inserts and modifications, or null for removals or if the stream
+     *         does not include new images
+     */
+    public T getNewEntity() {
+        return newEntity;
+    }
+
+
+    /**
+     * @return the object before this change for modifications and removals, or null for inserts or if the stream
+     *         does not include old images
+     */
+    public T getOldEntity() {
+        return oldEntity;
+    }
+
+
+    /**
+     * @return the stream shard this change was read from
+     */
+    public String getShardId() {
+        return shardId;
+    }
+
+
+    /**
+     * @return the sequence number of this change within its shard
+     */
+    public String getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+
+    //-------------------------------------------------------------
+    // Override - Object
+    //-------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return "DynamoDBChangeEvent{" +
+               "type=" + type +
+               ", key=" + key +
+               ", shardId=" + shardId +
+               ", sequenceNumber=" + sequenceNumber +
+               '}';
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Enum
+    //-------------------------------------------------------------
+
+    public enum Type {
+        Insert,
+        Modify,
+        Remove
+    }
+}
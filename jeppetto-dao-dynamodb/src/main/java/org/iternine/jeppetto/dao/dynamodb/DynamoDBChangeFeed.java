@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A feed of the inserts, modifications and removals made to a DynamoDB table, read from the table's DynamoDB Stream
+ * through a DynamoDBStreamSource.  Stream records are decoded into the DAO's enhanced objects and delivered to the
+ * registered DynamoDBChangeListeners.
+ *
+ * A coordinator thread lists the stream's shards and hands each readable shard to a pool of 'parallelism' threads.
+ * A shard is readable once the shard it was split from (if still in the stream) has been read to its end, so all
+ * changes to an item are delivered in order even across shard splits.  Shard threads read until they reach the
+ * end of the records currently in the shard, then return the shard to the coordinator, so more shards than threads
+ * are read in turn.
+ *
+ * The feed keeps a checkpoint per shard: the sequence number of the last event delivered to all listeners.  Callers
+ * wanting to resume after a restart should persist the checkpoints (typically every so many events) and pass them
+ * to the constructor.  Events after the persisted checkpoints are delivered again, so listeners should tolerate
+ * redelivery.
+ */
+public class DynamoDBChangeFeed<T> {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final long POLL_MILLIS = 1000;
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamoDBChangeFeed.class);
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final DynamoDBQueryModelDAO<T, ?> dynamoDBQueryModelDAO;
+    private final String tableName;
+    private final DynamoDBStreamSource streamSource;
+    private final int parallelism;
+    private final List<DynamoDBChangeListener<T>> listeners = new CopyOnWriteArrayList<>();
+    private final Map<String, String> checkpoints = new ConcurrentHashMap<>();
+    private final Map<String, String> shardIterators = new ConcurrentHashMap<>();
+    private final Set<String> finishedShards = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> activeShards = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<Thread> feedThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    private volatile boolean running;
+    private volatile Throwable failure;
+    private volatile Thread coordinatorThread;
+    private volatile ExecutorService shardExecutor;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    /**
+     * Creates a feed of the changes made to the DAO's table, read from the table's DynamoDB Stream.  The feed must be
+     * started once listeners have been added.
+     *
+     * @param dynamoDBQueryModelDAO DAO whose table's changes are read, and which decodes the stream's item images
+     * @param streamSource reads the table's stream (which should use the NEW_AND_OLD_IMAGES view type)
+     * @param startAfter per shard checkpoints (as returned by getCheckpoints()) to resume after, or null to read each
+     *                   shard from its oldest record
+     * @param parallelism maximum number of shards read concurrently
+     */
+    public DynamoDBChangeFeed(DynamoDBQueryModelDAO<T, ?> dynamoDBQueryModelDAO, DynamoDBStreamSource streamSource,
+                              Map<String, String> startAfter, int parallelism) {
+        this.dynamoDBQueryModelDAO = dynamoDBQueryModelDAO;
+        this.tableName = dynamoDBQueryModelDAO.getTableName();
+        this.streamSource = streamSource;
+        this.parallelism = Math.max(1, parallelism);
+
+        if (startAfter != null) {
+            checkpoints.putAll(startAfter);
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    public void addListener(DynamoDBChangeListener<T> listener) {
+        listeners.add(listener);
+    }
+
+
+    public void removeListener(DynamoDBChangeListener<T> listener) {
+        listeners.remove(listener);
+    }
+
+
+    /**
+     * Begins reading the stream.  Shards without a checkpoint are read from their oldest record (TRIM_HORIZON),
+     * others resume after their checkpoint.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+
+        running = true;
+        failure = null;
+
+        shardIterators.clear();     // Iterators expire; resume from the checkpoints
+
+        final String threadNamePrefix = "jeppetto-changes-" + tableName + "-";
+
+        shardExecutor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadNamePrefix + "shard-" + threadCount.incrementAndGet());
+
+                thread.setDaemon(true);
+                feedThreads.add(thread);
+
+                return thread;
+            }
+        });
+        coordinatorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                coordinate();
+            }
+        }, threadNamePrefix + "coordinator");
+
+        coordinatorThread.setDaemon(true);
+        feedThreads.add(coordinatorThread);
+        coordinatorThread.start();
+    }
+
+
+    /**
+     * Stops the feed.  Unless called from a listener, waits for in-progress deliveries to complete.  A stopped feed
+     * may be started again, resuming after its checkpoints.
+     */
+    public void stop() {
+        Thread coordinatorThreadToJoin;
+        ExecutorService shardExecutorToAwait;
+
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+
+            running = false;
+            coordinatorThreadToJoin = coordinatorThread;
+            shardExecutorToAwait = shardExecutor;
+        }
+
+        coordinatorThreadToJoin.interrupt();
+        shardExecutorToAwait.shutdown();
+
+        if (feedThreads.contains(Thread.currentThread())) {
+            return;     // Called from a listener; the feed's threads exit once it returns.
+        }
+
+        try {
+            coordinatorThreadToJoin.join();
+            shardExecutorToAwait.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        feedThreads.clear();
+    }
+
+
+    public boolean isRunning() {
+        return running;
+    }
+
+
+    /**
+     * @return for each shard that events have been delivered from, the sequence number of the last event delivered
+     *         to all listeners (including checkpoints the feed was created with)
+     */
+    public Map<String, String> getCheckpoints() {
+        return new HashMap<>(checkpoints);
+    }
+
+
+    /**
+     * @return the exception that stopped the feed, if a listener failed or a change could not be decoded; null
+     *         otherwise
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private void coordinate() {
+        while (running) {
+            try {
+                List<DynamoDBStreamSource.Shard> shards = streamSource.getShards();
+                Set<String> shardIds = new HashSet<>();
+
+                for (DynamoDBStreamSource.Shard shard : shards) {
+                    shardIds.add(shard.getShardId());
+                }
+
+                for (DynamoDBStreamSource.Shard shard : shards) {
+                    final String shardId = shard.getShardId();
+                    String parentShardId = shard.getParentShardId();
+
+                    if (finishedShards.contains(shardId)
+                        || (parentShardId != null && shardIds.contains(parentShardId) && !finishedShards.contains(parentShardId))
+                        || !activeShards.add(shardId)) {
+                        continue;
+                    }
+
+                    shardExecutor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                readShard(shardId);
+                            } finally {
+                                activeShards.remove(shardId);
+                            }
+                        }
+                    });
+                }
+
+                finishedShards.retainAll(shardIds);     // Forget shards that have been trimmed from the stream
+            } catch (RuntimeException e) {
+                logger.warn("Unable to list the stream shards of " + tableName + "; retrying.", e);
+            }
+
+            try {
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                return;     // Interrupted by stop()
+            }
+        }
+    }
+
+
+    private void readShard(String shardId) {
+        String shardIterator = shardIterators.remove(shardId);
+
+        while (running) {
+            DynamoDBStreamSource.Records records;
+
+            try {
+                if (shardIterator == null) {
+                    shardIterator = streamSource.getShardIterator(shardId, checkpoints.get(shardId));
+                }
+
+                records = streamSource.getRecords(shardIterator);
+            } catch (RuntimeException e) {
+                logger.warn("Unable to read shard " + shardId + " of " + tableName + "; retrying after " + checkpoints.get(shardId) + ".", e);
+
+                return;     // The next poll resumes from the checkpoint
+            }
+
+            for (DynamoDBStreamSource.Record record : records.getRecords()) {
+                if (!running) {
+                    return;     // Resume from the checkpoint, as this iterator has moved past undelivered records
+                }
+
+                try {
+                    DynamoDBChangeEvent<T> event = toEvent(shardId, record);
+
+                    for (DynamoDBChangeListener<T> listener : listeners) {
+                        listener.onChange(event);
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Change listener failed for " + tableName + "; stopping feed at " + checkpoints + ".", e);
+
+                    failure = e;
+
+                    stop();
+
+                    return;
+                }
+
+                checkpoints.put(shardId, record.getSequenceNumber());
+            }
+
+            shardIterator = records.getNextShardIterator();
+
+            if (shardIterator == null) {
+                finishedShards.add(shardId);
+
+                return;
+            }
+
+            if (records.getRecords().isEmpty()) {
+                shardIterators.put(shardId, shardIterator);     // Caught up; continue from here on the next poll
+
+                return;
+            }
+        }
+    }
+
+
+    private DynamoDBChangeEvent<T> toEvent(String shardId, DynamoDBStreamSource.Record record) {
+        DynamoDBChangeEvent.Type type;
+
+        if ("INSERT".equals(record.getEventName())) {
+            type = DynamoDBChangeEvent.Type.Insert;
+        } else if ("MODIFY".equals(record.getEventName())) {
+            type = DynamoDBChangeEvent.Type.Modify;
+        } else if ("REMOVE".equals(record.getEventName())) {
+            type = DynamoDBChangeEvent.Type.Remove;
+        } else {
+            throw new JeppettoException("Unknown stream event: " + record.getEventName());
+        }
+
+        return new DynamoDBChangeEvent<>(type, record.getKeys(), decode(record.getNewImage()), decode(record.getOldImage()),
+                                         shardId, record.getSequenceNumber());
+    }
+
+
+    private T decode(Map<String, AttributeValue> image) {
+        return image == null ? null : dynamoDBQueryModelDAO.getObjectFromItem(image);
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+/**
+ * Receives the changes delivered by a DynamoDBChangeFeed.  Changes read from the same stream shard -- which includes
+ * all changes to any one item -- are delivered sequentially, in stream order.  Changes from different shards are
+ * delivered concurrently, so listeners must be thread safe.
+ */
+public interface DynamoDBChangeListener<T> {
+
+    /**
+     * Called for each change.  A shard's checkpoint only advances past an event once all listeners have returned
+     * from this method; throwing an exception stops the feed without advancing past the event.
+     *
+     * @param event the change
+     */
+    void onChange(DynamoDBChangeEvent<T> event);
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import org.iternine.jeppetto.dao.Condition;
+import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.QueryModel;
+import org.iternine.jeppetto.dao.Sort;
+import org.iternine.jeppetto.dao.SortDirection;
+import org.iternine.jeppetto.dao.dynamodb.expression.ConditionExpressionBuilder;
+import org.iternine.jeppetto.dao.dynamodb.iterable.FanOutQueryIterable;
+import org.iternine.jeppetto.dao.dynamodb.iterable.QueryIterable;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Satisfies queries with a 'Within' condition on a hash key, or a condition on a sharded hash key, by querying each
+ * of the hash key values separately and merging the results.
+ */
+final class DynamoDBFanOutHelper<T> {
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final DynamoDBQueryModelDAO<T, ?> dynamoDBQueryModelDAO;
+    private final int prefetchDepth;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    DynamoDBFanOutHelper(DynamoDBQueryModelDAO<T, ?> dynamoDBQueryModelDAO, int prefetchDepth) {
+        this.dynamoDBQueryModelDAO = dynamoDBQueryModelDAO;
+        this.prefetchDepth = prefetchDepth;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Package
+    //-------------------------------------------------------------
+
+    /**
+     * Finds a 'Within' condition on one of the table's or indexes' hash keys, which can be satisfied with one query per
+     * value rather than a scan.
+     */
+    Condition getHashKeyWithinCondition(QueryModel queryModel) {
+        if (queryModel.getConditions() == null) {
+            return null;
+        }
+
+        for (Condition condition : queryModel.getConditions()) {
+            if (dynamoDBQueryModelDAO.getTableMetadata().indexes.containsKey(condition.getField())
+                && condition.getConstraint() instanceof DynamoDBConstraint
+                && ((DynamoDBConstraint) condition.getConstraint()).getOperator() == DynamoDBOperator.Within) {
+                return condition;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Queries each of the hash key values in the 'Within' condition separately.  The queries' first pages are fetched
+     * concurrently, and if a sort was requested the results are merged so they remain in sort order.  Without a sort,
+     * results are merged in ascending order of the mergeField, or if that is null returned in the order of the values.
+     */
+    Iterable<T> fanOutQueryItems(QueryModel queryModel, Condition hashKeyWithinCondition, String mergeField,
+                                 String projectionExpression, Map<String, String> projectionExpressionNames) {
+        DynamoDBTableMetadata<T> tableMetadata = dynamoDBQueryModelDAO.getTableMetadata();
+
+        Object values = ((DynamoDBConstraint) hashKeyWithinCondition.getConstraint()).getValues()[0];
+        Collection<Object> hashKeyValues = new LinkedHashSet<>();
+
+        if (values instanceof Collection) {
+            hashKeyValues.addAll((Collection<?>) values);
+        } else if (values != null && values.getClass().isArray()) {
+            for (int i = 0; i < Array.getLength(values); i++) {
+                hashKeyValues.add(Array.get(values, i));
+            }
+        } else {
+            throw new JeppettoException("'Within' condition requires a collection or array of values: " + values);
+        }
+
+        if (tableMetadata.hashKeySharding != null && hashKeyWithinCondition.getField().equals(tableMetadata.hashKeyField)) {
+            Collection<Object> logicalHashKeyValues = hashKeyValues;
+
+            hashKeyValues = new ArrayList<>(logicalHashKeyValues.size() * tableMetadata.hashKeySharding.getShardCount());
+
+            for (Object logicalHashKeyValue : logicalHashKeyValues) {
+                hashKeyValues.addAll(tableMetadata.hashKeySharding.getShardedHashKeyValues(logicalHashKeyValue));
+            }
+        }
+
+        List<QueryIterable<T>> partitions = new ArrayList<>(hashKeyValues.size());
+
+        for (Object hashKeyValue : hashKeyValues) {
+            QueryModel partitionQueryModel = new QueryModel();
+
+            for (Condition condition : queryModel.getConditions()) {
+                partitionQueryModel.addCondition(condition != hashKeyWithinCondition
+                                                 ? condition
+                                                 : new Condition(condition.getField(),
+                                                                 new DynamoDBConstraint(DynamoDBOperator.Equal, hashKeyValue)));
+            }
+
+            partitionQueryModel.setAssociationConditions(queryModel.getAssociationConditions());
+            partitionQueryModel.setSorts(queryModel.getSorts());
+            partitionQueryModel.setMaxResults(queryModel.getMaxResults());
+            partitionQueryModel.setFirstResult(queryModel.getFirstResult());
+            partitionQueryModel.setHints(queryModel.getHints());
+
+            @SuppressWarnings("unchecked")
+            QueryIterable<T> partition = (QueryIterable<T>) dynamoDBQueryModelDAO.queryItems(partitionQueryModel,
+                                                                                             tableMetadata.conditionExpressions.builderFor(partitionQueryModel),
+                                                                                             projectionExpression,
+                                                                                             projectionExpressionNames);
+
+            dynamoDBQueryModelDAO.configurePrefetch(partition, Math.max(1, prefetchDepth));   // Partitions' first pages are read concurrently
+
+            partitions.add(partition);
+        }
+
+        List<Sort> sorts = queryModel.getSorts();
+        Sort sort = sorts == null || sorts.isEmpty() ? null : sorts.get(0);
+        FanOutQueryIterable<T> fanOutQueryIterable = new FanOutQueryIterable<>(dynamoDBQueryModelDAO.getDynamoDB(),
+                                                                               tableMetadata.persistableEnhancer, partitions,
+                                                                               sort == null ? mergeField : sort.getField(),
+                                                                               sort == null || sort.getSortDirection() == SortDirection.Ascending);
+
+        if (queryModel.getMaxResults() > 0) {
+            fanOutQueryIterable.setPageSize(queryModel.getMaxResults());
+        }
+
+        fanOutQueryIterable.setHashKeySharding(tableMetadata.hashKeySharding);
+
+        return fanOutQueryIterable;
+    }
+
+
+    boolean isShardedHashKeyQuery(ConditionExpressionBuilder conditionExpressionBuilder) {
+        DynamoDBTableMetadata<T> tableMetadata = dynamoDBQueryModelDAO.getTableMetadata();
+
+        return tableMetadata.hashKeySharding != null && tableMetadata.hashKeyField.equals(conditionExpressionBuilder.getHashKey());
+    }
+
+
+    /**
+     * Queries each shard of the hash key value separately, merging the results in range key order.
+     */
+    Iterable<T> shardedQueryItems(QueryModel queryModel, ConditionExpressionBuilder conditionExpressionBuilder,
+                                  String projectionExpression, Map<String, String> projectionExpressionNames) {
+        DynamoDBTableMetadata<T> tableMetadata = dynamoDBQueryModelDAO.getTableMetadata();
+
+        QueryModel shardedQueryModel = new QueryModel();
+        Condition hashKeyWithinCondition = null;
+
+        for (Condition condition : queryModel.getConditions()) {
+            if (hashKeyWithinCondition == null && condition.getField().equals(tableMetadata.hashKeyField)) {
+                Object hashKeyValue = ((DynamoDBConstraint) condition.getConstraint()).getValues()[0];
+
+                hashKeyWithinCondition = new Condition(tableMetadata.hashKeyField, new DynamoDBConstraint(DynamoDBOperator.Within,
+                                                                                                          Collections.singletonList(hashKeyValue)));
+
+                shardedQueryModel.addCondition(hashKeyWithinCondition);
+            } else {
+                shardedQueryModel.addCondition(condition);
+            }
+        }
+
+        shardedQueryModel.setAssociationConditions(queryModel.getAssociationConditions());
+        shardedQueryModel.setSorts(queryModel.getSorts());
+        shardedQueryModel.setMaxResults(queryModel.getMaxResults());
+        shardedQueryModel.setFirstResult(queryModel.getFirstResult());
+        shardedQueryModel.setHints(queryModel.getHints());
+
+        String mergeField = conditionExpressionBuilder.getIndexRangeKey() != null ? conditionExpressionBuilder.getIndexRangeKey()
+                                                                                 : tableMetadata.rangeKeyField;
+
+        return fanOutQueryItems(shardedQueryModel, hashKeyWithinCondition, mergeField, projectionExpression, projectionExpressionNames);
+    }
+}
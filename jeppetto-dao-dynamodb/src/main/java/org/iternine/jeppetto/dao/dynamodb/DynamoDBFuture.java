@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * The result of an asynchronous DynamoDBQueryModelDAO operation, which may span several requests to the async client.
+ * The operation completes the future exactly once, at which point the (optional) DynamoDBCallback is notified.
+ * Failures are always reported as JeppettoExceptions, and get() wraps them in an ExecutionException.
+ *
+ * Cancelling the future cancels any of its requests that are still in flight.
+ */
+final class DynamoDBFuture<V>
+        implements Future<V> {
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final DynamoDBCallback<V> callback;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+    private volatile V result;
+    private volatile JeppettoException failure;
+    private volatile boolean cancelled;
+    private final Queue<Future<?>> requests = new ConcurrentLinkedQueue<>();
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamoDBFuture.class);
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    DynamoDBFuture(DynamoDBCallback<V> callback) {
+        this.callback = callback;
+    }
+
+
+    //-------------------------------------------------------------
+    // Implementation - Future
+    //-------------------------------------------------------------
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!completed.compareAndSet(false, true)) {
+            return false;
+        }
+
+        cancelled = true;
+
+        for (Future<?> request : requests) {
+            request.cancel(mayInterruptIfRunning);
+        }
+
+        done.countDown();
+
+        return true;
+    }
+
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+
+    @Override
+    public V get()
+            throws InterruptedException, ExecutionException {
+        done.await();
+
+        return report();
+    }
+
+
+    @Override
+    public V get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+
+        return report();
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Package
+    //-------------------------------------------------------------
+
+    /**
+     * @param request the async client's future for a request issued on behalf of this operation
+     */
+    void addRequest(Future<?> request) {
+        requests.add(request);
+
+        if (cancelled) {
+            request.cancel(true);
+        }
+    }
+
+
+    void complete(V value) {
+        if (!completed.compareAndSet(false, true)) {
+            return;
+        }
+
+        result = value;
+
+        done.countDown();
+
+        if (callback != null) {
+            try {
+                callback.onSuccess(value);
+            } catch (RuntimeException e) {
+                logger.error("DynamoDBCallback.onSuccess() failed", e);
+            }
+        }
+    }
+
+
+    void fail(Exception e) {
+        if (!completed.compareAndSet(false, true)) {
+            return;
+        }
+
+        failure = e instanceof JeppettoException ? (JeppettoException) e : new JeppettoException(e);
+
+        done.countDown();
+
+        if (callback != null) {
+            try {
+                callback.onFailure(failure);
+            } catch (RuntimeException callbackException) {
+                logger.error("DynamoDBCallback.onFailure() failed", callbackException);
+            }
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private V report()
+            throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+
+        return result;
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class - Completion
+    //-------------------------------------------------------------
+
+    /**
+     * Completes a DynamoDBFuture with the converted result of a single request.  Exceptions thrown by convert() fail
+     * the future, after being passed through translate().
+     */
+    abstract static class Completion<REQUEST extends AmazonWebServiceRequest, RESULT, V>
+            implements AsyncHandler<REQUEST, RESULT> {
+
+        private final DynamoDBFuture<V> future;
+
+
+        Completion(DynamoDBFuture<V> future) {
+            this.future = future;
+        }
+
+
+        protected abstract V convert(RESULT result);
+
+
+        protected Exception translate(Exception e) {
+            return e;
+        }
+
+
+        @Override
+        public void onSuccess(REQUEST request, RESULT result) {
+            V value;
+
+            try {
+                value = convert(result);
+            } catch (Exception e) {
+                future.fail(translate(e));
+
+                return;
+            }
+
+            future.complete(value);
+        }
+
+
+        @Override
+        public void onError(Exception e) {
+            future.fail(translate(e));
+        }
+    }
+}
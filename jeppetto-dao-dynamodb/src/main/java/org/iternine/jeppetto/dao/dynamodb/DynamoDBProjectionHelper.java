@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.Projection;
+import org.iternine.jeppetto.dao.ProjectionType;
+import org.iternine.jeppetto.dao.QueryModel;
+import org.iternine.jeppetto.dao.dynamodb.expression.ConditionExpressionBuilder;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.Select;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Computes projections (counts, sums, averages, minimums, maximums and distinct counts) over the items matching a
+ * query model.  Items are read with a projection expression of just the projected field, or only counted server-side,
+ * and are never converted into entity objects.
+ */
+final class DynamoDBProjectionHelper<T> {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamoDBProjectionHelper.class);
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final DynamoDBQueryModelDAO<T, ?> dynamoDBQueryModelDAO;
+    private final Class<T> entityClass;
+    private final String tableName;
+    private final boolean consistentRead;
+    private final boolean enableScans;
+    private final int requestParallelism;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    DynamoDBProjectionHelper(DynamoDBQueryModelDAO<T, ?> dynamoDBQueryModelDAO, Class<T> entityClass, String tableName,
+                             boolean consistentRead, boolean enableScans, int requestParallelism) {
+        this.dynamoDBQueryModelDAO = dynamoDBQueryModelDAO;
+        this.entityClass = entityClass;
+        this.tableName = tableName;
+        this.consistentRead = consistentRead;
+        this.enableScans = enableScans;
+        this.requestParallelism = requestParallelism;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Package
+    //-------------------------------------------------------------
+
+    Object projectUsingQueryModel(QueryModel queryModel) {
+        DynamoDBTableMetadata<T> tableMetadata = dynamoDBQueryModelDAO.getTableMetadata();
+
+        Projection projection = queryModel.getProjection();
+        ProjectionType projectionType = (ProjectionType) projection.getDetails();
+        ConditionExpressionBuilder conditionExpressionBuilder = tableMetadata.conditionExpressions.builderFor(queryModel);
+
+        if (projectionType != ProjectionType.RowCount) {
+            // Only items that have the projected field contribute to the result.
+            conditionExpressionBuilder.with(projection.getField(), new DynamoDBConstraint(DynamoDBOperator.IsNotNull));
+        }
+
+        if (projectionType == ProjectionType.RowCount || projectionType == ProjectionType.Count) {
+            // DynamoDB counts the matches server-side (Select.COUNT), so no items are returned to be counted here.
+            final AtomicLong count = new AtomicLong();
+
+            forEachMatchingPage(conditionExpressionBuilder, null, Collections.<String, String>emptyMap(), new PageCallback() {
+                @Override
+                public void process(int pageCount, List<Map<String, AttributeValue>> items) {
+                    count.addAndGet(pageCount);
+                }
+            });
+
+            return (int) count.get();
+        }
+
+        // Other projections only need the projected field, so items are read with a projection expression of just that
+        // field and the values are accumulated without creating entity objects.
+        final String[] fieldPath = projection.getField().split("\\.");
+        final ProjectionAccumulator accumulator = ProjectionAccumulator.forProjectionType(projectionType,
+                                                                                          getFieldType(fieldPath));
+        Map<String, String> fieldExpressionNames = new LinkedHashMap<>();
+        StringBuilder fieldExpression = new StringBuilder();
+
+        for (String fieldPart : fieldPath) {
+            String expressionAttributeName = "#p" + fieldExpressionNames.size();
+
+            fieldExpression.append(fieldExpression.length() == 0 ? "" : ".").append(expressionAttributeName);
+            fieldExpressionNames.put(expressionAttributeName, fieldPart);
+        }
+
+        forEachMatchingPage(conditionExpressionBuilder, fieldExpression.toString(), fieldExpressionNames, new PageCallback() {
+            @Override
+            public void process(int pageCount, List<Map<String, AttributeValue>> items) {
+                synchronized (accumulator) {
+                    for (Map<String, AttributeValue> item : items) {
+                        AttributeValue attributeValue = getAttributeValue(item, fieldPath);
+
+                        if (attributeValue != null && !Boolean.TRUE.equals(attributeValue.getNULL())) {
+                            accumulator.accumulate(attributeValue);
+                        }
+                    }
+                }
+            }
+        });
+
+        return accumulator.getResult();
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    /**
+     * Reads every page of items matching the conditions, handing each to the pageCallback.  When the conditions
+     * specify a hash key, the pages come from a query.  Otherwise, if scans are enabled, the table is scanned in
+     * 'requestParallelism' segments, in which case the pageCallback is invoked concurrently.  A null
+     * projectionExpression asks DynamoDB to only count the matching items.
+     */
+    private void forEachMatchingPage(ConditionExpressionBuilder conditionExpressionBuilder, String projectionExpression,
+                                     Map<String, String> projectionExpressionNames, final PageCallback pageCallback) {
+        DynamoDBTableMetadata<T> tableMetadata = dynamoDBQueryModelDAO.getTableMetadata();
+        final AmazonDynamoDB dynamoDB = dynamoDBQueryModelDAO.getDynamoDB();
+
+        if (conditionExpressionBuilder.hasHashKeyCondition()) {
+            List<Map<String, com.amazonaws.services.dynamodbv2.model.Condition>> keyConditionsList = new ArrayList<>();
+
+            if (dynamoDBQueryModelDAO.getFanOutHelper().isShardedHashKeyQuery(conditionExpressionBuilder)) {
+                Map<String, com.amazonaws.services.dynamodbv2.model.Condition> keyConditions = conditionExpressionBuilder.getKeyConditions();
+                String hashKeyValue = keyConditions.get(tableMetadata.hashKeyField).getAttributeValueList().get(0).getS();
+
+                for (Object shardedHashKeyValue : tableMetadata.hashKeySharding.getShardedHashKeyValues(hashKeyValue)) {
+                    Map<String, com.amazonaws.services.dynamodbv2.model.Condition> shardKeyConditions = new HashMap<>(keyConditions);
+
+                    shardKeyConditions.put(tableMetadata.hashKeyField,
+                                           new DynamoDBConstraint(DynamoDBOperator.Equal, shardedHashKeyValue).asCondition());
+                    keyConditionsList.add(shardKeyConditions);
+                }
+            } else {
+                keyConditionsList.add(conditionExpressionBuilder.getKeyConditions());
+            }
+
+            for (Map<String, com.amazonaws.services.dynamodbv2.model.Condition> keyConditions : keyConditionsList) {
+                QueryRequest queryRequest = new QueryRequest(tableName);
+
+                queryRequest.setKeyConditions(keyConditions);
+                queryRequest.setConsistentRead(consistentRead);
+
+                dynamoDBQueryModelDAO.applyIndex(conditionExpressionBuilder, queryRequest, null);
+                dynamoDBQueryModelDAO.applyExpressions(conditionExpressionBuilder, queryRequest, projectionExpression, projectionExpressionNames);
+
+                if (projectionExpression == null) {
+                    queryRequest.setSelect(Select.COUNT);
+                }
+
+                try {
+                    do {
+                        QueryResult queryResult = dynamoDB.query(queryRequest);
+
+                        pageCallback.process(queryResult.getCount(), DynamoDBQueryModelDAO.nullToEmpty(queryResult.getItems()));
+
+                        queryRequest.setExclusiveStartKey(queryResult.getLastEvaluatedKey());
+                    } while (queryRequest.getExclusiveStartKey() != null);
+                } catch (AmazonClientException e) {
+                    throw new JeppettoException(e);
+                }
+            }
+        } else if (enableScans) {
+            logger.info("Condition does not specify a hash key -- using 'scan' to search.");
+
+            conditionExpressionBuilder.convertRangeKeyConditionToExpression();
+
+            List<FutureTask<Void>> futures = new ArrayList<>(requestParallelism);
+
+            for (int segment = 0; segment < requestParallelism; segment++) {
+                final ScanRequest scanRequest = dynamoDBQueryModelDAO.buildScanRequest(new QueryModel(), conditionExpressionBuilder,
+                                                                                       projectionExpression, projectionExpressionNames);
+
+                if (projectionExpression == null) {
+                    scanRequest.setSelect(Select.COUNT);
+                }
+
+                if (requestParallelism > 1) {
+                    scanRequest.setSegment(segment);
+                    scanRequest.setTotalSegments(requestParallelism);
+                }
+
+                Runnable scanner = new Runnable() {
+                    @Override
+                    public void run() {
+                        do {
+                            ScanResult scanResult = dynamoDB.scan(scanRequest);
+
+                            pageCallback.process(scanResult.getCount(), DynamoDBQueryModelDAO.nullToEmpty(scanResult.getItems()));
+
+                            scanRequest.setExclusiveStartKey(scanResult.getLastEvaluatedKey());
+                        } while (scanRequest.getExclusiveStartKey() != null);
+                    }
+                };
+
+                if (requestParallelism > 1) {
+                    futures.add(dynamoDBQueryModelDAO.submit(scanner));
+                } else {
+                    runScanner(scanner);
+                }
+            }
+
+            try {
+                DynamoDBQueryModelDAO.await(futures);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof JeppettoException ? (JeppettoException) e.getCause()
+                                                                : new JeppettoException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new JeppettoException(e);
+            } finally {
+                for (FutureTask<Void> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        } else {
+            throw new JeppettoException("Projection cannot be satisfied without a scan and scans have not been enabled."
+                                        + "  Configure this DAO with 'enableScans' = true to allow this.");
+        }
+    }
+
+
+    private void runScanner(Runnable scanner) {
+        try {
+            scanner.run();
+        } catch (AmazonClientException e) {
+            throw new JeppettoException(e);
+        }
+    }
+
+
+    private static AttributeValue getAttributeValue(Map<String, AttributeValue> item, String[] fieldPath) {
+        AttributeValue attributeValue = item.get(fieldPath[0]);
+
+        for (int i = 1; i < fieldPath.length && attributeValue != null; i++) {
+            attributeValue = attributeValue.getM() == null ? null : attributeValue.getM().get(fieldPath[i]);
+        }
+
+        return attributeValue;
+    }
+
+
+    /**
+     * Determines the type of the (possibly nested) field from the entity's getters, or null if it can't be determined.
+     */
+    private Class<?> getFieldType(String[] fieldPath) {
+        Class<?> type = entityClass;
+
+        for (String fieldPart : fieldPath) {
+            String suffix = Character.toUpperCase(fieldPart.charAt(0)) + fieldPart.substring(1);
+            Method getter = null;
+
+            for (String prefix : new String[] { "get", "is" }) {
+                try {
+                    getter = type.getMethod(prefix + suffix);
+
+                    break;
+                } catch (NoSuchMethodException ignore) {
+                    // Try the next prefix
+                }
+            }
+
+            if (getter == null) {
+                return null;
+            }
+
+            type = getter.getReturnType();
+        }
+
+        return type;
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Classes
+    //-------------------------------------------------------------
+
+    private interface PageCallback {
+
+        /**
+         * @param pageCount number of matching items in the page
+         * @param items items in the page; empty when only counting
+         */
+        void process(int pageCount, List<Map<String, AttributeValue>> items);
+    }
+}
@@ -24,7 +24,6 @@ import org.iternine.jeppetto.dao.FailedBatchException;
 import org.iternine.jeppetto.dao.JeppettoException;
 import org.iternine.jeppetto.dao.NoSuchItemException;
 import org.iternine.jeppetto.dao.OptimisticLockException;
-import org.iternine.jeppetto.dao.Pair;
 import org.iternine.jeppetto.dao.Projection;
 import org.iternine.jeppetto.dao.ProjectionType;
 import org.iternine.jeppetto.dao.QueryModel;
@@ -35,49 +34,60 @@ import org.iternine.jeppetto.dao.TooManyItemsException;
 import org.iternine.jeppetto.dao.UpdateBehaviorDescriptor;
 import org.iternine.jeppetto.dao.ResultFromUpdate;
 import org.iternine.jeppetto.dao.dynamodb.expression.ConditionExpressionBuilder;
-import org.iternine.jeppetto.dao.dynamodb.expression.ProjectionExpressionBuilder;
 import org.iternine.jeppetto.dao.dynamodb.expression.UpdateExpressionBuilder;
+import org.iternine.jeppetto.dao.dynamodb.iterable.BackFetchQueryIterable;
 import org.iternine.jeppetto.dao.dynamodb.iterable.BatchGetIterable;
 import org.iternine.jeppetto.dao.dynamodb.iterable.DynamoDBIterable;
+import org.iternine.jeppetto.dao.dynamodb.iterable.DynamoDBPage;
+import org.iternine.jeppetto.dao.dynamodb.iterable.DynamoDBParallelScan;
 import org.iternine.jeppetto.dao.dynamodb.iterable.QueryIterable;
 import org.iternine.jeppetto.dao.dynamodb.iterable.ScanIterable;
 import org.iternine.jeppetto.dao.id.IdGenerator;
 import org.iternine.jeppetto.dao.updateobject.UpdateObject;
-import org.iternine.jeppetto.enhance.Enhancer;
 
 import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceRequest;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
-import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
 import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
 import com.amazonaws.services.dynamodbv2.model.GetItemResult;
-import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
-import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
-import com.amazonaws.services.dynamodbv2.model.KeyType;
 import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
-import com.amazonaws.services.dynamodbv2.model.LocalSecondaryIndexDescription;
 import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
 import com.amazonaws.services.dynamodbv2.model.QueryRequest;
 import com.amazonaws.services.dynamodbv2.model.ReturnValue;
 import com.amazonaws.services.dynamodbv2.model.ScanRequest;
-import com.amazonaws.services.dynamodbv2.model.TableDescription;
 import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
 
 import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -87,12 +97,23 @@ import java.util.Map;
  * @param <ID> ID type of the persistent class.
  */
 public class DynamoDBQueryModelDAO<T, ID>
-        implements QueryModelDAO<T, ID> {
+        implements QueryModelDAO<T, ID>, Closeable {
 
     //-------------------------------------------------------------
     // Constants
     //-------------------------------------------------------------
 
+    /**
+     * Name of the hint that selects the index used to satisfy a @DataAccessMethod's conditions, overriding the cost
+     * based choice (e.g. {@code @Hint(name = "index", value = "gsiHashKey-gsiRangeKey")}).  The value is the name of
+     * an index, or the name of the table to use the table's own key.
+     */
+    public static final String INDEX_HINT = "index";
+
+    private static final int BATCH_WRITE_LIMIT = 25;
+    private static final int DEFAULT_EXECUTOR_THREADS = 16;
+    private static final long EXECUTOR_KEEP_ALIVE_SECONDS = 60;
+
     private static final Logger logger = LoggerFactory.getLogger(DynamoDBQueryModelDAO.class);
 
 
@@ -107,16 +128,21 @@ public class DynamoDBQueryModelDAO<T, ID>
     private final boolean consistentRead;
     private final String optimisticLockField;
     private final boolean enableScans;
-
-    private final String hashKeyField;
-    private final String rangeKeyField;
-    private final String projectionExpression;
-    private final Map<String, String> projectionExpressionNames;
-    private final Map<String, Map<String, IndexData>> indexes;
-    private final Map<String, Map<String, IndexData>> baseIndexOnly;
-    private final Enhancer<T> persistableEnhancer;
-    private final Enhancer<? extends T> updateObjectEnhancer;
-    private final String uniqueIdConditionExpression;
+    private final int requestParallelism;
+    private final int writeParallelism;
+    private final int prefetchDepth;
+    private final boolean indexBackFetch;
+    private final DynamoDBCapacityMonitor capacityMonitor;
+    private final boolean ownsExecutorService;
+    private final int executorThreads;
+    private ExecutorService executorService;
+    private boolean closed;
+
+    private Map<String, Object> daoProperties;        // Released once the table metadata has been created
+    private volatile DynamoDBTableMetadata<T> tableMetadata;
+    private final DynamoDBFanOutHelper<T> fanOutHelper;
+    private final DynamoDBProjectionHelper<T> projectionHelper;
+    private final DynamoDBAsyncHelper<T, ID> asyncHelper;
 
 
     //-------------------------------------------------------------
@@ -132,65 +158,39 @@ public class DynamoDBQueryModelDAO<T, ID>
     protected DynamoDBQueryModelDAO(Class<T> entityClass, Map<String, Object> daoProperties,
                                     AccessControlContextProvider accessControlContextProvider) {
         this.entityClass = entityClass;
-        this.dynamoDB = (AmazonDynamoDB) daoProperties.get("db");
         this.tableName = daoProperties.containsKey("tableName") ? (String) daoProperties.get("tableName") : entityClass.getSimpleName();
-        this.idGenerator = (IdGenerator<ID>) daoProperties.get("idGenerator");
-        this.consistentRead = Boolean.parseBoolean((String) daoProperties.get("consistentRead"));   // null okay - defaults to false
-        this.optimisticLockField = (String) daoProperties.get("optimisticLockField");
-        this.enableScans = Boolean.parseBoolean((String) daoProperties.get("enableScans"));             // null okay - defaults to false
-
-        TableDescription tableDescription = dynamoDB.describeTable(tableName).getTable();
 
-        Pair<String, String> primaryKeyAttributeNames = getKeyAttributeNames(tableDescription.getKeySchema());
-        this.hashKeyField = primaryKeyAttributeNames.getFirst();
-        this.rangeKeyField = primaryKeyAttributeNames.getSecond();
-
-        ProjectionExpressionBuilder projectionExpressionBuilder;
-        if (Boolean.parseBoolean((String) daoProperties.get("projectionObject"))) {   // null okay - defaults to false
-            projectionExpressionBuilder = new ProjectionExpressionBuilder(entityClass, hashKeyField, rangeKeyField, optimisticLockField);
-            this.projectionExpression = projectionExpressionBuilder.getExpression();
-            this.projectionExpressionNames = projectionExpressionBuilder.getExpressionAttributeNames();
+        if (DynamoDBCapacityMonitor.isConfigured(daoProperties)) {
+            this.capacityMonitor = new DynamoDBCapacityMonitor(tableName, daoProperties);
+            this.dynamoDB = capacityMonitor.monitor((AmazonDynamoDB) daoProperties.get("db"));
         } else {
-            projectionExpressionBuilder = null;
-            this.projectionExpression = null;
-            this.projectionExpressionNames = Collections.emptyMap();
+            this.capacityMonitor = null;
+            this.dynamoDB = (AmazonDynamoDB) daoProperties.get("db");
         }
 
-        List<String> keyFields = rangeKeyField == null ? Collections.singletonList(hashKeyField) : Arrays.asList(hashKeyField, rangeKeyField);
-        IndexData baseIndexData = new IndexData(null, keyFields, true);
-        this.baseIndexOnly = Collections.singletonMap(hashKeyField, Collections.singletonMap(rangeKeyField, baseIndexData));
-        this.indexes = processIndexes(tableDescription, projectionExpressionBuilder, baseIndexData);
-        this.persistableEnhancer = EnhancerHelper.getPersistableEnhancer(entityClass);
-
-        String updateObjectClassName = (String) daoProperties.get("updateObject");
-        if (updateObjectClassName == null) {
-            this.updateObjectEnhancer = EnhancerHelper.getUpdateObjectEnhancer(entityClass);
-        } else {
-            try {
-                Class updateObjectClass = Class.forName(updateObjectClassName);
-
-                if (!entityClass.isAssignableFrom(updateObjectClass)) {
-                    throw new JeppettoException(String.format("Invalid UpdateObject type. %s does not subclass entity type %s",
-                                                              updateObjectClassName, entityClass.getName()));
-                }
-
-                this.updateObjectEnhancer = (Enhancer<? extends T>) EnhancerHelper.getUpdateObjectEnhancer(updateObjectClass);
-            } catch (ClassNotFoundException e) {
-                throw new JeppettoException(e);
-            }
-        }
-
-        if (Boolean.parseBoolean((String) daoProperties.get("verifyUniqueIds"))) {   // null okay - defaults to false
-            ConditionExpressionBuilder conditionExpressionBuilder
-                    = new ConditionExpressionBuilder().with(hashKeyField, new DynamoDBConstraint(DynamoDBOperator.IsNull));
-
-            if (rangeKeyField != null) {
-                conditionExpressionBuilder.with(rangeKeyField, new DynamoDBConstraint(DynamoDBOperator.IsNull));
-            }
-
-            this.uniqueIdConditionExpression = conditionExpressionBuilder.getExpression();    // No attribute values needed
-        } else {
-            this.uniqueIdConditionExpression = null;
+        this.idGenerator = (IdGenerator<ID>) daoProperties.get("idGenerator");
+        this.consistentRead = Boolean.parseBoolean((String) daoProperties.get("consistentRead"));   // null okay - defaults to false
+        this.optimisticLockField = (String) daoProperties.get("optimisticLockField");
+        this.enableScans = Boolean.parseBoolean((String) daoProperties.get("enableScans"));             // null okay - defaults to false
+        this.requestParallelism = daoProperties.containsKey("requestParallelism") ? Integer.parseInt((String) daoProperties.get("requestParallelism"))
+                                                                                  : 1;
+        this.writeParallelism = daoProperties.containsKey("writeParallelism") ? Integer.parseInt((String) daoProperties.get("writeParallelism"))
+                                                                              : requestParallelism;
+        this.prefetchDepth = daoProperties.containsKey("prefetchDepth") ? Integer.parseInt((String) daoProperties.get("prefetchDepth"))
+                                                                        : 0;
+        this.indexBackFetch = Boolean.parseBoolean((String) daoProperties.get("indexBackFetch"));       // null okay - defaults to false
+        this.executorService = (ExecutorService) daoProperties.get("executorService");   // null okay - created on first use
+        this.ownsExecutorService = executorService == null;
+        this.executorThreads = daoProperties.containsKey("executorThreads") ? Integer.parseInt((String) daoProperties.get("executorThreads"))
+                                                                            : Math.max(DEFAULT_EXECUTOR_THREADS, Math.max(requestParallelism, writeParallelism));
+        this.daoProperties = daoProperties;
+        this.fanOutHelper = new DynamoDBFanOutHelper<>(this, prefetchDepth);
+        this.projectionHelper = new DynamoDBProjectionHelper<>(this, entityClass, tableName, consistentRead, enableScans,
+                                                               requestParallelism);
+        this.asyncHelper = new DynamoDBAsyncHelper<>(this, entityClass, tableName, dynamoDB, enableScans);
+
+        if (!Boolean.parseBoolean((String) daoProperties.get("lazyInitialization"))) {   // null okay - defaults to false
+            getTableMetadata();
         }
     }
 
@@ -202,18 +202,27 @@ public class DynamoDBQueryModelDAO<T, ID>
     @Override
     public T findById(ID id)
             throws NoSuchItemException, JeppettoException {
-        GetItemResult result;
+        Map<String, AttributeValue> sessionKey = null;
 
-        try {
-            GetItemRequest getItemRequest = new GetItemRequest(tableName, getKeyFrom(id), consistentRead);
+        if (DynamoDBSession.isActive()) {
+            sessionKey = getKeyFrom(id);
 
-            getItemRequest.setProjectionExpression(projectionExpression);
+            if (DynamoDBSession.isTrackedForDelete(this, sessionKey)) {
+                throw new NoSuchItemException(entityClass.getSimpleName(), id.toString());
+            }
 
-            if (!projectionExpressionNames.isEmpty()) {
-                getItemRequest.setExpressionAttributeNames(projectionExpressionNames);
+            DynamoDBPersistable tracked = DynamoDBSession.getTracked(this, sessionKey);
+
+            if (tracked != null) {
+                //noinspection unchecked
+                return (T) tracked;
             }
+        }
+
+        GetItemResult result;
 
-            result = dynamoDB.getItem(getItemRequest);
+        try {
+            result = dynamoDB.getItem(buildGetItemRequest(id));
         } catch (AmazonClientException e) {
             throw new JeppettoException(e);
         }
@@ -222,9 +231,11 @@ public class DynamoDBQueryModelDAO<T, ID>
             throw new NoSuchItemException(entityClass.getSimpleName(), id.toString());
         }
 
-        T t = ConversionUtil.getObjectFromItem(result.getItem(), entityClass);
+        T t = getObjectFromItem(result.getItem());
 
-        ((DynamoDBPersistable) t).__markPersisted(dynamoDB.toString());
+        if (sessionKey != null) {
+            DynamoDBSession.track(this, sessionKey, (DynamoDBPersistable) t);
+        }
 
         return t;
     }
@@ -234,24 +245,21 @@ public class DynamoDBQueryModelDAO<T, ID>
     @Override
     public final Iterable<T> findByIds(ID... ids)
             throws JeppettoException {
-        Collection<Map<String, AttributeValue>> keys = new ArrayList<>();
+        DynamoDBTableMetadata<T> tableMetadata = getTableMetadata();
+
+        Set<Map<String, AttributeValue>> keys = new LinkedHashSet<>();    // BatchGetItem rejects duplicate keys
 
         for (ID id : ids) {
             keys.add(getKeyFrom(id));
         }
 
-        KeysAndAttributes keysAndAttributes = new KeysAndAttributes().withKeys(keys);
-
-        keysAndAttributes.setConsistentRead(consistentRead);
-        keysAndAttributes.setProjectionExpression(projectionExpression);
+        BatchGetIterable<T> batchGetIterable = new BatchGetIterable<>(dynamoDB, tableMetadata.persistableEnhancer, tableName, new ArrayList<>(keys),
+                                                                      buildKeysAndAttributes(), tableMetadata.keyFields,
+                                                                      requestParallelism > 1 ? getExecutorService() : null, requestParallelism);
 
-        if (!projectionExpressionNames.isEmpty()) {
-            keysAndAttributes.setExpressionAttributeNames(projectionExpressionNames);
-        }
+        batchGetIterable.setHashKeySharding(tableMetadata.hashKeySharding);
 
-        BatchGetItemRequest batchGetItemRequest = new BatchGetItemRequest().withRequestItems(Collections.singletonMap(tableName, keysAndAttributes));
-
-        return new BatchGetIterable<>(dynamoDB, persistableEnhancer, batchGetItemRequest, tableName);
+        return batchGetIterable;
     }
 
 
@@ -265,63 +273,41 @@ public class DynamoDBQueryModelDAO<T, ID>
     @Override
     public void save(T entity)
             throws OptimisticLockException, JeppettoException {
-        DynamoDBPersistable dynamoDBPersistable = (DynamoDBPersistable) persistableEnhancer.enhance(entity);
-
-        if (!dynamoDBPersistable.__isPersisted(dynamoDB.toString())) {
-            if (optimisticLockField != null) {
-                dynamoDBPersistable.__put(optimisticLockField, new AttributeValue().withN("0"));
-            }
-
-            saveItem(dynamoDBPersistable);
-        } else {
-            ConditionExpressionBuilder conditionExpressionBuilder;
-
-            if (optimisticLockField != null) {
-                AttributeValue attributeValue = (AttributeValue) dynamoDBPersistable.__get(optimisticLockField);
-                int optimisticLockVersion;
-
-                if (attributeValue != null) {
-                    optimisticLockVersion = Integer.parseInt(attributeValue.getN());
+        DynamoDBTableMetadata<T> tableMetadata = getTableMetadata();
 
-                    conditionExpressionBuilder = new ConditionExpressionBuilder();
+        DynamoDBPersistable dynamoDBPersistable = (DynamoDBPersistable) tableMetadata.persistableEnhancer.enhance(entity);
 
-                    conditionExpressionBuilder.with(optimisticLockField, new DynamoDBConstraint(DynamoDBOperator.Equal, optimisticLockVersion));
-                } else {
-                    optimisticLockVersion = -1;
+        if (DynamoDBSession.isActive()) {
+            generateIdIfNeeded(dynamoDBPersistable);    // The session identifies items by key
 
-                    conditionExpressionBuilder = null;
-                }
+            DynamoDBPersistable displaced = DynamoDBSession.trackForSave(this, tableMetadata.getKeyFrom(dynamoDBPersistable),
+                                                                         dynamoDBPersistable, dynamoDB.toString());
 
-                dynamoDBPersistable.__put(optimisticLockField, new AttributeValue().withN(Integer.toString(optimisticLockVersion + 1)));
-            } else {
-                conditionExpressionBuilder = null;
-            }
-
-            try {
-                UpdateExpressionBuilder updateExpressionBuilder = new UpdateExpressionBuilder(dynamoDBPersistable);
-
-                updateItem(getKeyFrom(dynamoDBPersistable), updateExpressionBuilder, conditionExpressionBuilder, ResultFromUpdate.ReturnNone);
-            } catch (JeppettoException e) {
-                if (optimisticLockField != null && e.getCause() instanceof ConditionalCheckFailedException) {
-                    throw new OptimisticLockException(e.getCause());
-                } else {
-                    throw e;
-                }
+            if (displaced != null) {
+                saveItem(displaced);
             }
+        } else {
+            saveItem(dynamoDBPersistable);
         }
-
-        dynamoDBPersistable.__markPersisted(dynamoDB.toString());
     }
 
 
     @Override
     public void delete(T entity)
             throws JeppettoException {
+        DynamoDBTableMetadata<T> tableMetadata = getTableMetadata();
+
         if (entity == null) {
             throw new JeppettoException("entity is null; nothing to delete.");
         }
 
-        deleteItem(getKeyFrom((DynamoDBPersistable) persistableEnhancer.enhance(entity)));
+        Map<String, AttributeValue> key = tableMetadata.getKeyFrom((DynamoDBPersistable) tableMetadata.persistableEnhancer.enhance(entity));
+
+        if (DynamoDBSession.isActive()) {
+            DynamoDBSession.trackForDelete(this, key);
+        } else {
+            deleteItem(key);
+        }
     }
 
 
@@ -332,7 +318,11 @@ public class DynamoDBQueryModelDAO<T, ID>
             throw new JeppettoException("id is null; unable to delete entity.");
         }
 
-        deleteItem(getKeyFrom(id));
+        if (DynamoDBSession.isActive()) {
+            DynamoDBSession.trackForDelete(this, getKeyFrom(id));
+        } else {
+            deleteItem(getKeyFrom(id));
+        }
     }
 
 
@@ -340,21 +330,34 @@ public class DynamoDBQueryModelDAO<T, ID>
     @Override
     public final void deleteByIds(ID... ids)
             throws FailedBatchException, JeppettoException {
-        List<ID> succeeded = new ArrayList<>();
-        Map<ID, Exception> failed = new LinkedHashMap<>();
+        Map<Map<String, AttributeValue>, ID> keysToIds = new LinkedHashMap<>();
 
         for (ID id : ids) {
-            try {
-                deleteItem(getKeyFrom(id));
+            keysToIds.put(getKeyFrom(id), id);      // Also removes duplicates, which BatchWriteItem rejects
+        }
 
-                succeeded.add(id);
-            } catch (Exception e) {
-                //noinspection ThrowableResultOfMethodCallIgnored
-                failed.put(id, e);
+        if (DynamoDBSession.isActive()) {
+            for (Map<String, AttributeValue> key : keysToIds.keySet()) {
+                DynamoDBSession.trackForDelete(this, key);
             }
+
+            return;
         }
 
-        if (failed.size() > 0) {
+        Map<Map<String, AttributeValue>, Exception> failedKeys = batchDeleteItems(keysToIds.keySet());
+
+        if (failedKeys.size() > 0) {
+            List<ID> succeeded = new ArrayList<>();
+            Map<ID, Exception> failed = new LinkedHashMap<>();
+
+            for (Map.Entry<Map<String, AttributeValue>, ID> entry : keysToIds.entrySet()) {
+                if (failedKeys.containsKey(entry.getKey())) {
+                    failed.put(entry.getValue(), failedKeys.get(entry.getKey()));
+                } else {
+                    succeeded.add(entry.getValue());
+                }
+            }
+
             throw new FailedBatchException("Unable to delete all items", succeeded, failed);
         }
     }
@@ -363,7 +366,7 @@ public class DynamoDBQueryModelDAO<T, ID>
     @Override
     public <U extends T> U getUpdateObject() {
         //noinspection unchecked
-        return (U) updateObjectEnhancer.newInstance();
+        return (U) getTableMetadata().updateObjectEnhancer.newInstance();
     }
 
 
@@ -388,21 +391,35 @@ public class DynamoDBQueryModelDAO<T, ID>
             succeeded = new ArrayList<T>();
         }
 
-        UpdateExpressionBuilder updateExpressionBuilder = new UpdateExpressionBuilder((UpdateObject) updateObject);
-        for (ID id : ids) {
-            try {
-                T t = updateItem(getKeyFrom(id), updateExpressionBuilder, null, resultFromUpdate);
-
-                if (resultFromUpdate == ResultFromUpdate.ReturnNone) {
-                    //noinspection unchecked
-                    ((List<ID>) succeeded).add(id);
-                } else {
-                    //noinspection unchecked
-                    ((List<T>) succeeded).add(t);
+        // The same update is applied to each item, so the requests are independent and may be issued concurrently.
+        // Outcomes are recorded by position so that results are reported in the order of the ids.
+        final ID[] updateIds = ids;
+        final UpdateExpressionBuilder updateExpressionBuilder = new UpdateExpressionBuilder((UpdateObject) updateObject);
+        final ResultFromUpdate finalResultFromUpdate = resultFromUpdate;
+        final Object[] results = new Object[ids.length];
+        final Exception[] exceptions = new Exception[ids.length];
+
+        runConcurrently(ids.length, new IndexedTask() {
+            @Override
+            public void run(int index) {
+                try {
+                    results[index] = updateItem(getKeyFrom(updateIds[index]), updateExpressionBuilder, null, finalResultFromUpdate);
+                } catch (Exception e) {
+                    exceptions[index] = e;
                 }
-            } catch (Exception e) {
+            }
+        });
+
+        for (int i = 0; i < ids.length; i++) {
+            if (exceptions[i] != null) {
                 //noinspection ThrowableResultOfMethodCallIgnored
-                failed.put(id, e);
+                failed.put(ids[i], exceptions[i]);
+            } else if (resultFromUpdate == ResultFromUpdate.ReturnNone) {
+                //noinspection unchecked
+                ((List<ID>) succeeded).add(ids[i]);
+            } else {
+                //noinspection unchecked
+                ((List<T>) succeeded).add((T) results[i]);
             }
         }
 
@@ -418,7 +435,9 @@ public class DynamoDBQueryModelDAO<T, ID>
     @Override
     public void flush()
             throws JeppettoException {
-        // Flush not required.
+        if (DynamoDBSession.isActive()) {
+            DynamoDBSession.flush(this);
+        }
     }
 
 
@@ -431,7 +450,7 @@ public class DynamoDBQueryModelDAO<T, ID>
             throws NoSuchItemException, TooManyItemsException, JeppettoException {
         DynamoDBIterable<T> dynamoDBIterable = (DynamoDBIterable<T>) findUsingQueryModel(queryModel);
 
-        dynamoDBIterable.setLimit(1);
+        dynamoDBIterable.setLimit(1);       // Reads at most two items, enough to detect a second match
 
         Iterator<T> results = dynamoDBIterable.iterator();
 
@@ -452,42 +471,43 @@ public class DynamoDBQueryModelDAO<T, ID>
     @Override
     public Iterable<T> findUsingQueryModel(QueryModel queryModel)
             throws JeppettoException {
-        ConditionExpressionBuilder conditionExpressionBuilder = new ConditionExpressionBuilder(queryModel, indexes);
-
-        if (conditionExpressionBuilder.hasHashKeyCondition()) {
-            return queryItems(queryModel, conditionExpressionBuilder);
-        } else if (enableScans) {
-            logger.info("Condition does not specify a hash key -- using 'scan' to search.");
+        DynamoDBTableMetadata<T> tableMetadata = getTableMetadata();
 
-            conditionExpressionBuilder.convertRangeKeyConditionToExpression();
-
-            return scanItems(queryModel, conditionExpressionBuilder);
-        } else {
-            throw new JeppettoException("Find cannot be satisfied without a scan and scans have not been enabled."
-                                        + "  Configure this DAO with 'enableScans' = true to allow this.");
-        }
+        return findUsingQueryModel(queryModel, tableMetadata.projectionExpression, tableMetadata.projectionExpressionNames);
     }
 
 
     @Override
     public Object projectUsingQueryModel(QueryModel queryModel)
             throws JeppettoException {
-        // TODO: handle count case.  not sure about other projections...
-
-        throw new UnsupportedOperationException("Projections on DynamoDB are not currently supported.");
+        return projectionHelper.projectUsingQueryModel(queryModel);
     }
 
 
     @Override
     public void deleteUsingQueryModel(QueryModel queryModel)
             throws JeppettoException {
-        Iterable<T> matches = findUsingQueryModel(queryModel);
+        DynamoDBTableMetadata<T> tableMetadata = getTableMetadata();
+
+        // Only the keys of the matching items are needed to delete them.  Since there isn't an easy way to convert the
+        // key of a match to an ID object, a FailedBatchException reports succeeded and failed items by their keys.
+        Iterable<T> matches = findUsingQueryModel(queryModel, tableMetadata.keyProjectionExpression, tableMetadata.keyProjectionExpressionNames);
+        List<Map<String, AttributeValue>> succeeded = new ArrayList<>();
+        Map<Map<String, AttributeValue>, Exception> failed = new LinkedHashMap<>();
+        Set<Map<String, AttributeValue>> pendingKeys = new LinkedHashSet<>();
 
-        // Would ideally catch individual exceptions and throw a FailedBatchException.  Unfortunately, we don't have an easy
-        // way to convert the key from a match to an ID object, which is what the exception's Map contains.  Maybe DynamoDB will
-        // add support for a query-based delete.
         for (T match : matches) {
-            delete(match);
+            pendingKeys.add(tableMetadata.getKeyFrom((DynamoDBPersistable) match));
+
+            if (pendingKeys.size() == BATCH_WRITE_LIMIT) {
+                deletePendingKeys(pendingKeys, succeeded, failed);
+            }
+        }
+
+        deletePendingKeys(pendingKeys, succeeded, failed);
+
+        if (failed.size() > 0) {
+            throw new FailedBatchException("Unable to delete all items", succeeded, failed);
         }
     }
 
@@ -497,7 +517,7 @@ public class DynamoDBQueryModelDAO<T, ID>
             throws JeppettoException {
         UpdateExpressionBuilder updateExpressionBuilder = new UpdateExpressionBuilder((UpdateObject) updateObject);
         // For referencing an object, we can only identify an item by its actual range key, not one of the index fields.
-        ConditionExpressionBuilder conditionExpressionBuilder = new ConditionExpressionBuilder(queryModel, baseIndexOnly);
+        ConditionExpressionBuilder conditionExpressionBuilder = getTableMetadata().baseIndexOnlyConditionExpressions.builderFor(queryModel);
         ResultFromUpdate resultFromUpdate = getResultFromUpdate(updateObject);
         Map<String, AttributeValue> key;
 
@@ -533,164 +553,606 @@ public class DynamoDBQueryModelDAO<T, ID>
 
     @Override
     public Projection buildProjection(String projectionField, ProjectionType projectionType, Iterator argsIterator) {
-        throw new UnsupportedOperationException("Projections on DynamoDB are not currently supported.");
+        return new Projection(projectionField, projectionType);
     }
 
 
     //-------------------------------------------------------------
-    // Methods - Private
+    // Implementation - Closeable
     //-------------------------------------------------------------
 
-    private Map<String, Map<String, IndexData>> processIndexes(TableDescription tableDescription,
-                                                               ProjectionExpressionBuilder projectionExpressionBuilder,
-                                                               IndexData baseIndexData) {
-        // Collect information about the local secondary indexes.  These will be included with the global indexes below.
-        Map<String, IndexData> localIndexes;
-        List<LocalSecondaryIndexDescription> localSecondaryIndexes = tableDescription.getLocalSecondaryIndexes();
-        if (localSecondaryIndexes != null) {
-            localIndexes = new HashMap<>(localSecondaryIndexes.size() + 2);
-
-            // We include these as local indexes to make findUsingQueryModel() code below simpler
-            localIndexes.put(rangeKeyField, baseIndexData);
-            localIndexes.put(null, baseIndexData);
-
-            for (LocalSecondaryIndexDescription description : localSecondaryIndexes) {
-                String indexField = getKeyAttributeNames(description.getKeySchema()).getSecond();
-                boolean projectsOverEntity = description.getProjection().getProjectionType().equals("ALL")
-                                             || projectionExpressionBuilder != null
-                                                && projectionExpressionBuilder.isCoveredBy(description.getProjection());
-
-                List<String> keyFields = new ArrayList<>(baseIndexData.keyFields);
-                keyFields.add(indexField);
-
-                localIndexes.put(indexField, new IndexData(description.getIndexName(), keyFields, projectsOverEntity));
-            }
-        } else if (rangeKeyField != null) {
-            localIndexes = new HashMap<>(2);
+    /**
+     * Shuts down the executor this DAO created for concurrent requests, letting requests already in flight complete.
+     * An executor supplied via the 'executorService' property is left running.  Operations that need the executor
+     * fail once the DAO has been closed.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
 
-            localIndexes.put(rangeKeyField, baseIndexData);
-            localIndexes.put(null, baseIndexData);
-        } else {
-            localIndexes = Collections.singletonMap(null, baseIndexData);
+        if (ownsExecutorService && executorService != null) {
+            executorService.shutdown();
         }
+    }
 
-        // Process the global secondary indexes.  When done, add the local index information.
-        List<GlobalSecondaryIndexDescription> globalSecondaryIndexes = tableDescription.getGlobalSecondaryIndexes();
-        if (globalSecondaryIndexes != null) {
-            Map<String, Map<String, IndexData>> indexes = new HashMap<>(globalSecondaryIndexes.size() + 1);
 
-            for (GlobalSecondaryIndexDescription description : globalSecondaryIndexes) {
-                Pair<String, String> indexFields = getKeyAttributeNames(description.getKeySchema());
-                boolean projectsOverEntity = description.getProjection().getProjectionType().equals("ALL")
-                                             || projectionExpressionBuilder != null
-                                                && projectionExpressionBuilder.isCoveredBy(description.getProjection());
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
 
-                List<String> keyFields = new ArrayList<>();
-                keyFields.add(indexFields.getFirst());
-                if (indexFields.getSecond() != null) {
-                    keyFields.add(indexFields.getSecond());
-                }
-                keyFields.add(hashKeyField);
-                if (rangeKeyField != null) {
-                    keyFields.add(rangeKeyField);
-                }
+    /**
+     * @return the monitor tracking the capacity consumed by this DAO's requests, or null if neither capacity limits
+     *         nor capacity metrics are configured (see DynamoDBCapacityMonitor)
+     */
+    public DynamoDBCapacityMonitor getCapacityMonitor() {
+        return capacityMonitor;
+    }
 
-                IndexData indexData = new IndexData(description.getIndexName(), keyFields, projectsOverEntity);
 
-                if (!indexes.containsKey(indexFields.getFirst())) {
-                    indexes.put(indexFields.getFirst(), new HashMap<String, IndexData>());
-                }
+    /**
+     * Creates a scan over all items in the table that is divided into segments and read in parallel.  See
+     * parallelScanUsingQueryModel() for details.
+     *
+     * @param totalSegments number of segments to divide the table into
+     * @param parallelism maximum number of segments read concurrently
+     *
+     * @return a parallel scan that may be iterated or processed per segment
+     */
+    public DynamoDBParallelScan<T> parallelScan(int totalSegments, int parallelism)
+            throws JeppettoException {
+        return parallelScanUsingQueryModel(new QueryModel(), totalSegments, parallelism);
+    }
 
-                indexes.get(indexFields.getFirst()).put(indexFields.getSecond(), indexData);
 
-                // In case a query doesn't specify a range key, we still want to select an index for this hash key.
-                // If one has already been selected, pick one that projects over this entity to avoid extra DB reads.
-                IndexData noRangeKeyIndexData = indexes.get(indexFields.getFirst()).get(null);
-                if (noRangeKeyIndexData == null || !noRangeKeyIndexData.projectsOverEntity) {
-                    indexes.get(indexFields.getFirst()).put(null, indexData);
-                }
+    /**
+     * Creates a scan over the items matching the queryModel that is divided into 'totalSegments' segments using
+     * DynamoDB's Segment and TotalSegments scan parameters.  Conditions are applied as filter expressions, so
+     * conditions on a hash key are not supported -- use findUsingQueryModel() for those.  Unlike
+     * findUsingQueryModel(), parallel scans are available whether or not 'enableScans' is set.  Sorts are not
+     * supported; a maximum result count is applied as the page size of each segment.
+     *
+     * @param queryModel conditions the scanned items must match
+     * @param totalSegments number of segments to divide the table into (1 - 1,000,000)
+     * @param parallelism maximum number of segments read concurrently
+     *
+     * @return a parallel scan that may be iterated or processed per segment
+     */
+    public DynamoDBParallelScan<T> parallelScanUsingQueryModel(QueryModel queryModel, int totalSegments, int parallelism)
+            throws JeppettoException {
+        DynamoDBTableMetadata<T> tableMetadata = getTableMetadata();
+
+        if (queryModel.getSorts() != null || queryModel.getProjection() != null) {
+            throw new JeppettoException("Parallel scans do not support sorts or projections.");
+        }
+
+        ConditionExpressionBuilder conditionExpressionBuilder = tableMetadata.conditionExpressions.builderFor(queryModel);
+
+        if (conditionExpressionBuilder.hasHashKeyCondition()) {
+            throw new JeppettoException("Conditions on a hash key are satisfied with a query; use findUsingQueryModel() instead.");
+        }
+
+        List<ScanIterable<T>> segments = new ArrayList<>(totalSegments);
+
+        for (int segment = 0; segment < totalSegments; segment++) {
+            ScanRequest scanRequest = buildScanRequest(queryModel, conditionExpressionBuilder, tableMetadata.projectionExpression,
+                                                       tableMetadata.projectionExpressionNames);
+
+            scanRequest.setSegment(segment);
+            scanRequest.setTotalSegments(totalSegments);
+
+            ScanIterable<T> scanIterable = new ScanIterable<>(dynamoDB, tableMetadata.persistableEnhancer, scanRequest, tableMetadata.keyFields);
+
+            configurePrefetch(scanIterable, prefetchDepth);
+            scanIterable.setHashKeySharding(tableMetadata.hashKeySharding);
+
+            segments.add(scanIterable);
+        }
+
+        return new DynamoDBParallelScan<>(segments, getExecutorService(), parallelism);
+    }
+
+
+    /**
+     * Asynchronous form of findById().  This and the other asynchronous methods require the DAO's 'db' to be an
+     * AmazonDynamoDBAsync; they build the same requests as their blocking counterparts, but issue them through the
+     * async client and return without waiting for a response.  Failures, including NoSuchItemException and
+     * OptimisticLockException, are reported to the callback and by the returned Future.
+     *
+     * @param id of the item to read
+     * @param callback to notify when the read completes, or null
+     *
+     * @return a Future for the item
+     */
+    public Future<T> findByIdAsync(final ID id, DynamoDBCallback<T> callback)
+            throws JeppettoException {
+        return asyncHelper.findByIdAsync(id, callback);
+    }
+
+
+    /**
+     * Asynchronous form of findByIds().  Requests for up to 100 keys each are issued together, and unprocessed keys
+     * are retried after a backoff that is scheduled rather than slept.
+     *
+     * @param ids of the items to read
+     * @param callback to notify when all reads complete, or null
+     *
+     * @return a Future for the items that exist, in the order of the ids
+     */
+    public Future<List<T>> findByIdsAsync(Collection<ID> ids, DynamoDBCallback<List<T>> callback)
+            throws JeppettoException {
+        return asyncHelper.findByIdsAsync(ids, callback);
+    }
+
+
+    /**
+     * Asynchronous form of save().
+     *
+     * @param entity to save
+     * @param callback to notify when the save completes, or null
+     *
+     * @return a Future that completes (with null) once the entity is saved
+     */
+    public Future<Void> saveAsync(T entity, DynamoDBCallback<Void> callback)
+            throws JeppettoException {
+        return asyncHelper.saveAsync(entity, callback);
+    }
+
+
+    /**
+     * Asynchronous form of delete().
+     *
+     * @param entity to delete
+     * @param callback to notify when the delete completes, or null
+     *
+     * @return a Future that completes (with null) once the item is deleted
+     */
+    public Future<Void> deleteAsync(T entity, DynamoDBCallback<Void> callback)
+            throws JeppettoException {
+        return asyncHelper.deleteAsync(entity, callback);
+    }
+
+
+    /**
+     * Asynchronous form of deleteById().
+     *
+     * @param id of the item to delete
+     * @param callback to notify when the delete completes, or null
+     *
+     * @return a Future that completes (with null) once the item is deleted
+     */
+    public Future<Void> deleteByIdAsync(ID id, DynamoDBCallback<Void> callback)
+            throws JeppettoException {
+        return asyncHelper.deleteByIdAsync(id, callback);
+    }
+
+
+    /**
+     * Asynchronous form of updateById().
+     *
+     * @param updateObject describing the changes to make
+     * @param id of the item to update
+     * @param callback to notify when the update completes, or null
+     *
+     * @return a Future for the item as requested by the updateObject's ResultFromUpdate, or null if none was requested
+     */
+    public <U extends T> Future<T> updateByIdAsync(U updateObject, ID id, DynamoDBCallback<T> callback)
+            throws JeppettoException {
+        return asyncHelper.updateByIdAsync(updateObject, id, callback);
+    }
+
+
+    /**
+     * Reads a single page of the items matching the queryModel with one Query (or, if 'enableScans' is set and the
+     * conditions don't specify a hash key, one Scan) request issued through the async client.  The queryModel's
+     * maximum result count is used as the page size.  'Within' conditions on hash keys and 'indexBackFetch' are not
+     * applied to pages; use findUsingQueryModel() for those.
+     *
+     * @param queryModel conditions and sort of the items to read
+     * @param position of the page to read, as returned by DynamoDBPage.getPosition() or DynamoDBIterable.getPosition(),
+     *                 or null to read the first page
+     * @param callback to notify when the page has been read, or null
+     *
+     * @return a Future for the page
+     */
+    public Future<DynamoDBPage<T>> findPageUsingQueryModelAsync(QueryModel queryModel, String position,
+                                                                DynamoDBCallback<DynamoDBPage<T>> callback)
+            throws JeppettoException {
+        return asyncHelper.findPageUsingQueryModelAsync(queryModel, position, callback);
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Package
+    //-------------------------------------------------------------
+
+    /**
+     * Returns the state derived from the table's description, creating it if needed.  Unless the "lazyInitialization"
+     * DAO property is "true" this happens during construction; otherwise it happens on first use, so that building
+     * many DAOs neither blocks on, nor is throttled by, DescribeTable calls.
+     */
+    DynamoDBTableMetadata<T> getTableMetadata() {
+        DynamoDBTableMetadata<T> tableMetadata = this.tableMetadata;
+
+        if (tableMetadata != null) {
+            return tableMetadata;
+        }
+
+        synchronized (this) {
+            if (this.tableMetadata == null) {
+                this.tableMetadata = new DynamoDBTableMetadata<>(entityClass, tableName, dynamoDB, optimisticLockField, daoProperties);
+                this.daoProperties = null;
             }
 
-            indexes.put(hashKeyField, localIndexes);
+            return this.tableMetadata;
+        }
+    }
+
+
+    DynamoDBFanOutHelper<T> getFanOutHelper() {
+        return fanOutHelper;
+    }
+
+
+    AmazonDynamoDB getDynamoDB() {
+        return dynamoDB;
+    }
+
+
+    String getTableName() {
+        return tableName;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private Iterable<T> findUsingQueryModel(QueryModel queryModel, String projectionExpression,
+                                            Map<String, String> projectionExpressionNames) {
+        ConditionExpressionBuilder conditionExpressionBuilder = getTableMetadata().conditionExpressions.builderFor(queryModel);
+
+        if (fanOutHelper.isShardedHashKeyQuery(conditionExpressionBuilder)) {
+            return fanOutHelper.shardedQueryItems(queryModel, conditionExpressionBuilder, projectionExpression, projectionExpressionNames);
+        } else if (conditionExpressionBuilder.hasHashKeyCondition()) {
+            return queryItems(queryModel, conditionExpressionBuilder, projectionExpression, projectionExpressionNames);
+        }
+
+        Condition hashKeyWithinCondition = fanOutHelper.getHashKeyWithinCondition(queryModel);
+
+        if (hashKeyWithinCondition != null) {
+            return fanOutHelper.fanOutQueryItems(queryModel, hashKeyWithinCondition, null, projectionExpression, projectionExpressionNames);
+        } else if (enableScans) {
+            logger.info("Condition does not specify a hash key -- using 'scan' to search.");
+
+            conditionExpressionBuilder.convertRangeKeyConditionToExpression();
 
-            return indexes;
+            return scanItems(queryModel, conditionExpressionBuilder, projectionExpression, projectionExpressionNames);
         } else {
-            return Collections.singletonMap(hashKeyField, localIndexes);
+            throw new JeppettoException("Find cannot be satisfied without a scan and scans have not been enabled."
+                                        + "  Configure this DAO with 'enableScans' = true to allow this.");
         }
     }
 
 
-    private void saveItem(DynamoDBPersistable dynamoDBPersistable) {
-        generateIdIfNeeded(dynamoDBPersistable);
+    /**
+     * Runs the task for each index in [0, taskCount), with up to 'writeParallelism' tasks in flight.  The calling
+     * thread runs tasks too.  Tasks are expected to record their own failures.
+     */
+    void runConcurrently(int taskCount, final IndexedTask indexedTask) {
+        int workerCount = Math.min(writeParallelism, taskCount);
+
+        if (workerCount <= 1) {
+            for (int i = 0; i < taskCount; i++) {
+                indexedTask.run(i);
+            }
+
+            return;
+        }
+
+        final AtomicInteger nextIndex = new AtomicInteger();
+        final int lastIndex = taskCount - 1;
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int index;
+
+                while ((index = nextIndex.getAndIncrement()) <= lastIndex) {
+                    indexedTask.run(index);
+                }
+            }
+        };
+        List<FutureTask<Void>> futures = new ArrayList<>(workerCount - 1);
 
         try {
-            PutItemRequest putItemRequest = new PutItemRequest().withTableName(tableName)
-                                                                .withItem(ConversionUtil.getItemFromObject(dynamoDBPersistable))
-                                                                .withConditionExpression(uniqueIdConditionExpression);
+            for (int i = 1; i < workerCount; i++) {
+                futures.add(submit(worker));
+            }
+
+            worker.run();
+            await(futures);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof JeppettoException ? (JeppettoException) e.getCause()
+                                                            : new JeppettoException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
 
-            dynamoDB.putItem(putItemRequest);
-        } catch (Exception e) {
             throw new JeppettoException(e);
+        } finally {
+            nextIndex.set(taskCount);       // Stop handing out tasks if we're leaving early
+
+            for (FutureTask<Void> future : futures) {
+                future.cancel(true);
+            }
         }
     }
 
 
-    private T updateItem(Map<String, AttributeValue> key, UpdateExpressionBuilder updateExpressionBuilder,
-                         ConditionExpressionBuilder conditionExpressionBuilder, ResultFromUpdate resultFromUpdate) {
-        try {
-            UpdateItemRequest updateItemRequest = new UpdateItemRequest().withTableName(tableName)
-                                                                         .withKey(key)
-                                                                         .withUpdateExpression(updateExpressionBuilder.getExpression());
+    static List<Map<String, AttributeValue>> nullToEmpty(List<Map<String, AttributeValue>> items) {
+        return items == null ? Collections.<Map<String, AttributeValue>>emptyList() : items;
+    }
 
-            Map<String, AttributeValue> expressionAttributeValues;
-            Map<String, String> expressionAttributeNames;
 
-            if (conditionExpressionBuilder == null) {
-                expressionAttributeValues = updateExpressionBuilder.getExpressionAttributeValues();
-                expressionAttributeNames = updateExpressionBuilder.getExpressionAttributeNames();
-            } else {
-                expressionAttributeValues = new LinkedHashMap<>();
-                expressionAttributeNames = new LinkedHashMap<>();
+    /**
+     * Returns the executor used to issue a single operation's requests concurrently.  Unless one is supplied via the
+     * 'executorService' property, this is a pool of at most 'executorThreads' daemon threads, shared by all of this
+     * DAO's operations; requests beyond that wait in the pool's queue.
+     */
+    private synchronized ExecutorService getExecutorService() {
+        if (closed) {
+            throw new JeppettoException("DAO for " + tableName + " has been closed.");
+        }
+
+        if (executorService == null) {
+            final String threadNamePrefix = "jeppetto-dynamodb-" + tableName + "-";
+            ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(executorThreads, executorThreads,
+                                                                           EXECUTOR_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                                                           new LinkedBlockingQueue<Runnable>(),
+                                                                           new ThreadFactory() {
+                private final AtomicInteger threadCount = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, threadNamePrefix + threadCount.incrementAndGet());
 
-                expressionAttributeValues.putAll(updateExpressionBuilder.getExpressionAttributeValues());
-                expressionAttributeNames.putAll(updateExpressionBuilder.getExpressionAttributeNames());
+                    thread.setDaemon(true);
 
-                expressionAttributeValues.putAll(conditionExpressionBuilder.getExpressionAttributeValues());
-                expressionAttributeNames.putAll(conditionExpressionBuilder.getExpressionAttributeNames());
+                    return thread;
+                }
+            });
+
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+
+            executorService = threadPoolExecutor;
+        }
+
+        return executorService;
+    }
+
+
+    /**
+     * Fetches pages ahead on this DAO's executor, so prefetching shares its thread bound.  Once the DAO has been
+     * closed, pages are fetched only when needed.
+     */
+    synchronized void configurePrefetch(DynamoDBIterable<T> iterable, int depth) {
+        iterable.setPrefetchDepth(depth);
 
-                updateItemRequest.setConditionExpression(conditionExpressionBuilder.getExpression());
+        if (depth > 0 && !closed) {
+            iterable.setPrefetchExecutor(getExecutorService());
+        }
+    }
+
+
+    /**
+     * Queues the task on the executor.  Callers wait for it with await(), which runs the task on the waiting thread
+     * if no pool thread has picked it up yet, so a saturated pool cannot leave the caller waiting on queued work.
+     */
+    FutureTask<Void> submit(Runnable runnable) {
+        FutureTask<Void> task = new FutureTask<>(runnable, null);
+
+        getExecutorService().execute(task);
+
+        return task;
+    }
+
+
+    static void await(List<FutureTask<Void>> tasks)
+            throws ExecutionException, InterruptedException {
+        for (FutureTask<Void> task : tasks) {
+            task.run();     // No-op if the task has already started
+            task.get();
+        }
+    }
+
+
+    void saveItem(DynamoDBPersistable dynamoDBPersistable) {
+        AmazonWebServiceRequest saveRequest = buildSaveRequest(dynamoDBPersistable);
+
+        try {
+            if (saveRequest instanceof PutItemRequest) {
+                dynamoDB.putItem((PutItemRequest) saveRequest);
+            } else {
+                dynamoDB.updateItem((UpdateItemRequest) saveRequest);
             }
+        } catch (Exception e) {
+            throw asSaveException(e, saveRequest);
+        }
+
+        dynamoDBPersistable.__markPersisted(dynamoDB.toString());
+    }
 
-            if (!expressionAttributeValues.isEmpty()) {
-                updateItemRequest.setExpressionAttributeValues(expressionAttributeValues);
+
+    GetItemRequest buildGetItemRequest(ID id) {
+        DynamoDBTableMetadata<T> tableMetadata = getTableMetadata();
+
+        GetItemRequest getItemRequest = new GetItemRequest(tableName, getKeyFrom(id), consistentRead);
+
+        getItemRequest.setProjectionExpression(tableMetadata.projectionExpression);
+
+        if (!tableMetadata.projectionExpressionNames.isEmpty()) {
+            getItemRequest.setExpressionAttributeNames(tableMetadata.projectionExpressionNames);
+        }
+
+        return getItemRequest;
+    }
+
+
+    KeysAndAttributes buildKeysAndAttributes() {
+        DynamoDBTableMetadata<T> tableMetadata = getTableMetadata();
+
+        KeysAndAttributes keysAndAttributes = new KeysAndAttributes();
+
+        keysAndAttributes.setConsistentRead(consistentRead);
+        keysAndAttributes.setProjectionExpression(tableMetadata.projectionExpression);
+
+        if (!tableMetadata.projectionExpressionNames.isEmpty()) {
+            keysAndAttributes.setExpressionAttributeNames(tableMetadata.projectionExpressionNames);
+        }
+
+        return keysAndAttributes;
+    }
+
+
+    /**
+     * Builds the request that saves the object: a PutItem if the object has not been persisted, otherwise an
+     * UpdateItem of its changed fields that is conditional on the optimistic lock version, if there is one.  The
+     * object's optimistic lock version is advanced as a side effect.
+     */
+    AmazonWebServiceRequest buildSaveRequest(DynamoDBPersistable dynamoDBPersistable) {
+        DynamoDBTableMetadata<T> tableMetadata = getTableMetadata();
+
+        if (!dynamoDBPersistable.__isPersisted(dynamoDB.toString())) {
+            if (optimisticLockField != null) {
+                dynamoDBPersistable.__put(optimisticLockField, new AttributeValue().withN("0"));
             }
 
-            if (!expressionAttributeNames.isEmpty()) {
-                updateItemRequest.setExpressionAttributeNames(expressionAttributeNames);
+            generateIdIfNeeded(dynamoDBPersistable);
+
+            Map<String, AttributeValue> item = ConversionUtil.getItemFromObject(dynamoDBPersistable);
+
+            if (tableMetadata.hashKeySharding != null) {
+                item = tableMetadata.hashKeySharding.toPhysical(item, tableMetadata.hashKeySharding.getShard(dynamoDBPersistable));
             }
 
-            if (resultFromUpdate != ResultFromUpdate.ReturnNone) {
-                updateItemRequest.setReturnValues(resultFromUpdate == ResultFromUpdate.ReturnPreUpdate ? ReturnValue.ALL_OLD
-                                                                                                       : ReturnValue.ALL_NEW);
+            return new PutItemRequest().withTableName(tableName)
+                                       .withItem(item)
+                                       .withConditionExpression(tableMetadata.uniqueIdConditionExpression);
+        }
 
-                UpdateItemResult result = dynamoDB.updateItem(updateItemRequest);
+        ConditionExpressionBuilder conditionExpressionBuilder;
 
-                T t = ConversionUtil.getObjectFromItem(result.getAttributes(), entityClass);
+        if (optimisticLockField != null) {
+            AttributeValue attributeValue = (AttributeValue) dynamoDBPersistable.__get(optimisticLockField);
+            int optimisticLockVersion;
 
-                ((DynamoDBPersistable) t).__markPersisted(dynamoDB.toString());
+            if (attributeValue != null) {
+                optimisticLockVersion = Integer.parseInt(attributeValue.getN());
 
-                return t;
+                conditionExpressionBuilder = new ConditionExpressionBuilder();
+
+                conditionExpressionBuilder.with(optimisticLockField, new DynamoDBConstraint(DynamoDBOperator.Equal, optimisticLockVersion));
             } else {
-                dynamoDB.updateItem(updateItemRequest);
+                optimisticLockVersion = -1;
 
-                return null;
+                conditionExpressionBuilder = null;
             }
+
+            dynamoDBPersistable.__put(optimisticLockField, new AttributeValue().withN(Integer.toString(optimisticLockVersion + 1)));
+        } else {
+            conditionExpressionBuilder = null;
+        }
+
+        return buildUpdateItemRequest(tableMetadata.getKeyFrom(dynamoDBPersistable),
+                                      new UpdateExpressionBuilder(dynamoDBPersistable, dynamoDB.toString()),
+                                      conditionExpressionBuilder, ResultFromUpdate.ReturnNone);
+    }
+
+
+    JeppettoException asSaveException(Exception e, AmazonWebServiceRequest saveRequest) {
+        if (optimisticLockField != null && saveRequest instanceof UpdateItemRequest && e instanceof ConditionalCheckFailedException) {
+            return new OptimisticLockException(e);
+        }
+
+        return e instanceof JeppettoException ? (JeppettoException) e : new JeppettoException(e);
+    }
+
+
+    private T updateItem(Map<String, AttributeValue> key, UpdateExpressionBuilder updateExpressionBuilder,
+                         ConditionExpressionBuilder conditionExpressionBuilder, ResultFromUpdate resultFromUpdate) {
+        try {
+            UpdateItemResult result = dynamoDB.updateItem(buildUpdateItemRequest(key, updateExpressionBuilder,
+                                                                                 conditionExpressionBuilder, resultFromUpdate));
+
+            return resultFromUpdate == ResultFromUpdate.ReturnNone ? null : getObjectFromItem(result.getAttributes());
         } catch (Exception e) {
             throw new JeppettoException(e);
         }
     }
 
 
+    UpdateItemRequest buildUpdateItemRequest(Map<String, AttributeValue> key, UpdateExpressionBuilder updateExpressionBuilder,
+                                             ConditionExpressionBuilder conditionExpressionBuilder,
+                                             ResultFromUpdate resultFromUpdate) {
+        UpdateItemRequest updateItemRequest = new UpdateItemRequest().withTableName(tableName)
+                                                                     .withKey(key)
+                                                                     .withUpdateExpression(updateExpressionBuilder.getExpression());
+
+        Map<String, AttributeValue> expressionAttributeValues;
+        Map<String, String> expressionAttributeNames;
+
+        if (conditionExpressionBuilder == null) {
+            expressionAttributeValues = updateExpressionBuilder.getExpressionAttributeValues();
+            expressionAttributeNames = updateExpressionBuilder.getExpressionAttributeNames();
+        } else {
+            expressionAttributeValues = new LinkedHashMap<>();
+            expressionAttributeNames = new LinkedHashMap<>();
+
+            expressionAttributeValues.putAll(updateExpressionBuilder.getExpressionAttributeValues());
+            expressionAttributeNames.putAll(updateExpressionBuilder.getExpressionAttributeNames());
+
+            expressionAttributeValues.putAll(conditionExpressionBuilder.getExpressionAttributeValues());
+            expressionAttributeNames.putAll(conditionExpressionBuilder.getExpressionAttributeNames());
+
+            updateItemRequest.setConditionExpression(conditionExpressionBuilder.getExpression());
+        }
+
+        if (!expressionAttributeValues.isEmpty()) {
+            updateItemRequest.setExpressionAttributeValues(expressionAttributeValues);
+        }
+
+        if (!expressionAttributeNames.isEmpty()) {
+            updateItemRequest.setExpressionAttributeNames(expressionAttributeNames);
+        }
+
+        if (resultFromUpdate != ResultFromUpdate.ReturnNone) {
+            updateItemRequest.setReturnValues(resultFromUpdate == ResultFromUpdate.ReturnPreUpdate ? ReturnValue.ALL_OLD
+                                                                                                   : ReturnValue.ALL_NEW);
+        }
+
+        return updateItemRequest;
+    }
+
+
+    List<T> getObjectsFromItems(List<Map<String, AttributeValue>> items) {
+        List<T> objects = new ArrayList<>(items == null ? 0 : items.size());
+
+        for (Map<String, AttributeValue> item : nullToEmpty(items)) {
+            objects.add(getObjectFromItem(item));
+        }
+
+        return objects;
+    }
+
+
+    T getObjectFromItem(Map<String, AttributeValue> item) {
+        HashKeySharding hashKeySharding = getTableMetadata().hashKeySharding;
+        T t = ConversionUtil.getObjectFromItem(hashKeySharding == null ? item : hashKeySharding.toLogical(item), entityClass);
+
+        ((DynamoDBPersistable) t).__markPersisted(dynamoDB.toString());
+
+        return t;
+    }
+
+
     private void deleteItem(Map<String, AttributeValue> key) {
         try {
             dynamoDB.deleteItem(new DeleteItemRequest(tableName, key));
@@ -700,7 +1162,161 @@ public class DynamoDBQueryModelDAO<T, ID>
     }
 
 
-    private Iterable<T> queryItems(QueryModel queryModel, ConditionExpressionBuilder conditionExpressionBuilder) {
+    private void deletePendingKeys(Set<Map<String, AttributeValue>> pendingKeys, List<Map<String, AttributeValue>> succeeded,
+                                   Map<Map<String, AttributeValue>, Exception> failed) {
+        if (pendingKeys.isEmpty()) {
+            return;
+        }
+
+        Map<Map<String, AttributeValue>, Exception> failedKeys = batchDeleteItems(pendingKeys);
+
+        for (Map<String, AttributeValue> key : pendingKeys) {
+            if (!failedKeys.containsKey(key)) {
+                succeeded.add(key);
+            }
+        }
+
+        failed.putAll(failedKeys);
+        pendingKeys.clear();
+    }
+
+
+    /**
+     * Deletes the items with the given (distinct) keys using BatchWriteItem requests of up to 25 keys each.
+     * Unprocessed items are retried with exponential backoff.
+     *
+     * @param keys keys of the items to delete
+     *
+     * @return the keys that could not be deleted, mapped to the reason why
+     */
+    private Map<Map<String, AttributeValue>, Exception> batchDeleteItems(Collection<Map<String, AttributeValue>> keys) {
+        List<WriteRequest> writeRequests = new ArrayList<>(keys.size());
+
+        for (Map<String, AttributeValue> key : keys) {
+            writeRequests.add(new WriteRequest(new DeleteRequest(key)));
+        }
+
+        return batchWriteItems(writeRequests);
+    }
+
+
+    /**
+     * Issues the write requests, each of which must be for a distinct item, using BatchWriteItem requests of up to 25
+     * items each.  Unprocessed items are retried with exponential backoff.
+     *
+     * @return the keys of the items that could not be written, mapped to the reason why
+     */
+    Map<Map<String, AttributeValue>, Exception> batchWriteItems(List<WriteRequest> writeRequests) {
+        final List<List<WriteRequest>> batches = new ArrayList<>();
+
+        for (int i = 0; i < writeRequests.size(); i += BATCH_WRITE_LIMIT) {
+            batches.add(writeRequests.subList(i, Math.min(i + BATCH_WRITE_LIMIT, writeRequests.size())));
+        }
+
+        // Each batch records its failures separately; they're combined in batch order once all have completed.
+        final List<Map<Map<String, AttributeValue>, Exception>> batchFailures = new ArrayList<>(batches.size());
+
+        for (int i = 0; i < batches.size(); i++) {
+            batchFailures.add(new LinkedHashMap<Map<String, AttributeValue>, Exception>());
+        }
+
+        runConcurrently(batches.size(), new IndexedTask() {
+            @Override
+            public void run(int index) {
+                batchWriteItems(batches.get(index), batchFailures.get(index));
+            }
+        });
+
+        Map<Map<String, AttributeValue>, Exception> failed = new LinkedHashMap<>();
+
+        for (Map<Map<String, AttributeValue>, Exception> batchFailure : batchFailures) {
+            failed.putAll(batchFailure);
+        }
+
+        return failed;
+    }
+
+
+    private void batchWriteItems(List<WriteRequest> writeRequests, Map<Map<String, AttributeValue>, Exception> failed) {
+        ExponentialBackoff backoff = new ExponentialBackoff();
+        List<WriteRequest> pending = writeRequests;
+
+        try {
+            while (true) {
+                BatchWriteItemResult result = dynamoDB.batchWriteItem(
+                        new BatchWriteItemRequest(Collections.singletonMap(tableName, pending)));
+                Map<String, List<WriteRequest>> unprocessedItems = result.getUnprocessedItems();
+
+                if (unprocessedItems == null || unprocessedItems.get(tableName) == null
+                    || unprocessedItems.get(tableName).isEmpty()) {
+                    return;
+                }
+
+                pending = unprocessedItems.get(tableName);
+
+                if (!backoff.pause()) {
+                    JeppettoException e = new JeppettoException("Item was not processed after " + backoff.getRetries()
+                                                                 + " retries.");
+
+                    for (WriteRequest writeRequest : pending) {
+                        failed.put(getKeyFrom(writeRequest), e);
+                    }
+
+                    return;
+                }
+            }
+        } catch (AmazonClientException e) {
+            for (WriteRequest writeRequest : pending) {
+                failed.put(getKeyFrom(writeRequest), e);
+            }
+        }
+    }
+
+
+    Iterable<T> queryItems(QueryModel queryModel, ConditionExpressionBuilder conditionExpressionBuilder,
+                           String projectionExpression, Map<String, String> projectionExpressionNames) {
+        DynamoDBTableMetadata<T> tableMetadata = getTableMetadata();
+
+        QueryRequest queryRequest = buildQueryRequest(queryModel, conditionExpressionBuilder);
+        IndexData indexData = applyIndex(conditionExpressionBuilder, queryRequest, queryModel.getSorts());
+        List<String> keyFields = indexData.keyFields;
+        QueryIterable<T> queryIterable;
+
+        if (indexBackFetch && !indexData.projectsOverEntity && !tableMetadata.keyProjectionExpression.equals(projectionExpression)) {
+            // Only read the keys from the index; the items themselves are read from the table.
+            applyExpressions(conditionExpressionBuilder, queryRequest, indexData.keyProjectionExpression,
+                             indexData.keyProjectionExpressionNames);
+
+            KeysAndAttributes keysAndAttributes = new KeysAndAttributes();
+
+            keysAndAttributes.setConsistentRead(consistentRead);
+            keysAndAttributes.setProjectionExpression(projectionExpression);
+
+            if (!projectionExpressionNames.isEmpty()) {
+                keysAndAttributes.setExpressionAttributeNames(projectionExpressionNames);
+            }
+
+            queryIterable = new BackFetchQueryIterable<>(dynamoDB, tableMetadata.persistableEnhancer, queryRequest, keyFields.get(0), keyFields,
+                                                         tableName, tableMetadata.keyFields, keysAndAttributes,
+                                                         requestParallelism > 1 ? getExecutorService() : null, requestParallelism);
+        } else {
+            applyExpressions(conditionExpressionBuilder, queryRequest, projectionExpression, projectionExpressionNames);
+
+            queryIterable = new QueryIterable<>(dynamoDB, tableMetadata.persistableEnhancer, queryRequest, keyFields.get(0), keyFields);
+        }
+
+        if (queryModel.getMaxResults() > 0) {
+            queryIterable.setPageSize(queryModel.getMaxResults());
+        }
+
+        configurePrefetch(queryIterable, prefetchDepth);
+        queryIterable.setHashKeySharding(tableMetadata.hashKeySharding);
+
+        return queryIterable;
+    }
+
+
+    QueryRequest buildQueryRequest(QueryModel queryModel, ConditionExpressionBuilder conditionExpressionBuilder) {
         QueryRequest queryRequest = new QueryRequest(tableName);
 
         queryRequest.setKeyConditions(conditionExpressionBuilder.getKeyConditions());
@@ -714,51 +1330,42 @@ public class DynamoDBQueryModelDAO<T, ID>
             queryRequest.setLimit(queryModel.getMaxResults());
         }
 
-        List<String> keyFields = applyIndexAndGetKeyFields(conditionExpressionBuilder, queryRequest, queryModel.getSorts());
-        applyExpressions(conditionExpressionBuilder, queryRequest);
-
-        return new QueryIterable<>(dynamoDB, persistableEnhancer, queryRequest, keyFields.get(0), keyFields);
+        return queryRequest;
     }
 
 
-    private List<String> applyIndexAndGetKeyFields(ConditionExpressionBuilder conditionExpressionBuilder,
-                                                   QueryRequest queryRequest, List<Sort> sorts) {
-        String hashKey = conditionExpressionBuilder.getHashKey();
-        String rangeKey = conditionExpressionBuilder.getRangeKey();
-        IndexData indexData;
+    IndexData applyIndex(ConditionExpressionBuilder conditionExpressionBuilder, QueryRequest queryRequest,
+                         List<Sort> sorts) {
+        // The index was chosen when the conditions were compiled (see ConditionExpressionTemplate.compile()).
+        IndexData indexData = conditionExpressionBuilder.getIndexData();
 
-        if (sorts == null || sorts.isEmpty()) {
-            indexData = indexes.get(hashKey).get(rangeKey);
-        } else if (sorts.size() == 1) {
+        if (sorts != null && sorts.size() == 1) {
             Sort sort = sorts.get(0);
             String sortKey = sort.getField();
 
-            // DynamoDB can only sort on the effective range key.  If a range key is specified, ensure the range key and
-            // sort key are the same.
-            if (rangeKey != null && !rangeKey.equals(sortKey)) {
+            // DynamoDB can only sort on the effective range key, so the chosen index must have the sort key as its range key.
+            if (!sortKey.equals(conditionExpressionBuilder.getIndexRangeKey())) {
                 throw new JeppettoException("DynamoDB can only sort on the effective range key. Unable to sort on: " + sortKey);
             }
 
             queryRequest.setScanIndexForward(sort.getSortDirection() == SortDirection.Ascending);
-
-            // Index is based off the sort key
-            indexData = indexes.get(hashKey).get(sortKey);
-        } else {
+        } else if (sorts != null && sorts.size() > 1) {
             throw new JeppettoException("DynamoDB only supports one sort value.");
         }
 
-        if (indexData.indexName != null && !indexData.projectsOverEntity) {
+        if (indexData.indexName != null && !indexData.projectsOverEntity && !indexBackFetch) {
             logger.warn("Query using index {} incurs additional costs to fully fetch a {} type. Use a projected object"
-                        + " DAO to avoid this overhead.", indexData.indexName, entityClass.getSimpleName());
+                        + " DAO or enable 'indexBackFetch' to avoid this overhead.", indexData.indexName, entityClass.getSimpleName());
         }
 
         queryRequest.setIndexName(indexData.indexName);
 
-        return indexData.keyFields;
+        return indexData;
     }
 
 
-    private void applyExpressions(ConditionExpressionBuilder conditionExpressionBuilder, QueryRequest queryRequest) {
+    void applyExpressions(ConditionExpressionBuilder conditionExpressionBuilder, QueryRequest queryRequest,
+                          String projectionExpression, Map<String, String> projectionExpressionNames) {
         Map<String, String> expressionAttributeNames;
 
         queryRequest.setProjectionExpression(projectionExpression);
@@ -770,7 +1377,7 @@ public class DynamoDBQueryModelDAO<T, ID>
                 queryRequest.setExpressionAttributeValues(conditionExpressionBuilder.getExpressionAttributeValues());
             }
 
-            expressionAttributeNames = getExpressionAttributeNames(conditionExpressionBuilder);
+            expressionAttributeNames = getExpressionAttributeNames(conditionExpressionBuilder, projectionExpressionNames);
         } else {
             expressionAttributeNames = projectionExpressionNames;
         }
@@ -781,19 +1388,39 @@ public class DynamoDBQueryModelDAO<T, ID>
     }
 
 
-    private Iterable<T> scanItems(QueryModel queryModel, ConditionExpressionBuilder conditionExpressionBuilder) {
-        ScanRequest scanRequest = new ScanRequest(tableName);
+    private Iterable<T> scanItems(QueryModel queryModel, ConditionExpressionBuilder conditionExpressionBuilder,
+                                  String projectionExpression, Map<String, String> projectionExpressionNames) {
+        DynamoDBTableMetadata<T> tableMetadata = getTableMetadata();
 
         if (queryModel.getFirstResult() > 0) {
             logger.warn("DynamoDB does not support skipping results.  Call setPosition() on DynamoDBIterable instead.");
         }
 
+        if (queryModel.getSorts() != null) {
+            logger.warn("Not able to sort when performing a 'scan' operation.  Ignoring... ");
+        }
+
+        ScanIterable<T> scanIterable = new ScanIterable<>(dynamoDB, tableMetadata.persistableEnhancer,
+                                                          buildScanRequest(queryModel, conditionExpressionBuilder, projectionExpression, projectionExpressionNames),
+                                                          tableMetadata.keyFields);
+
         if (queryModel.getMaxResults() > 0) {
-            scanRequest.setLimit(queryModel.getMaxResults());
+            scanIterable.setPageSize(queryModel.getMaxResults());
         }
 
-        if (queryModel.getSorts() != null) {
-            logger.warn("Not able to sort when performing a 'scan' operation.  Ignoring... ");
+        configurePrefetch(scanIterable, prefetchDepth);
+        scanIterable.setHashKeySharding(tableMetadata.hashKeySharding);
+
+        return scanIterable;
+    }
+
+
+    ScanRequest buildScanRequest(QueryModel queryModel, ConditionExpressionBuilder conditionExpressionBuilder,
+                                 String projectionExpression, Map<String, String> projectionExpressionNames) {
+        ScanRequest scanRequest = new ScanRequest(tableName);
+
+        if (queryModel.getMaxResults() > 0) {
+            scanRequest.setLimit(queryModel.getMaxResults());
         }
 
         Map<String, String> expressionAttributeNames;
@@ -807,7 +1434,7 @@ public class DynamoDBQueryModelDAO<T, ID>
                 scanRequest.setExpressionAttributeValues(conditionExpressionBuilder.getExpressionAttributeValues());
             }
 
-            expressionAttributeNames = getExpressionAttributeNames(conditionExpressionBuilder);
+            expressionAttributeNames = getExpressionAttributeNames(conditionExpressionBuilder, projectionExpressionNames);
         } else {
             expressionAttributeNames = projectionExpressionNames;
         }
@@ -816,13 +1443,12 @@ public class DynamoDBQueryModelDAO<T, ID>
             scanRequest.setExpressionAttributeNames(expressionAttributeNames);
         }
 
-        return new ScanIterable<>(dynamoDB, persistableEnhancer, scanRequest,
-                                  rangeKeyField == null ? Collections.singleton(hashKeyField)
-                                                        : Arrays.asList(hashKeyField, rangeKeyField));
+        return scanRequest;
     }
 
 
-    private Map<String, String> getExpressionAttributeNames(ConditionExpressionBuilder conditionExpressionBuilder) {
+    private Map<String, String> getExpressionAttributeNames(ConditionExpressionBuilder conditionExpressionBuilder,
+                                                            Map<String, String> projectionExpressionNames) {
         Map<String, String> expressionAttributeNames;
 
         if (projectionExpressionNames.isEmpty()) {
@@ -839,7 +1465,7 @@ public class DynamoDBQueryModelDAO<T, ID>
     }
 
 
-    private <U extends T> ResultFromUpdate getResultFromUpdate(U updateObject) {
+    <U extends T> ResultFromUpdate getResultFromUpdate(U updateObject) {
         if (UpdateBehaviorDescriptor.class.isAssignableFrom(updateObject.getClass())) {
             ResultFromUpdate resultFromUpdate = ((UpdateBehaviorDescriptor) updateObject).getResultFromUpdate();
 
@@ -851,8 +1477,10 @@ public class DynamoDBQueryModelDAO<T, ID>
 
 
     private void generateIdIfNeeded(DynamoDBPersistable dynamoDBPersistable) {
-        if (dynamoDBPersistable.__get(hashKeyField) != null
-         /* && rangeKeyField != null && dynamoDBPersistable.__get(rangeKeyField) != null */) {
+        DynamoDBTableMetadata<T> tableMetadata = getTableMetadata();
+
+        if (dynamoDBPersistable.__get(tableMetadata.hashKeyField) != null
+         /* && tableMetadata.rangeKeyField != null && dynamoDBPersistable.__get(tableMetadata.rangeKeyField) != null */) {
             return;
         }
 
@@ -862,63 +1490,37 @@ public class DynamoDBQueryModelDAO<T, ID>
 
         // TODO: handle case when part of the key is there (e.g. code generates range key, but wants to generate hash key)
         // Can't blindly use getKeyFrom since a single generated value may be for the range key...
-        dynamoDBPersistable.__putAll(getKeyFrom(idGenerator.generateId()));
+        dynamoDBPersistable.__putAll(tableMetadata.getLogicalKeyFrom(idGenerator.generateId()));
     }
 
 
-    private AttributeValue getAttributeValue(Object value) {
-        if (Number.class.isAssignableFrom(value.getClass())) {
-            return new AttributeValue().withN(value.toString());
-        } else {
-            return new AttributeValue(value.toString());
-        }
-    }
-
+    /**
+     * @throws JeppettoException if hash keys are sharded at random, since the item's shard can't be derived from its id
+     */
+    Map<String, AttributeValue> getKeyFrom(ID id)
+            throws JeppettoException {
+        DynamoDBTableMetadata<T> tableMetadata = getTableMetadata();
 
-    private Pair<String, String> getKeyAttributeNames(List<KeySchemaElement> keySchema) {
-        Pair<String, String> keyAttributes = new Pair<>();
+        Map<String, AttributeValue> key = tableMetadata.getLogicalKeyFrom(id);
 
-        for (KeySchemaElement keySchemaElement : keySchema) {
-            if (keySchemaElement.getKeyType().equals(KeyType.HASH.name())) {
-                keyAttributes.setFirst(keySchemaElement.getAttributeName());
-            } else {
-                keyAttributes.setSecond(keySchemaElement.getAttributeName());
-            }
+        if (tableMetadata.hashKeySharding == null) {
+            return key;
         }
 
-        return keyAttributes;
-    }
-
+        int shard = tableMetadata.hashKeySharding.getShard(key);
 
-    private Map<String, AttributeValue> getKeyFrom(ID id) {
-        Map<String, AttributeValue> key;
-
-        if (Pair.class.isAssignableFrom(id.getClass())) {
-            key = new HashMap<>(2);
-
-            key.put(hashKeyField, getAttributeValue(((Pair) id).getFirst()));
-            key.put(rangeKeyField, getAttributeValue(((Pair) id).getSecond()));
-        } else {
-            key = Collections.singletonMap(hashKeyField, getAttributeValue(id));
+        if (shard == -1) {
+            throw new JeppettoException("Items sharded with the 'Random' strategy can't be addressed by id; use the 'RangeKey'"
+                                        + " writeShardStrategy, or save and delete loaded entities instead.");
         }
 
-        return key;
+        return tableMetadata.hashKeySharding.toPhysical(key, shard);
     }
 
 
-    private Map<String, AttributeValue> getKeyFrom(DynamoDBPersistable dynamoDBPersistable) {
-        Map<String, AttributeValue> key;
-
-        if (rangeKeyField != null) {
-            key = new HashMap<>(2);
-
-            key.put(hashKeyField, ConversionUtil.toAttributeValue(dynamoDBPersistable.__get(hashKeyField)));
-            key.put(rangeKeyField, ConversionUtil.toAttributeValue(dynamoDBPersistable.__get(rangeKeyField)));
-        } else {
-            key = Collections.singletonMap(hashKeyField, ConversionUtil.toAttributeValue(dynamoDBPersistable.__get(hashKeyField)));
-        }
-
-        return key;
+    private Map<String, AttributeValue> getKeyFrom(WriteRequest writeRequest) {
+        return writeRequest.getDeleteRequest() != null ? writeRequest.getDeleteRequest().getKey()
+                                                       : getTableMetadata().getKeyFrom(writeRequest.getPutRequest().getItem());
     }
 
 
@@ -926,15 +1528,61 @@ public class DynamoDBQueryModelDAO<T, ID>
     // Inner Classes
     //-------------------------------------------------------------
 
+    interface IndexedTask {
+
+        void run(int index);
+    }
+
+
     public static class IndexData {
+        String name;
         String indexName;
         List<String> keyFields;
         boolean projectsOverEntity;
+        long estimatedReadBytes;
+        String keyProjectionExpression;
+        Map<String, String> keyProjectionExpressionNames;
 
-        private IndexData(String indexName, List<String> keyFields, boolean projectsOverEntity) {
+        IndexData(String name, String indexName, List<String> keyFields, boolean projectsOverEntity,
+                          long estimatedReadBytes) {
+            this.name = name;
             this.indexName = indexName;
             this.keyFields = keyFields;
             this.projectsOverEntity = projectsOverEntity;
+            this.estimatedReadBytes = estimatedReadBytes;
+            this.keyProjectionExpressionNames = new LinkedHashMap<>(keyFields.size());
+
+            StringBuilder sb = new StringBuilder();
+
+            for (String keyField : keyFields) {
+                String placeholder = "#k" + keyProjectionExpressionNames.size();
+
+                sb.append(sb.length() == 0 ? "" : ", ").append(placeholder);
+                keyProjectionExpressionNames.put(placeholder, keyField);
+            }
+
+            this.keyProjectionExpression = sb.toString();
+        }
+
+        /**
+         * @return the name of the index, or of the table if this is the table's own key
+         */
+        public String getName() {
+            return name;
+        }
+
+        public boolean projectsOverEntity() {
+            return projectsOverEntity;
+        }
+
+        /**
+         * An estimate, based on the item counts and sizes last reported by DescribeTable, of the relative number of
+         * bytes read by a query of this index.  Includes the cost of reading items from the table when the index
+         * doesn't project over the entity.  Only meaningful in comparison with other indexes of the same table; 0 if
+         * DynamoDB hasn't yet reported sizes.
+         */
+        public long getEstimatedReadBytes() {
+            return estimatedReadBytes;
         }
     }
 }
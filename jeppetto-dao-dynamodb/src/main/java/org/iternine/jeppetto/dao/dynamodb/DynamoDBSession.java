@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import org.iternine.jeppetto.dao.FailedBatchException;
+import org.iternine.jeppetto.dao.JeppettoException;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * A unit of work for DynamoDBQueryModelDAOs that is bound to the current thread.  While a session is active:
+ *
+ *   - findById() returns the session's instance of an item, so repeated reads of the same key are served without a
+ *     request to DynamoDB and all callers within the session share one object.
+ *   - save(), delete(), deleteById() and deleteByIds() are deferred until the session is flushed.  However many
+ *     times an item is saved, it is written once: new items are put with BatchWriteItem, and each changed existing
+ *     item is written with a single UpdateItem that covers all of the fields changed during the session.  Deletes
+ *     are batched with BatchWriteItem.
+ *
+ * Queries, updateById() and the other update operations always go to DynamoDB, so they neither see nor affect
+ * changes that have not yet been flushed.
+ *
+ * Sessions are re-entrant: nested calls to create() must be matched by calls to remove(), and only the outermost
+ * session's flush() writes the changes.  DynamoDBQueryModelDAO.flush() writes a single DAO's changes at any depth.
+ *
+ *   DynamoDBSession.create();
+ *   try {
+ *       ...
+ *       DynamoDBSession.flush();
+ *   } finally {
+ *       DynamoDBSession.remove();
+ *   }
+ */
+public final class DynamoDBSession {
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final Map<DynamoDBQueryModelDAO<?, ?>, DAOState> states = new LinkedHashMap<>();
+    private int depth;
+
+
+    //-------------------------------------------------------------
+    // Variables - Private - Static
+    //-------------------------------------------------------------
+
+    private static final ThreadLocal<DynamoDBSession> LOCAL = new ThreadLocal<>();
+    private static final Logger logger = LoggerFactory.getLogger(DynamoDBSession.class);
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    private DynamoDBSession() {
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public - Static
+    //-------------------------------------------------------------
+
+    public static boolean isActive() {
+        return LOCAL.get() != null;
+    }
+
+
+    public static void create() {
+        if (!isActive()) {
+            logger.debug("Creating new DynamoDBSession.");
+
+            LOCAL.set(new DynamoDBSession());
+        }
+
+        LOCAL.get().depth++;
+    }
+
+
+    /**
+     * Ends the current session.  Changes that have not been flushed are discarded once the outermost session ends.
+     */
+    public static void remove() {
+        DynamoDBSession dynamoDBSession = LOCAL.get();
+
+        if (dynamoDBSession == null || --dynamoDBSession.depth > 0) {
+            return;
+        }
+
+        if (logger.isDebugEnabled()) {
+            for (Map.Entry<DynamoDBQueryModelDAO<?, ?>, DAOState> entry : dynamoDBSession.states.entrySet()) {
+                if (entry.getValue().hasChanges()) {
+                    logger.debug("Discarding unflushed changes for {}: {} saved, {} deleted.", entry.getKey().getClass(),
+                                 entry.getValue().saved.size(), entry.getValue().deleted.size());
+                }
+            }
+        }
+
+        logger.debug("Removing DynamoDBSession.");
+
+        LOCAL.remove();
+    }
+
+
+    /**
+     * Writes the changes accumulated by all DAOs, unless called from within a nested session.  The session's
+     * identity map is cleared whether or not the writes succeed.
+     *
+     * @throws FailedBatchException if some of a DAO's changes could not be written
+     */
+    public static void flush() {
+        DynamoDBSession dynamoDBSession = validateState();
+
+        if (dynamoDBSession.depth > 1) {
+            return;
+        }
+
+        try {
+            for (Map.Entry<DynamoDBQueryModelDAO<?, ?>, DAOState> entry : dynamoDBSession.states.entrySet()) {
+                entry.getValue().flush(entry.getKey());
+            }
+        } finally {
+            dynamoDBSession.states.clear();
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Package - Static
+    //-------------------------------------------------------------
+
+    static void flush(DynamoDBQueryModelDAO<?, ?> dynamoDBQueryModelDAO) {
+        DAOState state = validateState().states.get(dynamoDBQueryModelDAO);
+
+        if (state != null) {
+            state.flush(dynamoDBQueryModelDAO);
+        }
+    }
+
+
+    /**
+     * @return the session's instance of the item with the given key, or null if the session hasn't seen the item
+     */
+    static DynamoDBPersistable getTracked(DynamoDBQueryModelDAO<?, ?> dynamoDBQueryModelDAO, Map<String, AttributeValue> key) {
+        return getState(dynamoDBQueryModelDAO).entities.get(key);
+    }
+
+
+    static boolean isTrackedForDelete(DynamoDBQueryModelDAO<?, ?> dynamoDBQueryModelDAO, Map<String, AttributeValue> key) {
+        return getState(dynamoDBQueryModelDAO).deleted.contains(key);
+    }
+
+
+    /**
+     * Records an item that was read, so that later reads of the same key return the same instance.
+     */
+    static void track(DynamoDBQueryModelDAO<?, ?> dynamoDBQueryModelDAO, Map<String, AttributeValue> key, DynamoDBPersistable entity) {
+        getState(dynamoDBQueryModelDAO).entities.put(key, entity);
+    }
+
+
+    /**
+     * Records an item to be written when the session is flushed.  An item can only be written from one instance, so
+     * if a different instance of the same item is already waiting to be saved, it is returned so that the caller can
+     * write it first -- unless the new instance hasn't been persisted, in which case it replaces the item entirely
+     * and the other instance is dropped.
+     *
+     * @return a different instance of the same item that must be written now, or null
+     */
+    static DynamoDBPersistable trackForSave(DynamoDBQueryModelDAO<?, ?> dynamoDBQueryModelDAO, Map<String, AttributeValue> key,
+                                            DynamoDBPersistable entity, String storeIdentifier) {
+        DAOState state = getState(dynamoDBQueryModelDAO);
+        DynamoDBPersistable previous = state.entities.put(key, entity);
+
+        state.deleted.remove(key);
+
+        if (!state.saved.add(key) && previous != null && previous != entity && entity.__isPersisted(storeIdentifier)) {
+            logger.debug("Writing earlier instance of {} before tracking another instance for save.", key);
+
+            return previous;
+        }
+
+        return null;
+    }
+
+
+    static void trackForDelete(DynamoDBQueryModelDAO<?, ?> dynamoDBQueryModelDAO, Map<String, AttributeValue> key) {
+        DAOState state = getState(dynamoDBQueryModelDAO);
+
+        state.entities.remove(key);
+        state.saved.remove(key);
+        state.deleted.add(key);
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private - Static
+    //-------------------------------------------------------------
+
+    private static DynamoDBSession validateState() {
+        DynamoDBSession dynamoDBSession = LOCAL.get();
+
+        if (dynamoDBSession == null) {
+            throw new IllegalStateException("Session not active.");
+        }
+
+        return dynamoDBSession;
+    }
+
+
+    private static DAOState getState(DynamoDBQueryModelDAO<?, ?> dynamoDBQueryModelDAO) {
+        DynamoDBSession dynamoDBSession = validateState();
+        DAOState state = dynamoDBSession.states.get(dynamoDBQueryModelDAO);
+
+        if (state == null) {
+            state = new DAOState();
+
+            dynamoDBSession.states.put(dynamoDBQueryModelDAO, state);
+        }
+
+        return state;
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Classes
+    //-------------------------------------------------------------
+
+    private static final class DAOState {
+        private final Map<Map<String, AttributeValue>, DynamoDBPersistable> entities = new HashMap<>();
+        private final Set<Map<String, AttributeValue>> saved = new LinkedHashSet<>();
+        private final Set<Map<String, AttributeValue>> deleted = new LinkedHashSet<>();
+
+
+        private boolean hasChanges() {
+            return !saved.isEmpty() || !deleted.isEmpty();
+        }
+
+
+        private void flush(DynamoDBQueryModelDAO<?, ?> dynamoDBQueryModelDAO) {
+            if (!hasChanges()) {
+                return;
+            }
+
+            List<DynamoDBPersistable> savedEntities = new ArrayList<>(saved.size());
+
+            for (Map<String, AttributeValue> key : saved) {
+                savedEntities.add(entities.get(key));
+            }
+
+            List<Map<String, AttributeValue>> deletedKeys = new ArrayList<>(deleted);
+
+            // Failed writes are reported by the exception rather than retried by a later flush.
+            saved.clear();
+            deleted.clear();
+
+            write(dynamoDBQueryModelDAO, savedEntities, deletedKeys);
+        }
+
+
+        /**
+         * Writes the changes the session has recorded for a DAO.  New items and deletes are combined into
+         * BatchWriteItem requests (new items are put individually when 'verifyUniqueIds' is set, since BatchWriteItem
+         * does not support condition expressions), and each changed existing item is written with one UpdateItem request.
+         * Existing items that have not changed since they were read are not written.
+         *
+         * @param savedEntities entities saved during the session, in the order they were first saved
+         * @param deletedKeys keys of items deleted during the session
+         *
+         * @throws FailedBatchException if any write fails, reporting saved entities and deleted keys
+         */
+        private static void write(final DynamoDBQueryModelDAO<?, ?> dynamoDBQueryModelDAO, List<DynamoDBPersistable> savedEntities,
+                                  List<Map<String, AttributeValue>> deletedKeys)
+                throws FailedBatchException, JeppettoException {
+            DynamoDBTableMetadata<?> tableMetadata = dynamoDBQueryModelDAO.getTableMetadata();
+            String dynamoDBId = dynamoDBQueryModelDAO.getDynamoDB().toString();
+
+            List<WriteRequest> writeRequests = new ArrayList<>(savedEntities.size() + deletedKeys.size());
+            Map<Map<String, AttributeValue>, DynamoDBPersistable> batchPuts = new LinkedHashMap<>();
+            final List<DynamoDBPersistable> individualSaves = new ArrayList<>();
+
+            for (DynamoDBPersistable dynamoDBPersistable : savedEntities) {
+                if (dynamoDBPersistable.__isPersisted(dynamoDBId)) {
+                    if (dynamoDBPersistable.__isDirty()) {
+                        individualSaves.add(dynamoDBPersistable);
+                    }
+                } else if (tableMetadata.uniqueIdConditionExpression != null) {
+                    individualSaves.add(dynamoDBPersistable);
+                } else {
+                    PutItemRequest putItemRequest = (PutItemRequest) dynamoDBQueryModelDAO.buildSaveRequest(dynamoDBPersistable);
+                    Map<String, AttributeValue> item = putItemRequest.getItem();
+
+                    batchPuts.put(tableMetadata.getKeyFrom(item), dynamoDBPersistable);
+                    writeRequests.add(new WriteRequest(new PutRequest(item)));
+                }
+            }
+
+            for (Map<String, AttributeValue> key : deletedKeys) {
+                writeRequests.add(new WriteRequest(new DeleteRequest(key)));
+            }
+
+            final Exception[] exceptions = new Exception[individualSaves.size()];
+
+            dynamoDBQueryModelDAO.runConcurrently(individualSaves.size(), new DynamoDBQueryModelDAO.IndexedTask() {
+                @Override
+                public void run(int index) {
+                    try {
+                        dynamoDBQueryModelDAO.saveItem(individualSaves.get(index));
+                    } catch (Exception e) {
+                        exceptions[index] = e;
+                    }
+                }
+            });
+
+            Map<Map<String, AttributeValue>, Exception> failedKeys = dynamoDBQueryModelDAO.batchWriteItems(writeRequests);
+            List<Object> succeeded = new ArrayList<>();
+            Map<Object, Exception> failed = new LinkedHashMap<>();
+
+            for (int i = 0; i < individualSaves.size(); i++) {
+                if (exceptions[i] != null) {
+                    failed.put(individualSaves.get(i), exceptions[i]);
+                } else {
+                    succeeded.add(individualSaves.get(i));
+                }
+            }
+
+            for (Map.Entry<Map<String, AttributeValue>, DynamoDBPersistable> entry : batchPuts.entrySet()) {
+                if (failedKeys.containsKey(entry.getKey())) {
+                    failed.put(entry.getValue(), failedKeys.get(entry.getKey()));
+                } else {
+                    entry.getValue().__markPersisted(dynamoDBId);
+
+                    succeeded.add(entry.getValue());
+                }
+            }
+
+            for (Map<String, AttributeValue> key : deletedKeys) {
+                if (failedKeys.containsKey(key)) {
+                    failed.put(key, failedKeys.get(key));
+                } else {
+                    succeeded.add(key);
+                }
+            }
+
+            if (failed.size() > 0) {
+                throw new FailedBatchException("Unable to flush all items", succeeded, failed);
+            }
+        }
+    }
+}
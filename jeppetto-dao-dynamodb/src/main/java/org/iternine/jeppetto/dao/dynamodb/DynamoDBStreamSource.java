@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Reads the DynamoDB Stream of a table on behalf of a DynamoDBChangeFeed.  The methods mirror the DescribeStream,
+ * GetShardIterator and GetRecords operations of the DynamoDB Streams API, so an implementation is a thin adapter over
+ * a streams client.  The stream should use the NEW_AND_OLD_IMAGES view type (NEW_IMAGE or OLD_IMAGE also work,
+ * leaving the other image of each event null).
+ */
+public interface DynamoDBStreamSource {
+
+    /**
+     * @return the stream's shards, both open and closed, that have not yet been trimmed
+     */
+    List<Shard> getShards();
+
+
+    /**
+     * @param shardId shard to read
+     * @param afterSequenceNumber sequence number of the last record processed, or null to start from the oldest
+     *                            record in the shard (TRIM_HORIZON)
+     *
+     * @return an iterator positioned after the given sequence number
+     */
+    String getShardIterator(String shardId, String afterSequenceNumber);
+
+
+    /**
+     * @param shardIterator iterator from getShardIterator() or from the previous Records
+     *
+     * @return the next records in the shard
+     */
+    Records getRecords(String shardIterator);
+
+
+    //-------------------------------------------------------------
+    // Inner Classes
+    //-------------------------------------------------------------
+
+    class Shard {
+
+        private final String shardId;
+        private final String parentShardId;
+
+
+        public Shard(String shardId, String parentShardId) {
+            this.shardId = shardId;
+            this.parentShardId = parentShardId;
+        }
+
+
+        public String getShardId() {
+            return shardId;
+        }
+
+
+        /**
+         * @return the shard this one was split from, or null
+         */
+        public String getParentShardId() {
+            return parentShardId;
+        }
+    }
+
+
+    class Record {
+
+        private final String eventName;
+        private final String sequenceNumber;
+        private final Map<String, AttributeValue> keys;
+        private final Map<String, AttributeValue> newImage;
+        private final Map<String, AttributeValue> oldImage;
+
+
+        /**
+         * @param eventName "INSERT", "MODIFY" or "REMOVE"
+         * @param sequenceNumber the record's sequence number within its shard
+         * @param keys the key attributes of the modified item
+         * @param newImage the item after the modification, if the stream includes it
+         * @param oldImage the item before the modification, if the stream includes it
+         */
+        public Record(String eventName, String sequenceNumber, Map<String, AttributeValue> keys,
+                      Map<String, AttributeValue> newImage, Map<String, AttributeValue> oldImage) {
+            this.eventName = eventName;
+            this.sequenceNumber = sequenceNumber;
+            this.keys = keys;
+            this.newImage = newImage;
+            this.oldImage = oldImage;
+        }
+
+
+        public String getEventName() {
+            return eventName;
+        }
+
+
+        public String getSequenceNumber() {
+            return sequenceNumber;
+        }
+
+
+        public Map<String, AttributeValue> getKeys() {
+            return keys;
+        }
+
+
+        public Map<String, AttributeValue> getNewImage() {
+            return newImage;
+        }
+
+
+        public Map<String, AttributeValue> getOldImage() {
+            return oldImage;
+        }
+    }
+
+
+    class Records {
+
+        private final List<Record> records;
+        private final String nextShardIterator;
+
+
+        /**
+         * @param records records read, in shard order
+         * @param nextShardIterator iterator to read the following records, or null if the shard is closed and
+         *                          all its records have been read
+         */
+        public Records(List<Record> records, String nextShardIterator) {
+            this.records = records;
+            this.nextShardIterator = nextShardIterator;
+        }
+
+
+        public List<Record> getRecords() {
+            return records;
+        }
+
+
+        public String getNextShardIterator() {
+            return nextShardIterator;
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.Pair;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBQueryModelDAO.IndexData;
+import org.iternine.jeppetto.dao.dynamodb.expression.ConditionExpressionBuilder;
+import org.iternine.jeppetto.dao.dynamodb.expression.ConditionExpressionCache;
+import org.iternine.jeppetto.dao.dynamodb.expression.ProjectionExpressionBuilder;
+import org.iternine.jeppetto.enhance.Enhancer;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.LocalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The state a DynamoDBQueryModelDAO derives from its table's description: the key attributes, the indexes available
+ * to queries and the enhanced classes for the entity.  The DAO creates this when constructed or, if the
+ * "lazyInitialization" DAO property is "true", on first use (see DynamoDBQueryModelDAO.getTableMetadata()).  If the
+ * "tableDescriptionSnapshot" property names a file, the table's description is read from that snapshot when present
+ * (see TableDescriptionSnapshot).
+ *
+ * @param <T> Persistent class
+ */
+final class DynamoDBTableMetadata<T> {
+
+    //-------------------------------------------------------------
+    // Variables - Package
+    //-------------------------------------------------------------
+
+    final HashKeySharding hashKeySharding;
+    final String hashKeyField;
+    final String rangeKeyField;
+    final List<String> keyFields;
+    final String projectionExpression;
+    final Map<String, String> projectionExpressionNames;
+    final String keyProjectionExpression;
+    final Map<String, String> keyProjectionExpressionNames;
+    final Map<String, Map<String, IndexData>> indexes;
+    final Map<String, Map<String, IndexData>> baseIndexOnly;
+    final ConditionExpressionCache conditionExpressions;
+    final ConditionExpressionCache baseIndexOnlyConditionExpressions;
+    final Enhancer<T> persistableEnhancer;
+    final Enhancer<? extends T> updateObjectEnhancer;
+    final String uniqueIdConditionExpression;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    @SuppressWarnings("unchecked")
+    DynamoDBTableMetadata(Class<T> entityClass, String tableName, AmazonDynamoDB dynamoDB, String optimisticLockField,
+                          Map<String, Object> daoProperties) {
+        String tableDescriptionSnapshot = (String) daoProperties.get("tableDescriptionSnapshot");
+        TableDescription tableDescription;
+
+        if (tableDescriptionSnapshot != null) {
+            tableDescription = TableDescriptionSnapshot.forFile(tableDescriptionSnapshot).describeTable(dynamoDB, tableName);
+        } else {
+            tableDescription = dynamoDB.describeTable(tableName).getTable();
+        }
+
+        Pair<String, String> primaryKeyAttributeNames = getKeyAttributeNames(tableDescription.getKeySchema());
+        this.hashKeyField = primaryKeyAttributeNames.getFirst();
+        this.rangeKeyField = primaryKeyAttributeNames.getSecond();
+
+        if (daoProperties.containsKey("writeShards")) {
+            String writeShardStrategy = (String) daoProperties.get("writeShardStrategy");
+
+            this.hashKeySharding = new HashKeySharding(hashKeyField, rangeKeyField, Integer.parseInt((String) daoProperties.get("writeShards")),
+                                                       writeShardStrategy == null ? HashKeySharding.Strategy.RangeKey
+                                                                                  : HashKeySharding.Strategy.valueOf(writeShardStrategy));
+        } else {
+            this.hashKeySharding = null;
+        }
+
+        ProjectionExpressionBuilder projectionExpressionBuilder;
+        if (Boolean.parseBoolean((String) daoProperties.get("projectionObject"))) {   // null okay - defaults to false
+            projectionExpressionBuilder = new ProjectionExpressionBuilder(entityClass, hashKeyField, rangeKeyField, optimisticLockField);
+            this.projectionExpression = projectionExpressionBuilder.getExpression();
+            this.projectionExpressionNames = projectionExpressionBuilder.getExpressionAttributeNames();
+        } else {
+            projectionExpressionBuilder = null;
+            this.projectionExpression = null;
+            this.projectionExpressionNames = Collections.emptyMap();
+        }
+
+        this.keyFields = rangeKeyField == null ? Collections.singletonList(hashKeyField) : Arrays.asList(hashKeyField, rangeKeyField);
+        this.keyProjectionExpressionNames = new LinkedHashMap<>(2);
+        for (String keyField : keyFields) {
+            keyProjectionExpressionNames.put("#k" + keyProjectionExpressionNames.size(), keyField);
+        }
+        this.keyProjectionExpression = rangeKeyField == null ? "#k0" : "#k0, #k1";
+
+        IndexData baseIndexData = new IndexData(tableName, null, keyFields, true, nullToZero(tableDescription.getTableSizeBytes()));
+        this.baseIndexOnly = Collections.singletonMap(hashKeyField, Collections.singletonMap(rangeKeyField, baseIndexData));
+        this.indexes = processIndexes(tableDescription, projectionExpressionBuilder, baseIndexData);
+        this.conditionExpressions = new ConditionExpressionCache(indexes);
+        this.baseIndexOnlyConditionExpressions = new ConditionExpressionCache(baseIndexOnly);
+        this.persistableEnhancer = EnhancerHelper.getPersistableEnhancer(entityClass);
+
+        String updateObjectClassName = (String) daoProperties.get("updateObject");
+        if (updateObjectClassName == null) {
+            this.updateObjectEnhancer = EnhancerHelper.getUpdateObjectEnhancer(entityClass);
+        } else {
+            try {
+                Class updateObjectClass = Class.forName(updateObjectClassName);
+
+                if (!entityClass.isAssignableFrom(updateObjectClass)) {
+                    throw new JeppettoException(String.format("Invalid UpdateObject type. %s does not subclass entity type %s",
+                                                              updateObjectClassName, entityClass.getName()));
+                }
+
+                this.updateObjectEnhancer = (Enhancer<? extends T>) EnhancerHelper.getUpdateObjectEnhancer(updateObjectClass);
+            } catch (ClassNotFoundException e) {
+                throw new JeppettoException(e);
+            }
+        }
+
+        if (Boolean.parseBoolean((String) daoProperties.get("verifyUniqueIds"))) {   // null okay - defaults to false
+            ConditionExpressionBuilder conditionExpressionBuilder
+                    = new ConditionExpressionBuilder().with(hashKeyField, new DynamoDBConstraint(DynamoDBOperator.IsNull));
+
+            if (rangeKeyField != null) {
+                conditionExpressionBuilder.with(rangeKeyField, new DynamoDBConstraint(DynamoDBOperator.IsNull));
+            }
+
+            this.uniqueIdConditionExpression = conditionExpressionBuilder.getExpression();    // No attribute values needed
+        } else {
+            this.uniqueIdConditionExpression = null;
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Package
+    //-------------------------------------------------------------
+
+    /**
+     * @return the key for the id, with the logical (unsharded) hash key value
+     */
+    Map<String, AttributeValue> getLogicalKeyFrom(Object id) {
+        Map<String, AttributeValue> key;
+
+        if (Pair.class.isAssignableFrom(id.getClass())) {
+            key = new HashMap<>(2);
+
+            key.put(hashKeyField, getAttributeValue(((Pair) id).getFirst()));
+            key.put(rangeKeyField, getAttributeValue(((Pair) id).getSecond()));
+        } else {
+            key = Collections.singletonMap(hashKeyField, getAttributeValue(id));
+        }
+
+        return key;
+    }
+
+
+    Map<String, AttributeValue> getKeyFrom(DynamoDBPersistable dynamoDBPersistable) {
+        Map<String, AttributeValue> key;
+
+        if (rangeKeyField != null) {
+            key = new HashMap<>(2);
+
+            key.put(hashKeyField, ConversionUtil.toAttributeValue(dynamoDBPersistable.__get(hashKeyField)));
+            key.put(rangeKeyField, ConversionUtil.toAttributeValue(dynamoDBPersistable.__get(rangeKeyField)));
+        } else {
+            key = Collections.singletonMap(hashKeyField, ConversionUtil.toAttributeValue(dynamoDBPersistable.__get(hashKeyField)));
+        }
+
+        return hashKeySharding == null ? key : hashKeySharding.toPhysical(key, hashKeySharding.getShard(dynamoDBPersistable));
+    }
+
+
+    Map<String, AttributeValue> getKeyFrom(Map<String, AttributeValue> item) {
+        Map<String, AttributeValue> key = new HashMap<>(2);
+
+        key.put(hashKeyField, item.get(hashKeyField));
+
+        if (rangeKeyField != null) {
+            key.put(rangeKeyField, item.get(rangeKeyField));
+        }
+
+        return key;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private Map<String, Map<String, IndexData>> processIndexes(TableDescription tableDescription,
+                                                               ProjectionExpressionBuilder projectionExpressionBuilder,
+                                                               IndexData baseIndexData) {
+        // Collect information about the local secondary indexes.  These will be included with the global indexes below.
+        Map<String, IndexData> localIndexes;
+        List<LocalSecondaryIndexDescription> localSecondaryIndexes = tableDescription.getLocalSecondaryIndexes();
+        if (localSecondaryIndexes != null) {
+            localIndexes = new HashMap<>(localSecondaryIndexes.size() + 2);
+
+            // We include these as local indexes to make findUsingQueryModel() code below simpler
+            localIndexes.put(rangeKeyField, baseIndexData);
+            localIndexes.put(null, baseIndexData);
+
+            for (LocalSecondaryIndexDescription description : localSecondaryIndexes) {
+                String indexField = getKeyAttributeNames(description.getKeySchema()).getSecond();
+                boolean projectsOverEntity = description.getProjection().getProjectionType().equals("ALL")
+                                             || projectionExpressionBuilder != null
+                                                && projectionExpressionBuilder.isCoveredBy(description.getProjection());
+
+                List<String> keyFields = new ArrayList<>(baseIndexData.keyFields);
+                keyFields.add(indexField);
+
+                long estimatedReadBytes = estimateReadBytes(tableDescription, description.getItemCount(),
+                                                            description.getIndexSizeBytes(), projectsOverEntity);
+
+                localIndexes.put(indexField, new IndexData(description.getIndexName(), description.getIndexName(), keyFields,
+                                                           projectsOverEntity, estimatedReadBytes));
+            }
+        } else if (rangeKeyField != null) {
+            localIndexes = new HashMap<>(2);
+
+            localIndexes.put(rangeKeyField, baseIndexData);
+            localIndexes.put(null, baseIndexData);
+        } else {
+            localIndexes = Collections.singletonMap(null, baseIndexData);
+        }
+
+        // Process the global secondary indexes.  When done, add the local index information.
+        List<GlobalSecondaryIndexDescription> globalSecondaryIndexes = tableDescription.getGlobalSecondaryIndexes();
+        if (globalSecondaryIndexes != null) {
+            Map<String, Map<String, IndexData>> indexes = new HashMap<>(globalSecondaryIndexes.size() + 1);
+
+            for (GlobalSecondaryIndexDescription description : globalSecondaryIndexes) {
+                Pair<String, String> indexFields = getKeyAttributeNames(description.getKeySchema());
+                boolean projectsOverEntity = description.getProjection().getProjectionType().equals("ALL")
+                                             || projectionExpressionBuilder != null
+                                                && projectionExpressionBuilder.isCoveredBy(description.getProjection());
+
+                List<String> keyFields = new ArrayList<>();
+                keyFields.add(indexFields.getFirst());
+                if (indexFields.getSecond() != null) {
+                    keyFields.add(indexFields.getSecond());
+                }
+                keyFields.add(hashKeyField);
+                if (rangeKeyField != null) {
+                    keyFields.add(rangeKeyField);
+                }
+
+                long estimatedReadBytes = estimateReadBytes(tableDescription, description.getItemCount(),
+                                                            description.getIndexSizeBytes(), projectsOverEntity);
+                IndexData indexData = new IndexData(description.getIndexName(), description.getIndexName(), keyFields,
+                                                    projectsOverEntity, estimatedReadBytes);
+
+                if (!indexes.containsKey(indexFields.getFirst())) {
+                    indexes.put(indexFields.getFirst(), new HashMap<String, IndexData>());
+                }
+
+                indexes.get(indexFields.getFirst()).put(indexFields.getSecond(), indexData);
+
+                // In case a query doesn't specify a range key, we still want to select an index for this hash key.
+                // If one has already been selected, pick one that projects over this entity to avoid extra DB reads,
+                // then the one expected to read the fewest bytes.
+                IndexData noRangeKeyIndexData = indexes.get(indexFields.getFirst()).get(null);
+                if (noRangeKeyIndexData == null
+                    || !noRangeKeyIndexData.projectsOverEntity && projectsOverEntity
+                    || noRangeKeyIndexData.projectsOverEntity == projectsOverEntity
+                       && noRangeKeyIndexData.estimatedReadBytes > estimatedReadBytes) {
+                    indexes.get(indexFields.getFirst()).put(null, indexData);
+                }
+            }
+
+            indexes.put(hashKeyField, localIndexes);
+
+            return indexes;
+        } else {
+            return Collections.singletonMap(hashKeyField, localIndexes);
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private - Static
+    //-------------------------------------------------------------
+
+    /**
+     * Estimates the bytes read by querying all of an index, plus the bytes read from the table for each item if the
+     * index doesn't project over the entity (as either DynamoDB or an 'indexBackFetch' would then read each item).
+     */
+    private static long estimateReadBytes(TableDescription tableDescription, Long indexItemCount, Long indexSizeBytes,
+                                          boolean projectsOverEntity) {
+        long readBytes = nullToZero(indexSizeBytes);
+
+        if (!projectsOverEntity && nullToZero(tableDescription.getItemCount()) > 0) {
+            readBytes += nullToZero(indexItemCount) * (nullToZero(tableDescription.getTableSizeBytes()) / tableDescription.getItemCount());
+        }
+
+        return readBytes;
+    }
+
+
+    private static long nullToZero(Long value) {
+        return value == null ? 0 : value;
+    }
+
+
+    private static AttributeValue getAttributeValue(Object value) {
+        if (Number.class.isAssignableFrom(value.getClass())) {
+            return new AttributeValue().withN(value.toString());
+        } else {
+            return new AttributeValue(value.toString());
+        }
+    }
+
+
+    private static Pair<String, String> getKeyAttributeNames(List<KeySchemaElement> keySchema) {
+        Pair<String, String> keyAttributes = new Pair<>();
+
+        for (KeySchemaElement keySchemaElement : keySchema) {
+            if (keySchemaElement.getKeyType().equals(KeyType.HASH.name())) {
+                keyAttributes.setFirst(keySchemaElement.getAttributeName());
+            } else {
+                keyAttributes.setSecond(keySchemaElement.getAttributeName());
+            }
+        }
+
+        return keyAttributes;
+    }
+}
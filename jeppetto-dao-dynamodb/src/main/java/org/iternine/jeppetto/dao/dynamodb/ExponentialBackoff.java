@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * Paces retries of partially processed batch operations (UnprocessedItems, UnprocessedKeys).  Each call to pause()
+ * sleeps for a random interval between zero and an exponentially growing ceiling ("full jitter"), so that clients
+ * retrying against the same throttled partition spread out rather than retrying in lockstep.
+ *
+ * Instances are not thread-safe; use one per batch operation.
+ */
+public class ExponentialBackoff {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 50;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 5000;
+    public static final int DEFAULT_MAX_RETRIES = 10;
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxRetries;
+    private int retries;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    public ExponentialBackoff() {
+        this(DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_MAX_RETRIES);
+    }
+
+
+    public ExponentialBackoff(long baseDelayMillis, long maxDelayMillis, int maxRetries) {
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxRetries = maxRetries;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    /**
+     * Sleeps before the next retry.
+     *
+     * @return false, without sleeping, if the retries have been exhausted; true otherwise
+     */
+    public boolean pause() {
+        long delayMillis = nextDelayMillis();
+
+        if (delayMillis < 0) {
+            return false;
+        }
+
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new JeppettoException(e);
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Counts a retry without sleeping, for callers that schedule the retry themselves rather than block.
+     *
+     * @return the number of milliseconds to wait before the next retry, or -1 if the retries have been exhausted
+     */
+    public long nextDelayMillis() {
+        if (retries >= maxRetries) {
+            return -1;
+        }
+
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retries, 30));
+
+        retries++;
+
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+
+    public int getRetries() {
+        return retries;
+    }
+
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+}
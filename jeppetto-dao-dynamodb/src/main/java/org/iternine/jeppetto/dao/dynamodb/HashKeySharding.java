@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * Spreads the items of each (logical) hash key over a number of physical hash keys, "&lt;hashKey&gt;#&lt;shard&gt;", so
+ * that the writes for a busy hash key are distributed across partitions.  Entities only ever see the logical value;
+ * items are converted as they are written and read.
+ *
+ * The shard of an item is either derived from its range key, in which case an item's key can always be computed from
+ * its id, or chosen at random when the item is first written.  Items remember their shard (in the "__shard" extra
+ * value) once read or written, so either way saving or deleting a loaded entity addresses the right item.  With the
+ * Random strategy an item can't be addressed by id, so findById(), updateById(), deleteById() and their batch forms
+ * are rejected; items are found with queries instead.
+ */
+public class HashKeySharding {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    public static final String SHARD_SEPARATOR = "#";
+
+    static final String SHARD_FIELD = "__shard";
+
+
+    //-------------------------------------------------------------
+    // Enums
+    //-------------------------------------------------------------
+
+    public enum Strategy {
+        RangeKey,
+        Random
+    }
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final String hashKeyField;
+    private final String rangeKeyField;
+    private final int shardCount;
+    private final Strategy strategy;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    public HashKeySharding(String hashKeyField, String rangeKeyField, int shardCount, Strategy strategy) {
+        if (rangeKeyField == null) {
+            throw new JeppettoException("Hash key sharding requires a table with a range key.");
+        }
+
+        if (shardCount < 2) {
+            throw new JeppettoException("Hash key sharding requires at least 2 shards: " + shardCount);
+        }
+
+        this.hashKeyField = hashKeyField;
+        this.rangeKeyField = rangeKeyField;
+        this.shardCount = shardCount;
+        this.strategy = strategy;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+
+    /**
+     * @return the physical hash key values for the logical value, in shard order
+     */
+    public List<Object> getShardedHashKeyValues(Object hashKeyValue) {
+        List<Object> shardedHashKeyValues = new ArrayList<>(shardCount);
+
+        for (int shard = 0; shard < shardCount; shard++) {
+            shardedHashKeyValues.add(hashKeyValue + SHARD_SEPARATOR + shard);
+        }
+
+        return shardedHashKeyValues;
+    }
+
+
+    /**
+     * @param key a key with the logical hash key value
+     *
+     * @return the shard the range key maps to, or -1 if shards are chosen at random
+     */
+    public int getShard(Map<String, AttributeValue> key) {
+        return strategy == Strategy.RangeKey ? shardOf(key.get(rangeKeyField)) : -1;
+    }
+
+
+    /**
+     * @return the shard the persistable was read from or written to, choosing (and remembering) one if it has
+     *         been neither
+     */
+    public int getShard(DynamoDBPersistable dynamoDBPersistable) {
+        AttributeValue shardValue = (AttributeValue) dynamoDBPersistable.__get(SHARD_FIELD);
+
+        if (shardValue != null) {
+            return Integer.parseInt(shardValue.getN());
+        }
+
+        int shard = strategy == Strategy.RangeKey
+                    ? shardOf(ConversionUtil.toAttributeValue(dynamoDBPersistable.__get(rangeKeyField)))
+                    : ThreadLocalRandom.current().nextInt(shardCount);
+
+        dynamoDBPersistable.__put(SHARD_FIELD, new AttributeValue().withN(Integer.toString(shard)));
+
+        return shard;
+    }
+
+
+    /**
+     * @return a copy of the key or item, addressed to the given shard
+     */
+    public Map<String, AttributeValue> toPhysical(Map<String, AttributeValue> keyOrItem, int shard) {
+        Map<String, AttributeValue> physical = new HashMap<>(keyOrItem);
+        AttributeValue hashKeyValue = keyOrItem.get(hashKeyField);
+
+        if (hashKeyValue == null || hashKeyValue.getS() == null) {
+            throw new JeppettoException("Hash key sharding requires a string hash key: " + hashKeyValue);
+        }
+
+        physical.put(hashKeyField, new AttributeValue(hashKeyValue.getS() + SHARD_SEPARATOR + shard));
+        physical.remove(SHARD_FIELD);
+
+        return physical;
+    }
+
+
+    /**
+     * @return a copy of the item with its logical hash key, and its shard as the "__shard" value, or the item itself
+     *         if its hash key doesn't end with a valid shard suffix
+     */
+    public Map<String, AttributeValue> toLogical(Map<String, AttributeValue> item) {
+        AttributeValue hashKeyValue = item.get(hashKeyField);
+        int separatorIndex;
+        int shard;
+
+        if (hashKeyValue == null || hashKeyValue.getS() == null
+            || (separatorIndex = hashKeyValue.getS().lastIndexOf(SHARD_SEPARATOR)) == -1
+            || (shard = parseShard(hashKeyValue.getS().substring(separatorIndex + 1))) == -1) {
+            return item;    // Not a sharded item (e.g. written before sharding was configured)
+        }
+
+        Map<String, AttributeValue> logical = new HashMap<>(item);
+
+        logical.put(hashKeyField, new AttributeValue(hashKeyValue.getS().substring(0, separatorIndex)));
+        logical.put(SHARD_FIELD, new AttributeValue().withN(Integer.toString(shard)));
+
+        return logical;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    /**
+     * @return the shard named by the suffix, or -1 if it isn't the canonical form of a shard in [0, shardCount)
+     */
+    private int parseShard(String suffix) {
+        int shard;
+
+        try {
+            shard = Integer.parseInt(suffix);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+
+        return shard >= 0 && shard < shardCount && suffix.equals(Integer.toString(shard)) ? shard : -1;
+    }
+
+
+    /**
+     * Maps the range key value to a shard.  String.hashCode() is specified, so the mapping is the same in every JVM.
+     */
+    private int shardOf(AttributeValue rangeKeyValue) {
+        if (rangeKeyValue == null) {
+            throw new JeppettoException("A range key value is needed to determine the item's shard.");
+        }
+
+        int hashCode;
+
+        if (rangeKeyValue.getS() != null) {
+            hashCode = rangeKeyValue.getS().hashCode();
+        } else if (rangeKeyValue.getN() != null) {
+            hashCode = rangeKeyValue.getN().hashCode();
+        } else {
+            ByteBuffer b = rangeKeyValue.getB();
+
+            hashCode = b == null ? 0 : b.hashCode();
+        }
+
+        return (hashCode & Integer.MAX_VALUE) % shardCount;
+    }
+}
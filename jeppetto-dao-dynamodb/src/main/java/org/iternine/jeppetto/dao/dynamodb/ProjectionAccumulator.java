@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.ProjectionType;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.HashSet;
+import java.util.Set;
+
+
+/**
+ * Computes a field projection (Sum, Minimum, Maximum, Average, CountDistinct) from a stream of attribute values,
+ * without building entity objects.  Callers feeding values from multiple threads must synchronize on the accumulator.
+ */
+abstract class ProjectionAccumulator {
+
+    //-------------------------------------------------------------
+    // Variables - Protected
+    //-------------------------------------------------------------
+
+    protected final Class<?> fieldType;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    protected ProjectionAccumulator(Class<?> fieldType) {
+        this.fieldType = fieldType;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Abstract
+    //-------------------------------------------------------------
+
+    abstract void accumulate(AttributeValue attributeValue);
+
+    abstract Object getResult();
+
+
+    //-------------------------------------------------------------
+    // Methods - Static
+    //-------------------------------------------------------------
+
+    /**
+     * @param projectionType type of projection to compute
+     * @param fieldType type of the projected field, or null if unknown
+     *
+     * @return an accumulator for the projection
+     */
+    static ProjectionAccumulator forProjectionType(ProjectionType projectionType, Class<?> fieldType) {
+        switch (projectionType) {
+        case Sum:
+            return new SumAccumulator(fieldType);
+        case Average:
+            return new AverageAccumulator(fieldType);
+        case Minimum:
+            return new ExtremeAccumulator(fieldType, -1);
+        case Maximum:
+            return new ExtremeAccumulator(fieldType, 1);
+        case CountDistinct:
+            return new CountDistinctAccumulator(fieldType);
+        default:
+            throw new UnsupportedOperationException(projectionType + " is not computed from attribute values.");
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Protected
+    //-------------------------------------------------------------
+
+    protected Object asFieldType(AttributeValue attributeValue) {
+        if (fieldType != null) {
+            return ConversionUtil.fromAttributeValue(attributeValue, fieldType, null);
+        }
+
+        return attributeValue.getN() != null ? Double.valueOf(attributeValue.getN()) : attributeValue.getS();
+    }
+
+
+    protected static BigDecimal numberOf(AttributeValue attributeValue) {
+        if (attributeValue.getN() == null) {
+            throw new JeppettoException("Expected a numeric value but found: " + attributeValue);
+        }
+
+        return new BigDecimal(attributeValue.getN());
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Classes
+    //-------------------------------------------------------------
+
+    private static class SumAccumulator extends ProjectionAccumulator {
+        private BigDecimal sum = BigDecimal.ZERO;
+
+        private SumAccumulator(Class<?> fieldType) {
+            super(fieldType);
+        }
+
+        @Override
+        void accumulate(AttributeValue attributeValue) {
+            sum = sum.add(numberOf(attributeValue));
+        }
+
+        @Override
+        Object getResult() {
+            return asFieldType(new AttributeValue().withN(sum.toPlainString()));
+        }
+    }
+
+
+    private static class AverageAccumulator extends ProjectionAccumulator {
+        private BigDecimal sum = BigDecimal.ZERO;
+        private long count;
+
+        private AverageAccumulator(Class<?> fieldType) {
+            super(fieldType);
+        }
+
+        @Override
+        void accumulate(AttributeValue attributeValue) {
+            sum = sum.add(numberOf(attributeValue));
+            count++;
+        }
+
+        @Override
+        Object getResult() {
+            return count == 0 ? null : sum.divide(BigDecimal.valueOf(count), MathContext.DECIMAL64).doubleValue();
+        }
+    }
+
+
+    private static class ExtremeAccumulator extends ProjectionAccumulator {
+        private final int direction;
+        private AttributeValue extreme;
+
+        private ExtremeAccumulator(Class<?> fieldType, int direction) {
+            super(fieldType);
+
+            this.direction = direction;
+        }
+
+        @Override
+        void accumulate(AttributeValue attributeValue) {
+            if (extreme == null || Integer.signum(compare(attributeValue, extreme)) == direction) {
+                extreme = attributeValue;
+            }
+        }
+
+        @Override
+        Object getResult() {
+            return extreme == null ? null : asFieldType(extreme);
+        }
+
+        private int compare(AttributeValue attributeValue0, AttributeValue attributeValue1) {
+            if (attributeValue0.getN() != null && attributeValue1.getN() != null) {
+                return numberOf(attributeValue0).compareTo(numberOf(attributeValue1));
+            } else if (attributeValue0.getS() != null && attributeValue1.getS() != null) {
+                return attributeValue0.getS().compareTo(attributeValue1.getS());
+            }
+
+            throw new JeppettoException("Unable to compare " + attributeValue0 + " and " + attributeValue1);
+        }
+    }
+
+
+    private static class CountDistinctAccumulator extends ProjectionAccumulator {
+        private final Set<AttributeValue> values = new HashSet<>();
+
+        private CountDistinctAccumulator(Class<?> fieldType) {
+            super(fieldType);
+        }
+
+        @Override
+        void accumulate(AttributeValue attributeValue) {
+            values.add(attributeValue);
+        }
+
+        @Override
+        Object getResult() {
+            return values.size();
+        }
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.LocalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.Projection;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * A local copy of the TableDescriptions that DynamoDBQueryModelDAOs are built from, so that starting a process doesn't
+ * need a DescribeTable call per DAO.  A DAO uses a snapshot when its "tableDescriptionSnapshot" property names the
+ * snapshot file; DAOs naming the same file share one snapshot.
+ *
+ * A table found in the snapshot is returned immediately and then described again in the background, with the result
+ * written back to the file.  DAOs keep the description they were built from, so a refreshed description (e.g. one
+ * that includes a newly created index) takes effect when the process next starts.  A table missing from the snapshot
+ * is described synchronously and added to it.
+ *
+ * The file is plain text and holds only what a DAO is built from: each table's key schema, item count and size, and
+ * the names, key schemas, projections, item counts and sizes of its secondary indexes.  One record is written per
+ * line, as tab-separated fields:
+ *
+ *   jeppetto-table-descriptions 1
+ *   table   Item    1200    96000
+ *   key     hashKey HASH
+ *   gsi     gsi-index       1100    45000   INCLUDE
+ *   key     gsiHashKey      HASH
+ *   key     gsiRangeKey     RANGE
+ *   nonKey  gsiValue
+ *
+ * "key" and "nonKey" records belong to the table or index ("lsi" or "gsi") record above them.  Backslashes, tabs and
+ * line breaks within names are escaped with a backslash, and an unknown count or size is left empty.
+ */
+public class TableDescriptionSnapshot {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final Logger logger = LoggerFactory.getLogger(TableDescriptionSnapshot.class);
+
+    private static final String HEADER = "jeppetto-table-descriptions 1";
+
+
+    //-------------------------------------------------------------
+    // Variables - Private - Static
+    //-------------------------------------------------------------
+
+    private static final Map<File, TableDescriptionSnapshot> snapshots = new HashMap<>();
+    private static ExecutorService refreshExecutor;
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final File snapshotFile;
+    private final ConcurrentMap<String, TableDescription> tableDescriptions;
+    private final Set<String> refreshedTables = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    private TableDescriptionSnapshot(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+        this.tableDescriptions = new ConcurrentHashMap<>(read(snapshotFile));
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public - Static
+    //-------------------------------------------------------------
+
+    /**
+     * @param snapshotPath path of the snapshot file.  The file need not exist yet.
+     *
+     * @return the snapshot stored in the given file
+     */
+    public static synchronized TableDescriptionSnapshot forFile(String snapshotPath) {
+        File snapshotFile = new File(snapshotPath).getAbsoluteFile();
+        TableDescriptionSnapshot snapshot = snapshots.get(snapshotFile);
+
+        if (snapshot == null) {
+            snapshots.put(snapshotFile, snapshot = new TableDescriptionSnapshot(snapshotFile));
+        }
+
+        return snapshot;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    /**
+     * @param dynamoDB client used to describe the table if it is missing from the snapshot or needs refreshing
+     * @param tableName name of the table
+     *
+     * @return the table's description
+     */
+    public TableDescription describeTable(AmazonDynamoDB dynamoDB, String tableName) {
+        TableDescription tableDescription = tableDescriptions.get(tableName);
+
+        if (tableDescription == null) {
+            tableDescription = dynamoDB.describeTable(tableName).getTable();
+
+            refreshedTables.add(tableName);
+            update(tableName, tableDescription);
+        } else if (refreshedTables.add(tableName)) {
+            scheduleRefresh(dynamoDB, tableName);
+        }
+
+        return tableDescription;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private void scheduleRefresh(final AmazonDynamoDB dynamoDB, final String tableName) {
+        getRefreshExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    update(tableName, dynamoDB.describeTable(tableName).getTable());
+                } catch (RuntimeException e) {
+                    refreshedTables.remove(tableName);      // Try again the next time the table is described
+
+                    logger.warn("Unable to refresh the description of table " + tableName, e);
+                }
+            }
+        });
+    }
+
+
+    private void update(String tableName, TableDescription tableDescription) {
+        tableDescriptions.put(tableName, tableDescription);
+
+        try {
+            write();
+        } catch (IOException e) {
+            logger.warn("Unable to write table description snapshot " + snapshotFile, e);
+        }
+    }
+
+
+    private synchronized void write()
+            throws IOException {
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+            write(tableDescriptions, writer);
+        }
+
+        if (!tempFile.renameTo(snapshotFile) && !(snapshotFile.delete() && tempFile.renameTo(snapshotFile))) {
+            throw new IOException("Unable to rename " + tempFile + " to " + snapshotFile);
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Package - Static
+    //-------------------------------------------------------------
+
+    static void write(Map<String, TableDescription> tableDescriptions, Writer writer)
+            throws IOException {
+        BufferedWriter out = new BufferedWriter(writer);
+
+        out.write(HEADER);
+        out.newLine();
+
+        for (TableDescription tableDescription : tableDescriptions.values()) {
+            writeRecord(out, "table", tableDescription.getTableName(), tableDescription.getItemCount(), tableDescription.getTableSizeBytes());
+            writeKeySchema(out, tableDescription.getKeySchema());
+
+            if (tableDescription.getLocalSecondaryIndexes() != null) {
+                for (LocalSecondaryIndexDescription description : tableDescription.getLocalSecondaryIndexes()) {
+                    writeRecord(out, "lsi", description.getIndexName(), description.getItemCount(), description.getIndexSizeBytes(),
+                                description.getProjection().getProjectionType());
+                    writeKeySchema(out, description.getKeySchema());
+                    writeNonKeyAttributes(out, description.getProjection());
+                }
+            }
+
+            if (tableDescription.getGlobalSecondaryIndexes() != null) {
+                for (GlobalSecondaryIndexDescription description : tableDescription.getGlobalSecondaryIndexes()) {
+                    writeRecord(out, "gsi", description.getIndexName(), description.getItemCount(), description.getIndexSizeBytes(),
+                                description.getProjection().getProjectionType());
+                    writeKeySchema(out, description.getKeySchema());
+                    writeNonKeyAttributes(out, description.getProjection());
+                }
+            }
+        }
+
+        out.flush();
+    }
+
+
+    /**
+     * @throws IOException if the snapshot can't be read or is not in the expected format
+     */
+    static Map<String, TableDescription> read(Reader reader)
+            throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+
+        if (!HEADER.equals(in.readLine())) {
+            throw new IOException("Missing header '" + HEADER + "'");
+        }
+
+        Map<String, TableDescription> tableDescriptions = new HashMap<>();
+        TableDescription tableDescription = null;
+        List<KeySchemaElement> keySchema = null;
+        Projection projection = null;
+        String line;
+
+        while ((line = in.readLine()) != null) {
+            String[] fields = line.split("\t", -1);
+
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = unescape(fields[i]);
+            }
+
+            if (fields[0].equals("table") && fields.length == 4) {
+                tableDescription = new TableDescription().withTableName(fields[1])
+                                                         .withItemCount(toLong(fields[2]))
+                                                         .withTableSizeBytes(toLong(fields[3]))
+                                                         .withKeySchema(new ArrayList<KeySchemaElement>());
+                keySchema = tableDescription.getKeySchema();       // The setters copy the given list
+                projection = null;
+
+                tableDescriptions.put(fields[1], tableDescription);
+            } else if (fields[0].equals("lsi") && fields.length == 5 && tableDescription != null) {
+                LocalSecondaryIndexDescription description = new LocalSecondaryIndexDescription().withIndexName(fields[1])
+                                                                                                 .withItemCount(toLong(fields[2]))
+                                                                                                 .withIndexSizeBytes(toLong(fields[3]))
+                                                                                                 .withProjection(new Projection().withProjectionType(fields[4]))
+                                                                                                 .withKeySchema(new ArrayList<KeySchemaElement>());
+
+                keySchema = description.getKeySchema();
+                projection = description.getProjection();
+
+                tableDescription.withLocalSecondaryIndexes(description);
+            } else if (fields[0].equals("gsi") && fields.length == 5 && tableDescription != null) {
+                GlobalSecondaryIndexDescription description = new GlobalSecondaryIndexDescription().withIndexName(fields[1])
+                                                                                                   .withItemCount(toLong(fields[2]))
+                                                                                                   .withIndexSizeBytes(toLong(fields[3]))
+                                                                                                   .withProjection(new Projection().withProjectionType(fields[4]))
+                                                                                                   .withKeySchema(new ArrayList<KeySchemaElement>());
+
+                keySchema = description.getKeySchema();
+                projection = description.getProjection();
+
+                tableDescription.withGlobalSecondaryIndexes(description);
+            } else if (fields[0].equals("key") && fields.length == 3 && keySchema != null) {
+                keySchema.add(new KeySchemaElement(fields[1], fields[2]));
+            } else if (fields[0].equals("nonKey") && fields.length == 2 && projection != null) {
+                projection.withNonKeyAttributes(fields[1]);
+            } else {
+                throw new IOException("Unexpected record: " + line);
+            }
+        }
+
+        return tableDescriptions;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private - Static
+    //-------------------------------------------------------------
+
+    private static Map<String, TableDescription> read(File snapshotFile) {
+        if (!snapshotFile.exists()) {
+            return new HashMap<>();
+        }
+
+        try (Reader reader = new InputStreamReader(new FileInputStream(snapshotFile), StandardCharsets.UTF_8)) {
+            return read(reader);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Ignoring unreadable table description snapshot " + snapshotFile, e);
+
+            return new HashMap<>();
+        }
+    }
+
+
+    private static void writeKeySchema(BufferedWriter out, List<KeySchemaElement> keySchema)
+            throws IOException {
+        for (KeySchemaElement keySchemaElement : keySchema) {
+            writeRecord(out, "key", keySchemaElement.getAttributeName(), keySchemaElement.getKeyType());
+        }
+    }
+
+
+    private static void writeNonKeyAttributes(BufferedWriter out, Projection projection)
+            throws IOException {
+        if (projection.getNonKeyAttributes() != null) {
+            for (String nonKeyAttribute : projection.getNonKeyAttributes()) {
+                writeRecord(out, "nonKey", nonKeyAttribute);
+            }
+        }
+    }
+
+
+    private static void writeRecord(BufferedWriter out, String type, Object... fields)
+            throws IOException {
+        out.write(type);
+
+        for (Object field : fields) {
+            out.write('\t');
+            out.write(field == null ? "" : escape(field.toString()));
+        }
+
+        out.newLine();
+    }
+
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+
+        StringBuilder sb = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c != '\\') {
+                sb.append(c);
+
+                continue;
+            }
+
+            if (++i == value.length()) {
+                throw new IllegalArgumentException("Incomplete escape in " + value);
+            }
+
+            switch (value.charAt(i)) {
+            case 't':
+                sb.append('\t');
+                break;
+            case 'n':
+                sb.append('\n');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            default:
+                sb.append(value.charAt(i));
+            }
+        }
+
+        return sb.toString();
+    }
+
+
+    private static Long toLong(String value) {
+        return value.isEmpty() ? null : Long.valueOf(value);
+    }
+
+
+    private static synchronized ExecutorService getRefreshExecutor() {
+        if (refreshExecutor == null) {
+            refreshExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "jeppetto-table-snapshot-refresh");
+
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+        }
+
+        return refreshExecutor;
+    }
+}
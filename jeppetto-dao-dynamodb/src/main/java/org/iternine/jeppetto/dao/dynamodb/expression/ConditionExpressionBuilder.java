@@ -31,12 +31,14 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 
 /**
+ * Builds the key conditions and filter expression for a QueryModel.  The expression text and attribute names for a
+ * given query shape are compiled once into a ConditionExpressionTemplate (see ConditionExpressionCache), so building
+ * from a template only binds the attribute values of the conditions.
  */
 public class ConditionExpressionBuilder extends ExpressionBuilder {
 
@@ -44,7 +46,7 @@ public class ConditionExpressionBuilder extends ExpressionBuilder {
     // Constants
     //-------------------------------------------------------------
 
-    private static final Map<DynamoDBOperator, String> OPERATOR_EXPRESSIONS = new HashMap<DynamoDBOperator, String>(11) {{
+    static final Map<DynamoDBOperator, String> OPERATOR_EXPRESSIONS = new HashMap<DynamoDBOperator, String>(11) {{
         put(DynamoDBOperator.NotEqual, "%s <> %s");
         put(DynamoDBOperator.GreaterThanEqual, "%s >= %s");
         put(DynamoDBOperator.LessThanEqual, "%s <= %s");
@@ -59,7 +61,7 @@ public class ConditionExpressionBuilder extends ExpressionBuilder {
         put(DynamoDBOperator.BeginsWith, "begins_with(%s, %s)");
     }};
 
-    private static final Set<ComparisonOperator> RANGE_KEY_COMPARISON_OPERATORS = new HashSet<ComparisonOperator>(7) {{
+    static final Set<ComparisonOperator> RANGE_KEY_COMPARISON_OPERATORS = new HashSet<ComparisonOperator>(7) {{
         add(ComparisonOperator.EQ);
         add(ComparisonOperator.LE);
         add(ComparisonOperator.LT);
@@ -69,7 +71,7 @@ public class ConditionExpressionBuilder extends ExpressionBuilder {
         add(ComparisonOperator.BETWEEN);
     }};
 
-    private static final String EXPRESSION_ATTRIBUTE_VALUE_PREFIX = ":c";
+    static final String EXPRESSION_ATTRIBUTE_VALUE_PREFIX = ":c";
     private static final String EXPRESSION_ATTRIBUTE_NAME_PREFIX = "#c";
 
 
@@ -79,7 +81,8 @@ public class ConditionExpressionBuilder extends ExpressionBuilder {
 
     private Condition hashKeyCondition;
     private Condition rangeKeyCondition;
-    private final StringBuilder expression = new StringBuilder();
+    private ConditionExpressionTemplate template;
+    private final StringBuilder expression;
 
 
     //-------------------------------------------------------------
@@ -88,37 +91,24 @@ public class ConditionExpressionBuilder extends ExpressionBuilder {
 
     public ConditionExpressionBuilder() {
         super(true);
+
+        this.expression = new StringBuilder();
     }
 
 
     public ConditionExpressionBuilder(QueryModel queryModel, Map<String, Map<String, IndexData>> indexes) {
-        super(true);
+        this(ConditionExpressionTemplate.compile(queryModel, indexes), queryModel);
+    }
 
-        if (queryModel.getConditions() != null) {
-            for (Condition condition : queryModel.getConditions()) {
-                DynamoDBConstraint dynamoDBConstraint = (DynamoDBConstraint) condition.getConstraint();
-                ComparisonOperator comparisonOperator = dynamoDBConstraint.getOperator().getComparisonOperator();
-
-                if (indexes.containsKey(condition.getField()) && comparisonOperator == ComparisonOperator.EQ) {
-                    this.hashKeyCondition = condition;
-                } else if (hashKeyCondition != null
-                           && rangeKeyCondition == null     // First one wins...
-                           && indexes.get(hashKeyCondition.getField()).containsKey(condition.getField())
-                           && RANGE_KEY_COMPARISON_OPERATORS.contains(comparisonOperator)) {
-                    this.rangeKeyCondition = condition;
-                } else {
-                    add(getExpressionAttributeName(condition.getField()), dynamoDBConstraint);
-                }
-            }
-        }
 
-        if (queryModel.getAssociationConditions() != null) {
-            for (Map.Entry<String, List<Condition>> associationConditions : queryModel.getAssociationConditions().entrySet()) {
-                for (Condition condition : associationConditions.getValue()) {
-                    add(getExpressionAttributeName(associationConditions.getKey(), condition.getField()), (DynamoDBConstraint) condition.getConstraint());
-                }
-            }
-        }
+    ConditionExpressionBuilder(ConditionExpressionTemplate template, QueryModel queryModel) {
+        super(template.bindValues(queryModel), template.getExpressionAttributeValueCount(),
+              template.getExpressionAttributeNames(), template.getExpressionAttributeNameCount());
+
+        this.template = template;
+        this.hashKeyCondition = template.getHashKeyCondition(queryModel);
+        this.rangeKeyCondition = template.getRangeKeyCondition(queryModel);
+        this.expression = new StringBuilder(template.getFilterExpression());
     }
 
 
@@ -191,12 +181,35 @@ public class ConditionExpressionBuilder extends ExpressionBuilder {
     }
 
 
+    /**
+     * @return the index chosen to satisfy the key conditions, or null if there is no hash key condition
+     */
+    public IndexData getIndexData() {
+        return template == null ? null : template.getIndexData();
+    }
+
+
+    /**
+     * @return the range key of the chosen index, or null if the index was chosen without regard to its range key
+     */
+    public String getIndexRangeKey() {
+        return template == null ? null : template.getIndexRangeKey();
+    }
+
+
     public void convertRangeKeyConditionToExpression() {
         if (rangeKeyCondition == null) {
             return;
         }
 
-        add(getExpressionAttributeName(rangeKeyCondition.getField()), (DynamoDBConstraint) rangeKeyCondition.getConstraint());
+        // The template reserved the value and name placeholders of the range key condition, so only its values need
+        // to be bound.
+        appendExpression(template.getRangeKeyExpression());
+        template.bindRangeKeyValues(rangeKeyCondition, getExpressionAttributeValues());
+
+        for (Map.Entry<String, String> entry : template.getRangeKeyExpressionAttributeNames().entrySet()) {
+            putExpressionAttributeName(entry.getKey(), entry.getValue());
+        }
     }
 
 
@@ -225,21 +238,14 @@ public class ConditionExpressionBuilder extends ExpressionBuilder {
 
 
     //-------------------------------------------------------------
-    // Methods - Private
+    // Methods - Package
     //-------------------------------------------------------------
 
-    private String getExpressionAttributeName(String association, String attributeName) {
+    String getExpressionAttributeName(String association, String attributeName) {
         StringBuilder sb = new StringBuilder();
 
-        if (association.contains(".")) {
-            String[] associationParts = association.split(".");
-
-            for (String associationPart : associationParts) {
-                sb.append(getExpressionAttributeName(associationPart));
-                sb.append('.');
-            }
-        } else {
-            sb.append(getExpressionAttributeName(association));
+        for (String associationPart : association.split("\\.")) {
+            sb.append(getExpressionAttributeName(associationPart));
             sb.append('.');
         }
 
@@ -247,26 +253,30 @@ public class ConditionExpressionBuilder extends ExpressionBuilder {
     }
 
 
-    private void add(String expressionAttributeName, DynamoDBConstraint constraint) {
-        if (expression.length() > 0) {
-            expression.append(" and ");
-        }
+    void add(String expressionAttributeName, DynamoDBConstraint constraint) {
+        appendExpression(format(expressionAttributeName, constraint));
+    }
+
 
+    /**
+     * Formats the constraint as an expression on the named attribute, adding its values as expression attribute values.
+     */
+    String format(String expressionAttributeName, DynamoDBConstraint constraint) {
         String operatorExpression = OPERATOR_EXPRESSIONS.get(constraint.getOperator());
         int argumentCount = constraint.getOperator().getArgumentCount();
         Object[] values = constraint.getValues();
 
         if (argumentCount == 0) {
-            expression.append(String.format(operatorExpression, expressionAttributeName));
+            return String.format(operatorExpression, expressionAttributeName);
         } else if (argumentCount == 1) {
             String expressionAttributeKey = putExpressionAttributeValue(ConversionUtil.toAttributeValue(values[0]));
 
-            expression.append(String.format(operatorExpression, expressionAttributeName, expressionAttributeKey));
+            return String.format(operatorExpression, expressionAttributeName, expressionAttributeKey);
         } else if (argumentCount == 2) {
             String expressionAttributeKey0 = putExpressionAttributeValue(ConversionUtil.toAttributeValue(values[0]));
             String expressionAttributeKey1 = putExpressionAttributeValue(ConversionUtil.toAttributeValue(values[1]));
 
-            expression.append(String.format(operatorExpression, expressionAttributeName, expressionAttributeKey0, expressionAttributeKey1));
+            return String.format(operatorExpression, expressionAttributeName, expressionAttributeKey0, expressionAttributeKey1);
         } else {    // N arguments
             StringBuilder placeholders = new StringBuilder("(");
             Collection<AttributeValue> attributeValues = ConversionUtil.toAttributeValueList(values[0]);
@@ -283,7 +293,20 @@ public class ConditionExpressionBuilder extends ExpressionBuilder {
 
             placeholders.append(')');
 
-            expression.append(String.format(operatorExpression, expressionAttributeName, placeholders.toString()));
+            return String.format(operatorExpression, expressionAttributeName, placeholders.toString());
         }
     }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private void appendExpression(String conditionExpression) {
+        if (expression.length() > 0) {
+            expression.append(" and ");
+        }
+
+        expression.append(conditionExpression);
+    }
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb.expression;
+
+
+import org.iternine.jeppetto.dao.QueryModel;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBQueryModelDAO.IndexData;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Caches the ConditionExpressionTemplates compiled against a set of indexes, keyed by the shape of the QueryModel's
+ * conditions.  At most 'maxTemplates' shapes are kept; beyond that, the least recently used shape is evicted.  Since
+ * the number of values of a 'Within' condition is part of the shape, queries over lists of varying length would
+ * otherwise fill the cache with shapes that are seldom reused.
+ */
+public class ConditionExpressionCache {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final int DEFAULT_MAX_TEMPLATES = 1024;
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final Map<String, Map<String, IndexData>> indexes;
+    private final Map<String, ConditionExpressionTemplate> templates;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    public ConditionExpressionCache(Map<String, Map<String, IndexData>> indexes) {
+        this(indexes, DEFAULT_MAX_TEMPLATES);
+    }
+
+
+    public ConditionExpressionCache(Map<String, Map<String, IndexData>> indexes, final int maxTemplates) {
+        this.indexes = indexes;
+        this.templates = Collections.synchronizedMap(new LinkedHashMap<String, ConditionExpressionTemplate>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ConditionExpressionTemplate> eldest) {
+                return size() > maxTemplates;
+            }
+        });
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    /**
+     * @param queryModel queryModel whose conditions are to be expressed
+     *
+     * @return a new ConditionExpressionBuilder bound to the queryModel's condition values
+     */
+    public ConditionExpressionBuilder builderFor(QueryModel queryModel) {
+        String shape = ConditionExpressionTemplate.shapeOf(queryModel);
+        ConditionExpressionTemplate template = templates.get(shape);
+
+        if (template == null) {
+            // Compiled outside of the lock; a concurrent compile of the same shape yields an equivalent template.
+            template = ConditionExpressionTemplate.compile(queryModel, indexes);
+
+            templates.put(shape, template);
+        }
+
+        return template.bind(queryModel);
+    }
+
+
+    public int size() {
+        return templates.size();
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Package
+    //-------------------------------------------------------------
+
+    boolean contains(QueryModel queryModel) {
+        return templates.containsKey(ConditionExpressionTemplate.shapeOf(queryModel));
+    }
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb.expression;
+
+
+import org.iternine.jeppetto.dao.Condition;
+import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.QueryModel;
+import org.iternine.jeppetto.dao.dynamodb.ConversionUtil;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBConstraint;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBQueryModelDAO;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBQueryModelDAO.IndexData;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The compiled form of the conditions of a QueryModel: which conditions select the hash and range keys, the text of
+ * the filter expression, and the expression attribute names and value placeholders it uses.  A template is immutable
+ * and may be bound to any QueryModel with the same shape (see shapeOf()), i.e. with the same condition fields and
+ * operators, in the same order, and the same number of values for each 'Within' style condition.
+ */
+public class ConditionExpressionTemplate {
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final int hashKeyConditionIndex;
+    private final int rangeKeyConditionIndex;
+    private final IndexData indexData;
+    private final String indexRangeKey;
+    private final String filterExpression;
+    private final String rangeKeyExpression;
+    private final Map<String, String> expressionAttributeNames;
+    private final Map<String, String> rangeKeyExpressionAttributeNames;
+    private final String[] valueKeys;
+    private final String[] rangeKeyValueKeys;
+    private final int expressionAttributeNameCount;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    private ConditionExpressionTemplate(IndexCandidate indexCandidate, String filterExpression,
+                                        String rangeKeyExpression, Map<String, String> expressionAttributeNames,
+                                        Map<String, String> rangeKeyExpressionAttributeNames, String[] valueKeys,
+                                        String[] rangeKeyValueKeys, int expressionAttributeNameCount) {
+        this.hashKeyConditionIndex = indexCandidate == null ? -1 : indexCandidate.hashKeyConditionIndex;
+        this.rangeKeyConditionIndex = indexCandidate == null ? -1 : indexCandidate.rangeKeyConditionIndex;
+        this.indexData = indexCandidate == null ? null : indexCandidate.indexData;
+        this.indexRangeKey = indexCandidate == null ? null : indexCandidate.indexRangeKey;
+        this.filterExpression = filterExpression;
+        this.rangeKeyExpression = rangeKeyExpression;
+        this.expressionAttributeNames = expressionAttributeNames;
+        this.rangeKeyExpressionAttributeNames = rangeKeyExpressionAttributeNames;
+        this.valueKeys = valueKeys;
+        this.rangeKeyValueKeys = rangeKeyValueKeys;
+        this.expressionAttributeNameCount = expressionAttributeNameCount;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public - Static
+    //-------------------------------------------------------------
+
+    /**
+     * Compiles the conditions of the queryModel.  Every pairing of an equality test on a hash key of the table or one
+     * of its indexes with an optional range key condition for that hash key is a candidate for the query's key
+     * conditions.  Candidates are ranked by whether the index projects over the entity, then by whether a range key
+     * condition is used, then by the index's estimated read cost (see IndexData.getEstimatedReadBytes()), and
+     * finally by the order of the conditions.  A candidate must use an index whose range key is the sort field when
+     * a sort is requested, and the index named by the queryModel's DynamoDBQueryModelDAO.INDEX_HINT hint if present.
+     * All other conditions become part of the filter expression.
+     *
+     * @param queryModel queryModel whose conditions are compiled
+     * @param indexes hash key field -> range key field -> index
+     *
+     * @return the compiled template
+     */
+    public static ConditionExpressionTemplate compile(QueryModel queryModel, Map<String, Map<String, IndexData>> indexes) {
+        ConditionExpressionBuilder builder = new ConditionExpressionBuilder();
+        List<Condition> conditions = getConditions(queryModel);
+        IndexCandidate indexCandidate = chooseIndex(queryModel, indexes);
+
+        for (int i = 0; i < conditions.size(); i++) {
+            if (indexCandidate != null
+                && (i == indexCandidate.hashKeyConditionIndex || i == indexCandidate.rangeKeyConditionIndex)) {
+                continue;
+            }
+
+            Condition condition = conditions.get(i);
+
+            builder.add(builder.getExpressionAttributeName(condition.getField()), (DynamoDBConstraint) condition.getConstraint());
+        }
+
+        int rangeKeyConditionIndex = indexCandidate == null ? -1 : indexCandidate.rangeKeyConditionIndex;
+
+        if (queryModel.getAssociationConditions() != null) {
+            for (Map.Entry<String, List<Condition>> associationConditions : queryModel.getAssociationConditions().entrySet()) {
+                for (Condition condition : associationConditions.getValue()) {
+                    builder.add(builder.getExpressionAttributeName(associationConditions.getKey(), condition.getField()),
+                                (DynamoDBConstraint) condition.getConstraint());
+                }
+            }
+        }
+
+        String filterExpression = builder.getExpression();
+        Map<String, String> expressionAttributeNames = new HashMap<>(builder.getExpressionAttributeNames());
+        String[] valueKeys = getValueKeys(0, builder.getExpressionAttributeValueCounter());
+
+        // The range key condition is only part of the expression if it gets converted (i.e. when scanning), so its
+        // placeholders are allocated last and kept separately.
+        String rangeKeyExpression = null;
+        Map<String, String> rangeKeyExpressionAttributeNames = Collections.emptyMap();
+        String[] rangeKeyValueKeys = new String[0];
+
+        if (rangeKeyConditionIndex >= 0) {
+            Condition rangeKeyCondition = conditions.get(rangeKeyConditionIndex);
+
+            rangeKeyExpression = builder.format(builder.getExpressionAttributeName(rangeKeyCondition.getField()),
+                                                (DynamoDBConstraint) rangeKeyCondition.getConstraint());
+            rangeKeyExpressionAttributeNames = new HashMap<>(builder.getExpressionAttributeNames());
+            rangeKeyExpressionAttributeNames.keySet().removeAll(expressionAttributeNames.keySet());
+            rangeKeyValueKeys = getValueKeys(valueKeys.length, builder.getExpressionAttributeValueCounter());
+        }
+
+        return new ConditionExpressionTemplate(indexCandidate, filterExpression,
+                                               rangeKeyExpression, Collections.unmodifiableMap(expressionAttributeNames),
+                                               rangeKeyExpressionAttributeNames, valueKeys, rangeKeyValueKeys,
+                                               builder.getExpressionAttributeNameCounter());
+    }
+
+
+    /**
+     * Describes the shape of the queryModel's conditions, sort field and index hint.  QueryModels with equal shapes
+     * compile to equivalent templates.
+     *
+     * @param queryModel queryModel to describe
+     *
+     * @return the shape, suitable as a cache key
+     */
+    public static String shapeOf(QueryModel queryModel) {
+        StringBuilder shape = new StringBuilder();
+
+        for (Condition condition : getConditions(queryModel)) {
+            appendShape(shape, condition);
+        }
+
+        if (queryModel.getAssociationConditions() != null) {
+            for (Map.Entry<String, List<Condition>> associationConditions : queryModel.getAssociationConditions().entrySet()) {
+                shape.append(associationConditions.getKey()).append('/');
+
+                for (Condition condition : associationConditions.getValue()) {
+                    appendShape(shape, condition);
+                }
+            }
+        }
+
+        shape.append('^').append(getSortField(queryModel)).append('@').append(queryModel.getHint(DynamoDBQueryModelDAO.INDEX_HINT));
+
+        return shape.toString();
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    public ConditionExpressionBuilder bind(QueryModel queryModel) {
+        return new ConditionExpressionBuilder(this, queryModel);
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Package
+    //-------------------------------------------------------------
+
+    Map<String, AttributeValue> bindValues(QueryModel queryModel) {
+        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>(valueKeys.length + rangeKeyValueKeys.length + 2);
+        List<Condition> conditions = getConditions(queryModel);
+        int valueIndex = 0;
+
+        for (int i = 0; i < conditions.size(); i++) {
+            if (i != hashKeyConditionIndex && i != rangeKeyConditionIndex) {
+                valueIndex = bindValues(conditions.get(i), valueKeys, valueIndex, expressionAttributeValues);
+            }
+        }
+
+        if (queryModel.getAssociationConditions() != null) {
+            for (List<Condition> associationConditions : queryModel.getAssociationConditions().values()) {
+                for (Condition condition : associationConditions) {
+                    valueIndex = bindValues(condition, valueKeys, valueIndex, expressionAttributeValues);
+                }
+            }
+        }
+
+        if (valueIndex != valueKeys.length) {
+            throw new JeppettoException("QueryModel does not match the shape of this template: " + queryModel);
+        }
+
+        return expressionAttributeValues;
+    }
+
+
+    void bindRangeKeyValues(Condition rangeKeyCondition, Map<String, AttributeValue> expressionAttributeValues) {
+        bindValues(rangeKeyCondition, rangeKeyValueKeys, 0, expressionAttributeValues);
+    }
+
+
+    Condition getHashKeyCondition(QueryModel queryModel) {
+        return hashKeyConditionIndex < 0 ? null : queryModel.getConditions().get(hashKeyConditionIndex);
+    }
+
+
+    Condition getRangeKeyCondition(QueryModel queryModel) {
+        return rangeKeyConditionIndex < 0 ? null : queryModel.getConditions().get(rangeKeyConditionIndex);
+    }
+
+
+    IndexData getIndexData() {
+        return indexData;
+    }
+
+
+    String getIndexRangeKey() {
+        return indexRangeKey;
+    }
+
+
+    String getFilterExpression() {
+        return filterExpression;
+    }
+
+
+    String getRangeKeyExpression() {
+        return rangeKeyExpression;
+    }
+
+
+    Map<String, String> getExpressionAttributeNames() {
+        return expressionAttributeNames;
+    }
+
+
+    Map<String, String> getRangeKeyExpressionAttributeNames() {
+        return rangeKeyExpressionAttributeNames;
+    }
+
+
+    int getExpressionAttributeValueCount() {
+        return valueKeys.length + rangeKeyValueKeys.length;
+    }
+
+
+    int getExpressionAttributeNameCount() {
+        return expressionAttributeNameCount;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private - Static
+    //-------------------------------------------------------------
+
+    private static List<Condition> getConditions(QueryModel queryModel) {
+        return queryModel.getConditions() == null ? Collections.<Condition>emptyList() : queryModel.getConditions();
+    }
+
+
+    private static String getSortField(QueryModel queryModel) {
+        return queryModel.getSorts() == null || queryModel.getSorts().isEmpty() ? null : queryModel.getSorts().get(0).getField();
+    }
+
+
+    private static IndexCandidate chooseIndex(QueryModel queryModel, Map<String, Map<String, IndexData>> indexes) {
+        List<Condition> conditions = getConditions(queryModel);
+        String sortField = getSortField(queryModel);
+        String indexHint = queryModel.getHint(DynamoDBQueryModelDAO.INDEX_HINT);
+        IndexCandidate best = null;
+        IndexCandidate fallback = null;     // Used if no candidate supports the sort, so the DAO can report it
+
+        for (int i = 0; i < conditions.size(); i++) {
+            Map<String, IndexData> rangeKeyIndexes = indexes.get(conditions.get(i).getField());
+
+            if (rangeKeyIndexes == null || getComparisonOperator(conditions.get(i)) != ComparisonOperator.EQ) {
+                continue;
+            }
+
+            List<IndexCandidate> candidates = new ArrayList<>();
+
+            if (indexHint != null) {
+                // An index that only has the hash key in common with the conditions may omit items (it's sparse on
+                // its range key), so such indexes are only used when asked for.
+                for (Map.Entry<String, IndexData> entry : rangeKeyIndexes.entrySet()) {
+                    if (entry.getKey() != null || countOf(rangeKeyIndexes, entry.getValue()) == 1) {
+                        candidates.add(new IndexCandidate(i, -1, entry.getValue(), entry.getKey()));
+                    }
+                }
+            } else if (sortField != null && rangeKeyIndexes.containsKey(sortField)) {
+                candidates.add(new IndexCandidate(i, -1, rangeKeyIndexes.get(sortField), sortField));
+            } else if (rangeKeyIndexes.containsKey(null)) {
+                candidates.add(new IndexCandidate(i, -1, rangeKeyIndexes.get(null), null));
+            }
+
+            for (int j = 0; j < conditions.size(); j++) {
+                String rangeKey = conditions.get(j).getField();
+
+                if (j != i && rangeKey != null && rangeKeyIndexes.containsKey(rangeKey)
+                    && ConditionExpressionBuilder.RANGE_KEY_COMPARISON_OPERATORS.contains(getComparisonOperator(conditions.get(j)))) {
+                    candidates.add(new IndexCandidate(i, j, rangeKeyIndexes.get(rangeKey), rangeKey));
+                }
+            }
+
+            for (IndexCandidate candidate : candidates) {
+                if (indexHint != null && !indexHint.equals(candidate.indexData.getName())) {
+                    continue;
+                }
+
+                if (fallback == null) {
+                    fallback = candidate;
+                }
+
+                if ((sortField == null || sortField.equals(candidate.indexRangeKey))
+                    && (best == null || candidate.isCheaperThan(best))) {
+                    best = candidate;
+                }
+            }
+        }
+
+        if (indexHint != null && fallback == null) {
+            throw new JeppettoException("Index '" + indexHint + "' cannot be used for the conditions of " + queryModel);
+        }
+
+        return best != null ? best : fallback;
+    }
+
+
+    private static int countOf(Map<String, IndexData> rangeKeyIndexes, IndexData indexData) {
+        int count = 0;
+
+        for (IndexData value : rangeKeyIndexes.values()) {
+            if (value == indexData) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+
+    private static ComparisonOperator getComparisonOperator(Condition condition) {
+        return ((DynamoDBConstraint) condition.getConstraint()).getOperator().getComparisonOperator();
+    }
+
+
+    private static String[] getValueKeys(int from, int to) {
+        String[] valueKeys = new String[to - from];
+
+        for (int i = 0; i < valueKeys.length; i++) {
+            valueKeys[i] = ConditionExpressionBuilder.EXPRESSION_ATTRIBUTE_VALUE_PREFIX + (from + i);
+        }
+
+        return valueKeys;
+    }
+
+
+    private static int bindValues(Condition condition, String[] valueKeys, int valueIndex,
+                                  Map<String, AttributeValue> expressionAttributeValues) {
+        DynamoDBConstraint constraint = (DynamoDBConstraint) condition.getConstraint();
+        int argumentCount = constraint.getOperator().getArgumentCount();
+        Object[] values = constraint.getValues();
+
+        if (argumentCount < 0) {    // N arguments
+            for (AttributeValue attributeValue : ConversionUtil.toAttributeValueList(values[0])) {
+                if (valueIndex == valueKeys.length) {
+                    throw new JeppettoException("Condition does not match the shape of this template: " + condition);
+                }
+
+                expressionAttributeValues.put(valueKeys[valueIndex++], attributeValue);
+            }
+        } else {
+            for (int i = 0; i < argumentCount; i++) {
+                if (valueIndex == valueKeys.length) {
+                    throw new JeppettoException("Condition does not match the shape of this template: " + condition);
+                }
+
+                expressionAttributeValues.put(valueKeys[valueIndex++], ConversionUtil.toAttributeValue(values[i]));
+            }
+        }
+
+        return valueIndex;
+    }
+
+
+    private static void appendShape(StringBuilder shape, Condition condition) {
+        DynamoDBConstraint constraint = (DynamoDBConstraint) condition.getConstraint();
+
+        shape.append(condition.getField()).append(':').append(constraint.getOperator().name());
+
+        if (constraint.getOperator().getArgumentCount() < 0) {
+            Object value = constraint.getValues()[0];
+
+            if (value.getClass().isArray()) {
+                shape.append(':').append(Array.getLength(value));
+            } else if (value instanceof Collection) {
+                shape.append(':').append(((Collection) value).size());
+            }
+        }
+
+        shape.append(';');
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class - IndexCandidate
+    //-------------------------------------------------------------
+
+    private static class IndexCandidate {
+        private final int hashKeyConditionIndex;
+        private final int rangeKeyConditionIndex;
+        private final IndexData indexData;
+        private final String indexRangeKey;
+
+        private IndexCandidate(int hashKeyConditionIndex, int rangeKeyConditionIndex, IndexData indexData,
+                               String indexRangeKey) {
+            this.hashKeyConditionIndex = hashKeyConditionIndex;
+            this.rangeKeyConditionIndex = rangeKeyConditionIndex;
+            this.indexData = indexData;
+            this.indexRangeKey = indexRangeKey;
+        }
+
+        private boolean isCheaperThan(IndexCandidate other) {
+            if (indexData.projectsOverEntity() != other.indexData.projectsOverEntity()) {
+                return indexData.projectsOverEntity();
+            }
+
+            if ((rangeKeyConditionIndex >= 0) != (other.rangeKeyConditionIndex >= 0)) {
+                return rangeKeyConditionIndex >= 0;
+            }
+
+            return indexData.getEstimatedReadBytes() < other.indexData.getEstimatedReadBytes();
+        }
+    }
+}
@@ -32,6 +32,7 @@ public abstract class ExpressionBuilder {
 
     private Map<String, AttributeValue> expressionAttributeValues;
     private Map<String, String> expressionAttributeNames = new HashMap<String, String>();
+    private boolean sharedExpressionAttributeNames = false;
     private int expressionAttributeValueCounter = 0;
     private int expressionAttributeNameCounter = 0;
 
@@ -45,6 +46,20 @@ public abstract class ExpressionBuilder {
     }
 
 
+    /**
+     * Starts from the state of a previously compiled expression.  The expressionAttributeNames map is shared with
+     * the caller and is only copied if another name needs to be added.
+     */
+    protected ExpressionBuilder(Map<String, AttributeValue> expressionAttributeValues, int expressionAttributeValueCounter,
+                                Map<String, String> expressionAttributeNames, int expressionAttributeNameCounter) {
+        this.expressionAttributeValues = expressionAttributeValues;
+        this.expressionAttributeValueCounter = expressionAttributeValueCounter;
+        this.expressionAttributeNames = expressionAttributeNames;
+        this.sharedExpressionAttributeNames = true;
+        this.expressionAttributeNameCounter = expressionAttributeNameCounter;
+    }
+
+
     //-------------------------------------------------------------
     // Methods - Abstract
     //-------------------------------------------------------------
@@ -93,11 +108,31 @@ public abstract class ExpressionBuilder {
 
             String expressionAttributeName = getExpressionAttributeNamePrefix() + expressionAttributeNameCounter++;
 
-            expressionAttributeNames.put(expressionAttributeName, attributeName);
+            putExpressionAttributeName(expressionAttributeName, attributeName);
 
             return expressionAttributeName;
         }
 
         return attributeName;
     }
+
+
+    protected void putExpressionAttributeName(String expressionAttributeName, String attributeName) {
+        if (sharedExpressionAttributeNames) {
+            expressionAttributeNames = new HashMap<String, String>(expressionAttributeNames);
+            sharedExpressionAttributeNames = false;
+        }
+
+        expressionAttributeNames.put(expressionAttributeName, attributeName);
+    }
+
+
+    protected int getExpressionAttributeValueCounter() {
+        return expressionAttributeValueCounter;
+    }
+
+
+    protected int getExpressionAttributeNameCounter() {
+        return expressionAttributeNameCounter;
+    }
 }
@@ -20,7 +20,9 @@ package org.iternine.jeppetto.dao.dynamodb.expression;
 import org.iternine.jeppetto.dao.dynamodb.ConversionUtil;
 import org.iternine.jeppetto.dao.dynamodb.DynamoDBPersistable;
 import org.iternine.jeppetto.dao.persistable.PersistableList;
+import org.iternine.jeppetto.dao.persistable.Persistable;
 import org.iternine.jeppetto.dao.persistable.PersistableMap;
+import org.iternine.jeppetto.dao.persistable.PersistableSet;
 import org.iternine.jeppetto.dao.updateobject.NumericIncrement;
 import org.iternine.jeppetto.dao.updateobject.UpdateList;
 import org.iternine.jeppetto.dao.updateobject.UpdateMap;
@@ -28,13 +30,25 @@ import org.iternine.jeppetto.dao.updateobject.UpdateObject;
 
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
 import java.util.regex.Pattern;
 
 
 /**
+ * Builds the UpdateExpression for an UpdateItem request, either from the dirty state of a DynamoDBPersistable or
+ * from the changes recorded in an UpdateObject.
+ *
+ * For a persisted DynamoDBPersistable, changes to its collections are written as deltas where DynamoDB allows it:
+ * appends to a list become a list_append(), replaced elements become SETs of the element's index, removed
+ * elements become REMOVEs of the element's index, and additions to or removals from a top-level set become an ADD or
+ * DELETE.  Changes that can't be expressed together (e.g. appending to a list that also had an element removed)
+ * rewrite the entire attribute instead.
  */
 public class UpdateExpressionBuilder extends ExpressionBuilder {
 
@@ -53,15 +67,25 @@ public class UpdateExpressionBuilder extends ExpressionBuilder {
 
     private final StringBuilder setExpression = new StringBuilder();
     private final StringBuilder removeExpression = new StringBuilder();
+    private final StringBuilder addExpression = new StringBuilder();
+    private final StringBuilder deleteExpression = new StringBuilder();
+    private final String storeIdentifier;
 
 
     //-------------------------------------------------------------
     // Constructors
     //-------------------------------------------------------------
 
-    public UpdateExpressionBuilder(DynamoDBPersistable dynamoDBPersistable) {
+    /**
+     * @param dynamoDBPersistable the object whose dirty state is to be written
+     * @param storeIdentifier identifier the object's collections were marked persisted with.  Only collections
+     *                        persisted under this identifier are written as deltas.
+     */
+    public UpdateExpressionBuilder(DynamoDBPersistable dynamoDBPersistable, String storeIdentifier) {
         super(true);
 
+        this.storeIdentifier = storeIdentifier;
+
         extractUpdateDetails(dynamoDBPersistable, "");
     }
 
@@ -69,6 +93,8 @@ public class UpdateExpressionBuilder extends ExpressionBuilder {
     public UpdateExpressionBuilder(UpdateObject updateObject) {
         super(true);
 
+        this.storeIdentifier = null;
+
         extractUpdateDetails(updateObject, "");
     }
 
@@ -79,7 +105,8 @@ public class UpdateExpressionBuilder extends ExpressionBuilder {
 
     @Override
     public boolean hasExpression() {
-        return setExpression.length() > 0 || removeExpression.length() > 0;
+        return setExpression.length() > 0 || removeExpression.length() > 0
+               || addExpression.length() > 0 || deleteExpression.length() > 0;
     }
 
 
@@ -87,19 +114,10 @@ public class UpdateExpressionBuilder extends ExpressionBuilder {
     public String getExpression() {
         StringBuilder expression = new StringBuilder();
 
-        if (setExpression.length() > 0) {
-            expression.append("SET ");
-            expression.append(setExpression);
-        }
-
-        if (removeExpression.length() > 0) {
-            if (expression.length() > 0) {
-                expression.append(' ');
-            }
-
-            expression.append("REMOVE ");
-            expression.append(removeExpression);
-        }
+        appendClause(expression, "SET ", setExpression);
+        appendClause(expression, "REMOVE ", removeExpression);
+        appendClause(expression, "ADD ", addExpression);
+        appendClause(expression, "DELETE ", deleteExpression);
 
         return expression.toString();
     }
@@ -140,18 +158,76 @@ public class UpdateExpressionBuilder extends ExpressionBuilder {
 
 
     private void extractUpdateDetails(PersistableList persistableList, String prefix) {
-        if (persistableList.isRewrite()) {
-            persistableList.__markPersisted(null);      // Mark not persisted as the entire list needs to be rewritten.
+        if (persistableList.isRewrite() || !isPersisted(persistableList)) {
+            rewriteList(persistableList, prefix);
+
+            return;
+        }
+
+        int firstAppendedIndex = persistableList.getFirstAppendedIndex();
+        SortedSet<Integer> removedIndexes = persistableList.getRemovedIndexes();
+        List<Integer> dirtyIndexes = new ArrayList<Integer>();
 
-            addToSetExpression(persistableList, prefix);
+        for (Iterator<String> dirtyFields = persistableList.__getDirtyFields(); dirtyFields.hasNext(); ) {
+            int dirtyIndex = Integer.parseInt(dirtyFields.next());
+
+            if (dirtyIndex >= firstAppendedIndex) {
+                break;
+            }
+
+            dirtyIndexes.add(dirtyIndex);
+        }
+
+        boolean appended = persistableList.size() > firstAppendedIndex;
+        int changeKinds = (appended ? 1 : 0) + (dirtyIndexes.isEmpty() ? 0 : 1) + (removedIndexes.isEmpty() ? 0 : 1);
+
+        // DynamoDB rejects an update that touches both a list and one of its elements, so only one kind of change
+        // can be written as a delta.  No change at all means the list itself was reassigned to the field.
+        if (changeKinds != 1) {
+            rewriteList(persistableList, prefix);
 
             return;
         }
 
-        for (Iterator<String> dirtyIndexes = persistableList.__getDirtyFields(); dirtyIndexes.hasNext(); ) {
-            int dirtyIndex = Integer.parseInt(dirtyIndexes.next());
+        for (int removedIndex : removedIndexes) {
+            append(removeExpression, prefix + '[' + removedIndex + ']');
+        }
+
+        for (int dirtyIndex : dirtyIndexes) {
+            processDirtyObject(persistableList.get(dirtyIndex), prefix + '[' + dirtyIndex + ']');
+        }
 
-            processDirtyObject(persistableList.get(dirtyIndex), prefix +'[' + dirtyIndex + ']');
+        if (appended) {
+            List<Object> appendedItems = new ArrayList<Object>(persistableList.subList(firstAppendedIndex, persistableList.size()));
+
+            addListItemsToSetExpression(appendedItems, prefix);
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private void extractUpdateDetails(PersistableSet persistableSet, String fullyQualifiedField) {
+        Set<Object> addedElements = persistableSet.getAddedElements();
+        Set<Object> removedElements = persistableSet.getRemovedElements();
+
+        // ADD and DELETE only apply to top-level attributes, and can't both apply to the same attribute.
+        if (!isPersisted(persistableSet)
+            || addedElements.isEmpty() == removedElements.isEmpty()
+            || fullyQualifiedField.indexOf('.') >= 0
+            || fullyQualifiedField.indexOf('[') >= 0) {
+            if (persistableSet.isEmpty()) {
+                append(removeExpression, fullyQualifiedField);      // DynamoDB doesn't store empty sets
+            } else {
+                addToSetExpression(persistableSet, fullyQualifiedField);
+            }
+        } else if (!addedElements.isEmpty()) {
+            String expressionAttributeValueKey = putExpressionAttributeValue(ConversionUtil.toAttributeValue(new HashSet<Object>(addedElements)));
+
+            append(addExpression, fullyQualifiedField + ' ' + expressionAttributeValueKey);
+        } else {
+            String expressionAttributeValueKey = putExpressionAttributeValue(ConversionUtil.toAttributeValue(new HashSet<Object>(removedElements)));
+
+            append(deleteExpression, fullyQualifiedField + ' ' + expressionAttributeValueKey);
         }
     }
 
@@ -163,6 +239,8 @@ public class UpdateExpressionBuilder extends ExpressionBuilder {
             extractUpdateDetails((PersistableList) dirtyObject, fullyQualifiedField);
         } else if (PersistableMap.class.isAssignableFrom(dirtyObject.getClass())) {
             extractUpdateDetails((PersistableMap) dirtyObject, fullyQualifiedField + ".");
+        } else if (PersistableSet.class.isAssignableFrom(dirtyObject.getClass())) {
+            extractUpdateDetails((PersistableSet) dirtyObject, fullyQualifiedField);
         } else if (DynamoDBPersistable.class.isAssignableFrom(dirtyObject.getClass())) {
             extractUpdateDetails((DynamoDBPersistable) dirtyObject, fullyQualifiedField + ".");
         } else {
@@ -250,6 +328,32 @@ public class UpdateExpressionBuilder extends ExpressionBuilder {
     }
 
 
+    private void rewriteList(PersistableList persistableList, String fullyQualifiedField) {
+        persistableList.__markPersisted(null);      // Mark not persisted as the entire list needs to be rewritten.
+
+        addToSetExpression(persistableList, fullyQualifiedField);
+    }
+
+
+    private boolean isPersisted(Persistable persistable) {
+        return storeIdentifier != null && persistable.__isPersisted(storeIdentifier);
+    }
+
+
+    private void appendClause(StringBuilder expression, String action, StringBuilder clause) {
+        if (clause.length() == 0) {
+            return;
+        }
+
+        if (expression.length() > 0) {
+            expression.append(' ');
+        }
+
+        expression.append(action);
+        expression.append(clause);
+    }
+
+
     private void append(StringBuilder sb, String text) {
         if (sb.length() > 0) {
             sb.append(", ");
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb.iterable;
+
+
+import org.iternine.jeppetto.enhance.Enhancer;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+
+/**
+ * Queries an index that doesn't project all of an entity's attributes for just the items' keys, then reads each page
+ * of items from the table with BatchGetItem.  Items are returned in index order, and since the index's key attributes
+ * are retained on each item, positions are the same as those of a QueryIterable over the index.  Items that are
+ * deleted between the query and the BatchGetItem are skipped.
+ */
+public class BackFetchQueryIterable<T> extends QueryIterable<T> {
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final String tableName;
+    private final Collection<String> tableKeyFields;
+    private final KeysAndAttributes keysAndAttributes;
+    private final ExecutorService executorService;
+    private final int parallelism;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    /**
+     * @param queryRequest query against the index that projects (at least) the index's and table's key attributes
+     * @param tableName table to read the items from
+     * @param tableKeyFields names of the table's key attributes
+     * @param keysAndAttributes read settings (consistency, projection) for the BatchGetItem requests
+     * @param executorService executor on which to issue BatchGetItem requests concurrently, or null; not used for
+     *                        pages fetched on the prefetch executor
+     * @param parallelism maximum number of concurrent BatchGetItem requests per page
+     */
+    public BackFetchQueryIterable(AmazonDynamoDB dynamoDB, Enhancer<T> enhancer, QueryRequest queryRequest,
+                                  String hashKeyField, Collection<String> keyFields, String tableName,
+                                  Collection<String> tableKeyFields, KeysAndAttributes keysAndAttributes,
+                                  ExecutorService executorService, int parallelism) {
+        super(dynamoDB, enhancer, queryRequest, hashKeyField, keyFields);
+
+        this.tableName = tableName;
+        this.tableKeyFields = tableKeyFields;
+        this.keysAndAttributes = keysAndAttributes;
+        this.executorService = executorService;
+        this.parallelism = parallelism;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Implementation
+    //-------------------------------------------------------------
+
+    @Override
+    protected Iterator<Map<String, AttributeValue>> fetchItems() {
+        List<Map<String, AttributeValue>> indexItems = new ArrayList<>();
+        Set<Map<String, AttributeValue>> keys = new LinkedHashSet<>();      // BatchGetItem rejects duplicate keys
+
+        for (Iterator<Map<String, AttributeValue>> iterator = super.fetchItems(); iterator.hasNext(); ) {
+            Map<String, AttributeValue> indexItem = iterator.next();
+
+            indexItems.add(indexItem);
+            keys.add(getTableKeyOf(indexItem));
+        }
+
+        if (indexItems.isEmpty()) {
+            return indexItems.iterator();
+        }
+
+        // On the prefetch executor, which is typically also executorService, waiting on queued BatchGetItem requests could
+        // leave every thread waiting on work queued behind them, so the requests are issued sequentially instead.
+        BatchGetIterable<T> batchGetIterable = new BatchGetIterable<>(getDynamoDB(), getEnhancer(), tableName,
+                                                                      new ArrayList<>(keys), keysAndAttributes, tableKeyFields,
+                                                                      isBackgroundFetch() ? null : executorService, parallelism);
+        Map<Map<String, AttributeValue>, Map<String, AttributeValue>> itemsByKey = new HashMap<>(keys.size());
+
+        batchGetIterable.setPreserveOrder(true);
+
+        for (Iterator<Map<String, AttributeValue>> iterator = batchGetIterable.fetchItems(); iterator.hasNext(); ) {
+            Map<String, AttributeValue> item = iterator.next();
+
+            itemsByKey.put(getTableKeyOf(item), item);
+        }
+
+        List<Map<String, AttributeValue>> items = new ArrayList<>(indexItems.size());
+
+        for (Map<String, AttributeValue> indexItem : indexItems) {
+            Map<String, AttributeValue> item = itemsByKey.get(getTableKeyOf(indexItem));
+
+            if (item == null) {
+                continue;
+            }
+
+            // The table read may be projected, so keep the index's key attributes for position tracking.
+            for (Map.Entry<String, AttributeValue> entry : indexItem.entrySet()) {
+                if (!item.containsKey(entry.getKey())) {
+                    item.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            items.add(item);
+        }
+
+        return items.iterator();
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private Map<String, AttributeValue> getTableKeyOf(Map<String, AttributeValue> item) {
+        Map<String, AttributeValue> key = new HashMap<>(tableKeyFields.size());
+
+        for (String tableKeyField : tableKeyFields) {
+            key.put(tableKeyField, item.get(tableKeyField));
+        }
+
+        return key;
+    }
+}
@@ -18,6 +18,7 @@ package org.iternine.jeppetto.dao.dynamodb.iterable;
 
 
 import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.dynamodb.ExponentialBackoff;
 import org.iternine.jeppetto.enhance.Enhancer;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
@@ -25,37 +26,98 @@ import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
 import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
 import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 
 
-public class BatchGetIterable<T> extends DynamoDBIterable<T> {
+/**
+ * Retrieves items by key using BatchGetItem.  Keys are split into requests of at most 100 keys each, which are issued
+ * up to 'parallelism' at a time when an ExecutorService is available.  Unprocessed keys are retried with exponential
+ * backoff.
+ *
+ * Items are returned in the order their requests complete unless setPreserveOrder(true) is called, in which case all
+ * requests are completed before items are returned in the order of the keys provided.
+ */
+public class BatchGetIterable<T> extends PagedIterable<T> {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    public static final int MAX_KEYS_PER_REQUEST = 100;
+
 
     //-------------------------------------------------------------
     // Variables - Private
     //-------------------------------------------------------------
 
-    private BatchGetItemRequest batchGetItemRequest;
-    private String tableName;
+    private final String tableName;
+    private final List<Map<String, AttributeValue>> keys;
+    private final KeysAndAttributes keysAndAttributes;
+    private final Collection<String> keyFields;
+    private final ExecutorService executorService;
+    private final int parallelism;
+    private boolean preserveOrder;
+    private int nextKeyIndex;
+    private int requestsInFlight;
+    private CompletionService<List<Map<String, AttributeValue>>> completionService;
 
-    private final Logger logger = LoggerFactory.getLogger(QueryIterable.class);
+    private final Logger logger = LoggerFactory.getLogger(BatchGetIterable.class);
 
 
     //-------------------------------------------------------------
     // Constructors
     //-------------------------------------------------------------
 
-    public BatchGetIterable(AmazonDynamoDB dynamoDB, Enhancer<T> enhancer, BatchGetItemRequest batchGetItemRequest, String tableName) {
+    /**
+     * @param dynamoDB client
+     * @param enhancer enhancer for the returned items
+     * @param tableName table to read from
+     * @param keys distinct keys of the items to retrieve
+     * @param keysAndAttributes read settings (consistency, projection) applied to each request; its keys are ignored
+     * @param keyFields names of the table's key attributes
+     * @param executorService executor on which to issue requests concurrently, or null to issue them sequentially
+     * @param parallelism maximum number of concurrent requests
+     */
+    public BatchGetIterable(AmazonDynamoDB dynamoDB, Enhancer<T> enhancer, String tableName,
+                            List<Map<String, AttributeValue>> keys, KeysAndAttributes keysAndAttributes,
+                            Collection<String> keyFields, ExecutorService executorService, int parallelism) {
         super(dynamoDB, enhancer);
 
-        this.batchGetItemRequest = batchGetItemRequest;
         this.tableName = tableName;
+        this.keys = keys;
+        this.keysAndAttributes = keysAndAttributes;
+        this.keyFields = keyFields;
+        this.executorService = parallelism > 1 ? executorService : null;
+        this.parallelism = parallelism;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    public void setPreserveOrder(boolean preserveOrder) {
+        if (nextKeyIndex > 0) {
+            throw new JeppettoException("setPreserveOrder() only valid on a new BatchGetIterable.");
+        }
+
+        this.preserveOrder = preserveOrder;
     }
 
 
@@ -69,33 +131,43 @@ public class BatchGetIterable<T> extends DynamoDBIterable<T> {
     }
 
 
+    @Override
+    protected Map<String, AttributeValue> getExclusiveStartKey() {
+        return null;    // BatchGet requests have no start key
+    }
+
+
     @Override
     protected Iterator<Map<String, AttributeValue>> fetchItems() {
-        // TODO: logging and catch dynamodb exception...
+        if (!preserveOrder) {
+            return fetchNextBatch().iterator();
+        }
+
+        Map<Map<String, AttributeValue>, Map<String, AttributeValue>> itemsByKey = new HashMap<>(keys.size());
 
-        BatchGetItemResult currentBatchGetItemResult = getDynamoDB().batchGetItem(batchGetItemRequest);
-        Iterator<Map<String, AttributeValue>> iterator = currentBatchGetItemResult.getResponses().get(tableName).iterator();
+        do {
+            for (Map<String, AttributeValue> item : fetchNextBatch()) {
+                itemsByKey.put(getKeyOf(item), item);
+            }
+        } while (moreAvailable());
 
-        batchGetItemRequest.withRequestItems(currentBatchGetItemResult.getUnprocessedKeys());    // Prepare for next query
+        List<Map<String, AttributeValue>> orderedItems = new ArrayList<>(itemsByKey.size());
 
-        if (logger.isDebugEnabled()) {
-            List<ConsumedCapacity> consumedCapacities = currentBatchGetItemResult.getConsumedCapacity();
+        for (Map<String, AttributeValue> key : keys) {
+            Map<String, AttributeValue> item = itemsByKey.get(key);
 
-            logger.debug("Queried {} using {}.  Took {} read capacity units, retrieved {} items, more items {} available.",
-                         getEnhancer().getBaseClass().getSimpleName(),
-                         batchGetItemRequest,
-                         consumedCapacities == null ? null : consumedCapacities.get(0), // Only expecting 1 table
-                         currentBatchGetItemResult.getResponses().get(tableName).size(),
-                         currentBatchGetItemResult.getUnprocessedKeys() == null ? "are not" : "are");
+            if (item != null) {
+                orderedItems.add(item);
+            }
         }
 
-        return iterator;
+        return orderedItems.iterator();
     }
 
 
     @Override
     protected boolean moreAvailable() {
-        return batchGetItemRequest.getRequestItems() != null && batchGetItemRequest.getRequestItems().size() > 0;
+        return nextKeyIndex < keys.size() || requestsInFlight > 0;
     }
 
 
@@ -123,4 +195,118 @@ public class BatchGetIterable<T> extends DynamoDBIterable<T> {
 
         return super.getPosition(false);
     }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private List<Map<String, AttributeValue>> fetchNextBatch() {
+        if (!moreAvailable()) {
+            return Collections.emptyList();
+        }
+
+        if (executorService == null) {
+            return batchGet(nextKeys());
+        }
+
+        if (completionService == null) {
+            completionService = new ExecutorCompletionService<>(executorService);
+        }
+
+        while (requestsInFlight < parallelism && nextKeyIndex < keys.size()) {
+            final List<Map<String, AttributeValue>> requestKeys = nextKeys();
+
+            completionService.submit(new Callable<List<Map<String, AttributeValue>>>() {
+                @Override
+                public List<Map<String, AttributeValue>> call() {
+                    return batchGet(requestKeys);
+                }
+            });
+
+            requestsInFlight++;
+        }
+
+        try {
+            List<Map<String, AttributeValue>> items = completionService.take().get();
+
+            requestsInFlight--;
+
+            return items;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new JeppettoException(e);
+        } catch (ExecutionException e) {
+            requestsInFlight--;
+
+            throw e.getCause() instanceof JeppettoException ? (JeppettoException) e.getCause() : new JeppettoException(e.getCause());
+        }
+    }
+
+
+    private List<Map<String, AttributeValue>> nextKeys() {
+        int endIndex = Math.min(nextKeyIndex + MAX_KEYS_PER_REQUEST, keys.size());
+        List<Map<String, AttributeValue>> requestKeys = keys.subList(nextKeyIndex, endIndex);
+
+        nextKeyIndex = endIndex;
+
+        return requestKeys;
+    }
+
+
+    private List<Map<String, AttributeValue>> batchGet(List<Map<String, AttributeValue>> requestKeys) {
+        ExponentialBackoff backoff = new ExponentialBackoff();
+        List<Map<String, AttributeValue>> items = new ArrayList<>(requestKeys.size());
+        KeysAndAttributes requestKeysAndAttributes = new KeysAndAttributes().withKeys(requestKeys)
+                                                                            .withConsistentRead(keysAndAttributes.getConsistentRead())
+                                                                            .withProjectionExpression(keysAndAttributes.getProjectionExpression())
+                                                                            .withExpressionAttributeNames(keysAndAttributes.getExpressionAttributeNames());
+
+        while (true) {
+            BatchGetItemRequest batchGetItemRequest = new BatchGetItemRequest().withRequestItems(Collections.singletonMap(tableName, requestKeysAndAttributes));
+            BatchGetItemResult batchGetItemResult = getDynamoDB().batchGetItem(batchGetItemRequest);
+            List<Map<String, AttributeValue>> responses = batchGetItemResult.getResponses().get(tableName);
+            KeysAndAttributes unprocessedKeys = batchGetItemResult.getUnprocessedKeys() == null ? null
+                                                                                                : batchGetItemResult.getUnprocessedKeys().get(tableName);
+            boolean moreKeys = unprocessedKeys != null && unprocessedKeys.getKeys() != null && !unprocessedKeys.getKeys().isEmpty();
+
+            if (responses != null) {
+                items.addAll(responses);
+            }
+
+            if (logger.isDebugEnabled()) {
+                List<ConsumedCapacity> consumedCapacities = batchGetItemResult.getConsumedCapacity();
+
+                logger.debug("Queried {} using {}.  Took {} read capacity units, retrieved {} items, more items {} available.",
+                             getEnhancer().getBaseClass().getSimpleName(),
+                             batchGetItemRequest,
+                             consumedCapacities == null ? null : consumedCapacities.get(0), // Only expecting 1 table
+                             responses == null ? 0 : responses.size(),
+                             moreKeys ? "are" : "are not");
+            }
+
+            if (!moreKeys) {
+                return items;
+            }
+
+            if (!backoff.pause()) {
+                throw new JeppettoException(unprocessedKeys.getKeys().size() + " keys were not processed after "
+                                            + backoff.getRetries() + " retries.");
+            }
+
+            requestKeysAndAttributes = unprocessedKeys;
+        }
+    }
+
+
+    private Map<String, AttributeValue> getKeyOf(Map<String, AttributeValue> item) {
+        Map<String, AttributeValue> key = new HashMap<>(keyFields.size());
+
+        for (String keyField : keyFields) {
+            key.put(keyField, item.get(keyField));
+        }
+
+        return key;
+    }
 }
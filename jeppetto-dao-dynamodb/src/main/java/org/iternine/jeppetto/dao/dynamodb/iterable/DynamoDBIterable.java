@@ -18,7 +18,7 @@ package org.iternine.jeppetto.dao.dynamodb.iterable;
 
 
 import org.iternine.jeppetto.dao.JeppettoException;
-import org.iternine.jeppetto.dao.dynamodb.DynamoDBPersistable;
+import org.iternine.jeppetto.dao.dynamodb.HashKeySharding;
 import org.iternine.jeppetto.enhance.Enhancer;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
@@ -29,13 +29,15 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
 
 
+/**
+ * The items found by a DAO query, read from DynamoDB as they are iterated over.  PagedIterable reads the pages of a
+ * single request, and FanOutQueryIterable combines several queries.  Options must be set before iterator() is called.
+ */
 public abstract class DynamoDBIterable<T> implements Iterable<T> {
 
     //-------------------------------------------------------------
@@ -45,7 +47,8 @@ public abstract class DynamoDBIterable<T> implements Iterable<T> {
     private AmazonDynamoDB dynamoDB;
     private Enhancer<T> enhancer;
     private int limit = -1;
-    private DynamoDBIterator dynamoDBIterator;
+    private int pageSize = -1;
+    private HashKeySharding hashKeySharding;
 
 
     //-------------------------------------------------------------
@@ -62,60 +65,78 @@ public abstract class DynamoDBIterable<T> implements Iterable<T> {
     // Methods - Abstract
     //-------------------------------------------------------------
 
-    protected abstract void setExclusiveStartKey(Map<String, AttributeValue> exclusiveStartKey);
+    /**
+     * @param removeHashKey whether to leave the hash key out of the position, for use with setPosition(position,
+     *                      hashKeyValue)
+     *
+     * @return the position after the last item returned, or null if there are no more items
+     */
+    public abstract String getPosition(boolean removeHashKey);
 
-    protected abstract Iterator<Map<String, AttributeValue>> fetchItems();
 
-    protected abstract boolean moreAvailable();
+    /**
+     * @param position a position previously returned by getPosition(), or null to start from the beginning
+     * @param hashKeyValue hash key value to add to a position obtained with getPosition(true), or null
+     */
+    public abstract void setPosition(String position, String hashKeyValue);
 
-    protected abstract Collection<String> getKeyFields();
 
-    protected abstract String getHashKeyField();
+    /**
+     * Caps the read capacity an iteration may consume.  Once the Query or Scan requests issued by an iteration have
+     * consumed at least 'maxReadCapacityUnits', no further requests are made and the iterator ends after the items
+     * already read.  getPosition() then returns the point the last request left off, so the iteration may be resumed
+     * (for example, in a later time slice) with setPosition().  The last request may take the total over the cap.
+     *
+     * @param maxReadCapacityUnits read capacity units after which no further requests are made
+     */
+    public abstract void setMaxReadCapacityUnits(double maxReadCapacityUnits);
 
 
-    //-------------------------------------------------------------
-    // Implementation - Iterable
-    //-------------------------------------------------------------
+    /**
+     * @return the read capacity units consumed by the current iteration's requests, as reported by DynamoDB
+     */
+    public abstract double getConsumedReadCapacityUnits();
 
-    @Override
-    public Iterator<T> iterator() {
-        dynamoDBIterator = new DynamoDBIterator(limit);
 
-        return dynamoDBIterator;
-    }
+    /**
+     * Enables fetching of subsequent pages in the background while the current page is being consumed.  At most
+     * 'prefetchDepth' pages are held ahead of the consumer, and when a limit has been set, no pages are fetched
+     * once enough items have been retrieved to satisfy the limit and hasResultsPastLimit().  Position tracking is
+     * unaffected since it is based on the last item returned by the iterator.  Pages are only fetched ahead once an
+     * executor has been provided with setPrefetchExecutor().
+     *
+     * @param prefetchDepth number of pages to fetch ahead, or 0 to fetch each page only when needed (the default)
+     */
+    public abstract void setPrefetchDepth(int prefetchDepth);
 
 
-    //-------------------------------------------------------------
-    // Methods - Public
-    //-------------------------------------------------------------
+    /**
+     * Sets the executor on which pages are fetched ahead, typically the DAO's own bounded executor.  If a prefetch is
+     * still queued when its page is needed, the consuming thread fetches the page itself.
+     *
+     * @param prefetchExecutor executor for background fetches, or null to fetch each page only when needed
+     */
+    public abstract void setPrefetchExecutor(ExecutorService prefetchExecutor);
 
-    public String getPosition() {
-        return getPosition(false);
-    }
 
+    /**
+     * @return true if there are items past the limit; only valid once the iterator has been read to the limit
+     */
+    public abstract boolean hasResultsPastLimit();
 
-    public String getPosition(boolean removeHashKey) {
-        Map<String, AttributeValue> lastExaminedKey = getLastExaminedKey(removeHashKey);
 
-        if (lastExaminedKey == null) {
-            return null;
-        }
+    /**
+     * @return true once iteration has begun, after which options may no longer be changed
+     */
+    protected abstract boolean hasStarted();
 
-        StringBuilder sb = new StringBuilder();
 
-        try {
-            for (Map.Entry<String, AttributeValue> entry : lastExaminedKey.entrySet()) {
-                if (sb.length() > 0) {
-                    sb.append("&");
-                }
-
-                sb.append(entry.getKey()).append('=').append(encode(entry.getValue()));
-            }
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
 
-            return URLEncoder.encode(Base64.encodeAsString(sb.toString().getBytes()), StandardCharsets.UTF_8.name());
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);      // Unexpected since UTF-8 is the system standard.
-        }
+    public String getPosition() {
+        return getPosition(false);
     }
 
 
@@ -124,49 +145,15 @@ public abstract class DynamoDBIterable<T> implements Iterable<T> {
     }
 
 
-    public void setPosition(String position, String hashKeyValue) {
-        if (dynamoDBIterator != null) {
-            throw new JeppettoException("setPosition() only valid on a new DynamoDBIterable.");
-        }
-
-        if (position == null) {
-            return;
-        }
-
-        try {
-            byte[] decodedBytes = Base64.decode(URLDecoder.decode(position, StandardCharsets.UTF_8.name()));
-            String[] attributePairs = new String(decodedBytes).split("&");
-
-            if (attributePairs.length == 0) {
-                return;
-            }
-
-            Map<String, AttributeValue> exclusiveStartKey = new HashMap<String, AttributeValue>();
-
-            for (String attributePair : attributePairs) {
-                String[] parts = attributePair.split("=");
-
-                if (parts.length != 2) {
-                    throw new JeppettoException("Corrupted position: " + position + "; found attribute: " + attributePair);
-                }
-
-                exclusiveStartKey.put(parts[0], decode(parts[1]));
-            }
-
-            if (hashKeyValue != null) {
-                // TODO: support types other than just 'S'
-                exclusiveStartKey.put(getHashKeyField(), new AttributeValue(hashKeyValue));
-            }
-
-            setExclusiveStartKey(exclusiveStartKey);
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);      // Unexpected since UTF-8 is the system standard.
-        }
-    }
-
-
+    /**
+     * Limits the number of items returned by the iterator.  The limit (plus one, to answer hasResultsPastLimit()) is
+     * also applied to the underlying Query or Scan requests, so no more items are read than needed.  When a filter
+     * expression discards items, subsequent requests are sized up by the fraction of evaluated items that matched.
+     *
+     * @param limit maximum number of items to return
+     */
     public void setLimit(int limit) {
-        if (dynamoDBIterator != null) {
+        if (hasStarted()) {
             throw new JeppettoException("setLimit() only valid on a new DynamoDBIterable.");
         }
 
@@ -175,18 +162,35 @@ public abstract class DynamoDBIterable<T> implements Iterable<T> {
         }
 
         this.limit = limit;
-
-        // TODO: Should this limit be applied to the underlying query/scan?  If so, add 'plus one' parameter
     }
 
 
-    public boolean hasResultsPastLimit() {
-        if (limit == -1) {
-            throw new JeppettoException("An iterable limit wasn't specified with setLimit()");
+    /**
+     * Caps the number of items each underlying Query or Scan request evaluates, without limiting how many items the
+     * iterator returns; further pages are requested as the iterator is read.  When a limit has also been set, each
+     * request uses the smaller of the page size and the number the limit calls for.
+     *
+     * @param pageSize maximum number of items evaluated per request
+     */
+    public void setPageSize(int pageSize) {
+        if (hasStarted()) {
+            throw new JeppettoException("setPageSize() only valid on a new DynamoDBIterable.");
+        }
+
+        if (pageSize < 1) {
+            throw new JeppettoException("pageSize value must be a positive integer");
         }
 
-        // TODO: the result is only valid if the iterator was finished.  Should we try to detect and error if not?
-        return dynamoDBIterator.hasNext0();
+        this.pageSize = pageSize;
+    }
+
+
+    /**
+     * Converts items read from a table with sharded hash keys back to their logical hash keys.  Positions continue
+     * to refer to the physical keys.
+     */
+    public void setHashKeySharding(HashKeySharding hashKeySharding) {
+        this.hashKeySharding = hashKeySharding;
     }
 
 
@@ -204,30 +208,76 @@ public abstract class DynamoDBIterable<T> implements Iterable<T> {
     }
 
 
-    //-------------------------------------------------------------
-    // Methods - Private
-    //-------------------------------------------------------------
+    protected HashKeySharding getHashKeySharding() {
+        return hashKeySharding;
+    }
 
-    private Map<String, AttributeValue> getLastExaminedKey(boolean removeHashKey) {
-        Map<String, AttributeValue> generatedKey = new HashMap<String, AttributeValue>(getKeyFields().size());
 
-        if (!dynamoDBIterator.hasNext0()) {
-            return null;
-        }
+    protected int getLimit() {
+        return limit;
+    }
+
+
+    protected int getPageSize() {
+        return pageSize;
+    }
 
-        for (String keyField : getKeyFields()) {
-            if (removeHashKey && keyField.equals(getHashKeyField())) {
-                continue;
+
+    protected static String encodePosition(Map<String, AttributeValue> key) {
+        StringBuilder sb = new StringBuilder();
+
+        try {
+            for (Map.Entry<String, AttributeValue> entry : key.entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append("&");
+                }
+
+                sb.append(entry.getKey()).append('=').append(encode(entry.getValue()));
             }
 
-            generatedKey.put(keyField, dynamoDBIterator.getLastItem().get(keyField));
+            return URLEncoder.encode(Base64.encodeAsString(sb.toString().getBytes()), StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);      // Unexpected since UTF-8 is the system standard.
         }
+    }
+
+
+    /**
+     * @return the key encoded in the position, or null if the position is empty
+     */
+    protected static Map<String, AttributeValue> decodePosition(String position) {
+        try {
+            byte[] decodedBytes = Base64.decode(URLDecoder.decode(position, StandardCharsets.UTF_8.name()));
+            String[] attributePairs = new String(decodedBytes).split("&");
+
+            if (attributePairs.length == 0) {
+                return null;
+            }
+
+            Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+
+            for (String attributePair : attributePairs) {
+                String[] parts = attributePair.split("=");
+
+                if (parts.length != 2) {
+                    throw new JeppettoException("Corrupted position: " + position + "; found attribute: " + attributePair);
+                }
+
+                key.put(parts[0], decode(parts[1]));
+            }
 
-        return generatedKey;
+            return key;
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);      // Unexpected since UTF-8 is the system standard.
+        }
     }
 
 
-    private String encode(AttributeValue attributeValue)
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private static String encode(AttributeValue attributeValue)
             throws UnsupportedEncodingException {
         String intermediate;
 
@@ -243,7 +293,7 @@ public abstract class DynamoDBIterable<T> implements Iterable<T> {
     }
 
 
-    private AttributeValue decode(String encoded)
+    private static AttributeValue decode(String encoded)
             throws UnsupportedEncodingException {
         if (encoded.startsWith("S")) {
             return new AttributeValue().withS(URLDecoder.decode(encoded.substring(1), StandardCharsets.UTF_8.name()));
@@ -253,93 +303,4 @@ public abstract class DynamoDBIterable<T> implements Iterable<T> {
             throw new JeppettoException("Can only handle 'S' and 'N' scalar types: " + encoded);
         }
     }
-
-
-    //-------------------------------------------------------------
-    // Inner Class - DynamoDBIterator
-    //-------------------------------------------------------------
-
-    class DynamoDBIterator implements Iterator<T> {
-
-        //-------------------------------------------------------------
-        // Variables - Private
-        //-------------------------------------------------------------
-
-        private Iterator<Map<String, AttributeValue>> iterator;
-        private int remaining;
-        private Map<String, AttributeValue> lastItem;
-
-
-        //-------------------------------------------------------------
-        // Constructors
-        //-------------------------------------------------------------
-
-        DynamoDBIterator(int limit) {
-            this.iterator = fetchItems();
-            this.remaining = limit;
-        }
-
-
-        //-------------------------------------------------------------
-        // Implementation - Iterator
-        //-------------------------------------------------------------
-
-        @Override
-        public boolean hasNext() {
-            return remaining != 0 && hasNext0();
-        }
-
-
-        @Override
-        public T next() {
-            if (remaining == 0) {
-                throw new NoSuchElementException("Limit for query was reached.");
-            }
-
-            remaining--;
-
-            lastItem = iterator.next();
-
-            T t = enhancer.newInstance();
-
-            ((DynamoDBPersistable) t).__putAll(lastItem);
-            ((DynamoDBPersistable) t).__markPersisted(dynamoDB.toString());
-
-            return t;
-        }
-
-
-        @Override
-        public void remove() {
-            throw new UnsupportedOperationException();
-        }
-
-
-        //-------------------------------------------------------------
-        // Methods - Private
-        //-------------------------------------------------------------
-
-        private boolean hasNext0() {
-            if (iterator.hasNext()) {
-                return true;
-            }
-
-            // No items in the current iterator.  If more items are available, fetch them and recheck the (new)
-            // current iterator.  Continue until no more.
-            while (moreAvailable()) {
-                iterator = fetchItems();
-
-                if (iterator.hasNext()) {
-                    return true;
-                }
-            }
-
-            return false;
-        }
-
-
-        private Map<String, AttributeValue> getLastItem() {
-            return lastItem;
-        }
-    }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb.iterable;
+
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A single page of results read by one Query or Scan request.  The page's position may be handed back to read the
+ * following page, and uses the same encoding as DynamoDBIterable.getPosition() and setPosition().
+ */
+public class DynamoDBPage<T> {
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final List<T> items;
+    private final String position;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    /**
+     * @param items read by the request
+     * @param lastEvaluatedKey returned by the request, or null if there are no further pages
+     */
+    public DynamoDBPage(List<T> items, Map<String, AttributeValue> lastEvaluatedKey) {
+        this.items = items;
+        this.position = lastEvaluatedKey == null ? null : DynamoDBIterable.encodePosition(lastEvaluatedKey);
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    public List<T> getItems() {
+        return items;
+    }
+
+
+    /**
+     * @return the position from which to read the next page, or null if this is the last page
+     */
+    public String getPosition() {
+        return position;
+    }
+
+
+    public boolean hasMore() {
+        return position != null;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public - Static
+    //-------------------------------------------------------------
+
+    /**
+     * @param position a page's or a DynamoDBIterable's position, or null
+     *
+     * @return the ExclusiveStartKey that resumes reading at the position, or null to start at the beginning
+     */
+    public static Map<String, AttributeValue> toExclusiveStartKey(String position) {
+        return position == null ? null : DynamoDBIterable.decodePosition(position);
+    }
+}
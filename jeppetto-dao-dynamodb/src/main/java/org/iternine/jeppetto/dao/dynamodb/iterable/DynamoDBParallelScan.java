@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb.iterable;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.MergingIterator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A scan of a DynamoDB table that has been divided into segments (using the Segment and TotalSegments parameters),
+ * at most 'parallelism' of which are read concurrently.  Segments are consumed either by handing each to a
+ * SegmentCallback, or by iterating over the merged (and unordered) results.
+ *
+ * Each segment is a ScanIterable, so its progress can be saved with getPosition() and restored by calling
+ * setPosition() on the corresponding segment (see getSegment()) of a new parallel scan with the same number of
+ * segments.  Segments whose position is null at the end of a scan are complete; pass them to setSegmentComplete()
+ * when resuming.
+ */
+public class DynamoDBParallelScan<T>
+        implements Iterable<T> {
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final List<ScanIterable<T>> segments;
+    private final boolean[] completeSegments;
+    private final ExecutorService executorService;
+    private final int parallelism;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    public DynamoDBParallelScan(List<ScanIterable<T>> segments, ExecutorService executorService, int parallelism) {
+        this.segments = segments;
+        this.completeSegments = new boolean[segments.size()];
+        this.executorService = executorService;
+        this.parallelism = Math.max(1, Math.min(parallelism, segments.size()));
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    public int getTotalSegments() {
+        return segments.size();
+    }
+
+
+    /**
+     * @param segment zero-based segment number
+     *
+     * @return the iterable for the given segment; may be configured (e.g. with setPosition()) before scanning
+     */
+    public ScanIterable<T> getSegment(int segment) {
+        return segments.get(segment);
+    }
+
+
+    /**
+     * Marks a segment as already complete (e.g. when resuming a scan) so it is not read again.
+     *
+     * @param segment zero-based segment number
+     */
+    public void setSegmentComplete(int segment) {
+        completeSegments[segment] = true;
+    }
+
+
+    /**
+     * Hands each segment to the callback, blocking until all segments have been processed.  If processing of any
+     * segment fails, the remaining segments are cancelled and the failure is rethrown.
+     *
+     * @param segmentCallback callback to invoke for each segment; invoked concurrently from multiple threads
+     */
+    public void forEachSegment(final SegmentCallback<T> segmentCallback)
+            throws JeppettoException {
+        final AtomicInteger nextSegment = new AtomicInteger(0);
+        List<Future<?>> futures = new ArrayList<>(parallelism);
+
+        for (int i = 0; i < parallelism; i++) {
+            futures.add(executorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    int segment;
+
+                    while ((segment = nextIncompleteSegment(nextSegment)) != -1) {
+                        segmentCallback.process(segment, segments.get(segment));
+                    }
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            cancel(futures);
+
+            throw MergingIterator.rethrow(e.getCause());
+        } catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+
+            throw new JeppettoException(e);
+        }
+    }
+
+
+    /**
+     * Iterates over the results of all segments as they arrive.  Results are not ordered.  Iterators returned by
+     * this method implement Closeable; callers that stop iterating before reaching the end should close the iterator
+     * to stop the remaining segments from being read.
+     *
+     * @return merged iterator over all segments
+     */
+    @Override
+    public Iterator<T> iterator() {
+        List<MergingIterator.Producer<T>> producers = new ArrayList<>(segments.size());
+
+        for (int segment = 0; segment < segments.size(); segment++) {
+            if (!completeSegments[segment]) {
+                producers.add(new SegmentProducer(segments.get(segment)));
+            }
+        }
+
+        return new MergingIterator<>(executorService, producers, parallelism);
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private int nextIncompleteSegment(AtomicInteger nextSegment) {
+        int segment;
+
+        while ((segment = nextSegment.getAndIncrement()) < segments.size()) {
+            if (!completeSegments[segment]) {
+                return segment;
+            }
+        }
+
+        return -1;
+    }
+
+
+    private static void cancel(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Interface
+    //-------------------------------------------------------------
+
+    public interface SegmentCallback<T> {
+
+        /**
+         * @param segment zero-based segment number
+         * @param items items within the segment.  May be iterated once; its position may be saved to resume the segment.
+         */
+        void process(int segment, DynamoDBIterable<T> items);
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class
+    //-------------------------------------------------------------
+
+    private class SegmentProducer
+            implements MergingIterator.Producer<T> {
+
+        private final ScanIterable<T> segment;
+
+
+        private SegmentProducer(ScanIterable<T> segment) {
+            this.segment = segment;
+        }
+
+
+        @Override
+        public void produce(MergingIterator.Sink<T> sink)
+                throws InterruptedException {
+            for (T item : segment) {
+                sink.put(item);
+            }
+        }
+
+
+        @Override
+        public void close() {
+            // Nothing held between requests
+        }
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb.iterable;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.dynamodb.ConversionUtil;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBPersistable;
+import org.iternine.jeppetto.enhance.Enhancer;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+
+
+/**
+ * Combines the results of one query per hash key value, as used to satisfy a 'Within' condition on a hash key.  The
+ * partitions' first pages are fetched concurrently when each partition has a prefetchDepth of at least one and a
+ * prefetch executor.  When a sort field is given, the partitions' results (each already sorted by DynamoDB) are
+ * merged by that field; otherwise partitions are returned one after another, in the order of the hash key values.
+ *
+ * Positions record how far each partition has been read, so a position may only be applied to a FanOutQueryIterable
+ * for the same hash key values.
+ */
+public class FanOutQueryIterable<T> extends DynamoDBIterable<T> {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final String NOT_STARTED = "";
+    private static final String EXHAUSTED = "~";
+    private static final String SEPARATOR = "|";
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final List<QueryIterable<T>> partitions;
+    private final String sortField;
+    private final boolean ascending;
+    private final boolean[] skipPartition;
+    private FanOutIterator fanOutIterator;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    /**
+     * @param partitions one query per hash key value
+     * @param sortField field to merge the partitions' results by, or null to return the partitions in order
+     * @param ascending whether the partitions are sorted in ascending order of the sortField
+     */
+    public FanOutQueryIterable(AmazonDynamoDB dynamoDB, Enhancer<T> enhancer, List<QueryIterable<T>> partitions,
+                               String sortField, boolean ascending) {
+        super(dynamoDB, enhancer);
+
+        this.partitions = partitions;
+        this.sortField = sortField;
+        this.ascending = ascending;
+        this.skipPartition = new boolean[partitions.size()];
+    }
+
+
+    //-------------------------------------------------------------
+    // Implementation - Iterable
+    //-------------------------------------------------------------
+
+    @Override
+    public Iterator<T> iterator() {
+        fanOutIterator = new FanOutIterator(getLimit());
+
+        return fanOutIterator;
+    }
+
+
+    //-------------------------------------------------------------
+    // Implementation - DynamoDBIterable
+    //-------------------------------------------------------------
+
+    @Override
+    public String getPosition(boolean removeHashKey) {
+        if (fanOutIterator == null || !fanOutIterator.hasNext0()) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < partitions.size(); i++) {
+            if (i > 0) {
+                sb.append(SEPARATOR);
+            }
+
+            sb.append(fanOutIterator.getPartitionPosition(i));
+        }
+
+        try {
+            return URLEncoder.encode(sb.toString(), StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);      // Unexpected since UTF-8 is the system standard.
+        }
+    }
+
+
+    /**
+     * @param position a position previously returned by getPosition()
+     * @param hashKeyValue ignored; the position already identifies each partition's hash key value
+     */
+    @Override
+    public void setPosition(String position, String hashKeyValue) {
+        if (hasStarted()) {
+            throw new JeppettoException("setPosition() only valid on a new DynamoDBIterable.");
+        }
+
+        if (position == null) {
+            return;
+        }
+
+        String[] partitionPositions;
+
+        try {
+            partitionPositions = URLDecoder.decode(position, StandardCharsets.UTF_8.name()).split("\\" + SEPARATOR, -1);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);      // Unexpected since UTF-8 is the system standard.
+        }
+
+        if (partitionPositions.length != partitions.size()) {
+            throw new JeppettoException("Position does not match the " + partitions.size() + " partitions of this query: "
+                                        + position);
+        }
+
+        for (int i = 0; i < partitionPositions.length; i++) {
+            if (partitionPositions[i].equals(EXHAUSTED)) {
+                skipPartition[i] = true;
+            } else if (!partitionPositions[i].equals(NOT_STARTED)) {
+                partitions.get(i).setPosition(partitionPositions[i]);
+            }
+        }
+    }
+
+
+    @Override
+    public void setLimit(int limit) {
+        super.setLimit(limit);
+
+        // No partition needs to supply more than the limit, plus one to answer hasResultsPastLimit().
+        for (QueryIterable<T> partition : partitions) {
+            partition.setLimit(limit + 1);
+        }
+    }
+
+
+    @Override
+    public void setPageSize(int pageSize) {
+        super.setPageSize(pageSize);
+
+        for (QueryIterable<T> partition : partitions) {
+            partition.setPageSize(pageSize);
+        }
+    }
+
+
+    /**
+     * Not supported, since a position can only record how far each partition has read up to the last item returned.
+     */
+    @Override
+    public void setMaxReadCapacityUnits(double maxReadCapacityUnits) {
+        throw new JeppettoException("FanOutQueryIterable doesn't support a read capacity cap.");
+    }
+
+
+    /**
+     * @return the read capacity units consumed by the partitions' current iterations
+     */
+    @Override
+    public double getConsumedReadCapacityUnits() {
+        double consumedReadCapacityUnits = 0;
+
+        for (QueryIterable<T> partition : partitions) {
+            consumedReadCapacityUnits += partition.getConsumedReadCapacityUnits();
+        }
+
+        return consumedReadCapacityUnits;
+    }
+
+
+    @Override
+    public void setPrefetchDepth(int prefetchDepth) {
+        if (hasStarted()) {
+            throw new JeppettoException("setPrefetchDepth() only valid on a new DynamoDBIterable.");
+        }
+
+        for (QueryIterable<T> partition : partitions) {
+            partition.setPrefetchDepth(Math.max(1, prefetchDepth));
+        }
+    }
+
+
+    @Override
+    public void setPrefetchExecutor(ExecutorService prefetchExecutor) {
+        if (hasStarted()) {
+            throw new JeppettoException("setPrefetchExecutor() only valid on a new DynamoDBIterable.");
+        }
+
+        for (QueryIterable<T> partition : partitions) {
+            partition.setPrefetchExecutor(prefetchExecutor);
+        }
+    }
+
+
+    @Override
+    public boolean hasResultsPastLimit() {
+        if (getLimit() == -1) {
+            throw new JeppettoException("An iterable limit wasn't specified with setLimit()");
+        }
+
+        return fanOutIterator.hasNext0();
+    }
+
+
+    @Override
+    protected boolean hasStarted() {
+        return fanOutIterator != null;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private Collection<String> getKeyFields() {
+        return partitions.isEmpty() ? new ArrayList<String>() : partitions.get(0).getKeyFields();
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class - FanOutIterator
+    //-------------------------------------------------------------
+
+    private class FanOutIterator implements Iterator<T> {
+
+        //-------------------------------------------------------------
+        // Variables - Private
+        //-------------------------------------------------------------
+
+        private final List<Iterator<T>> iterators = new ArrayList<>();
+        private final List<T> heads = new ArrayList<>();
+        private final List<T> lastReturned = new ArrayList<>();
+        private int remaining;
+        private int current;        // Partition of the next item, once hasNext0() has found one
+
+
+        //-------------------------------------------------------------
+        // Constructors
+        //-------------------------------------------------------------
+
+        private FanOutIterator(int limit) {
+            // Creating each iterator starts the partition's first fetch in the background.
+            for (int i = 0; i < partitions.size(); i++) {
+                iterators.add(skipPartition[i] ? null : partitions.get(i).iterator());
+                heads.add(null);
+                lastReturned.add(null);
+            }
+
+            this.remaining = limit;
+            this.current = -1;
+        }
+
+
+        //-------------------------------------------------------------
+        // Implementation - Iterator
+        //-------------------------------------------------------------
+
+        @Override
+        public boolean hasNext() {
+            return remaining != 0 && hasNext0();
+        }
+
+
+        @Override
+        public T next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException("Limit for query was reached.");
+            }
+
+            if (!hasNext0()) {
+                throw new NoSuchElementException();
+            }
+
+            T t = heads.set(current, null);
+
+            lastReturned.set(current, t);
+            remaining--;
+            current = -1;
+
+            return t;
+        }
+
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+
+        //-------------------------------------------------------------
+        // Methods - Private
+        //-------------------------------------------------------------
+
+        private boolean hasNext0() {
+            if (current >= 0) {
+                return true;
+            }
+
+            for (int i = 0; i < partitions.size(); i++) {
+                if (!fillHead(i)) {
+                    continue;
+                }
+
+                if (sortField == null) {
+                    current = i;        // Earlier partitions are exhausted
+
+                    return true;
+                }
+
+                if (current < 0 || compare(heads.get(i), heads.get(current)) < 0) {
+                    current = i;
+                }
+            }
+
+            return current >= 0;
+        }
+
+
+        private boolean fillHead(int partition) {
+            if (heads.get(partition) != null) {
+                return true;
+            }
+
+            Iterator<T> iterator = iterators.get(partition);
+
+            if (iterator == null || !iterator.hasNext()) {
+                return false;
+            }
+
+            heads.set(partition, iterator.next());
+
+            return true;
+        }
+
+
+        @SuppressWarnings("unchecked")
+        private int compare(T t0, T t1) {
+            Comparable value0 = (Comparable) ((DynamoDBPersistable) t0).__get(sortField);
+            Comparable value1 = (Comparable) ((DynamoDBPersistable) t1).__get(sortField);
+            int result;
+
+            if (value0 == null || value1 == null) {
+                result = value0 == null ? (value1 == null ? 0 : 1) : -1;    // Items missing the field last
+            } else {
+                result = value0.compareTo(value1);
+            }
+
+            return ascending ? result : -result;
+        }
+
+
+        private String getPartitionPosition(int partition) {
+            if (!fillHead(partition)) {
+                return EXHAUSTED;
+            }
+
+            T t = lastReturned.get(partition);
+
+            if (t == null) {
+                return NOT_STARTED;
+            }
+
+            Map<String, AttributeValue> key = new HashMap<>();
+
+            for (String keyField : getKeyFields()) {
+                key.put(keyField, ConversionUtil.toAttributeValue(((DynamoDBPersistable) t).__get(keyField)));
+            }
+
+            if (getHashKeySharding() != null) {     // Key fields always include the table's hash key
+                key = getHashKeySharding().toPhysical(key, getHashKeySharding().getShard((DynamoDBPersistable) t));
+            }
+
+            return encodePosition(key);
+        }
+    }
+}
@@ -0,0 +1,585 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb.iterable;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBPersistable;
+import org.iternine.jeppetto.dao.dynamodb.HashKeySharding;
+import org.iternine.jeppetto.enhance.Enhancer;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+
+/**
+ * A DynamoDBIterable over the pages of a single Query, Scan or BatchGetItem request, each page starting where the
+ * previous one left off.  Subclasses issue the requests through the methods below; this class tracks the position,
+ * sizes and stops requests according to the limit and read capacity cap, and optionally fetches pages ahead.
+ */
+public abstract class PagedIterable<T> extends DynamoDBIterable<T> {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final int MAX_ADAPTIVE_PAGE_LIMIT = 1000;
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private double maxReadCapacityUnits = -1;
+    private int prefetchDepth;
+    private ExecutorService prefetchExecutor;
+    private volatile boolean backgroundFetch;
+    private DynamoDBIterator dynamoDBIterator;
+    private int fetchedItems;
+    private int evaluatedItems;
+    private double consumedReadCapacityUnits;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    public PagedIterable(AmazonDynamoDB dynamoDB, Enhancer<T> enhancer) {
+        super(dynamoDB, enhancer);
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Abstract
+    //-------------------------------------------------------------
+
+    protected abstract void setExclusiveStartKey(Map<String, AttributeValue> exclusiveStartKey);
+
+    protected abstract Map<String, AttributeValue> getExclusiveStartKey();
+
+    protected abstract Iterator<Map<String, AttributeValue>> fetchItems();
+
+    protected abstract boolean moreAvailable();
+
+    protected abstract Collection<String> getKeyFields();
+
+    protected abstract String getHashKeyField();
+
+
+    //-------------------------------------------------------------
+    // Implementation - Iterable
+    //-------------------------------------------------------------
+
+    @Override
+    public Iterator<T> iterator() {
+        synchronized (this) {
+            fetchedItems = 0;
+            evaluatedItems = 0;
+            consumedReadCapacityUnits = 0;
+        }
+
+        dynamoDBIterator = new DynamoDBIterator(getLimit());
+
+        return dynamoDBIterator;
+    }
+
+
+    //-------------------------------------------------------------
+    // Implementation - DynamoDBIterable
+    //-------------------------------------------------------------
+
+    @Override
+    public String getPosition(boolean removeHashKey) {
+        Map<String, AttributeValue> lastExaminedKey = getLastExaminedKey(removeHashKey);
+
+        if (lastExaminedKey == null) {
+            return null;
+        }
+
+        return encodePosition(lastExaminedKey);
+    }
+
+
+    @Override
+    public void setPosition(String position, String hashKeyValue) {
+        if (hasStarted()) {
+            throw new JeppettoException("setPosition() only valid on a new DynamoDBIterable.");
+        }
+
+        if (position == null) {
+            return;
+        }
+
+        Map<String, AttributeValue> exclusiveStartKey = decodePosition(position);
+
+        if (exclusiveStartKey == null) {
+            return;
+        }
+
+        if (hashKeyValue != null) {
+            // TODO: support types other than just 'S'
+            exclusiveStartKey.put(getHashKeyField(), new AttributeValue(hashKeyValue));
+        }
+
+        setExclusiveStartKey(exclusiveStartKey);
+    }
+
+
+    @Override
+    public void setMaxReadCapacityUnits(double maxReadCapacityUnits) {
+        if (hasStarted()) {
+            throw new JeppettoException("setMaxReadCapacityUnits() only valid on a new DynamoDBIterable.");
+        }
+
+        if (maxReadCapacityUnits <= 0) {
+            throw new JeppettoException("maxReadCapacityUnits value must be positive");
+        }
+
+        this.maxReadCapacityUnits = maxReadCapacityUnits;
+    }
+
+
+    @Override
+    public synchronized double getConsumedReadCapacityUnits() {
+        return consumedReadCapacityUnits;
+    }
+
+
+    @Override
+    public void setPrefetchDepth(int prefetchDepth) {
+        if (hasStarted()) {
+            throw new JeppettoException("setPrefetchDepth() only valid on a new DynamoDBIterable.");
+        }
+
+        if (prefetchDepth < 0) {
+            throw new JeppettoException("prefetchDepth value must not be negative");
+        }
+
+        this.prefetchDepth = prefetchDepth;
+    }
+
+
+    @Override
+    public void setPrefetchExecutor(ExecutorService prefetchExecutor) {
+        if (hasStarted()) {
+            throw new JeppettoException("setPrefetchExecutor() only valid on a new DynamoDBIterable.");
+        }
+
+        this.prefetchExecutor = prefetchExecutor;
+    }
+
+
+    @Override
+    public boolean hasResultsPastLimit() {
+        if (getLimit() == -1) {
+            throw new JeppettoException("An iterable limit wasn't specified with setLimit()");
+        }
+
+        // TODO: the result is only valid if the iterator was finished.  Should we try to detect and error if not?
+        return dynamoDBIterator.hasNext0();
+    }
+
+
+    @Override
+    protected boolean hasStarted() {
+        return dynamoDBIterator != null;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Protected
+    //-------------------------------------------------------------
+
+    protected double getMaxReadCapacityUnits() {
+        return maxReadCapacityUnits;
+    }
+
+
+    /**
+     * @return the Limit for the next Query or Scan request, or null if neither a limit nor a page size has been set.
+     *         With a limit, this is the number of items still needed to reach it plus one (to answer
+     *         hasResultsPastLimit()), scaled up by the ratio of evaluated to returned items observed so far when a
+     *         filter expression has been discarding items.  The page size, if set, caps the result.
+     */
+    protected synchronized Integer getPageLimit() {
+        int limit = getLimit();
+        int pageSize = getPageSize();
+
+        if (limit == -1) {
+            return pageSize == -1 ? null : pageSize;
+        }
+
+        long needed = Math.max(1, (long) limit + 1 - fetchedItems);
+
+        if (evaluatedItems > fetchedItems) {
+            long scaled = needed * evaluatedItems / Math.max(1, fetchedItems);
+
+            needed = Math.min(scaled, Math.max(needed, MAX_ADAPTIVE_PAGE_LIMIT));
+        }
+
+        if (pageSize != -1) {
+            needed = Math.min(needed, pageSize);
+        }
+
+        return (int) Math.min(needed, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Records the outcome of a Query or Scan request issued by fetchItems().
+     *
+     * @param count number of items returned
+     * @param scannedCount number of items evaluated before any filter expression was applied, or null if unknown
+     * @param consumedCapacity returned by the request, or null if not requested
+     */
+    protected synchronized void pageFetched(Integer count, Integer scannedCount, ConsumedCapacity consumedCapacity) {
+        int returned = count == null ? 0 : count;
+
+        fetchedItems += returned;
+        evaluatedItems += scannedCount == null ? returned : scannedCount;
+
+        if (consumedCapacity != null && consumedCapacity.getCapacityUnits() != null) {
+            consumedReadCapacityUnits += consumedCapacity.getCapacityUnits();
+        }
+    }
+
+
+    protected synchronized boolean readCapacityExhausted() {
+        return maxReadCapacityUnits != -1 && consumedReadCapacityUnits >= maxReadCapacityUnits;
+    }
+
+
+    /**
+     * @return true while fetchItems() is running on the prefetch executor.  A fetch running there must not wait on
+     *         further tasks queued to the executor, since they may be queued behind the very threads that are waiting.
+     */
+    protected boolean isBackgroundFetch() {
+        return backgroundFetch;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private Map<String, AttributeValue> getLastExaminedKey(boolean removeHashKey) {
+        Map<String, AttributeValue> generatedKey = new HashMap<String, AttributeValue>(getKeyFields().size());
+        Map<String, AttributeValue> lastExaminedItem;
+
+        if (dynamoDBIterator == null) {
+            // Not yet iterated; the position is still wherever setPosition() placed it, if anywhere.
+            lastExaminedItem = getExclusiveStartKey();
+
+            if (lastExaminedItem == null) {
+                return null;
+            }
+        } else if (dynamoDBIterator.hasNext0()) {
+            lastExaminedItem = dynamoDBIterator.getLastItem();
+        } else if (readCapacityExhausted() && moreAvailable()) {
+            // Stopped by the read capacity cap; resume where the last request left off.
+            lastExaminedItem = getExclusiveStartKey();
+        } else {
+            return null;
+        }
+
+        for (String keyField : getKeyFields()) {
+            if (removeHashKey && keyField.equals(getHashKeyField())) {
+                continue;
+            }
+
+            generatedKey.put(keyField, lastExaminedItem.get(keyField));
+        }
+
+        return generatedKey;
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class - DynamoDBIterator
+    //-------------------------------------------------------------
+
+    class DynamoDBIterator implements Iterator<T> {
+
+        //-------------------------------------------------------------
+        // Variables - Private
+        //-------------------------------------------------------------
+
+        private Iterator<Map<String, AttributeValue>> iterator;
+        private int remaining;
+        private Map<String, AttributeValue> lastItem;
+        private Prefetcher prefetcher;
+
+
+        //-------------------------------------------------------------
+        // Constructors
+        //-------------------------------------------------------------
+
+        DynamoDBIterator(int limit) {
+            if (prefetchDepth > 0 && prefetchExecutor != null) {
+                this.prefetcher = new Prefetcher(prefetchDepth, limit);
+                this.iterator = Collections.emptyIterator();
+            } else {
+                this.iterator = fetchItems();
+            }
+
+            this.remaining = limit;
+        }
+
+
+        //-------------------------------------------------------------
+        // Implementation - Iterator
+        //-------------------------------------------------------------
+
+        @Override
+        public boolean hasNext() {
+            return remaining != 0 && hasNext0();
+        }
+
+
+        @Override
+        public T next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException("Limit for query was reached.");
+            }
+
+            remaining--;
+
+            lastItem = iterator.next();
+
+            T t = getEnhancer().newInstance();
+            HashKeySharding hashKeySharding = getHashKeySharding();
+
+            ((DynamoDBPersistable) t).__putAll(hashKeySharding == null ? lastItem : hashKeySharding.toLogical(lastItem));
+            ((DynamoDBPersistable) t).__markPersisted(getDynamoDB().toString());
+
+            return t;
+        }
+
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+
+        //-------------------------------------------------------------
+        // Methods - Private
+        //-------------------------------------------------------------
+
+        private boolean hasNext0() {
+            if (iterator.hasNext()) {
+                return true;
+            }
+
+            if (prefetcher != null) {
+                while ((iterator = prefetcher.nextPage()) != null) {
+                    if (iterator.hasNext()) {
+                        return true;
+                    }
+                }
+
+                iterator = Collections.emptyIterator();
+
+                return false;
+            }
+
+            // No items in the current iterator.  If more items are available, fetch them and recheck the (new)
+            // current iterator.  Continue until no more.
+            while (moreAvailable() && !readCapacityExhausted()) {
+                iterator = fetchItems();
+
+                if (iterator.hasNext()) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+
+        private Map<String, AttributeValue> getLastItem() {
+            return lastItem;
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class - Prefetcher
+    //-------------------------------------------------------------
+
+    /**
+     * Fetches pages on the prefetch executor, one at a time since each page starts where the last left off.  Fetching
+     * pauses (rather than blocking a thread) whenever 'depth' pages are waiting, so an abandoned iteration leaves
+     * nothing behind.  A fetch that is still queued when the consumer needs its page is run by the consumer, so
+     * iteration never waits on a saturated executor.  Fetches running on the executor are flagged (see
+     * isBackgroundFetch()) so that they don't, in turn, wait on tasks queued to it.
+     */
+    private class Prefetcher implements Runnable {
+
+        //-------------------------------------------------------------
+        // Variables - Private
+        //-------------------------------------------------------------
+
+        private final int depth;
+        private final int limit;
+        private final Deque<Iterator<Map<String, AttributeValue>>> pages = new ArrayDeque<>();
+        private int fetchedItems;
+        private boolean fetching;
+        private boolean fetchStarted;
+        private boolean exhausted;
+        private RuntimeException failure;
+
+
+        //-------------------------------------------------------------
+        // Constructors
+        //-------------------------------------------------------------
+
+        private Prefetcher(int depth, int limit) {
+            this.depth = depth;
+            this.limit = limit;
+
+            synchronized (this) {
+                schedule();
+            }
+        }
+
+
+        //-------------------------------------------------------------
+        // Implementation - Runnable
+        //-------------------------------------------------------------
+
+        @Override
+        public void run() {
+            fetch(true);
+        }
+
+
+        //-------------------------------------------------------------
+        // Methods - Private
+        //-------------------------------------------------------------
+
+        private void fetch(boolean background) {
+            synchronized (this) {
+                if (!fetching || fetchStarted) {
+                    return;     // Already run by the consumer or the executor
+                }
+
+                fetchStarted = true;
+            }
+
+            List<Map<String, AttributeValue>> page = new ArrayList<>();
+            RuntimeException fetchFailure = null;
+            boolean more = false;
+
+            backgroundFetch = background;
+
+            try {
+                Iterator<Map<String, AttributeValue>> items = fetchItems();
+
+                while (items.hasNext()) {
+                    page.add(items.next());
+                }
+
+                more = moreAvailable();
+            } catch (RuntimeException e) {
+                fetchFailure = e;
+            } finally {
+                backgroundFetch = false;
+            }
+
+            synchronized (this) {
+                fetching = false;
+                failure = fetchFailure;
+                exhausted = !more;
+                fetchedItems += page.size();
+
+                if (fetchFailure == null) {
+                    pages.add(page.iterator());
+                }
+
+                schedule();
+                notifyAll();
+            }
+        }
+
+
+        private Iterator<Map<String, AttributeValue>> nextPage() {
+            while (true) {
+                synchronized (this) {
+                    while (pages.isEmpty() && fetching && fetchStarted) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+
+                            throw new JeppettoException(e);
+                        }
+                    }
+
+                    if (!pages.isEmpty() || !fetching) {
+                        Iterator<Map<String, AttributeValue>> page = pages.poll();
+
+                        if (page == null && failure != null) {
+                            throw failure;
+                        }
+
+                        schedule();
+
+                        return page;
+                    }
+                }
+
+                // The fetch is still queued behind busy executor threads; fetch the page on this thread instead.
+                fetch(false);
+            }
+        }
+
+
+        // Must be called while holding this object's monitor.
+        private void schedule() {
+            // With a limit, one item past it is all that is needed to answer hasResultsPastLimit().
+            boolean limitSatisfied = limit != -1 && fetchedItems > limit;
+
+            if (fetching || exhausted || failure != null || limitSatisfied || pages.size() >= depth || readCapacityExhausted()) {
+                return;
+            }
+
+            fetching = true;
+            fetchStarted = false;
+
+            try {
+                prefetchExecutor.execute(this);
+            } catch (RejectedExecutionException ignore) {
+                // The executor has been shut down; the consumer will fetch the page itself.
+            }
+        }
+    }
+}
@@ -23,6 +23,7 @@ import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.QueryRequest;
 import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,7 +32,7 @@ import java.util.Iterator;
 import java.util.Map;
 
 
-public class QueryIterable<T> extends DynamoDBIterable<T> {
+public class QueryIterable<T> extends PagedIterable<T> {
 
     //-------------------------------------------------------------
     // Variables - Private
@@ -68,13 +69,31 @@ public class QueryIterable<T> extends DynamoDBIterable<T> {
     }
 
 
+    @Override
+    protected Map<String, AttributeValue> getExclusiveStartKey() {
+        return queryRequest.getExclusiveStartKey();
+    }
+
+
     @Override
     protected Iterator<Map<String, AttributeValue>> fetchItems() {
+        Integer pageLimit = getPageLimit();
+
+        if (pageLimit != null) {
+            queryRequest.setLimit(pageLimit);
+        }
+
+        if (getMaxReadCapacityUnits() != -1 && queryRequest.getReturnConsumedCapacity() == null) {
+            queryRequest.setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        }
+
         QueryResult currentQueryResult = getDynamoDB().query(queryRequest);
         Iterator<Map<String, AttributeValue>> iterator = currentQueryResult.getItems().iterator();
 
         queryRequest.setExclusiveStartKey(currentQueryResult.getLastEvaluatedKey());    // Prepare for next query
 
+        pageFetched(currentQueryResult.getCount(), currentQueryResult.getScannedCount(), currentQueryResult.getConsumedCapacity());
+
         if (logger.isDebugEnabled()) {
             logger.debug("Queried {} using {}.  Took {} read capacity units, retrieved {} items, more items {} available.",
                          getEnhancer().getBaseClass().getSimpleName(),
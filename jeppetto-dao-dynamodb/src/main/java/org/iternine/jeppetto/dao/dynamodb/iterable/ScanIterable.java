@@ -22,6 +22,7 @@ import org.iternine.jeppetto.enhance.Enhancer;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
 import com.amazonaws.services.dynamodbv2.model.ScanRequest;
 import com.amazonaws.services.dynamodbv2.model.ScanResult;
 import org.slf4j.Logger;
@@ -32,7 +33,7 @@ import java.util.Iterator;
 import java.util.Map;
 
 
-public class ScanIterable<T> extends DynamoDBIterable<T> {
+public class ScanIterable<T> extends PagedIterable<T> {
 
     //-------------------------------------------------------------
     // Variables - Private
@@ -66,13 +67,31 @@ public class ScanIterable<T> extends DynamoDBIterable<T> {
     }
 
 
+    @Override
+    protected Map<String, AttributeValue> getExclusiveStartKey() {
+        return scanRequest.getExclusiveStartKey();
+    }
+
+
     @Override
     protected Iterator<Map<String, AttributeValue>> fetchItems() {
+        Integer pageLimit = getPageLimit();
+
+        if (pageLimit != null) {
+            scanRequest.setLimit(pageLimit);
+        }
+
+        if (getMaxReadCapacityUnits() != -1 && scanRequest.getReturnConsumedCapacity() == null) {
+            scanRequest.setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        }
+
         ScanResult currentScanResult = getDynamoDB().scan(scanRequest);
         Iterator<Map<String, AttributeValue>> iterator = currentScanResult.getItems().iterator();
 
         scanRequest.setExclusiveStartKey(currentScanResult.getLastEvaluatedKey());    // Prepare for next query
 
+        pageFetched(currentScanResult.getCount(), currentScanResult.getScannedCount(), currentScanResult.getConsumedCapacity());
+
         if (logger.isDebugEnabled()) {
             logger.debug("Scanned {} using {}.  Took {} read capacity units, retrieved {} items, more items {} available.",
                          getEnhancer().getBaseClass().getSimpleName(),
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import org.iternine.jeppetto.dao.test.RelatedObject;
+import org.iternine.jeppetto.dao.test.SimpleEnum;
+import org.iternine.jeppetto.dao.test.SimpleObject;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+public class AttributeValueCodecTest {
+
+    //-------------------------------------------------------------
+    // Methods - Test Cases
+    //-------------------------------------------------------------
+
+    @Test
+    public void scalarsRoundTrip() {
+        assertRoundTrip(new AttributeValue("abc"), "abc", String.class);
+        assertRoundTrip(new AttributeValue().withN("42"), 42, Integer.class);
+        assertRoundTrip(new AttributeValue().withN("42"), 42, int.class);
+        assertRoundTrip(new AttributeValue().withN("-7"), -7L, long.class);
+        assertRoundTrip(new AttributeValue().withN("1.5"), 1.5, double.class);
+        assertRoundTrip(new AttributeValue().withN("2.5"), 2.5f, Float.class);
+        assertRoundTrip(new AttributeValue().withN("12"), (short) 12, short.class);
+        assertRoundTrip(new AttributeValue().withN("3"), (byte) 3, Byte.class);
+        assertRoundTrip(new AttributeValue().withBOOL(true), true, boolean.class);
+        assertRoundTrip(new AttributeValue("x"), 'x', char.class);
+        assertRoundTrip(new AttributeValue().withN("12345678901234567890.5"), new BigDecimal("12345678901234567890.5"), BigDecimal.class);
+        assertRoundTrip(new AttributeValue().withN("98765432109876543210"), new BigInteger("98765432109876543210"), BigInteger.class);
+        assertRoundTrip(new AttributeValue().withN("1000"), new Date(1000), Date.class);
+        assertRoundTrip(new AttributeValue("EnumValue"), SimpleEnum.EnumValue, SimpleEnum.class);
+    }
+
+
+    @Test
+    public void bytesRoundTrip() {
+        byte[] bytes = { 1, 2, 3 };
+        AttributeValueCodec codec = AttributeValueCodec.forType(byte[].class, null);
+        AttributeValue attributeValue = codec.encode(bytes);
+
+        Assert.assertEquals(ByteBuffer.wrap(bytes), attributeValue.getB());
+        Assert.assertTrue(Arrays.equals(bytes, (byte[]) codec.decode(attributeValue)));
+    }
+
+
+    @Test
+    public void setsAreWrittenAsStringSets() {
+        Set<Integer> numbers = new HashSet<Integer>(Arrays.asList(1, 2, 3));
+        AttributeValueCodec codec = AttributeValueCodec.forType(Set.class, Integer.class);
+        AttributeValue attributeValue = codec.encode(numbers);
+
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("1", "2", "3")), new HashSet<String>(attributeValue.getSS()));
+        Assert.assertEquals(numbers, codec.decode(attributeValue));
+        Assert.assertEquals(numbers, codec.decode(new AttributeValue().withNS("1", "2", "3")));
+
+        Set<String> strings = new HashSet<String>(Arrays.asList("a", "b"));
+
+        Assert.assertEquals(strings, AttributeValueCodec.forType(Set.class, null).decode(AttributeValueCodec.forType(Set.class, null).encode(strings)));
+    }
+
+
+    @Test
+    public void numberSetsMatchConversionUtil() {
+        Set<Long> numbers = new HashSet<Long>(Arrays.asList(5L, 6L));
+        AttributeValue attributeValue = ConversionUtil.toAttributeValue(numbers, Long.class);
+
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("5", "6")), new HashSet<String>(attributeValue.getNS()));
+        Assert.assertEquals(numbers, ConversionUtil.fromAttributeValue(attributeValue, Set.class, Long.class));
+    }
+
+
+    @Test
+    public void listsAndMapsRoundTrip() {
+        List<Date> dates = Arrays.asList(new Date(1), new Date(2));
+        AttributeValueCodec listCodec = AttributeValueCodec.forType(List.class, Date.class);
+        AttributeValue listValue = listCodec.encode(dates);
+
+        Assert.assertEquals(Arrays.asList(new AttributeValue().withN("1"), new AttributeValue().withN("2")), listValue.getL());
+        Assert.assertEquals(dates, listCodec.decode(listValue));
+
+        Map<String, Long> longs = new HashMap<String, Long>();
+
+        longs.put("a", 1L);
+        longs.put("b", 2L);
+
+        AttributeValueCodec mapCodec = AttributeValueCodec.forType(Map.class, Long.class);
+        AttributeValue mapValue = mapCodec.encode(longs);
+
+        Assert.assertEquals(new AttributeValue().withN("2"), mapValue.getM().get("b"));
+        Assert.assertEquals(longs, mapCodec.decode(mapValue));
+    }
+
+
+    @Test
+    public void untypedValuesAreDecodedByAttributeValueType() {
+        AttributeValueCodec codec = AttributeValueCodec.forType(Object.class, null);
+
+        Assert.assertEquals("abc", codec.decode(codec.encode("abc")));
+        Assert.assertEquals(new BigDecimal("4"), codec.decode(codec.encode(4)));
+        Assert.assertEquals(Boolean.TRUE, codec.decode(codec.encode(Boolean.TRUE)));
+        Assert.assertEquals(Arrays.asList("a", new BigDecimal("1")), codec.decode(codec.encode(Arrays.asList("a", 1))));
+        Assert.assertEquals(Collections.singletonMap("k", "v"), codec.decode(codec.encode(Collections.singletonMap("k", "v"))));
+    }
+
+
+    @Test
+    public void nestedObjectsRoundTrip() {
+        SimpleObject simpleObject = new SimpleObject();
+
+        simpleObject.setId("id");
+        simpleObject.setIntValue(1);
+        simpleObject.setLongValue(2L);
+        simpleObject.setDoubleValue(3.5);
+        simpleObject.setStringValue("four");
+        simpleObject.setSimpleEnum(SimpleEnum.EnumValue);
+        simpleObject.setBytes(new byte[] { 5 });
+        simpleObject.setRelatedObject(buildRelatedObject("six", 6));
+        simpleObject.setRelatedObjects(new ArrayList<RelatedObject>(Arrays.asList(buildRelatedObject("seven", 7), buildRelatedObject("eight", 8))));
+        simpleObject.setRelatedObjectMap(new HashMap<String, RelatedObject>(Collections.singletonMap("nine", buildRelatedObject("nine", 9))));
+        simpleObject.setStringList(new ArrayList<String>(Arrays.asList("ten", "eleven")));
+        simpleObject.setStringMap(new HashMap<String, String>(Collections.singletonMap("twelve", "13")));
+        simpleObject.setStringSet(new HashSet<String>(Arrays.asList("fourteen", "fifteen")));
+
+        AttributeValueCodec codec = AttributeValueCodec.forType(SimpleObject.class, null);
+        AttributeValue attributeValue = codec.encode(simpleObject);
+
+        Assert.assertEquals(new AttributeValue().withN("1"), attributeValue.getM().get("intValue"));
+        Assert.assertEquals("six", attributeValue.getM().get("relatedObject").getM().get("relatedStringValue").getS());
+
+        SimpleObject decoded = (SimpleObject) codec.decode(attributeValue);
+
+        Assert.assertEquals("id", decoded.getId());
+        Assert.assertEquals(1, decoded.getIntValue());
+        Assert.assertEquals(2L, decoded.getLongValue());
+        Assert.assertEquals(3.5, decoded.getDoubleValue(), 0.0);
+        Assert.assertEquals("four", decoded.getStringValue());
+        Assert.assertEquals(SimpleEnum.EnumValue, decoded.getSimpleEnum());
+        Assert.assertTrue(Arrays.equals(new byte[] { 5 }, decoded.getBytes()));
+        Assert.assertEquals(simpleObject.getRelatedObject(), decoded.getRelatedObject());
+        Assert.assertEquals(simpleObject.getRelatedObjects(), decoded.getRelatedObjects());
+        Assert.assertEquals(simpleObject.getRelatedObjectMap(), decoded.getRelatedObjectMap());
+        Assert.assertEquals(simpleObject.getStringList(), decoded.getStringList());
+        Assert.assertEquals(simpleObject.getStringMap(), decoded.getStringMap());
+        Assert.assertEquals(simpleObject.getStringSet(), decoded.getStringSet());
+    }
+
+
+    @Test
+    public void codecsAreResolvedOnce() {
+        Assert.assertSame(AttributeValueCodec.forType(List.class, String.class), AttributeValueCodec.forType(List.class, String.class));
+        Assert.assertSame(AttributeValueCodec.forType(SimpleObject.class, null), AttributeValueCodec.forType(SimpleObject.class, null));
+        Assert.assertSame(AttributeValueCodec.forType(int.class, null), AttributeValueCodec.forType(Integer.class, null));
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private void assertRoundTrip(AttributeValue expected, Object value, Class type) {
+        AttributeValueCodec codec = AttributeValueCodec.forType(type, null);
+        AttributeValue attributeValue = codec.encode(value);
+
+        Assert.assertEquals(expected, attributeValue);
+        Assert.assertEquals(expected, ConversionUtil.toAttributeValue(value));
+        Assert.assertEquals(value, codec.decode(attributeValue));
+    }
+
+
+    private RelatedObject buildRelatedObject(String relatedStringValue, int relatedIntValue) {
+        RelatedObject relatedObject = new RelatedObject();
+
+        relatedObject.setRelatedStringValue(relatedStringValue);
+        relatedObject.setRelatedIntValue(relatedIntValue);
+
+        return relatedObject;
+    }
+}
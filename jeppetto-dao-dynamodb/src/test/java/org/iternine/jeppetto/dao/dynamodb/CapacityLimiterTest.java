@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class CapacityLimiterTest {
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final FakeTimeSource timeSource = new FakeTimeSource();
+
+
+    //-------------------------------------------------------------
+    // Methods - Test Cases
+    //-------------------------------------------------------------
+
+    @Test
+    public void newLimiterAllowsOneSecondBurst() {
+        CapacityLimiter limiter = new CapacityLimiter(10, timeSource);
+
+        Assert.assertEquals(0, limiter.acquire());
+        limiter.consume(10);
+        Assert.assertEquals(0, limiter.acquire());
+        Assert.assertEquals(0, timeSource.getSleptMillis());
+    }
+
+
+    @Test
+    public void debtDelaysNextAcquire() {
+        CapacityLimiter limiter = new CapacityLimiter(10, timeSource);
+
+        limiter.consume(25);
+
+        Assert.assertEquals(1500, limiter.acquire());
+        Assert.assertEquals(1500, timeSource.getSleptMillis());
+        Assert.assertEquals(0, limiter.acquire());
+    }
+
+
+    @Test
+    public void debtIsRepaidByElapsedTime() {
+        CapacityLimiter limiter = new CapacityLimiter(10, timeSource);
+
+        limiter.consume(20);
+        timeSource.advance(400);
+
+        Assert.assertEquals(600, limiter.acquire());
+    }
+
+
+    @Test
+    public void refillIsCappedAtOneSecond() {
+        CapacityLimiter limiter = new CapacityLimiter(10, timeSource);
+
+        timeSource.advance(10000);
+        limiter.consume(15);
+
+        Assert.assertEquals(500, limiter.acquire());
+    }
+
+
+    @Test
+    public void waitsAddUpAcrossConsumers() {
+        CapacityLimiter limiter = new CapacityLimiter(100, timeSource);
+
+        limiter.consume(150);
+        Assert.assertEquals(500, limiter.acquire());
+
+        limiter.consume(50);
+        limiter.consume(50);
+        Assert.assertEquals(1000, limiter.acquire());
+        Assert.assertEquals(1500, timeSource.getSleptMillis());
+    }
+
+
+    @Test(expected = JeppettoException.class)
+    public void limitMustBePositive() {
+        new CapacityLimiter(0, timeSource);
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class
+    //-------------------------------------------------------------
+
+    static class FakeTimeSource
+            implements CapacityLimiter.TimeSource {
+        private long nanos = 1000000000L;
+        private long sleptMillis;
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+
+        @Override
+        public void sleep(long millis) {
+            sleptMillis += millis;
+            advance(millis);
+        }
+
+        void advance(long millis) {
+            nanos += millis * 1000000L;
+        }
+
+        long getSleptMillis() {
+            return sleptMillis;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.Capacity;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class DynamoDBCapacityMonitorTest {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final String TABLE_NAME = "Monitored";
+    private static final String INDEX_NAME = "ByOwner";
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final CapacityLimiterTest.FakeTimeSource timeSource = new CapacityLimiterTest.FakeTimeSource();
+    private final List<Object> requests = new ArrayList<>();
+    private ConsumedCapacity nextConsumedCapacity;
+    private DynamoDBCapacityMonitor monitor;
+    private AmazonDynamoDB dynamoDB;
+
+
+    //-------------------------------------------------------------
+    // Methods - Set-Up / Tear-Down
+    //-------------------------------------------------------------
+
+    @Before
+    public void setUp() {
+        Map<String, Object> daoProperties = new HashMap<>();
+
+        daoProperties.put("readCapacityLimit", "10");
+        daoProperties.put("writeCapacityLimit." + INDEX_NAME, "5");
+
+        monitor = new DynamoDBCapacityMonitor(TABLE_NAME, daoProperties, timeSource);
+        dynamoDB = monitor.monitor(buildFakeDynamoDB());
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Test Cases
+    //-------------------------------------------------------------
+
+    @Test
+    public void isConfiguredByLimitsOrMetricsProperty() {
+        Assert.assertFalse(DynamoDBCapacityMonitor.isConfigured(Collections.<String, Object>emptyMap()));
+        Assert.assertTrue(DynamoDBCapacityMonitor.isConfigured(Collections.<String, Object>singletonMap("capacityMetrics", "true")));
+        Assert.assertFalse(DynamoDBCapacityMonitor.isConfigured(Collections.<String, Object>singletonMap("capacityMetrics", "false")));
+        Assert.assertTrue(DynamoDBCapacityMonitor.isConfigured(Collections.<String, Object>singletonMap("writeCapacityLimit", "1")));
+    }
+
+
+    @Test
+    public void readsAreMeasuredAndPaced() {
+        QueryRequest queryRequest = new QueryRequest(TABLE_NAME);
+
+        nextConsumedCapacity = new ConsumedCapacity().withTableName(TABLE_NAME).withCapacityUnits(15.0);
+        dynamoDB.query(queryRequest);
+
+        Assert.assertEquals(ReturnConsumedCapacity.INDEXES.toString(), queryRequest.getReturnConsumedCapacity());
+
+        nextConsumedCapacity = new ConsumedCapacity().withTableName(TABLE_NAME).withCapacityUnits(2.0);
+        dynamoDB.query(new QueryRequest(TABLE_NAME));
+
+        CapacityMetrics queryMetrics = monitor.getOperationMetrics().get("Query");
+
+        Assert.assertEquals(2, queryMetrics.getRequests());
+        Assert.assertEquals(17.0, queryMetrics.getCapacityUnits(), 0.0);
+        Assert.assertEquals(500, queryMetrics.getThrottledMillis());
+        Assert.assertEquals(500, timeSource.getSleptMillis());
+        Assert.assertEquals(17.0, monitor.getResourceMetrics().get(TABLE_NAME).getCapacityUnits(), 0.0);
+    }
+
+
+    @Test
+    public void writesAreAttributedToTableAndIndexes() {
+        nextConsumedCapacity = new ConsumedCapacity().withTableName(TABLE_NAME)
+                                                     .withCapacityUnits(9.0)
+                                                     .withTable(new Capacity().withCapacityUnits(2.0))
+                                                     .withGlobalSecondaryIndexes(Collections.singletonMap(INDEX_NAME, new Capacity().withCapacityUnits(7.0)));
+        dynamoDB.putItem(new PutItemRequest());
+
+        nextConsumedCapacity = null;
+        dynamoDB.putItem(new PutItemRequest());
+
+        CapacityMetrics putMetrics = monitor.getOperationMetrics().get("PutItem");
+
+        Assert.assertEquals(2, putMetrics.getRequests());
+        Assert.assertEquals(9.0, putMetrics.getCapacityUnits(), 0.0);
+        Assert.assertEquals(400, putMetrics.getThrottledMillis());     // 2 units of debt at 5 units per second
+        Assert.assertEquals(2.0, monitor.getResourceMetrics().get(TABLE_NAME).getCapacityUnits(), 0.0);
+        Assert.assertEquals(7.0, monitor.getResourceMetrics().get(TABLE_NAME + "/" + INDEX_NAME).getCapacityUnits(), 0.0);
+    }
+
+
+    @Test
+    public void capacityOfOtherTablesIsIgnored() {
+        nextConsumedCapacity = new ConsumedCapacity().withTableName("Other").withCapacityUnits(100.0);
+        dynamoDB.query(new QueryRequest("Other"));
+        dynamoDB.query(new QueryRequest("Other"));
+
+        Assert.assertEquals(2, monitor.getOperationMetrics().get("Query").getRequests());
+        Assert.assertEquals(0.0, monitor.getOperationMetrics().get("Query").getCapacityUnits(), 0.0);
+        Assert.assertEquals(0, timeSource.getSleptMillis());
+        Assert.assertNull(monitor.getResourceMetrics().get("Other"));
+    }
+
+
+    @Test
+    public void otherOperationsPassThrough() {
+        DescribeTableRequest describeTableRequest = new DescribeTableRequest(TABLE_NAME);
+
+        dynamoDB.describeTable(describeTableRequest);
+
+        Assert.assertSame(describeTableRequest, requests.get(0));
+        Assert.assertTrue(monitor.getOperationMetrics().isEmpty());
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private AmazonDynamoDB buildFakeDynamoDB() {
+        return (AmazonDynamoDB) Proxy.newProxyInstance(AmazonDynamoDB.class.getClassLoader(),
+                                                       new Class<?>[] { AmazonDynamoDB.class },
+                                                       new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                requests.add(args[0]);
+
+                if (args[0] instanceof QueryRequest) {
+                    return new QueryResult().withConsumedCapacity(nextConsumedCapacity);
+                } else if (args[0] instanceof PutItemRequest) {
+                    return new PutItemResult().withConsumedCapacity(nextConsumedCapacity);
+                } else if (args[0] instanceof DescribeTableRequest) {
+                    return new DescribeTableResult();
+                }
+
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+public class HashKeyShardingTest {
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final HashKeySharding hashKeySharding = new HashKeySharding("hashKey", "rangeKey", 4, HashKeySharding.Strategy.RangeKey);
+
+
+    //-------------------------------------------------------------
+    // Methods - Test Cases
+    //-------------------------------------------------------------
+
+    @Test
+    public void shardedKeyRoundTrips() {
+        Map<String, AttributeValue> item = item("order#abc");
+        int shard = hashKeySharding.getShard(item);
+        Map<String, AttributeValue> physical = hashKeySharding.toPhysical(item, shard);
+
+        Assert.assertEquals("order#abc#" + shard, physical.get("hashKey").getS());
+
+        Map<String, AttributeValue> logical = hashKeySharding.toLogical(physical);
+
+        Assert.assertEquals("order#abc", logical.get("hashKey").getS());
+        Assert.assertEquals(Integer.toString(shard), logical.get(HashKeySharding.SHARD_FIELD).getN());
+    }
+
+
+    @Test
+    public void legacyKeyWithSeparatorPassesThrough() {
+        Map<String, AttributeValue> item = item("order#abc");
+
+        Assert.assertSame(item, hashKeySharding.toLogical(item));
+    }
+
+
+    @Test
+    public void legacyKeyWithOutOfRangeSuffixPassesThrough() {
+        for (String hashKeyValue : new String[] { "order#4", "order#-1", "order#01", "order#+1", "order#" }) {
+            Map<String, AttributeValue> item = item(hashKeyValue);
+
+            Assert.assertSame(hashKeyValue, item, hashKeySharding.toLogical(item));
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private static Map<String, AttributeValue> item(String hashKeyValue) {
+        Map<String, AttributeValue> item = new HashMap<>();
+
+        item.put("hashKey", new AttributeValue(hashKeyValue));
+        item.put("rangeKey", new AttributeValue("R_1"));
+
+        return item;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb;
+
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.LocalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.Projection;
+import com.amazonaws.services.dynamodbv2.model.ProjectionType;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputDescription;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectOutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class TableDescriptionSnapshotTest {
+
+    //-------------------------------------------------------------
+    // Methods - Test Cases
+    //-------------------------------------------------------------
+
+    @Test
+    public void keySchemaAndIndexesRoundTrip()
+            throws IOException {
+        TableDescription tableDescription = buildTableDescription("Item", "hash\tKey\\with\nbreaks");
+        Map<String, TableDescription> tableDescriptions = roundTrip(Collections.singletonMap("Item", tableDescription));
+
+        Assert.assertEquals(Collections.singleton("Item"), tableDescriptions.keySet());
+
+        TableDescription readTableDescription = tableDescriptions.get("Item");
+
+        Assert.assertEquals("Item", readTableDescription.getTableName());
+        Assert.assertEquals(tableDescription.getKeySchema(), readTableDescription.getKeySchema());
+        Assert.assertEquals(Long.valueOf(1200), readTableDescription.getItemCount());
+        Assert.assertNull(readTableDescription.getTableSizeBytes());
+        Assert.assertEquals(tableDescription.getLocalSecondaryIndexes(), readTableDescription.getLocalSecondaryIndexes());
+        Assert.assertEquals(tableDescription.getGlobalSecondaryIndexes(), readTableDescription.getGlobalSecondaryIndexes());
+        Assert.assertNull(readTableDescription.getProvisionedThroughput());
+    }
+
+
+    @Test
+    public void tableWithoutIndexesRoundTrips()
+            throws IOException {
+        TableDescription tableDescription = new TableDescription().withTableName("Simple")
+                                                                  .withKeySchema(new KeySchemaElement("id", KeyType.HASH));
+        TableDescription readTableDescription = roundTrip(Collections.singletonMap("Simple", tableDescription)).get("Simple");
+
+        Assert.assertEquals(tableDescription.getKeySchema(), readTableDescription.getKeySchema());
+        Assert.assertNull(readTableDescription.getLocalSecondaryIndexes());
+        Assert.assertNull(readTableDescription.getGlobalSecondaryIndexes());
+    }
+
+
+    @Test(expected = IOException.class)
+    public void unexpectedRecordIsRejected()
+            throws IOException {
+        TableDescriptionSnapshot.read(new StringReader("jeppetto-table-descriptions 1\nkey\tid\tHASH\n"));
+    }
+
+
+    @Test
+    public void serializedSnapshotIsIgnored()
+            throws IOException {
+        File snapshotFile = File.createTempFile("tableDescriptions", ".snapshot");
+        snapshotFile.deleteOnExit();
+
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(snapshotFile))) {
+            out.writeObject(new HashMap<>(Collections.singletonMap("Item", buildTableDescription("Item", "hashKey"))));
+        }
+
+        AtomicInteger describeCount = new AtomicInteger();
+        TableDescription tableDescription = TableDescriptionSnapshot.forFile(snapshotFile.getPath())
+                                                                    .describeTable(fakeDynamoDB(describeCount), "Item");
+
+        Assert.assertEquals(1, describeCount.get());
+        Assert.assertEquals("Item", tableDescription.getTableName());
+    }
+
+
+    @Test
+    public void describedTableIsWrittenToSnapshot()
+            throws IOException {
+        File snapshotFile = File.createTempFile("tableDescriptions", ".snapshot");
+        snapshotFile.delete();
+        snapshotFile.deleteOnExit();
+
+        AtomicInteger describeCount = new AtomicInteger();
+
+        TableDescriptionSnapshot.forFile(snapshotFile.getPath()).describeTable(fakeDynamoDB(describeCount), "Item");
+
+        Assert.assertEquals(1, describeCount.get());
+        Assert.assertTrue(snapshotFile.exists());
+
+        try (Reader reader = new InputStreamReader(new FileInputStream(snapshotFile), "UTF-8")) {
+            Assert.assertEquals(Collections.singleton("Item"), TableDescriptionSnapshot.read(reader).keySet());
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private Map<String, TableDescription> roundTrip(Map<String, TableDescription> tableDescriptions)
+            throws IOException {
+        StringWriter writer = new StringWriter();
+
+        TableDescriptionSnapshot.write(tableDescriptions, writer);
+
+        return TableDescriptionSnapshot.read(new StringReader(writer.toString()));
+    }
+
+
+    private TableDescription buildTableDescription(String tableName, String hashKey) {
+        return new TableDescription()
+                .withTableName(tableName)
+                .withItemCount(1200L)
+                .withKeySchema(new KeySchemaElement(hashKey, KeyType.HASH), new KeySchemaElement("rangeKey", KeyType.RANGE))
+                .withProvisionedThroughput(new ProvisionedThroughputDescription().withReadCapacityUnits(5L))
+                .withLocalSecondaryIndexes(new LocalSecondaryIndexDescription()
+                                                   .withIndexName("lsi-index")
+                                                   .withItemCount(1100L)
+                                                   .withIndexSizeBytes(45000L)
+                                                   .withKeySchema(new KeySchemaElement(hashKey, KeyType.HASH),
+                                                                  new KeySchemaElement("lsiRangeKey", KeyType.RANGE))
+                                                   .withProjection(new Projection().withProjectionType(ProjectionType.ALL)))
+                .withGlobalSecondaryIndexes(new GlobalSecondaryIndexDescription()
+                                                    .withIndexName("gsi-index")
+                                                    .withItemCount(900L)
+                                                    .withIndexSizeBytes(30000L)
+                                                    .withKeySchema(new KeySchemaElement("gsiHashKey", KeyType.HASH))
+                                                    .withProjection(new Projection().withProjectionType(ProjectionType.INCLUDE)
+                                                                                    .withNonKeyAttributes("gsiValue", "other\tvalue")),
+                                            new GlobalSecondaryIndexDescription()
+                                                    .withIndexName("keys-index")
+                                                    .withKeySchema(new KeySchemaElement("gsiHashKey", KeyType.HASH),
+                                                                   new KeySchemaElement("gsiRangeKey", KeyType.RANGE))
+                                                    .withProjection(new Projection().withProjectionType(ProjectionType.KEYS_ONLY)));
+    }
+
+
+    private AmazonDynamoDB fakeDynamoDB(final AtomicInteger describeCount) {
+        return (AmazonDynamoDB) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { AmazonDynamoDB.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (!method.getName().equals("describeTable")) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+
+                describeCount.incrementAndGet();
+
+                String tableName = args[0] instanceof DescribeTableRequest ? ((DescribeTableRequest) args[0]).getTableName()
+                                                                           : (String) args[0];
+
+                return new DescribeTableResult().withTable(buildTableDescription(tableName, "hashKey"));
+            }
+        });
+    }
+}
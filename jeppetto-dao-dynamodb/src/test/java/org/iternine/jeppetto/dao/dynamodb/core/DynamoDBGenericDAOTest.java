@@ -18,7 +18,22 @@ package org.iternine.jeppetto.dao.dynamodb.core;
 
 
 import org.iternine.jeppetto.dao.GenericDAO;
+import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.Condition;
 import org.iternine.jeppetto.dao.NoSuchItemException;
+import org.iternine.jeppetto.dao.QueryModel;
+import org.iternine.jeppetto.dao.TooManyItemsException;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBChangeEvent;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBChangeFeed;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBChangeListener;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBConstraint;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBOperator;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBQueryModelDAO;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBStreamSource;
+import org.iternine.jeppetto.dao.dynamodb.iterable.BatchGetIterable;
+import org.iternine.jeppetto.dao.dynamodb.iterable.DynamoDBIterable;
+import org.iternine.jeppetto.dao.dynamodb.iterable.DynamoDBParallelScan;
+import org.iternine.jeppetto.dao.id.UUIDGenerator;
 import org.iternine.jeppetto.dao.test.RelatedObject;
 import org.iternine.jeppetto.dao.test.SimpleObject;
 import org.iternine.jeppetto.dao.test.core.GenericDAOTest;
@@ -26,6 +41,7 @@ import org.iternine.jeppetto.testsupport.DynamoDBDatabaseProvider;
 import org.iternine.jeppetto.testsupport.TestContext;
 
 import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
 import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
 import com.amazonaws.services.dynamodbv2.model.KeyType;
@@ -35,11 +51,24 @@ import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 
 public class DynamoDBGenericDAOTest extends GenericDAOTest {
@@ -114,4 +143,340 @@ public class DynamoDBGenericDAOTest extends GenericDAOTest {
         assertEquals(resultObject.getId(), simpleObject.getId());
         assertEquals(120, resultObject.getRelatedObjects().size());
     }
+
+
+    @Test
+    public void findByIdsAcrossBatchesInOrder() {
+        List<String> ids = new ArrayList<String>();
+
+        for (int i = 0; i < 250; i++) {
+            SimpleObject simpleObject = new SimpleObject();
+            simpleObject.setIntValue(i);
+
+            getGenericDAO().save(simpleObject);
+
+            ids.add(simpleObject.getId());
+        }
+
+        ids.add(ids.get(0));    // Duplicate ids should be tolerated
+
+        BatchGetIterable<SimpleObject> results
+                = (BatchGetIterable<SimpleObject>) getGenericDAO().findByIds(ids.toArray(new String[ids.size()]));
+
+        results.setPreserveOrder(true);
+
+        int i = 0;
+        for (SimpleObject result : results) {
+            assertEquals(ids.get(i++), result.getId());
+        }
+
+        assertEquals(250, i);
+    }
+
+
+    @Test
+    public void parallelScanVisitsAllItems() {
+        for (int i = 0; i < 30; i++) {
+            SimpleObject simpleObject = new SimpleObject();
+            simpleObject.setIntValue(i);
+
+            getGenericDAO().save(simpleObject);
+        }
+
+        //noinspection unchecked
+        DynamoDBQueryModelDAO<SimpleObject, String> dao = (DynamoDBQueryModelDAO<SimpleObject, String>) getGenericDAO();
+        Set<String> ids = new HashSet<String>();
+
+        for (SimpleObject simpleObject : dao.parallelScan(4, 2)) {
+            ids.add(simpleObject.getId());
+        }
+
+        assertEquals(30, ids.size());
+
+        final AtomicInteger count = new AtomicInteger();
+
+        dao.parallelScan(4, 4).forEachSegment(new DynamoDBParallelScan.SegmentCallback<SimpleObject>() {
+            @Override
+            public void process(int segment, DynamoDBIterable<SimpleObject> items) {
+                for (SimpleObject ignored : items) {
+                    count.incrementAndGet();
+                }
+            }
+        });
+
+        assertEquals(30, count.get());
+    }
+
+
+    @Test
+    public void deleteByIdsAcrossBatches() {
+        List<String> ids = new ArrayList<String>();
+
+        for (int i = 0; i < 60; i++) {
+            SimpleObject simpleObject = new SimpleObject();
+            simpleObject.setIntValue(i);
+
+            getGenericDAO().save(simpleObject);
+
+            ids.add(simpleObject.getId());
+        }
+
+        ids.add(ids.get(0));    // Duplicate ids should be tolerated
+
+        getGenericDAO().deleteByIds(ids.toArray(new String[ids.size()]));
+
+        assertFalse(getGenericDAO().findAll().iterator().hasNext());
+    }
+
+
+    @Test
+    public void limitsArePushedDownToFilteredScans()
+            throws NoSuchItemException, TooManyItemsException {
+        for (int i = 0; i < 40; i++) {
+            SimpleObject simpleObject = new SimpleObject();
+            simpleObject.setIntValue(i);
+
+            getGenericDAO().save(simpleObject);
+        }
+
+        //noinspection unchecked
+        DynamoDBQueryModelDAO<SimpleObject, String> dao = (DynamoDBQueryModelDAO<SimpleObject, String>) getGenericDAO();
+        QueryModel queryModel = new QueryModel();
+
+        queryModel.addCondition(new Condition("intValue", new DynamoDBConstraint(DynamoDBOperator.GreaterThanEqual, 30)));
+        queryModel.setMaxResults(3);
+
+        // maxResults only sizes each request; iteration continues past it.
+        int count = 0;
+
+        for (SimpleObject simpleObject : dao.findUsingQueryModel(queryModel)) {
+            assertTrue(simpleObject.getIntValue() >= 30);
+
+            count++;
+        }
+
+        assertEquals(10, count);
+
+        DynamoDBIterable<SimpleObject> limited = (DynamoDBIterable<SimpleObject>) dao.findUsingQueryModel(queryModel);
+
+        limited.setLimit(3);
+        count = 0;
+
+        for (SimpleObject simpleObject : limited) {
+            assertTrue(simpleObject.getIntValue() >= 30);
+
+            count++;
+        }
+
+        assertEquals(3, count);
+        assertTrue(limited.hasResultsPastLimit());
+
+        QueryModel uniqueQueryModel = new QueryModel();
+
+        uniqueQueryModel.addCondition(new Condition("intValue", new DynamoDBConstraint(DynamoDBOperator.Equal, 7)));
+
+        assertEquals(7, dao.findUniqueUsingQueryModel(uniqueQueryModel).getIntValue());
+
+        // Read everything in slices, each allowed to consume a fraction of a read capacity unit.
+        Set<String> ids = new HashSet<String>();
+        String position = null;
+
+        do {
+            DynamoDBIterable<SimpleObject> slice = (DynamoDBIterable<SimpleObject>) dao.findUsingQueryModel(new QueryModel());
+
+            slice.setPosition(position);
+            slice.setMaxReadCapacityUnits(0.1);
+
+            for (SimpleObject simpleObject : slice) {
+                ids.add(simpleObject.getId());
+            }
+
+            position = slice.getPosition();
+        } while (position != null);
+
+        assertEquals(40, ids.size());
+    }
+
+
+    @Test
+    public void collectionChangesAreSavedAsDeltas()
+            throws NoSuchItemException {
+        SimpleObject simpleObject = new SimpleObject();
+        simpleObject.setStringList(new ArrayList<String>(Arrays.asList("a", "b", "c", "d")));
+        simpleObject.setStringSet(new HashSet<String>(Arrays.asList("p", "q")));
+
+        getGenericDAO().save(simpleObject);
+
+        SimpleObject resultObject = getGenericDAO().findById(simpleObject.getId());
+        resultObject.getStringList().add("e");
+        resultObject.getStringSet().add("r");
+
+        getGenericDAO().save(resultObject);
+
+        resultObject = getGenericDAO().findById(simpleObject.getId());
+        resultObject.getStringList().remove(1);
+        resultObject.getStringList().remove("d");
+        resultObject.getStringSet().remove("p");
+
+        getGenericDAO().save(resultObject);
+
+        resultObject = getGenericDAO().findById(simpleObject.getId());
+
+        assertEquals(Arrays.asList("a", "c", "e"), resultObject.getStringList());
+        assertEquals(new HashSet<String>(Arrays.asList("q", "r")), resultObject.getStringSet());
+    }
+
+
+    @Test
+    public void lazyInitializationUsesTableDescriptionSnapshot()
+            throws Exception {
+        getGenericDAO();    // Creates the table
+
+        File snapshotFile = File.createTempFile("tableDescriptions", ".snapshot");
+        snapshotFile.delete();
+        snapshotFile.deleteOnExit();
+
+        Map<String, Object> daoProperties = new HashMap<String, Object>();
+        daoProperties.put("db", testContext.getBean("dynamoDb"));
+        daoProperties.put("idGenerator", new UUIDGenerator());
+        daoProperties.put("lazyInitialization", "true");
+        daoProperties.put("tableDescriptionSnapshot", snapshotFile.getPath());
+
+        DynamoDBQueryModelDAO<SimpleObject, String> dao = new DynamoDBQueryModelDAO<SimpleObject, String>(SimpleObject.class, daoProperties) { };
+
+        assertFalse(snapshotFile.exists());
+
+        SimpleObject simpleObject = new SimpleObject();
+        simpleObject.setIntValue(1234);
+
+        dao.save(simpleObject);
+
+        assertTrue(snapshotFile.exists());
+        assertEquals(1234, getGenericDAO().findById(simpleObject.getId()).getIntValue());
+    }
+
+
+    @Test
+    public void suppliedExecutorIsUsedAndLeftRunning() {
+        getGenericDAO();    // Creates the table
+
+        for (int i = 0; i < 10; i++) {
+            SimpleObject simpleObject = new SimpleObject();
+            simpleObject.setIntValue(i);
+
+            getGenericDAO().save(simpleObject);
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(2, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                threadCount.incrementAndGet();
+
+                return new Thread(runnable);
+            }
+        });
+
+        try {
+            Map<String, Object> daoProperties = new HashMap<String, Object>();
+            daoProperties.put("db", testContext.getBean("dynamoDb"));
+            daoProperties.put("idGenerator", new UUIDGenerator());
+            daoProperties.put("enableScans", "true");
+            daoProperties.put("executorService", executorService);
+
+            DynamoDBQueryModelDAO<SimpleObject, String> dao = new DynamoDBQueryModelDAO<SimpleObject, String>(SimpleObject.class, daoProperties) { };
+            Set<String> ids = new HashSet<String>();
+
+            for (SimpleObject simpleObject : dao.parallelScan(4, 2)) {
+                ids.add(simpleObject.getId());
+            }
+
+            assertEquals(10, ids.size());
+            assertTrue(threadCount.get() > 0);
+
+            dao.close();
+
+            assertFalse(executorService.isShutdown());
+
+            try {
+                dao.parallelScan(4, 2);
+
+                fail("Expected a JeppettoException");
+            } catch (JeppettoException ignore) {
+                // Closed DAOs can't issue concurrent requests
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void changeFeedDeliversParentShardsFirst()
+            throws Exception {
+        //noinspection unchecked
+        DynamoDBQueryModelDAO<SimpleObject, String> dao = (DynamoDBQueryModelDAO<SimpleObject, String>) getGenericDAO();
+        final Map<String, List<DynamoDBStreamSource.Record>> shardRecords = new HashMap<String, List<DynamoDBStreamSource.Record>>();
+
+        shardRecords.put("parent", Arrays.asList(new DynamoDBStreamSource.Record("INSERT", "1", streamImage(null), streamImage(1), null),
+                                                 new DynamoDBStreamSource.Record("MODIFY", "2", streamImage(null), streamImage(2), streamImage(1))));
+        shardRecords.put("child", Arrays.asList(new DynamoDBStreamSource.Record("REMOVE", "3", streamImage(null), null, streamImage(2))));
+
+        DynamoDBStreamSource streamSource = new DynamoDBStreamSource() {
+            @Override
+            public List<Shard> getShards() {
+                return Arrays.asList(new Shard("child", "parent"), new Shard("parent", null));
+            }
+
+
+            @Override
+            public String getShardIterator(String shardId, String afterSequenceNumber) {
+                return shardId;
+            }
+
+
+            @Override
+            public Records getRecords(String shardIterator) {
+                return new Records(shardRecords.get(shardIterator), null);
+            }
+        };
+
+        final List<String> changes = Collections.synchronizedList(new ArrayList<String>());
+        DynamoDBChangeFeed<SimpleObject> changeFeed = new DynamoDBChangeFeed<>(dao, streamSource, null, 2);
+
+        changeFeed.addListener(new DynamoDBChangeListener<SimpleObject>() {
+            @Override
+            public void onChange(DynamoDBChangeEvent<SimpleObject> event) {
+                SimpleObject entity = event.getNewEntity() != null ? event.getNewEntity() : event.getOldEntity();
+
+                changes.add(event.getType() + ":" + entity.getIntValue());
+            }
+        });
+        changeFeed.start();
+
+        for (int i = 0; i < 50 && changes.size() < 3; i++) {
+            Thread.sleep(100);
+        }
+
+        changeFeed.stop();
+
+        assertEquals(Arrays.asList("Insert:1", "Modify:2", "Remove:2"), changes);
+        assertEquals("3", changeFeed.getCheckpoints().get("child"));
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private Map<String, AttributeValue> streamImage(Integer intValue) {
+        Map<String, AttributeValue> image = new HashMap<String, AttributeValue>();
+        image.put("id", new AttributeValue("streamed"));
+
+        if (intValue != null) {
+            image.put("intValue", new AttributeValue().withN(intValue.toString()));
+        }
+
+        return image;
+    }
 }
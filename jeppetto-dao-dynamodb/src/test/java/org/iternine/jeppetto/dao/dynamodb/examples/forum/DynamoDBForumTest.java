@@ -44,6 +44,8 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 /**
@@ -201,6 +203,53 @@ public class DynamoDBForumTest extends ForumTest {
     }
 
 
+    @Test
+    public void testPagingWithPrefetch() {
+        createData();
+        createAdditionalData();
+
+        String replyId = DYNAMODB_FORUM + "#" + DYNAMODB_THREAD_1;
+        int totalItems = 0;
+        ExecutorService prefetchExecutor = Executors.newFixedThreadPool(1);
+
+        try {
+            // A page size of 1 ensures every item comes from a prefetched page.
+            DynamoDBIterable<Reply> iterable = (DynamoDBIterable<Reply>) getReplyDAO().findByIdAndLimit(replyId, 1);
+
+            iterable.setPrefetchDepth(2);
+            iterable.setPrefetchExecutor(prefetchExecutor);
+            iterable.setLimit(3);
+
+            for (Reply reply : iterable) {
+                Assert.assertEquals(replyId, reply.getId());
+
+                totalItems++;
+            }
+
+            Assert.assertEquals(3, totalItems);
+            Assert.assertTrue(iterable.hasResultsPastLimit());
+
+            String queryPosition = iterable.getPosition();
+
+            iterable = (DynamoDBIterable<Reply>) getReplyDAO().findByIdAndLimit(replyId, 1);
+
+            iterable.setPosition(queryPosition);
+            iterable.setPrefetchDepth(2);
+            iterable.setPrefetchExecutor(prefetchExecutor);
+
+            for (Reply reply : iterable) {
+                Assert.assertEquals(replyId, reply.getId());
+
+                totalItems++;
+            }
+
+            Assert.assertEquals(7, totalItems);
+        } finally {
+            prefetchExecutor.shutdownNow();
+        }
+    }
+
+
     @Test
     public void testPosition2() {
         createData();
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb.expression;
+
+
+import org.iternine.jeppetto.dao.Condition;
+import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.QueryModel;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBConstraint;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBOperator;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBQueryModelDAO.IndexData;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+
+public class ConditionExpressionCacheTest {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final Map<String, Map<String, IndexData>> NO_INDEXES = Collections.emptyMap();
+
+
+    //-------------------------------------------------------------
+    // Methods - Test Cases
+    //-------------------------------------------------------------
+
+    @Test
+    public void compiledExpressionMatchesDirectlyBuiltExpression() {
+        QueryModel queryModel = buildQueryModel("abc", 3, Arrays.asList(1, 2, 3));
+        ConditionExpressionBuilder direct = new ConditionExpressionBuilder();
+
+        for (Condition condition : queryModel.getConditions()) {
+            direct.with(condition.getField(), (DynamoDBConstraint) condition.getConstraint());
+        }
+
+        for (Condition condition : queryModel.getAssociationConditions().get("owner.address")) {
+            direct.add(direct.getExpressionAttributeName("owner.address", condition.getField()),
+                       (DynamoDBConstraint) condition.getConstraint());
+        }
+
+        assertEquivalent(direct, new ConditionExpressionBuilder(queryModel, NO_INDEXES));
+        Assert.assertEquals("#c0 = :c0 and #c1 > :c1 and tags IN (:c2, :c3, :c4) and score BETWEEN :c5 AND :c6 "
+                            + "and attribute_not_exists(deleted) and #c2.address.city <> :c7",
+                            direct.getExpression());
+    }
+
+
+    @Test
+    public void cachedTemplateBindsValuesOfQueryModelWithSameShape() {
+        ConditionExpressionCache cache = new ConditionExpressionCache(NO_INDEXES);
+        QueryModel first = buildQueryModel("abc", 3, Arrays.asList(1, 2, 3));
+        QueryModel second = buildQueryModel("def", 7, Arrays.asList(4, 5, 6));
+
+        assertEquivalent(new ConditionExpressionBuilder(first, NO_INDEXES), cache.builderFor(first));
+        assertEquivalent(new ConditionExpressionBuilder(second, NO_INDEXES), cache.builderFor(second));
+        Assert.assertEquals(1, cache.size());
+    }
+
+
+    @Test
+    public void withinValueCountIsPartOfShape() {
+        ConditionExpressionCache cache = new ConditionExpressionCache(NO_INDEXES);
+        QueryModel twoValues = buildQueryModel("abc", 3, Arrays.asList(1, 2));
+        QueryModel threeValues = buildQueryModel("abc", 3, Arrays.asList(1, 2, 3));
+
+        Assert.assertFalse(ConditionExpressionTemplate.shapeOf(twoValues).equals(ConditionExpressionTemplate.shapeOf(threeValues)));
+        assertEquivalent(new ConditionExpressionBuilder(twoValues, NO_INDEXES), cache.builderFor(twoValues));
+        assertEquivalent(new ConditionExpressionBuilder(threeValues, NO_INDEXES), cache.builderFor(threeValues));
+        Assert.assertEquals(2, cache.size());
+    }
+
+
+    @Test(expected = JeppettoException.class)
+    public void bindingQueryModelOfOtherShapeFails() {
+        ConditionExpressionTemplate template = ConditionExpressionTemplate.compile(buildQueryModel("abc", 3, Arrays.asList(1, 2)),
+                                                                                   NO_INDEXES);
+
+        template.bind(buildQueryModel("abc", 3, Arrays.asList(1, 2, 3)));
+    }
+
+
+    @Test
+    public void leastRecentlyUsedShapeIsEvicted() {
+        ConditionExpressionCache cache = new ConditionExpressionCache(NO_INDEXES, 2);
+        QueryModel one = buildQueryModel("abc", 3, Collections.singletonList(1));
+        QueryModel two = buildQueryModel("abc", 3, Arrays.asList(1, 2));
+        QueryModel three = buildQueryModel("abc", 3, Arrays.asList(1, 2, 3));
+
+        cache.builderFor(one);
+        cache.builderFor(two);
+        cache.builderFor(one);
+        cache.builderFor(three);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertTrue(cache.contains(one));
+        Assert.assertFalse(cache.contains(two));
+        Assert.assertTrue(cache.contains(three));
+
+        assertEquivalent(new ConditionExpressionBuilder(two, NO_INDEXES), cache.builderFor(two));
+        Assert.assertFalse(cache.contains(one));
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private QueryModel buildQueryModel(String name, int count, Object tags) {
+        QueryModel queryModel = new QueryModel();
+
+        queryModel.addCondition(new Condition("name", new DynamoDBConstraint(DynamoDBOperator.Equal, name)));
+        queryModel.addCondition(new Condition("count", new DynamoDBConstraint(DynamoDBOperator.GreaterThan, count)));
+        queryModel.addCondition(new Condition("tags", new DynamoDBConstraint(DynamoDBOperator.Within, tags)));
+        queryModel.addCondition(new Condition("score", new DynamoDBConstraint(DynamoDBOperator.Between, count, count * 2)));
+        queryModel.addCondition(new Condition("deleted", new DynamoDBConstraint(DynamoDBOperator.IsNull)));
+        queryModel.addAssociationCondition("owner.address", new Condition("city", new DynamoDBConstraint(DynamoDBOperator.NotEqual, name)));
+
+        return queryModel;
+    }
+
+
+    private void assertEquivalent(ConditionExpressionBuilder expected, ConditionExpressionBuilder actual) {
+        Assert.assertEquals(expected.getExpression(), actual.getExpression());
+        Assert.assertEquals(expected.getExpressionAttributeValues(), actual.getExpressionAttributeValues());
+        Assert.assertEquals(expected.getExpressionAttributeNames(), actual.getExpressionAttributeNames());
+        Assert.assertEquals(expected.hasHashKeyCondition(), actual.hasHashKeyCondition());
+    }
+}
@@ -79,11 +79,11 @@ public class TableBuilder {
     public TableBuilder withKey(String hashKeyName, ScalarAttributeType hashKeyType,
                                 String rangeKeyName, ScalarAttributeType rangeKeyType) {
         keySchema.add(new KeySchemaElement().withKeyType(KeyType.HASH).withAttributeName(hashKeyName));
-        attributeDefinitions.add(new AttributeDefinition(hashKeyName, hashKeyType));
+        addAttributeDefinition(hashKeyName, hashKeyType);
 
         if (rangeKeyName != null) {
             keySchema.add(new KeySchemaElement().withKeyType(KeyType.RANGE).withAttributeName(rangeKeyName));
-            attributeDefinitions.add(new AttributeDefinition(rangeKeyName, rangeKeyType));
+            addAttributeDefinition(rangeKeyName, rangeKeyType);
         }
 
         return this;
@@ -100,7 +100,7 @@ public class TableBuilder {
             localSecondaryIndexes = new ArrayList<LocalSecondaryIndex>();
         }
 
-        attributeDefinitions.add(new AttributeDefinition(indexKey, indexKeyType));
+        addAttributeDefinition(indexKey, indexKeyType);
 
         localSecondaryIndexes.add(new LocalSecondaryIndex().withIndexName(indexKey + "-index")
                                                            .withKeySchema(new KeySchemaElement(keySchema.get(0).getAttributeName(), KeyType.HASH),
@@ -128,6 +128,17 @@ public class TableBuilder {
 
     public TableBuilder withGsi(String gsiHashKeyName, ScalarAttributeType gsiHashKeyType,
                                 String gsiRangeKeyName, ScalarAttributeType gsiRangeKeyType) {
+        return withGsi(gsiHashKeyName, gsiHashKeyType, gsiRangeKeyName, gsiRangeKeyType, ProjectionType.ALL);
+    }
+
+
+    public TableBuilder withKeysOnlyGsi(String gsiHashKeyName, String gsiRangeKeyName) {
+        return withGsi(gsiHashKeyName, ScalarAttributeType.S, gsiRangeKeyName, ScalarAttributeType.S, ProjectionType.KEYS_ONLY);
+    }
+
+
+    public TableBuilder withGsi(String gsiHashKeyName, ScalarAttributeType gsiHashKeyType,
+                                String gsiRangeKeyName, ScalarAttributeType gsiRangeKeyType, ProjectionType projectionType) {
         if (globalSecondaryIndexes == null) {
             globalSecondaryIndexes = new ArrayList<GlobalSecondaryIndex>();
         }
@@ -135,11 +146,11 @@ public class TableBuilder {
         ArrayList<KeySchemaElement> keySchema = new ArrayList<KeySchemaElement>();
         String indexName;
 
-        attributeDefinitions.add(new AttributeDefinition(gsiHashKeyName, gsiHashKeyType));
+        addAttributeDefinition(gsiHashKeyName, gsiHashKeyType);
         keySchema.add(new KeySchemaElement().withKeyType(KeyType.HASH).withAttributeName(gsiHashKeyName));
 
         if (gsiRangeKeyName != null) {
-            attributeDefinitions.add(new AttributeDefinition(gsiRangeKeyName, gsiRangeKeyType));
+            addAttributeDefinition(gsiRangeKeyName, gsiRangeKeyType);
             keySchema.add(new KeySchemaElement().withKeyType(KeyType.RANGE).withAttributeName(gsiRangeKeyName));
 
             indexName = gsiHashKeyName + "-" + gsiRangeKeyName;
@@ -150,7 +161,7 @@ public class TableBuilder {
         globalSecondaryIndexes.add(new GlobalSecondaryIndex().withIndexName(indexName)
                                                              .withProvisionedThroughput(new ProvisionedThroughput(64L, 64L))
                                                              .withKeySchema(keySchema)
-                                                             .withProjection(new Projection().withProjectionType(ProjectionType.ALL)));
+                                                             .withProjection(new Projection().withProjectionType(projectionType)));
         
         return this;
     }
@@ -166,4 +177,20 @@ public class TableBuilder {
 
         amazonDynamoDB.createTable(createTableRequest);
     }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private void addAttributeDefinition(String attributeName, ScalarAttributeType attributeType) {
+        // Indexes may share key attributes, but each may only be defined once.
+        for (AttributeDefinition attributeDefinition : attributeDefinitions) {
+            if (attributeDefinition.getAttributeName().equals(attributeName)) {
+                return;
+            }
+        }
+
+        attributeDefinitions.add(new AttributeDefinition(attributeName, attributeType));
+    }
 }
@@ -73,9 +73,16 @@ public class BaseDynamoDBIndexTest {
     //-------------------------------------------------------------
 
     protected ItemDAO getItemDAO() {
-        return DAOBuilder.buildDAO(Item.class, ItemDAO.class, ItemDynamoDBQueryModel.class, new HashMap<String, Object>() {{
-            put("db", amazonDynamoDB);
-        }});
+        return getItemDAO(new HashMap<String, Object>());
+    }
+
+
+    protected ItemDAO getItemDAO(Map<String, Object> daoProperties) {
+        if (!daoProperties.containsKey("db")) {
+            daoProperties.put("db", amazonDynamoDB);
+        }
+
+        return DAOBuilder.buildDAO(Item.class, ItemDAO.class, ItemDynamoDBQueryModel.class, daoProperties);
     }
 
 
@@ -17,10 +17,42 @@
 package org.iternine.jeppetto.dao.dynamodb.extra.indexes;
 
 
+import org.iternine.jeppetto.dao.Condition;
+import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.NoSuchItemException;
+import org.iternine.jeppetto.dao.QueryModel;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBCallback;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBConstraint;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBOperator;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBQueryModelDAO;
+import org.iternine.jeppetto.dao.dynamodb.DynamoDBSession;
 import org.iternine.jeppetto.dao.dynamodb.extra.TableBuilder;
-
+import org.iternine.jeppetto.dao.dynamodb.iterable.DynamoDBIterable;
+import org.iternine.jeppetto.dao.dynamodb.iterable.DynamoDBPage;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsyncClient;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import junit.framework.Assert;
 import org.junit.Test;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 import static org.iternine.jeppetto.dao.dynamodb.extra.indexes.ItemDataBuilder.VARIABLE;
 
 
@@ -156,4 +188,460 @@ public class DynamoDBIndexTest extends BaseDynamoDBIndexTest {
             queryPosition = getPage(itemDAO.findByGsiHashKey(gsiHashKeyValue), PAGE_SIZE, queryPosition, 1);
         } while (queryPosition != null);
     }
+
+
+    @Test
+    public void testCountAcrossPages() {
+        new TableBuilder("Item").withKey("hashKey", "rangeKey").withGsi("gsiHashKey", "gsiRangeKey").build(amazonDynamoDB);
+
+        ItemDAO itemDAO = getItemDAO();
+
+        new ItemDataBuilder(7).withKeyData("abc", VARIABLE).withGsiData("def", VARIABLE).build(itemDAO);
+        new ItemDataBuilder(3).withKeyData("xyz", VARIABLE).withGsiData("def", VARIABLE).build(itemDAO);
+
+        Assert.assertEquals(7, itemDAO.countByHashKey("abc"));
+        Assert.assertEquals(3, itemDAO.countByHashKey("xyz"));
+        Assert.assertEquals(0, itemDAO.countByHashKey("none"));
+        Assert.assertEquals(10, itemDAO.countByGsiHashKey("def"));
+    }
+
+
+    @Test
+    public void testHashKeyWithinFanOut() {
+        new TableBuilder("Item").withKey("hashKey", "rangeKey").build(amazonDynamoDB);
+
+        ItemDAO itemDAO = getItemDAO();
+        List<String> hashKeyValues = Arrays.asList("abc", "xyz", "none");
+
+        new ItemDataBuilder(4).withKeyData("abc", VARIABLE).build(itemDAO);
+        new ItemDataBuilder(3).withKeyData("xyz", VARIABLE).build(itemDAO);
+
+        String lastRangeKey = null;
+        int count = 0;
+
+        for (Item item : itemDAO.findByHashKeyWithinOrderByRangeKeyDesc(hashKeyValues)) {
+            Assert.assertTrue(lastRangeKey == null || lastRangeKey.compareTo(item.getRangeKey()) >= 0);
+
+            lastRangeKey = item.getRangeKey();
+            count++;
+        }
+
+        Assert.assertEquals(7, count);
+
+        Set<String> seen = new HashSet<String>();
+        String queryPosition = null;
+
+        do {
+            DynamoDBIterable<Item> iterable = itemDAO.findByHashKeyWithinOrderByRangeKeyDesc(hashKeyValues);
+
+            iterable.setPosition(queryPosition);
+            iterable.setLimit(PAGE_SIZE);
+
+            for (Item item : iterable) {
+                Assert.assertTrue(seen.add(item.getHashKey() + "/" + item.getRangeKey()));
+            }
+
+            queryPosition = iterable.hasResultsPastLimit() ? iterable.getPosition() : null;
+        } while (queryPosition != null);
+
+        Assert.assertEquals(7, seen.size());
+    }
+
+
+    @Test
+    public void testKeysOnlyGsiBackFetch() {
+        new TableBuilder("Item").withKey("hashKey").withKeysOnlyGsi("gsiHashKey", "gsiRangeKey").build(amazonDynamoDB);
+
+        ItemDAO itemDAO = getItemDAO(new HashMap<String, Object>() {{
+            put("indexBackFetch", "true");
+            put("requestParallelism", "2");
+        }});
+        String gsiHashKeyValue = "abc";
+        int itemCount = 8;
+
+        new ItemDataBuilder(itemCount).withKeyData(VARIABLE).withLsiData(VARIABLE).withGsiData(gsiHashKeyValue, VARIABLE).build(itemDAO);
+
+        String lastGsiRangeKey = null;
+
+        for (Item item : itemDAO.findByGsiHashKey(gsiHashKeyValue)) {
+            Assert.assertNotNull(item.getLsiField());       // Not projected into the index
+            Assert.assertTrue(lastGsiRangeKey == null || lastGsiRangeKey.compareTo(item.getGsiRangeKey()) < 0);
+
+            lastGsiRangeKey = item.getGsiRangeKey();
+        }
+
+        String queryPosition = null;
+        int remaining = itemCount;
+
+        do {
+            queryPosition = getPage(itemDAO.findByGsiHashKey(gsiHashKeyValue), PAGE_SIZE, queryPosition, Math.min(PAGE_SIZE, remaining));
+            remaining -= PAGE_SIZE;
+        } while (queryPosition != null);
+    }
+
+
+    @Test(timeout = 60000)
+    public void testPrefetchedBackFetchWithSingleExecutorThread() {
+        new TableBuilder("Item").withKey("hashKey").withKeysOnlyGsi("gsiHashKey", "gsiRangeKey").build(amazonDynamoDB);
+
+        ItemDAO itemDAO = getItemDAO(new HashMap<String, Object>() {{
+            put("indexBackFetch", "true");
+            put("requestParallelism", "2");
+            put("prefetchDepth", "2");
+            put("executorThreads", "1");
+        }});
+        int itemCount = 8;
+
+        new ItemDataBuilder(itemCount).withKeyData(VARIABLE).withLsiData(VARIABLE).withGsiData("abc", VARIABLE).build(itemDAO);
+
+        DynamoDBIterable<Item> iterable = itemDAO.findByGsiHashKey("abc");
+        int count = 0;
+
+        iterable.setPageSize(3);
+
+        for (Item item : iterable) {
+            Assert.assertNotNull(item.getLsiField());       // Not projected into the index
+            count++;
+        }
+
+        Assert.assertEquals(itemCount, count);
+    }
+
+
+    @Test
+    public void testIndexChoicePrefersIndexProjectingOverEntity() {
+        new TableBuilder("Item").withKey("hashKey").withKeysOnlyGsi("gsiHashKey", "gsiRangeKey").withGsi("gsiHashKey").build(amazonDynamoDB);
+
+        List<String> queriedIndexes = new ArrayList<String>();
+        ItemDAO itemDAO = getItemDAO(new HashMap<String, Object>(Collections.singletonMap("db", recordQueriedIndexes(queriedIndexes))));
+
+        new ItemDataBuilder(4).withKeyData(VARIABLE).withLsiData(VARIABLE).withGsiData("abc", VARIABLE).build(itemDAO);
+
+        // The keys-only index could apply the range key condition, but would not return the whole item.
+        List<Item> items = toList(itemDAO.findByGsiHashKeyAndGsiRangeKey("abc", "GR_1"));
+
+        Assert.assertEquals(1, items.size());
+        Assert.assertEquals("L_1", items.get(0).getLsiField());
+        Assert.assertEquals(Collections.singletonList("gsiHashKey"), queriedIndexes);
+    }
+
+
+    @Test
+    public void testIndexChoiceFallsBackToIndexNotProjectingOverEntity() {
+        new TableBuilder("Item").withKey("hashKey").withKeysOnlyGsi("gsiHashKey", "gsiRangeKey").build(amazonDynamoDB);
+
+        final List<String> queriedIndexes = new ArrayList<String>();
+        ItemDAO itemDAO = getItemDAO(new HashMap<String, Object>() {{
+            put("db", recordQueriedIndexes(queriedIndexes));
+            put("indexBackFetch", "true");
+        }});
+
+        new ItemDataBuilder(4).withKeyData(VARIABLE).withLsiData(VARIABLE).withGsiData("abc", VARIABLE).build(itemDAO);
+
+        List<Item> items = toList(itemDAO.findByGsiHashKeyAndGsiRangeKey("abc", "GR_1"));
+
+        Assert.assertEquals(1, items.size());
+        Assert.assertEquals("L_1", items.get(0).getLsiField());     // Fetched from the table
+        Assert.assertEquals("gsiHashKey-gsiRangeKey", queriedIndexes.get(0));
+    }
+
+
+    @Test
+    public void testIndexChoicePrefersRangeKeyCondition() {
+        new TableBuilder("Item").withKey("hashKey", "rangeKey").withLsi("lsiField").build(amazonDynamoDB);
+
+        List<String> queriedIndexes = new ArrayList<String>();
+        ItemDAO itemDAO = getItemDAO(new HashMap<String, Object>(Collections.singletonMap("db", recordQueriedIndexes(queriedIndexes))));
+        @SuppressWarnings("unchecked")
+        DynamoDBQueryModelDAO<Item, String> queryModelDAO = (DynamoDBQueryModelDAO<Item, String>) itemDAO;
+
+        new ItemDataBuilder(4).withKeyData("abc", VARIABLE).withLsiData(VARIABLE).build(itemDAO);
+
+        Assert.assertEquals(1, toList(itemDAO.findByHashKeyAndLsiField("abc", "L_2")).size());
+        Assert.assertEquals("lsiField-index", queriedIndexes.get(0));
+
+        QueryModel queryModel = new QueryModel();
+
+        queryModel.addCondition(new Condition("hashKey", new DynamoDBConstraint(DynamoDBOperator.Equal, "abc")));
+        queryModel.addCondition(new Condition("rangeKey", new DynamoDBConstraint(DynamoDBOperator.GreaterThan, "R_1")));
+
+        Assert.assertEquals(2, toList(queryModelDAO.findUsingQueryModel(queryModel)).size());
+        Assert.assertNull(queriedIndexes.get(1));       // The table itself
+    }
+
+
+    @Test
+    public void testIndexHint() {
+        new TableBuilder("Item").withKey("hashKey").withGsi("gsiHashKey", "gsiRangeKey").withGsi("gsiHashKey", "gsiRangeKey2").build(amazonDynamoDB);
+
+        List<String> queriedIndexes = new ArrayList<String>();
+        ItemDAO itemDAO = getItemDAO(new HashMap<String, Object>(Collections.singletonMap("db", recordQueriedIndexes(queriedIndexes))));
+        @SuppressWarnings("unchecked")
+        DynamoDBQueryModelDAO<Item, String> queryModelDAO = (DynamoDBQueryModelDAO<Item, String>) itemDAO;
+
+        new ItemDataBuilder(4).withKeyData(VARIABLE).withGsiData("abc", VARIABLE).build(itemDAO);
+
+        Assert.assertEquals(4, toList(queryModelDAO.findUsingQueryModel(buildHintedQueryModel("gsiHashKey-gsiRangeKey"))).size());
+        Assert.assertEquals("gsiHashKey-gsiRangeKey", queriedIndexes.get(0));
+
+        // The items have no gsiRangeKey2, so the hinted index doesn't contain them.
+        Assert.assertEquals(0, toList(queryModelDAO.findUsingQueryModel(buildHintedQueryModel("gsiHashKey-gsiRangeKey2"))).size());
+        Assert.assertEquals("gsiHashKey-gsiRangeKey2", queriedIndexes.get(1));
+
+        try {
+            queryModelDAO.findUsingQueryModel(buildHintedQueryModel("Item"));
+
+            Assert.fail("Expected the table to be rejected as it has no gsiHashKey key.");
+        } catch (JeppettoException ignore) {
+        }
+    }
+
+
+    @Test
+    public void testAsyncOperations()
+            throws Exception {
+        new TableBuilder("Item").withKey("hashKey").withGsi("gsiHashKey", "gsiRangeKey").build(amazonDynamoDB);
+
+        AmazonDynamoDBAsyncClient amazonDynamoDBAsync = new AmazonDynamoDBAsyncClient(new BasicAWSCredentials("", ""));
+        amazonDynamoDBAsync.setEndpoint(String.format("http://localhost:%s", System.getProperty("dynamodb.port")));
+
+        try {
+            ItemDAO itemDAO = getItemDAO(new HashMap<String, Object>(Collections.singletonMap("db", amazonDynamoDBAsync)));
+            @SuppressWarnings("unchecked")
+            DynamoDBQueryModelDAO<Item, String> asyncDAO = (DynamoDBQueryModelDAO<Item, String>) itemDAO;
+            String gsiHashKeyValue = "abc";
+            int itemCount = 8;
+
+            new ItemDataBuilder(itemCount).withKeyData(VARIABLE).withGsiData(gsiHashKeyValue, VARIABLE).build(itemDAO);
+
+            Item item = asyncDAO.findByIdAsync("H_1", null).get();
+
+            Assert.assertEquals("GR_1", item.getGsiRangeKey());
+
+            item.setGsiRangeKey("GR_9");
+
+            asyncDAO.saveAsync(item, null).get();
+
+            Assert.assertEquals("GR_9", itemDAO.findById("H_1").getGsiRangeKey());
+
+            List<Item> items = asyncDAO.findByIdsAsync(Arrays.asList("H_3", "none", "H_0"), null).get();
+
+            Assert.assertEquals(2, items.size());
+            Assert.assertEquals("H_3", items.get(0).getHashKey());
+            Assert.assertEquals("H_0", items.get(1).getHashKey());
+
+            final AtomicReference<JeppettoException> failure = new AtomicReference<JeppettoException>();
+            final CountDownLatch latch = new CountDownLatch(1);
+
+            asyncDAO.deleteByIdAsync("H_2", null).get();
+            asyncDAO.findByIdAsync("H_2", new DynamoDBCallback<Item>() {
+                @Override
+                public void onSuccess(Item result) {
+                    latch.countDown();
+                }
+
+
+                @Override
+                public void onFailure(JeppettoException e) {
+                    failure.set(e);
+                    latch.countDown();
+                }
+            });
+
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            Assert.assertTrue(failure.get() instanceof NoSuchItemException);
+
+            QueryModel queryModel = new QueryModel();
+
+            queryModel.addCondition(new Condition("gsiHashKey", new DynamoDBConstraint(DynamoDBOperator.Equal, gsiHashKeyValue)));
+            queryModel.setMaxResults(PAGE_SIZE);
+
+            String queryPosition = null;
+            int count = 0;
+
+            do {
+                DynamoDBPage<Item> page = asyncDAO.findPageUsingQueryModelAsync(queryModel, queryPosition, null).get();
+
+                count += page.getItems().size();
+                queryPosition = page.getPosition();
+            } while (queryPosition != null);
+
+            Assert.assertEquals(itemCount - 1, count);
+        } finally {
+            amazonDynamoDBAsync.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testSessionCoalescesWrites() {
+        new TableBuilder("Item").withKey("hashKey").withGsi("gsiHashKey", "gsiRangeKey").build(amazonDynamoDB);
+
+        ItemDAO itemDAO = getItemDAO();
+
+        new ItemDataBuilder(4).withKeyData(VARIABLE).withGsiData("abc", VARIABLE).build(itemDAO);
+
+        DynamoDBSession.create();
+
+        try {
+            Item item = itemDAO.findById("H_1");
+
+            Assert.assertSame(item, itemDAO.findById("H_1"));
+
+            item.setGsiRangeKey("GR_8");
+            itemDAO.save(item);
+
+            item.setGsiRangeKey2("GR2_8");
+            itemDAO.save(item);
+
+            Item newItem = new Item();
+
+            newItem.setHashKey("H_9");
+            newItem.setGsiHashKey("abc");
+            newItem.setGsiRangeKey("GR_9");
+            itemDAO.save(newItem);
+
+            itemDAO.deleteById("H_2");
+
+            try {
+                itemDAO.findById("H_2");
+
+                Assert.fail("Expected NoSuchItemException for an item deleted in the session.");
+            } catch (NoSuchItemException ignore) {
+            }
+
+            DynamoDBSession.flush();
+        } finally {
+            DynamoDBSession.remove();
+        }
+
+        Item item = itemDAO.findById("H_1");
+
+        Assert.assertEquals("GR_8", item.getGsiRangeKey());
+        Assert.assertEquals("GR2_8", item.getGsiRangeKey2());
+        Assert.assertEquals("GR_9", itemDAO.findById("H_9").getGsiRangeKey());
+
+        try {
+            itemDAO.findById("H_2");
+
+            Assert.fail("Expected H_2 to have been deleted when the session was flushed.");
+        } catch (NoSuchItemException ignore) {
+        }
+    }
+
+
+    @Test
+    public void testWriteShardedHashKey() {
+        new TableBuilder("Item").withKey("hashKey", "rangeKey").build(amazonDynamoDB);
+
+        ItemDAO itemDAO = getItemDAO(new HashMap<String, Object>(Collections.singletonMap("writeShards", "4")));
+        String hashKeyValue = "abc";
+        int itemCount = 8;
+
+        new ItemDataBuilder(itemCount).withKeyData(hashKeyValue, VARIABLE).build(itemDAO);
+
+        String lastRangeKey = null;
+        int count = 0;
+
+        for (Item item : itemDAO.findByHashKey(hashKeyValue)) {
+            Assert.assertEquals(hashKeyValue, item.getHashKey());
+            Assert.assertTrue(lastRangeKey == null || lastRangeKey.compareTo(item.getRangeKey()) < 0);
+
+            lastRangeKey = item.getRangeKey();
+            count++;
+        }
+
+        Assert.assertEquals(itemCount, count);
+        Assert.assertEquals(itemCount, itemDAO.countByHashKey(hashKeyValue));
+
+        Item item = itemDAO.findByHashKeyAndRangeKey(hashKeyValue, "R_3");
+
+        item.setLsiField("changed");
+        itemDAO.save(item);
+
+        Assert.assertEquals("changed", itemDAO.findByHashKeyAndRangeKey(hashKeyValue, "R_3").getLsiField());
+
+        itemDAO.delete(item);
+
+        Assert.assertEquals(itemCount - 1, itemDAO.countByHashKey(hashKeyValue));
+    }
+
+
+    @Test
+    public void testRandomShardingRejectsIdOperations() {
+        new TableBuilder("Item").withKey("hashKey", "rangeKey").build(amazonDynamoDB);
+
+        Map<String, Object> daoProperties = new HashMap<String, Object>();
+
+        daoProperties.put("writeShards", "4");
+        daoProperties.put("writeShardStrategy", "Random");
+
+        ItemDAO itemDAO = getItemDAO(daoProperties);
+
+        new ItemDataBuilder(4).withKeyData("abc", VARIABLE).build(itemDAO);
+
+        Assert.assertEquals(4, itemDAO.countByHashKey("abc"));
+
+        try {
+            itemDAO.findById("abc");
+
+            Assert.fail("Expected findById() to be rejected when items are sharded at random.");
+        } catch (JeppettoException ignore) {
+        }
+
+        try {
+            itemDAO.deleteById("abc");
+
+            Assert.fail("Expected deleteById() to be rejected when items are sharded at random.");
+        } catch (JeppettoException ignore) {
+        }
+
+        Assert.assertEquals(4, itemDAO.countByHashKey("abc"));
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private AmazonDynamoDB recordQueriedIndexes(final List<String> queriedIndexes) {
+        return (AmazonDynamoDB) Proxy.newProxyInstance(AmazonDynamoDB.class.getClassLoader(),
+                                                       new Class<?>[] { AmazonDynamoDB.class },
+                                                       new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+                    throws Throwable {
+                if (args != null && args.length == 1 && args[0] instanceof QueryRequest) {
+                    queriedIndexes.add(((QueryRequest) args[0]).getIndexName());
+                }
+
+                try {
+                    return method.invoke(amazonDynamoDB, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+    }
+
+
+    private QueryModel buildHintedQueryModel(String indexHint) {
+        QueryModel queryModel = new QueryModel();
+
+        queryModel.addCondition(new Condition("gsiHashKey", new DynamoDBConstraint(DynamoDBOperator.Equal, "abc")));
+        queryModel.addHint(DynamoDBQueryModelDAO.INDEX_HINT, indexHint);
+
+        return queryModel;
+    }
+
+
+    private static List<Item> toList(Iterable<Item> iterable) {
+        List<Item> items = new ArrayList<Item>();
+
+        for (Item item : iterable) {
+            items.add(item);
+        }
+
+        return items;
+    }
 }
@@ -20,6 +20,8 @@ package org.iternine.jeppetto.dao.dynamodb.extra.indexes;
 import org.iternine.jeppetto.dao.GenericDAO;
 import org.iternine.jeppetto.dao.dynamodb.iterable.DynamoDBIterable;
 
+import java.util.Collection;
+
 
 public interface ItemDAO extends GenericDAO<Item, String> {
 
@@ -36,5 +38,11 @@ public interface ItemDAO extends GenericDAO<Item, String> {
     DynamoDBIterable<Item> findByGsiHashKeyAndGsiRangeKey(String gsiHashKeyValue, String gsiRangeKeyValue);
 
     // TODO: for projections DynamoDBIterable<Item> findByGsiHashKeyAndGsiRangeKey2(String gsiHashKeyValue, String gsiRangeKeyValue2);
+
+    DynamoDBIterable<Item> findByHashKeyWithinOrderByRangeKeyDesc(Collection<String> hashKeyValues);
+
+    int countByHashKey(String hashKeyValue);
+
+    int countByGsiHashKey(String gsiHashKeyValue);
 }
 
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb.iterable;
+
+
+import org.iternine.jeppetto.dao.dynamodb.EnhancerHelper;
+import org.iternine.jeppetto.dao.test.SimpleObject;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+public class BackFetchQueryIterableTest {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final int ITEM_COUNT = 10;
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(1);
+
+
+    //-------------------------------------------------------------
+    // Methods - Test Lifecycle
+    //-------------------------------------------------------------
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Test Cases
+    //-------------------------------------------------------------
+
+    @Test(timeout = 10000)
+    public void prefetchOnSingleThreadExecutorDoesNotStarve() {
+        BackFetchQueryIterable<SimpleObject> backFetchQueryIterable = buildBackFetchQueryIterable();
+
+        backFetchQueryIterable.setPageSize(3);
+        backFetchQueryIterable.setPrefetchDepth(2);
+        backFetchQueryIterable.setPrefetchExecutor(executorService);
+
+        List<String> ids = new ArrayList<>();
+
+        for (SimpleObject simpleObject : backFetchQueryIterable) {
+            ids.add(simpleObject.getId());
+        }
+
+        Assert.assertEquals(ITEM_COUNT, ids.size());
+
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            Assert.assertEquals(Integer.toString(i), ids.get(i));
+        }
+    }
+
+
+    @Test(timeout = 10000)
+    public void concurrentBatchGetsWithoutPrefetch() {
+        BackFetchQueryIterable<SimpleObject> backFetchQueryIterable = buildBackFetchQueryIterable();
+        int count = 0;
+
+        backFetchQueryIterable.setPageSize(4);
+
+        for (SimpleObject ignore : backFetchQueryIterable) {
+            count++;
+        }
+
+        Assert.assertEquals(ITEM_COUNT, count);
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private BackFetchQueryIterable<SimpleObject> buildBackFetchQueryIterable() {
+        AmazonDynamoDB dynamoDB = (AmazonDynamoDB) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { AmazonDynamoDB.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("query")) {
+                    return query((QueryRequest) args[0]);
+                } else if (method.getName().equals("batchGetItem")) {
+                    return batchGetItem((BatchGetItemRequest) args[0]);
+                } else if (method.getName().equals("toString")) {     // Identifies the store items are read from
+                    return "fakeDynamoDB";
+                }
+
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        return new BackFetchQueryIterable<>(dynamoDB, EnhancerHelper.getPersistableEnhancer(SimpleObject.class),
+                                            new QueryRequest("SimpleObject").withIndexName("index"), "id",
+                                            Collections.singletonList("id"), "SimpleObject", Collections.singletonList("id"),
+                                            new KeysAndAttributes(), executorService, 2);
+    }
+
+
+    /**
+     * Answers a keys only index query against ITEM_COUNT items, honoring the request's Limit and ExclusiveStartKey.
+     */
+    private QueryResult query(QueryRequest queryRequest) {
+        int start = queryRequest.getExclusiveStartKey() == null ? 0
+                                                                : Integer.parseInt(queryRequest.getExclusiveStartKey().get("id").getS()) + 1;
+        int end = queryRequest.getLimit() == null ? ITEM_COUNT : Math.min(ITEM_COUNT, start + queryRequest.getLimit());
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+
+        for (int i = start; i < end; i++) {
+            items.add(Collections.singletonMap("id", new AttributeValue(Integer.toString(i))));
+        }
+
+        return new QueryResult().withItems(items)
+                                .withCount(items.size())
+                                .withScannedCount(items.size())
+                                .withLastEvaluatedKey(end < ITEM_COUNT ? items.get(items.size() - 1) : null);
+    }
+
+
+    private BatchGetItemResult batchGetItem(BatchGetItemRequest batchGetItemRequest) {
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+
+        for (Map<String, AttributeValue> key : batchGetItemRequest.getRequestItems().get("SimpleObject").getKeys()) {
+            Map<String, AttributeValue> item = new HashMap<>(key);
+
+            item.put("intValue", new AttributeValue().withN("1"));
+            items.add(item);
+        }
+
+        return new BatchGetItemResult().withResponses(Collections.singletonMap("SimpleObject", items));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.dynamodb.iterable;
+
+
+import org.iternine.jeppetto.dao.dynamodb.EnhancerHelper;
+import org.iternine.jeppetto.dao.test.SimpleObject;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+
+public class QueryIterableTest {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final int ITEM_COUNT = 10;
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final List<Integer> requestLimits = new ArrayList<>();
+
+
+    //-------------------------------------------------------------
+    // Methods - Test Cases
+    //-------------------------------------------------------------
+
+    @Test
+    public void pageSizeDoesNotLimitResults() {
+        QueryIterable<SimpleObject> queryIterable = buildQueryIterable();
+
+        queryIterable.setPageSize(3);
+
+        Assert.assertEquals(ITEM_COUNT, count(queryIterable));
+        Assert.assertEquals(Arrays.asList(3, 3, 3, 3), requestLimits);
+        Assert.assertNull(queryIterable.getPosition());
+    }
+
+
+    @Test
+    public void limitIsCappedByPageSize() {
+        QueryIterable<SimpleObject> queryIterable = buildQueryIterable();
+
+        queryIterable.setLimit(5);
+        queryIterable.setPageSize(2);
+
+        Assert.assertEquals(5, count(queryIterable));
+        Assert.assertTrue(queryIterable.hasResultsPastLimit());
+        Assert.assertEquals(Arrays.asList(2, 2, 2), requestLimits);
+    }
+
+
+    @Test
+    public void limitSizesRequestsWithoutPageSize() {
+        QueryIterable<SimpleObject> queryIterable = buildQueryIterable();
+
+        queryIterable.setLimit(2);
+
+        Assert.assertEquals(2, count(queryIterable));
+        Assert.assertTrue(queryIterable.hasResultsPastLimit());
+        Assert.assertEquals(Collections.singletonList(3), requestLimits);
+    }
+
+
+    @Test
+    public void neitherLimitNorPageSizeLeavesRequestLimitUnset() {
+        QueryIterable<SimpleObject> queryIterable = buildQueryIterable();
+
+        Assert.assertEquals(ITEM_COUNT, count(queryIterable));
+        Assert.assertEquals(Collections.singletonList((Integer) null), requestLimits);
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private QueryIterable<SimpleObject> buildQueryIterable() {
+        AmazonDynamoDB dynamoDB = (AmazonDynamoDB) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { AmazonDynamoDB.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("query")) {
+                    return query((QueryRequest) args[0]);
+                } else if (method.getName().equals("toString")) {     // Identifies the store items are read from
+                    return "fakeDynamoDB";
+                }
+
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        return new QueryIterable<>(dynamoDB, EnhancerHelper.getPersistableEnhancer(SimpleObject.class), new QueryRequest("SimpleObject"),
+                                   "id", Collections.singletonList("id"));
+    }
+
+
+    /**
+     * Answers a query against a table of ITEM_COUNT items, honoring the request's Limit and ExclusiveStartKey.
+     */
+    private QueryResult query(QueryRequest queryRequest) {
+        requestLimits.add(queryRequest.getLimit());
+
+        int start = queryRequest.getExclusiveStartKey() == null ? 0
+                                                                : Integer.parseInt(queryRequest.getExclusiveStartKey().get("id").getS()) + 1;
+        int end = queryRequest.getLimit() == null ? ITEM_COUNT : Math.min(ITEM_COUNT, start + queryRequest.getLimit());
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+
+        for (int i = start; i < end; i++) {
+            items.add(Collections.singletonMap("id", new AttributeValue(Integer.toString(i))));
+        }
+
+        return new QueryResult().withItems(items)
+                                .withCount(items.size())
+                                .withScannedCount(items.size())
+                                .withLastEvaluatedKey(end < ITEM_COUNT ? items.get(items.size() - 1) : null);
+    }
+
+
+    private int count(Iterable<SimpleObject> iterable) {
+        int count = 0;
+
+        for (SimpleObject ignore : iterable) {
+            count++;
+        }
+
+        return count;
+    }
+}
@@ -25,6 +25,7 @@ import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
 import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
 
 import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.test.SimpleObject;
 import org.iternine.jeppetto.dao.test.updateobject.UpdateObjectDAO;
 import org.iternine.jeppetto.dao.test.updateobject.UpdateObjectDAOTest;
 import org.iternine.jeppetto.testsupport.DynamoDBDatabaseProvider;
@@ -36,6 +37,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+
 
 public class DynamoDBUpdateObjectDAOTest extends UpdateObjectDAOTest {
 
@@ -83,6 +86,33 @@ public class DynamoDBUpdateObjectDAOTest extends UpdateObjectDAOTest {
     // Tests
     //-------------------------------------------------------------
 
+    @Test
+    public void updateManyByIdsConcurrently() {
+        List<String> ids = new ArrayList<String>();
+
+        for (int i = 0; i < 50; i++) {
+            SimpleObject simpleObject = new SimpleObject();
+            simpleObject.setIntValue(i);
+
+            getSimpleObjectReferencesDAO().save(simpleObject);
+
+            ids.add(simpleObject.getId());
+        }
+
+        SimpleObject updateObject = getSimpleObjectReferencesDAO().getUpdateObject();
+        updateObject.setAnotherIntValue(999);
+
+        getSimpleObjectReferencesDAO().updateByIds(updateObject, ids.toArray(new String[ids.size()]));
+
+        for (int i = 0; i < ids.size(); i++) {
+            SimpleObject resultSimpleObject = getSimpleObjectReferencesDAO().findById(ids.get(i));
+
+            assertEquals(i, resultSimpleObject.getIntValue());
+            assertEquals(999, resultSimpleObject.getAnotherIntValue());
+        }
+    }
+
+
     @Ignore("DynamoDB doesn't support removing an item by value, only by path.")
     @Test
     public void removeFromExistingList() {
@@ -56,7 +56,13 @@ public class BasicDBObjectCommand extends MongoDBCommand {
 
     @Override
     public DBCursor cursor(DBCollection dbCollection) {
-        return dbCollection.find(query, fieldsToRetrieve).setDecoderFactory(decoderFactory);
+        DBCursor dbCursor = dbCollection.find(query, fieldsToRetrieve).setDecoderFactory(decoderFactory);
+
+        if (getReadPreference() != null) {
+            dbCursor.setReadPreference(getReadPreference());
+        }
+
+        return dbCursor;
     }
 
 
@@ -104,6 +110,11 @@ public class BasicDBObjectCommand extends MongoDBCommand {
             sb.append(fieldsToRetrieve);
         }
 
+        if (getReadPreference() != null) {
+            sb.append(" reading from ");
+            sb.append(getReadPreference());
+        }
+
         return sb.toString();
     }
 }
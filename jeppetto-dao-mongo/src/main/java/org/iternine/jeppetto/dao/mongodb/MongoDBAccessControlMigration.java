@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.mongodb;
+
+
+import org.iternine.jeppetto.dao.AccessType;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.iternine.jeppetto.dao.mongodb.MongoDBQueryModelDAO.ACCESS_CONTROL_FIELD;
+import static org.iternine.jeppetto.dao.mongodb.MongoDBQueryModelDAO.ACCESS_CONTROL_READERS_FIELD;
+import static org.iternine.jeppetto.dao.mongodb.MongoDBQueryModelDAO.ACCESS_CONTROL_WRITERS_FIELD;
+
+
+/**
+ * Converts the access control grants stored in a collection between the map layout (__acl, keyed by access id) and
+ * the multikey layout (__acl_r and __acl_rw arrays of access ids) used when a MongoDBQueryModelDAO is configured
+ * with "multikeyAccessControl".
+ *
+ * Documents are rewritten one at a time, so a migration can be re-run safely if interrupted.  DAOs should not be
+ * writing to the collection while the migration is in progress.
+ */
+public final class MongoDBAccessControlMigration {
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    private MongoDBAccessControlMigration() { /* empty utility constructor */ }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public - Static
+    //-------------------------------------------------------------
+
+    /**
+     * Rewrites all documents that use the map layout into the multikey layout and ensures the multikey indexes exist.
+     *
+     * @param dbCollection collection to migrate
+     * @param writeConcern write concern to use for each document update
+     *
+     * @return the number of documents migrated
+     */
+    public static int toMultikeyLayout(DBCollection dbCollection, WriteConcern writeConcern) {
+        DBCursor cursor = dbCollection.find(new BasicDBObject(ACCESS_CONTROL_FIELD, new BasicDBObject("$exists", true)),
+                                            new BasicDBObject(ACCESS_CONTROL_FIELD, 1));
+        int migrated = 0;
+
+        try {
+            while (cursor.hasNext()) {
+                DBObject dbo = cursor.next();
+                @SuppressWarnings("unchecked")
+                Map<String, String> accessControl = (Map<String, String>) dbo.get(ACCESS_CONTROL_FIELD);
+                List<String> readers = new ArrayList<String>();
+                List<String> writers = new ArrayList<String>();
+
+                if (accessControl != null) {
+                    for (Map.Entry<String, String> entry : accessControl.entrySet()) {
+                        AccessType accessType = AccessType.getAccessTypeFromShortName(entry.getValue());
+
+                        if (accessType.allows(AccessType.Read)) {
+                            readers.add(entry.getKey());
+                        }
+
+                        if (accessType.allows(AccessType.ReadWrite)) {
+                            writers.add(entry.getKey());
+                        }
+                    }
+                }
+
+                DBObject update = new BasicDBObject("$set", new BasicDBObject(ACCESS_CONTROL_READERS_FIELD, readers)
+                                                                    .append(ACCESS_CONTROL_WRITERS_FIELD, writers))
+                                          .append("$unset", new BasicDBObject(ACCESS_CONTROL_FIELD, 1));
+
+                dbCollection.update(new BasicDBObject("_id", dbo.get("_id")), update, false, false, writeConcern);
+
+                migrated++;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        dbCollection.createIndex(new BasicDBObject(ACCESS_CONTROL_READERS_FIELD, 1), new BasicDBObject("background", true));
+        dbCollection.createIndex(new BasicDBObject(ACCESS_CONTROL_WRITERS_FIELD, 1), new BasicDBObject("background", true));
+
+        return migrated;
+    }
+
+
+    /**
+     * Rewrites all documents that use the multikey layout back into the map layout.  The multikey indexes are left
+     * in place and may be dropped once the migration completes.
+     *
+     * @param dbCollection collection to migrate
+     * @param writeConcern write concern to use for each document update
+     *
+     * @return the number of documents migrated
+     */
+    public static int toMapLayout(DBCollection dbCollection, WriteConcern writeConcern) {
+        DBCursor cursor = dbCollection.find(new BasicDBObject(ACCESS_CONTROL_READERS_FIELD, new BasicDBObject("$exists", true)),
+                                            new BasicDBObject(ACCESS_CONTROL_READERS_FIELD, 1).append(ACCESS_CONTROL_WRITERS_FIELD, 1));
+        int migrated = 0;
+
+        try {
+            while (cursor.hasNext()) {
+                DBObject dbo = cursor.next();
+                BasicDBObject accessControl = new BasicDBObject();
+
+                for (String reader : getAccessIds(dbo, ACCESS_CONTROL_READERS_FIELD)) {
+                    accessControl.put(reader, AccessType.Read.shortName());
+                }
+
+                for (String writer : getAccessIds(dbo, ACCESS_CONTROL_WRITERS_FIELD)) {
+                    accessControl.put(writer, AccessType.ReadWrite.shortName());
+                }
+
+                DBObject update = new BasicDBObject("$set", new BasicDBObject(ACCESS_CONTROL_FIELD, accessControl))
+                                          .append("$unset", new BasicDBObject(ACCESS_CONTROL_READERS_FIELD, 1)
+                                                                    .append(ACCESS_CONTROL_WRITERS_FIELD, 1));
+
+                dbCollection.update(new BasicDBObject("_id", dbo.get("_id")), update, false, false, writeConcern);
+
+                migrated++;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return migrated;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private - Static
+    //-------------------------------------------------------------
+
+    @SuppressWarnings("unchecked")
+    private static Collection<String> getAccessIds(DBObject dbo, String field) {
+        Collection<String> accessIds = (Collection<String>) dbo.get(field);
+
+        return accessIds == null ? new ArrayList<String>() : accessIds;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.mongodb;
+
+
+import com.mongodb.DBObject;
+import org.bson.types.BSONTimestamp;
+
+
+/**
+ * A single change to an object in a collection, as read from the replica set oplog by a MongoDBChangeFeed.
+ */
+public class MongoDBChangeEvent<T> {
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final Type type;
+    private final Object id;
+    private final T entity;
+    private final DBObject change;
+    private final BSONTimestamp position;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    MongoDBChangeEvent(Type type, Object id, T entity, DBObject change, BSONTimestamp position) {
+        this.type = type;
+        this.id = id;
+        this.entity = entity;
+        this.change = change;
+        this.position = position;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Getter/Setter
+    //-------------------------------------------------------------
+
+    public Type getType() {
+        return type;
+    }
+
+
+    /**
+     * @return the _id of the changed object, as stored in the collection
+     */
+    public Object getId() {
+        return id;
+    }
+
+
+    /**
+     * @return the object as of this change for inserts and replacements, the current state of the object for updates
+     *         (or null if it no longer exists or the feed does not look up updated objects), and null for deletes
+     */
+    public T getEntity() {
+        return entity;
+    }
+
+
+    /**
+     * @return the raw 'o' document of the oplog entry, i.e. the inserted document, the update modifiers or
+     *         replacement document, or the identifying document of a delete
+     */
+    public DBObject getChange() {
+        return change;
+    }
+
+
+    /**
+     * @return the position of this change in the oplog; pass to MongoDBQueryModelDAO.changeFeed() to resume after it
+     */
+    public BSONTimestamp getPosition() {
+        return position;
+    }
+
+
+    //-------------------------------------------------------------
+    // Override - Object
+    //-------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return "MongoDBChangeEvent{" +
+               "type=" + type +
+               ", id=" + id +
+               ", position=" + position +
+               '}';
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Enum
+    //-------------------------------------------------------------
+
+    public enum Type {
+        Insert,
+        Update,
+        Replace,
+        Delete
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.mongodb;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.mongodb.enhance.DirtyableDBObject;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.Bytes;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBDecoderFactory;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBEncoder;
+import com.mongodb.MongoException;
+import com.mongodb.ReadPreference;
+import org.bson.types.BSONTimestamp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A feed of the inserts, updates and deletes made to a MongoDB collection, read by tailing the replica set oplog
+ * (local.oplog.rs).  Oplog entries are decoded into the DAO's enhanced objects and delivered, in order, to the
+ * registered MongoDBChangeListeners.
+ *
+ * Entries are read on one thread and delivered on another, connected by a bounded queue.  When listeners fall
+ * behind, the queue fills and the reader stops pulling from the oplog until there is room.
+ *
+ * The feed's position is that of the last event delivered to all listeners.  Callers wanting to resume after a
+ * restart should persist it (typically every so many events) and pass it to MongoDBQueryModelDAO.changeFeed().
+ * Events after the persisted position are delivered again, so listeners should tolerate redelivery.
+ *
+ * Events are not filtered by access control.
+ */
+public class MongoDBChangeFeed<T> {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final String OPLOG_DATABASE = "local";
+    private static final String OPLOG_COLLECTION = "oplog.rs";
+    private static final long POLL_MILLIS = 500;
+    private static final long REOPEN_DELAY_MILLIS = 1000;
+
+    private static final Logger logger = LoggerFactory.getLogger(MongoDBChangeFeed.class);
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final DBCollection dbCollection;
+    private final DBCollection oplog;
+    private final DBDecoderFactory decoderFactory;
+    private final BasicDBObject fieldsToRetrieve;
+    private final ReadPreference readPreference;
+    private final BlockingQueue<MongoDBChangeEvent<T>> queue;
+    private final List<MongoDBChangeListener<T>> listeners = new CopyOnWriteArrayList<MongoDBChangeListener<T>>();
+    private boolean lookupUpdatedEntities = true;
+    private volatile BSONTimestamp position;
+    private volatile boolean running;
+    private volatile Throwable failure;
+    private volatile DBCursor oplogCursor;
+    private volatile Thread readerThread;
+    private volatile Thread dispatchThread;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    MongoDBChangeFeed(DBCollection dbCollection, DBDecoderFactory decoderFactory, BasicDBObject fieldsToRetrieve,
+                      ReadPreference readPreference, BSONTimestamp startAfter, int queueCapacity) {
+        this.dbCollection = dbCollection;
+        this.oplog = dbCollection.getDB().getMongo().getDB(OPLOG_DATABASE).getCollection(OPLOG_COLLECTION);
+        this.decoderFactory = decoderFactory;
+        this.fieldsToRetrieve = fieldsToRetrieve;
+        this.readPreference = readPreference;
+        this.queue = new ArrayBlockingQueue<MongoDBChangeEvent<T>>(queueCapacity);
+        this.position = startAfter;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    public void addListener(MongoDBChangeListener<T> listener) {
+        listeners.add(listener);
+    }
+
+
+    public void removeListener(MongoDBChangeListener<T> listener) {
+        listeners.remove(listener);
+    }
+
+
+    /**
+     * Begins tailing the oplog.  If the feed was created without a position, changes made after this call are
+     * delivered; otherwise delivery resumes after the given position.
+     *
+     * @throws JeppettoException if the oplog is unavailable (e.g. the server is not a replica set member), or if the
+     *                           oplog no longer reaches back to the resume position
+     */
+    public synchronized void start()
+            throws JeppettoException {
+        if (running) {
+            return;
+        }
+
+        DBObject oldest = firstOplogEntry(1);
+        DBObject newest = firstOplogEntry(-1);
+
+        if (oldest == null || newest == null) {
+            throw new JeppettoException("No oplog found at " + OPLOG_DATABASE + "." + OPLOG_COLLECTION
+                                        + "; change feeds require a replica set.");
+        }
+
+        if (position == null) {
+            position = (BSONTimestamp) newest.get("ts");
+        } else if (position.compareTo((BSONTimestamp) oldest.get("ts")) < 0) {
+            throw new JeppettoException("The oplog no longer contains position " + position + "; the oldest available is "
+                                        + oldest.get("ts") + ".");
+        }
+
+        running = true;
+        failure = null;
+
+        String threadNamePrefix = "jeppetto-changes-" + dbCollection.getName() + "-";
+
+        readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readOplog(position);
+            }
+        }, threadNamePrefix + "reader");
+        dispatchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatchEvents();
+            }
+        }, threadNamePrefix + "dispatch");
+
+        readerThread.setDaemon(true);
+        dispatchThread.setDaemon(true);
+        readerThread.start();
+        dispatchThread.start();
+    }
+
+
+    /**
+     * Stops the feed.  Events already read but not yet delivered are discarded, so the feed's position remains that
+     * of the last delivered event.  Unless called from a listener, waits for any in-progress delivery to complete.
+     * A stopped feed may be started again, resuming after its position.
+     */
+    public void stop() {
+        Thread readerThreadToJoin;
+        Thread dispatchThreadToJoin;
+
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+
+            running = false;
+            readerThreadToJoin = readerThread;
+            dispatchThreadToJoin = dispatchThread;
+
+            DBCursor cursor = oplogCursor;
+
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        try {
+            // A feed thread stopping the feed after a failure must not wait for itself.
+            if (readerThreadToJoin != Thread.currentThread()) {
+                readerThreadToJoin.join();
+            }
+
+            if (dispatchThreadToJoin != Thread.currentThread()) {
+                dispatchThreadToJoin.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        queue.clear();
+    }
+
+
+    public boolean isRunning() {
+        return running;
+    }
+
+
+    /**
+     * @return the position of the last event delivered to all listeners, or the position the feed started from if
+     *         none has been delivered yet
+     */
+    public BSONTimestamp getPosition() {
+        return position;
+    }
+
+
+    /**
+     * @return the exception that stopped the feed, if a listener failed or an oplog entry could not be read; null
+     *         otherwise
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+
+    /**
+     * By default, update events carry the current state of the updated object, read from the collection when the
+     * event is decoded.  Disabling this avoids the extra read; updates expressed as modifiers then carry no entity
+     * and should be interpreted via getChange().  Must be set before start().
+     *
+     * @param lookupUpdatedEntities whether to read the current state of objects changed with update modifiers
+     */
+    public void setLookupUpdatedEntities(boolean lookupUpdatedEntities) {
+        this.lookupUpdatedEntities = lookupUpdatedEntities;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private DBObject firstOplogEntry(int naturalOrder) {
+        DBCursor cursor = oplog.find().sort(new BasicDBObject("$natural", naturalOrder)).limit(1);
+
+        try {
+            return cursor.hasNext() ? cursor.next() : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    // A stopped feed may be restarted before its previous threads have exited; those threads must not continue.
+    private boolean isCurrent(Thread feedThread) {
+        return running && feedThread == Thread.currentThread();
+    }
+
+
+    private void readOplog(BSONTimestamp readPosition) {
+        while (isCurrent(readerThread)) {
+            DBObject query = new BasicDBObject("ts", new BasicDBObject("$gt", readPosition))
+                    .append("ns", dbCollection.getFullName())
+                    .append("op", new BasicDBObject("$in", Arrays.asList("i", "u", "d")))
+                    .append("fromMigrate", new BasicDBObject("$exists", false));
+            DBCursor cursor = oplog.find(query)
+                                   .addOption(Bytes.QUERYOPTION_TAILABLE)
+                                   .addOption(Bytes.QUERYOPTION_AWAITDATA)
+                                   .addOption(Bytes.QUERYOPTION_OPLOGREPLAY);
+
+            if (readPreference != null) {
+                cursor.setReadPreference(readPreference);
+            }
+
+            oplogCursor = cursor;
+
+            try {
+                while (running && cursor.hasNext()) {
+                    DBObject entry = cursor.next();
+                    MongoDBChangeEvent<T> event = toEvent(entry);
+
+                    while (running && !queue.offer(event, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        // Listeners are behind; hold off reading further entries until there is room.
+                    }
+
+                    readPosition = event.getPosition();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                return;
+            } catch (MongoException e) {
+                if (running) {
+                    logger.warn("Lost oplog cursor for " + dbCollection.getFullName() + " after " + readPosition
+                                + "; reopening.", e);
+                }
+            } catch (RuntimeException e) {
+                if (!running) {
+                    return;     // Cursor was closed by stop().
+                }
+
+                logger.error("Unable to read oplog entry for " + dbCollection.getFullName() + " after " + readPosition
+                             + "; stopping feed at " + position + ".", e);
+
+                failure = e;
+
+                stop();
+
+                return;
+            } finally {
+                cursor.close();
+            }
+
+            if (running) {
+                // Tailable cursors die when there are (as yet) no matching entries; wait before retrying.
+                try {
+                    Thread.sleep(REOPEN_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+
+                    return;
+                }
+            }
+        }
+    }
+
+
+    private void dispatchEvents() {
+        try {
+            while (isCurrent(dispatchThread)) {
+                MongoDBChangeEvent<T> event = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (event == null) {
+                    continue;
+                }
+
+                for (MongoDBChangeListener<T> listener : listeners) {
+                    listener.onChange(event);
+                }
+
+                position = event.getPosition();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.error("Change listener failed for " + dbCollection.getFullName() + "; stopping feed at " + position
+                         + ".", e);
+
+            failure = e;
+
+            stop();
+        }
+    }
+
+
+    private MongoDBChangeEvent<T> toEvent(DBObject entry) {
+        String op = (String) entry.get("op");
+        DBObject change = (DBObject) entry.get("o");
+        BSONTimestamp ts = (BSONTimestamp) entry.get("ts");
+
+        if ("i".equals(op)) {
+            return new MongoDBChangeEvent<T>(MongoDBChangeEvent.Type.Insert, change.get("_id"), decode(change), change, ts);
+        } else if ("d".equals(op)) {
+            return new MongoDBChangeEvent<T>(MongoDBChangeEvent.Type.Delete, change.get("_id"), null, change, ts);
+        }
+
+        Object id = ((DBObject) entry.get("o2")).get("_id");
+
+        if (!isModifierDocument(change)) {
+            return new MongoDBChangeEvent<T>(MongoDBChangeEvent.Type.Replace, id, decode(change), change, ts);
+        }
+
+        return new MongoDBChangeEvent<T>(MongoDBChangeEvent.Type.Update, id, lookupUpdatedEntities ? lookup(id) : null,
+                                         change, ts);
+    }
+
+
+    private boolean isModifierDocument(DBObject change) {
+        Iterator<String> keys = change.keySet().iterator();
+
+        return keys.hasNext() && keys.next().startsWith("$");
+    }
+
+
+    @SuppressWarnings( { "unchecked" })
+    private T decode(DBObject document) {
+        byte[] bytes = new DefaultDBEncoder().encode(document);
+        DirtyableDBObject result = (DirtyableDBObject) decoderFactory.create().decode(bytes, dbCollection);
+
+        result.markPersisted(dbCollection);
+
+        return (T) result;
+    }
+
+
+    @SuppressWarnings( { "unchecked" })
+    private T lookup(Object id) {
+        DBCursor cursor = dbCollection.find(new BasicDBObject("_id", id), fieldsToRetrieve)
+                                      .setDecoderFactory(decoderFactory);
+
+        if (readPreference != null) {
+            cursor.setReadPreference(readPreference);
+        }
+
+        try {
+            if (!cursor.hasNext()) {
+                return null;
+            }
+
+            DirtyableDBObject result = (DirtyableDBObject) cursor.next();
+
+            result.markPersisted(dbCollection);
+
+            return (T) result;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.mongodb;
+
+
+/**
+ * Receives the changes delivered by a MongoDBChangeFeed.  Listeners are invoked sequentially on the feed's dispatch
+ * thread, in oplog order.
+ */
+public interface MongoDBChangeListener<T> {
+
+    /**
+     * Called for each change.  A feed's position only advances past an event once all listeners have returned from
+     * this method; throwing an exception stops the feed without advancing past the event.
+     *
+     * @param event the change
+     */
+    void onChange(MongoDBChangeEvent<T> event);
+}
@@ -23,6 +23,7 @@ import org.iternine.jeppetto.dao.TooManyItemsException;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
 
 
 /**
@@ -30,6 +31,13 @@ import com.mongodb.DBObject;
  */
 public abstract class MongoDBCommand {
 
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private ReadPreference readPreference;
+
+
     //-------------------------------------------------------------
     // Methods - Public
     //-------------------------------------------------------------
@@ -50,6 +58,19 @@ public abstract class MongoDBCommand {
     }
 
 
+    /**
+     * @return the read preference this command should be executed with, or null to use the collection's default
+     */
+    public ReadPreference getReadPreference() {
+        return readPreference;
+    }
+
+
+    public void setReadPreference(ReadPreference readPreference) {
+        this.readPreference = readPreference;
+    }
+
+
     //-------------------------------------------------------------
     // Override - Object
     //-------------------------------------------------------------
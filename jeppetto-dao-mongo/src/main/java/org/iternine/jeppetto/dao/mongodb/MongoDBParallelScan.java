@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.mongodb;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.MergingIterator;
+import org.iternine.jeppetto.dao.mongodb.enhance.DirtyableDBObject;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A scan over a MongoDB collection that has been split into _id ranges, each of which is read by its own cursor.
+ * Partitions are consumed concurrently on a pool of at most 'parallelism' threads, either by handing each
+ * partition to a PartitionCallback, or by iterating over the merged (and unordered) results.
+ *
+ * Each partition's cursor is closed once the partition has been read, when its callback returns or fails, and when
+ * a merged iterator is closed.  Objects produced by a parallel scan are not tracked by an active MongoDBSession.
+ */
+public class MongoDBParallelScan<T>
+        implements Iterable<T> {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final AtomicInteger scanCount = new AtomicInteger(0);
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final DBCollection dbCollection;
+    private final List<MongoDBCommand> partitionCommands;
+    private final int parallelism;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    MongoDBParallelScan(DBCollection dbCollection, List<MongoDBCommand> partitionCommands, int parallelism) {
+        this.dbCollection = dbCollection;
+        this.partitionCommands = partitionCommands;
+        this.parallelism = Math.max(1, Math.min(parallelism, partitionCommands.size()));
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    public int getPartitionCount() {
+        return partitionCommands.size();
+    }
+
+
+    /**
+     * Hands each partition to the callback, blocking until all partitions have been processed.  If processing of any
+     * partition fails, the remaining partitions are cancelled and the failure is rethrown.  A partition's cursor is
+     * closed when its callback returns, even if the callback stopped iterating early.
+     *
+     * @param partitionCallback callback to invoke for each partition; invoked concurrently from multiple threads
+     */
+    public void forEachPartition(final PartitionCallback<T> partitionCallback)
+            throws JeppettoException {
+        ExecutorService executorService = createExecutorService();
+        List<Future<?>> futures = new ArrayList<Future<?>>(partitionCommands.size());
+
+        try {
+            for (int i = 0; i < partitionCommands.size(); i++) {
+                final int partition = i;
+
+                futures.add(executorService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        PartitionItems partitionItems = new PartitionItems(partition);
+
+                        try {
+                            partitionCallback.process(partition, partitionItems);
+                        } finally {
+                            partitionItems.close();
+                        }
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw MergingIterator.rethrow(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new JeppettoException(e);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Iterates over the results of all partitions as they arrive.  Results are not ordered.  Iterators returned by
+     * this method implement Closeable; callers that stop iterating before reaching the end must close the iterator
+     * to release the underlying cursors, which are otherwise held open until the server times them out.
+     *
+     * @return merged iterator over all partitions
+     */
+    @Override
+    public Iterator<T> iterator() {
+        ExecutorService executorService = createExecutorService();
+        List<PartitionItems> partitions = new ArrayList<PartitionItems>(partitionCommands.size());
+
+        for (int i = 0; i < partitionCommands.size(); i++) {
+            partitions.add(new PartitionItems(i));
+        }
+
+        MergingIterator<T> mergingIterator = new MergingIterator<T>(executorService, partitions, parallelism);
+
+        executorService.shutdown();     // Accept no further tasks; threads exit once the partitions are read.
+
+        return mergingIterator;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private ExecutorService createExecutorService() {
+        final String threadNamePrefix = "jeppetto-scan-" + dbCollection.getName() + "-" + scanCount.incrementAndGet() + "-";
+
+        return Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadNamePrefix + threadCount.incrementAndGet());
+
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Interface
+    //-------------------------------------------------------------
+
+    public interface PartitionCallback<T> {
+
+        /**
+         * @param partition zero-based index of the partition, in ascending _id order
+         * @param items items within the partition, in ascending _id order.  May be iterated once.
+         */
+        void process(int partition, Iterable<T> items);
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class
+    //-------------------------------------------------------------
+
+    /**
+     * The items of one partition.  Remembers the cursors it opens so they can be closed from any thread.
+     */
+    private class PartitionItems
+            implements Iterable<T>, MergingIterator.Producer<T> {
+
+        private final int partition;
+        private final List<DBCursor> dbCursors = Collections.synchronizedList(new ArrayList<DBCursor>(1));
+        private volatile boolean closed;
+
+
+        private PartitionItems(int partition) {
+            this.partition = partition;
+        }
+
+
+        @Override
+        public Iterator<T> iterator() {
+            final DBCursor dbCursor = partitionCommands.get(partition).cursor(dbCollection);
+
+            dbCursors.add(dbCursor);
+
+            if (closed) {
+                dbCursor.close();
+            }
+
+            return new Iterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    if (!closed && dbCursor.hasNext()) {
+                        return true;
+                    }
+
+                    dbCursor.close();
+
+                    return false;
+                }
+
+
+                @Override
+                @SuppressWarnings( { "unchecked" })
+                public T next() {
+                    if (closed) {
+                        throw new NoSuchElementException();
+                    }
+
+                    DirtyableDBObject result = (DirtyableDBObject) dbCursor.next();
+
+                    result.markPersisted(dbCollection);
+
+                    return (T) result;
+                }
+
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+
+        @Override
+        public void produce(MergingIterator.Sink<T> sink)
+                throws InterruptedException {
+            for (T item : this) {
+                sink.put(item);
+            }
+        }
+
+
+        @Override
+        public void close() {
+            closed = true;
+
+            synchronized (dbCursors) {
+                for (DBCursor dbCursor : dbCursors) {
+                    dbCursor.close();
+                }
+            }
+        }
+    }
+}
@@ -43,12 +43,14 @@ import org.iternine.jeppetto.dao.mongodb.enhance.DirtyableDBObject;
 import org.iternine.jeppetto.dao.mongodb.enhance.DirtyableDBObjectList;
 import org.iternine.jeppetto.dao.mongodb.enhance.DirtyableDBObjectMap;
 import org.iternine.jeppetto.dao.mongodb.enhance.EnhancerHelper;
+import org.iternine.jeppetto.dao.mongodb.enhance.LazyMongoDBDecoder;
 import org.iternine.jeppetto.dao.mongodb.enhance.MongoDBDecoder;
 import org.iternine.jeppetto.dao.mongodb.enhance.UpdateObject;
 import org.iternine.jeppetto.dao.mongodb.projections.ProjectionCommands;
 import org.iternine.jeppetto.enhance.Enhancer;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.CommandResult;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
@@ -57,7 +59,9 @@ import com.mongodb.DBDecoderFactory;
 import com.mongodb.DBObject;
 import com.mongodb.DuplicateKeyException;
 import com.mongodb.MongoException;
+import com.mongodb.ReadPreference;
 import com.mongodb.WriteConcern;
+import org.bson.types.BSONTimestamp;
 import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,11 +72,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 
@@ -132,12 +139,36 @@ import java.util.regex.Pattern;
  *     <td>Boolean to indicate whether null fields should be included in MongoDB documents.</td>
  *   </tr>
  *   <tr>
+ *     <td>lazyDecoding</td>
+ *     <td>No</td>
+ *     <td>Boolean to indicate if top-level embedded documents and lists/maps/sets of retrieved objects should be
+ *         left undecoded until their getter is first called.  Useful for large documents of which most reads
+ *         touch only a few fields.  Entity methods that read such fields directly (rather than via getters), e.g.
+ *         equals() or toString(), will see them as null until they are decoded.</td>
+ *   </tr>
+ *   <tr>
  *     <td>writeConcern</td>
  *     <td>No</td>
  *     <td>String, one of the values as indicated at http://www.mongodb.org/display/DOCS/Replica+Set+Semantics.  If
  *         not specified, the DAO defaults to "SAFE".</td>
  *   </tr>
  *   <tr>
+ *     <td>readPreference</td>
+ *     <td>No</td>
+ *     <td>String naming the replica set members reads are routed to: one of "primary", "primaryPreferred",
+ *         "secondary", "secondaryPreferred" or "nearest", optionally followed by a colon and semicolon-separated
+ *         tag sets, each a comma-separated list of name=value pairs (e.g. "secondary:dc=east,use=reporting;dc=east").
+ *         If not specified, the read preference of the DB is used.  Individual DAO methods can override this with
+ *         a {@code @Hint(name = "readPreference", value = "...")} on their {@code @DataAccessMethod}.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>multikeyAccessControl</td>
+ *     <td>No</td>
+ *     <td>Boolean to indicate if access control grants should be stored as arrays of access ids per access level
+ *         (__acl_r and __acl_rw) rather than as a map keyed by access id.  This layout can be served by a single
+ *         multikey index.  Existing collections can be converted using {@link MongoDBAccessControlMigration}.</td>
+ *   </tr>
+ *   <tr>
  *     <td>showQueries</td>
  *     <td>No</td>
  *     <td>Boolean to indicate if executed queries should be logged.  Note that logging will need to be enabled for
@@ -154,8 +185,21 @@ public class MongoDBQueryModelDAO<T, ID>
 
     private static final String ID_FIELD = "_id";
     private static final String OPTIMISTIC_LOCK_VERSION_FIELD = "__olv";
-    private static final String ACCESS_CONTROL_FIELD = "__acl";
+    static final String ACCESS_CONTROL_FIELD = "__acl";
+    static final String ACCESS_CONTROL_READERS_FIELD = "__acl_r";
+    static final String ACCESS_CONTROL_WRITERS_FIELD = "__acl_rw";
     private static final Pattern READ_PATTERN = Pattern.compile("^R");
+    private static final String READ_PREFERENCE_HINT = "readPreference";
+    private static final int SAMPLES_PER_PARTITION = 32;
+    private static final Comparator<Object> ID_COMPARATOR = new Comparator<Object>() {
+        @Override
+        @SuppressWarnings( { "unchecked" })
+        public int compare(Object id1, Object id2) {
+            return ((Comparable<Object>) id1).compareTo(id2);     // ClassCastException for mixed _id types
+        }
+    };
+
+    private static final Logger logger = LoggerFactory.getLogger(MongoDBQueryModelDAO.class);
 
 
     //-------------------------------------------------------------
@@ -170,8 +214,11 @@ public class MongoDBQueryModelDAO<T, ID>
     private Map<String, Set<String>> uniqueIndexes;
     private boolean optimisticLockEnabled;
     private List<String> shardKeys;
+    private boolean multikeyAccessControl;
 //    private boolean saveNulls;
     private WriteConcern defaultWriteConcern;
+    private ReadPreference defaultReadPreference;
+    private final ConcurrentMap<String, ReadPreference> readPreferences = new ConcurrentHashMap<String, ReadPreference>();
     private Logger queryLogger;
     private Enhancer<T> updateObjectEnhancer;
 
@@ -193,17 +240,28 @@ public class MongoDBQueryModelDAO<T, ID>
 
         this.dbCollection = ((DB) daoProperties.get("db")).getCollection(collectionName);
         this.dirtyableDBObjectEnhancer = EnhancerHelper.getDirtyableDBObjectEnhancer(entityClass);
-        this.decoderFactory = new DBDecoderFactory() {
-            @Override
-            public DBDecoder create() {
-                return new MongoDBDecoder(dirtyableDBObjectEnhancer.getEnhancedClass());
-            }
-        };
+
+        if (Boolean.parseBoolean((String) daoProperties.get("lazyDecoding"))) {
+            this.decoderFactory = new DBDecoderFactory() {
+                @Override
+                public DBDecoder create() {
+                    return new LazyMongoDBDecoder(dirtyableDBObjectEnhancer.getEnhancedClass());
+                }
+            };
+        } else {
+            this.decoderFactory = new DBDecoderFactory() {
+                @Override
+                public DBDecoder create() {
+                    return new MongoDBDecoder(dirtyableDBObjectEnhancer.getEnhancedClass());
+                }
+            };
+        }
         this.accessControlContextProvider = accessControlContextProvider;
         this.uniqueIndexes = ensureIndexes((List<String>) daoProperties.get("uniqueIndexes"), true);
         ensureIndexes((List<String>) daoProperties.get("nonUniqueIndexes"), false);
         this.optimisticLockEnabled = Boolean.parseBoolean((String) daoProperties.get("optimisticLockEnabled"));
         this.shardKeys = extractShardKeys((String) daoProperties.get("shardKeyPattern"));
+        this.multikeyAccessControl = Boolean.parseBoolean((String) daoProperties.get("multikeyAccessControl"));
 //        this.saveNulls = Boolean.parseBoolean((String) daoProperties.get("saveNulls"));
         this.fieldsToRetrieve = identifyFieldsToRetrieve(entityClass, (String) daoProperties.get("viewOf"));
 
@@ -213,10 +271,18 @@ public class MongoDBQueryModelDAO<T, ID>
             this.defaultWriteConcern = WriteConcern.SAFE;
         }
 
+        if (daoProperties.containsKey("readPreference")) {
+            this.defaultReadPreference = getReadPreference((String) daoProperties.get("readPreference"));
+        }
+
         if (Boolean.parseBoolean((String) daoProperties.get("showQueries"))) {
             queryLogger = LoggerFactory.getLogger(getClass());
         }
 
+        if (accessControlContextProvider != null && multikeyAccessControl) {
+            ensureIndexes(Arrays.asList(ACCESS_CONTROL_READERS_FIELD, ACCESS_CONTROL_WRITERS_FIELD), false);
+        }
+
         this.updateObjectEnhancer = EnhancerHelper.getUpdateObjectEnhancer(getCollectionClass());
     }
 
@@ -620,17 +686,23 @@ public class MongoDBQueryModelDAO<T, ID>
         QueryModel queryModel = new QueryModel();
         queryModel.addCondition(buildIdCondition(id));
         queryModel.setAccessControlContext(accessControlContext);
+        queryModel.addHint(READ_PREFERENCE_HINT, "primary");    // Grants are read just before being modified
 
         DBObject dbo = (DBObject) findUniqueUsingQueryModel(queryModel);
 
         verifyWriteAllowed(dbo, accessControlContext);
 
-        @SuppressWarnings( { "unchecked" })
-        Map<String, String> accessControl = (Map<String, String>) dbo.get(ACCESS_CONTROL_FIELD);
-
         DBObject accessUpdate;
 
-        if (accessControl == null) {
+        if (multikeyAccessControl) {
+            if (accessType == AccessType.ReadWrite) {
+                accessUpdate = new BasicDBObject("$addToSet", new BasicDBObject(ACCESS_CONTROL_READERS_FIELD, accessId)
+                                                                        .append(ACCESS_CONTROL_WRITERS_FIELD, accessId));
+            } else {
+                accessUpdate = new BasicDBObject("$addToSet", new BasicDBObject(ACCESS_CONTROL_READERS_FIELD, accessId))
+                                       .append("$pull", new BasicDBObject(ACCESS_CONTROL_WRITERS_FIELD, accessId));
+            }
+        } else if (dbo.get(ACCESS_CONTROL_FIELD) == null) {
             accessUpdate = new BasicDBObject("$set", new BasicDBObject(ACCESS_CONTROL_FIELD,
                                                                        new BasicDBObject(accessId, accessType.shortName())));
         } else {
@@ -673,19 +745,23 @@ public class MongoDBQueryModelDAO<T, ID>
         QueryModel queryModel = new QueryModel();
         queryModel.addCondition(buildIdCondition(id));
         queryModel.setAccessControlContext(accessControlContext);
+        queryModel.addHint(READ_PREFERENCE_HINT, "primary");    // Grants are read just before being modified
 
         DBObject dbo = (DBObject) findUniqueUsingQueryModel(queryModel);
 
         verifyWriteAllowed(dbo, accessControlContext);
 
-        @SuppressWarnings("unchecked")
-        Map<String, String> accessControl = (Map<String, String>)  dbo.get(ACCESS_CONTROL_FIELD);
+        DBObject accessUpdate;
 
-        if (accessControl == null) {
+        if (multikeyAccessControl) {
+            accessUpdate = new BasicDBObject("$pull", new BasicDBObject(ACCESS_CONTROL_READERS_FIELD, accessId)
+                                                               .append(ACCESS_CONTROL_WRITERS_FIELD, accessId));
+        } else if (dbo.get(ACCESS_CONTROL_FIELD) == null) {
             return;
+        } else {
+            accessUpdate = new BasicDBObject("$unset", new BasicDBObject(ACCESS_CONTROL_FIELD + "." + accessId, 1));
         }
 
-        DBObject accessUpdate = new BasicDBObject("$pull", new BasicDBObject(ACCESS_CONTROL_FIELD, accessId));
         DBObject identifyingQuery = buildIdentifyingQuery(dbo);
 
         for (String shardKey : shardKeys) {
@@ -722,12 +798,27 @@ public class MongoDBQueryModelDAO<T, ID>
         QueryModel queryModel = new QueryModel();
         queryModel.addCondition(buildIdCondition(id));
         queryModel.setAccessControlContext(accessControlContext);
+        queryModel.addHint(READ_PREFERENCE_HINT, "primary");    // Grants are read just before being modified
 
         DBObject dbo = (DBObject) findUniqueUsingQueryModel(queryModel);
 
         // We limit it to writers.
         verifyWriteAllowed(dbo, accessControlContext);
 
+        if (multikeyAccessControl) {
+            Map<String, AccessType> result = new HashMap<String, AccessType>();
+
+            for (String reader : getAccessIds(dbo, ACCESS_CONTROL_READERS_FIELD)) {
+                result.put(reader, AccessType.Read);
+            }
+
+            for (String writer : getAccessIds(dbo, ACCESS_CONTROL_WRITERS_FIELD)) {
+                result.put(writer, AccessType.ReadWrite);
+            }
+
+            return result;
+        }
+
         @SuppressWarnings("unchecked")
         Map<String, String> accessControl = (Map<String, String>) dbo.get(ACCESS_CONTROL_FIELD);
 
@@ -755,6 +846,107 @@ public class MongoDBQueryModelDAO<T, ID>
     }
 
 
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    /**
+     * Creates a scan over all objects in the collection that is split into _id ranges and read in parallel.  See
+     * parallelScanUsingQueryModel() for details.
+     *
+     * @param partitionCount desired number of _id ranges
+     * @param parallelism maximum number of ranges read concurrently
+     *
+     * @return a parallel scan that may be iterated or processed per partition
+     */
+    public MongoDBParallelScan<T> parallelScan(int partitionCount, int parallelism)
+            throws JeppettoException {
+        QueryModel queryModel = new QueryModel();
+
+        if (accessControlContextProvider != null) {
+            queryModel.setAccessControlContext(accessControlContextProvider.getCurrent());
+        }
+
+        return parallelScanUsingQueryModel(queryModel, partitionCount, parallelism);
+    }
+
+
+    /**
+     * Creates a scan over the objects matching the queryModel that is split into _id ranges, each read by its own
+     * cursor.  Range boundaries are determined with the splitVector command, falling back to a random sample of _id
+     * values when splitVector is unavailable (e.g. lacking privileges), and to a single range if neither works.  The
+     * number of ranges produced may be less than partitionCount for small collections.
+     *
+     * Sorts, limits and skips are not supported, and objects are not tracked by an active MongoDBSession.
+     *
+     * @param queryModel conditions the scanned objects must match
+     * @param partitionCount desired number of _id ranges
+     * @param parallelism maximum number of ranges read concurrently
+     *
+     * @return a parallel scan that may be iterated or processed per partition
+     */
+    public MongoDBParallelScan<T> parallelScanUsingQueryModel(QueryModel queryModel, int partitionCount, int parallelism)
+            throws JeppettoException {
+        if (queryModel.getProjection() != null || queryModel.getSorts() != null
+            || queryModel.getMaxResults() > 0 || queryModel.getFirstResult() > 0) {
+            throw new JeppettoException("Parallel scans do not support projections, sorts, limits or skips.");
+        }
+
+        BasicDBObject query = buildQueryObject(queryModel, AccessType.Read);
+        String readPreferenceHint = queryModel.getHint(READ_PREFERENCE_HINT);
+        ReadPreference readPreference = readPreferenceHint != null ? getReadPreference(readPreferenceHint)
+                                                                   : defaultReadPreference;
+        List<Object> splitPoints = determineSplitPoints(partitionCount);
+        List<MongoDBCommand> partitionCommands = new ArrayList<MongoDBCommand>(splitPoints.size() + 1);
+
+        for (int i = 0; i <= splitPoints.size(); i++) {
+            BasicDBObject range = new BasicDBObject();
+
+            if (i > 0) {
+                range.put("$gte", splitPoints.get(i - 1));
+            }
+
+            if (i < splitPoints.size()) {
+                range.put("$lt", splitPoints.get(i));
+            }
+
+            BasicDBObject partitionQuery;
+
+            if (range.isEmpty()) {
+                partitionQuery = query;
+            } else if (query.containsField(ID_FIELD)) {
+                partitionQuery = new BasicDBObject("$and", Arrays.asList(query, new BasicDBObject(ID_FIELD, range)));
+            } else {
+                partitionQuery = new BasicDBObject(query).append(ID_FIELD, range);
+            }
+
+            MongoDBCommand command = new BasicDBObjectCommand(partitionQuery, fieldsToRetrieve, decoderFactory);
+
+            command.setReadPreference(readPreference);
+
+            partitionCommands.add(queryLogger != null ? QueryLoggingCommand.wrap(command, queryLogger) : command);
+        }
+
+        return new MongoDBParallelScan<T>(dbCollection, partitionCommands, parallelism);
+    }
+
+
+    /**
+     * Creates a feed of the changes made to this DAO's collection, read by tailing the replica set oplog.  The feed
+     * must be started once listeners have been added.
+     *
+     * @param startAfter position (as returned by MongoDBChangeEvent.getPosition() or MongoDBChangeFeed.getPosition())
+     *                   to resume after, or null to receive only changes made after the feed is started
+     * @param queueCapacity maximum number of events read ahead of the listeners
+     *
+     * @return an unstarted change feed
+     */
+    public MongoDBChangeFeed<T> changeFeed(BSONTimestamp startAfter, int queueCapacity) {
+        return new MongoDBChangeFeed<T>(dbCollection, decoderFactory, fieldsToRetrieve, defaultReadPreference,
+                                        startAfter, queueCapacity);
+    }
+
+
     //-------------------------------------------------------------
     // Methods - Protected
     //-------------------------------------------------------------
@@ -929,6 +1121,67 @@ public class MongoDBQueryModelDAO<T, ID>
     }
 
 
+    //-------------------------------------------------------------
+    // Methods - Package
+    //-------------------------------------------------------------
+
+    MongoDBCommand buildCommand(QueryModel queryModel, AccessType accessType) {
+        BasicDBObject query = buildQueryObject(queryModel, accessType);
+        MongoDBCommand command;
+
+        if (queryModel.getProjection() == null) {
+            command = new BasicDBObjectCommand(query, fieldsToRetrieve, decoderFactory);
+        } else {
+            command = ProjectionCommands.forProjection(queryModel.getProjection(), query);
+        }
+
+        String readPreferenceHint = queryModel.getHint(READ_PREFERENCE_HINT);
+
+        command.setReadPreference(readPreferenceHint != null ? getReadPreference(readPreferenceHint)
+                                                             : defaultReadPreference);
+
+        if (queryLogger != null) {
+            return QueryLoggingCommand.wrap(command, queryLogger);
+        } else {
+            return command;
+        }
+    }
+
+
+    /**
+     * Parses a read preference given as a mode, optionally followed by ':' and semicolon-separated tag sets (see the
+     * "readPreference" DAO property).
+     */
+    static ReadPreference parseReadPreference(String readPreferenceSpec) {
+        int colonIndex = readPreferenceSpec.indexOf(':');
+
+        if (colonIndex < 0) {
+            return readPreferenceFor(readPreferenceSpec.trim(), null, readPreferenceSpec);
+        }
+
+        String mode = readPreferenceSpec.substring(0, colonIndex).trim();
+        List<DBObject> tagSets = new ArrayList<DBObject>();
+
+        for (String tagSetSpec : readPreferenceSpec.substring(colonIndex + 1).split(";")) {
+            DBObject tagSet = new BasicDBObject();
+
+            for (String tagSpec : tagSetSpec.split(",")) {
+                String[] tagParts = tagSpec.split("=", 2);
+
+                if (tagParts.length != 2) {
+                    throw new JeppettoException("Invalid read preference tag '" + tagSpec + "' in " + readPreferenceSpec);
+                }
+
+                tagSet.put(tagParts[0].trim(), tagParts[1].trim());
+            }
+
+            tagSets.add(tagSet);
+        }
+
+        return readPreferenceFor(mode, tagSets, readPreferenceSpec);
+    }
+
+
     //-------------------------------------------------------------
     // Methods - Private
     //-------------------------------------------------------------
@@ -951,7 +1204,12 @@ public class MongoDBQueryModelDAO<T, ID>
         }
         
         if (accessControlContextProvider != null) {
-            fields.put(ACCESS_CONTROL_FIELD, 1);
+            if (multikeyAccessControl) {
+                fields.put(ACCESS_CONTROL_READERS_FIELD, 1);
+                fields.put(ACCESS_CONTROL_WRITERS_FIELD, 1);
+            } else {
+                fields.put(ACCESS_CONTROL_FIELD, 1);
+            }
         }
         
         if (fields.containsField("id")) {
@@ -1079,20 +1337,65 @@ public class MongoDBQueryModelDAO<T, ID>
     }
 
 
-    private MongoDBCommand buildCommand(QueryModel queryModel, AccessType accessType) {
-        BasicDBObject query = buildQueryObject(queryModel, accessType);
-        MongoDBCommand command;
+    private List<Object> determineSplitPoints(int partitionCount) {
+        if (partitionCount <= 1) {
+            return Collections.emptyList();
+        }
 
-        if (queryModel.getProjection() == null) {
-            command = new BasicDBObjectCommand(query, fieldsToRetrieve, decoderFactory);
-        } else {
-            command = ProjectionCommands.forProjection(queryModel.getProjection(), query);
+        try {
+            CommandResult stats = dbCollection.getStats();
+            long dataSize = stats.containsField("size") ? ((Number) stats.get("size")).longValue() : 0;
+            DBObject splitVectorCommand = new BasicDBObject("splitVector", dbCollection.getFullName())
+                    .append("keyPattern", new BasicDBObject(ID_FIELD, 1))
+                    .append("maxChunkSizeBytes", Math.max(1, dataSize / partitionCount))
+                    .append("maxSplitPoints", partitionCount - 1);
+            CommandResult result = dbCollection.getDB().command(splitVectorCommand);
+
+            if (result.ok() && result.get("splitKeys") != null) {
+                List<Object> splitPoints = new ArrayList<Object>();
+
+                for (Object splitKey : (List<?>) result.get("splitKeys")) {
+                    splitPoints.add(((DBObject) splitKey).get(ID_FIELD));
+                }
+
+                return splitPoints;
+            }
+
+            logger.debug("splitVector unavailable for {} ({}); sampling _id values instead.",
+                         dbCollection.getFullName(), result.getErrorMessage());
+        } catch (MongoException e) {
+            logger.debug("splitVector unavailable for {} ({}); sampling _id values instead.",
+                         dbCollection.getFullName(), e.getMessage());
         }
 
-        if (queryLogger != null) {
-            return QueryLoggingCommand.wrap(command, queryLogger);
-        } else {
-            return command;
+        try {
+            List<DBObject> pipeline = Arrays.<DBObject>asList(
+                    new BasicDBObject("$sample", new BasicDBObject("size", partitionCount * SAMPLES_PER_PARTITION)),
+                    new BasicDBObject("$project", new BasicDBObject(ID_FIELD, 1)));
+            List<Object> sampledIds = new ArrayList<Object>();
+
+            for (DBObject sample : dbCollection.aggregate(pipeline).results()) {
+                sampledIds.add(sample.get(ID_FIELD));
+            }
+
+            Collections.sort(sampledIds, ID_COMPARATOR);
+
+            List<Object> splitPoints = new ArrayList<Object>(partitionCount - 1);
+
+            for (int i = 1; i < partitionCount && sampledIds.size() > 0; i++) {
+                Object splitPoint = sampledIds.get(i * sampledIds.size() / partitionCount);
+
+                if (splitPoints.isEmpty() || !splitPoint.equals(splitPoints.get(splitPoints.size() - 1))) {
+                    splitPoints.add(splitPoint);
+                }
+            }
+
+            return splitPoints;
+        } catch (RuntimeException e) {     // ClassCastException for mixed _id types, MongoException for old servers
+            logger.warn("Unable to split {} into ranges ({}); scanning as a single partition.",
+                        dbCollection.getFullName(), e.getMessage());
+
+            return Collections.emptyList();
         }
     }
 
@@ -1190,7 +1493,15 @@ public class MongoDBQueryModelDAO<T, ID>
 
         if (accessControlContextProvider != null) {
             if (!annotationAllowsAccess(queryModel.getAccessControlContext(), accessType)) {
-                if (accessType == AccessType.Read) {
+                if (multikeyAccessControl) {
+                    String accessId = queryModel.getAccessControlContext().getAccessId();
+                    String accessField = accessType == AccessType.Read ? ACCESS_CONTROL_READERS_FIELD
+                                                                       : ACCESS_CONTROL_WRITERS_FIELD;
+
+                    // A null accessId must not match documents that lack the field, so use an unsatisfiable $in.
+                    query.put(accessField, accessId != null ? accessId
+                                                            : new BasicDBObject("$in", Collections.emptyList()));
+                } else if (accessType == AccessType.Read) {
                     query.put(ACCESS_CONTROL_FIELD + "." + queryModel.getAccessControlContext().getAccessId(), READ_PATTERN);
                 } else {
                     query.put(ACCESS_CONTROL_FIELD + "." + queryModel.getAccessControlContext().getAccessId(), accessType.shortName());
@@ -1283,6 +1594,32 @@ public class MongoDBQueryModelDAO<T, ID>
     }
 
 
+    private ReadPreference getReadPreference(String readPreferenceSpec) {
+        ReadPreference readPreference = readPreferences.get(readPreferenceSpec);
+
+        if (readPreference == null) {
+            readPreference = parseReadPreference(readPreferenceSpec);
+
+            readPreferences.put(readPreferenceSpec, readPreference);
+        }
+
+        return readPreference;
+    }
+
+
+    private static ReadPreference readPreferenceFor(String mode, List<DBObject> tagSets, String readPreferenceSpec) {
+        try {
+            if (tagSets == null) {
+                return ReadPreference.valueOf(mode);
+            }
+
+            return ReadPreference.valueOf(mode, tagSets.get(0), tagSets.subList(1, tagSets.size()).toArray(new DBObject[tagSets.size() - 1]));
+        } catch (IllegalArgumentException e) {
+            throw new JeppettoException("Invalid read preference: " + readPreferenceSpec, e);
+        }
+    }
+
+
     private void ensureAccessControlEnabled() {
         if (accessControlContextProvider == null) {
             throw new AccessControlException("Access Control is not enabled. No AccessControlContextProvider specified.");
@@ -1292,17 +1629,57 @@ public class MongoDBQueryModelDAO<T, ID>
 
     private void verifyWriteAllowed(DBObject dbo, AccessControlContext accessControlContext)
             throws AccessControlException {
-        @SuppressWarnings( { "unchecked" })
-        Map<String, String> accessControl = (Map<String, String>) dbo.get(ACCESS_CONTROL_FIELD);
-
         if (accessControlContext == null
-            || (!AccessType.ReadWrite.shortName().equals(accessControl.get(accessControlContext.getAccessId()))
+            || (!hasGrantedWriteAccess(dbo, accessControlContext.getAccessId())
                 && !annotationAllowsAccess(accessControlContext, AccessType.ReadWrite))) {
                 throw new AccessControlException("Unable to write " + dbo.toMap() + " with " + accessControlContext);
         }
     }
 
 
+    private boolean hasGrantedWriteAccess(DBObject dbo, String accessId) {
+        if (multikeyAccessControl) {
+            return accessId != null && getAccessIds(dbo, ACCESS_CONTROL_WRITERS_FIELD).contains(accessId);
+        }
+
+        @SuppressWarnings( { "unchecked" })
+        Map<String, String> accessControl = (Map<String, String>) dbo.get(ACCESS_CONTROL_FIELD);
+
+        return AccessType.ReadWrite.shortName().equals(accessControl.get(accessId));
+    }
+
+
+    @SuppressWarnings( { "unchecked" })
+    private Collection<String> getAccessIds(DBObject dbo, String accessControlField) {
+        Collection<String> accessIds = (Collection<String>) dbo.get(accessControlField);
+
+        return accessIds == null ? Collections.<String>emptyList() : accessIds;
+    }
+
+
+    private void assignGrantedAccess(DBObject dbo, String accessId, AccessType accessType) {
+        if (multikeyAccessControl) {
+            List<String> readers = new ArrayList<String>();
+            List<String> writers = new ArrayList<String>();
+
+            if (accessId != null && accessType.allows(AccessType.Read)) {
+                readers.add(accessId);
+            }
+
+            if (accessId != null && accessType.allows(AccessType.ReadWrite)) {
+                writers.add(accessId);
+            }
+
+            dbo.put(ACCESS_CONTROL_READERS_FIELD, readers);
+            dbo.put(ACCESS_CONTROL_WRITERS_FIELD, writers);
+        } else if (accessId == null) {
+            dbo.put(ACCESS_CONTROL_FIELD, Collections.emptyMap());
+        } else {
+            dbo.put(ACCESS_CONTROL_FIELD, Collections.singletonMap(accessId, accessType.shortName()));
+        }
+    }
+
+
     private void assessAndAssignAccessControl(DBObject dbo, AccessControlContext accessControlContext)
             throws AccessControlException {
         AccessControl accessControl = getAccessControlAnnotation();
@@ -1311,8 +1688,8 @@ public class MongoDBQueryModelDAO<T, ID>
                 switch (creator.type()) {
                 case Identified:
                     if (accessControlContext.getAccessId() != null) {
-                        dbo.put(ACCESS_CONTROL_FIELD, Collections.singletonMap(accessControlContext.getAccessId(),
-                                                                               creator.grantedAccess().shortName()));
+                        assignGrantedAccess(dbo, accessControlContext.getAccessId(), creator.grantedAccess());
+
                         return;
                     }
 
@@ -1320,8 +1697,7 @@ public class MongoDBQueryModelDAO<T, ID>
 
                 case Role:
                     if (accessControlContext.getRoles() != null && accessControlContext.getRoles().contains(creator.typeValue())) {
-                        dbo.put(ACCESS_CONTROL_FIELD, Collections.singletonMap(accessControlContext.getAccessId(),
-                                                                               creator.grantedAccess().shortName()));
+                        assignGrantedAccess(dbo, accessControlContext.getAccessId(), creator.grantedAccess());
 
                         return;
                     }
@@ -1330,7 +1706,7 @@ public class MongoDBQueryModelDAO<T, ID>
 
                 case Anonymous:
                     // No explicit grants given.
-                    dbo.put(ACCESS_CONTROL_FIELD, Collections.emptyMap());
+                    assignGrantedAccess(dbo, null, AccessType.None);
 
                     return;
                 }
@@ -1342,12 +1718,7 @@ public class MongoDBQueryModelDAO<T, ID>
         } else {
             // When no annotation is present, any user can create the object.  If user is unknown, no explicit grants.
             // Otherwise, ReadWrite access is given to the caller.
-            if (accessControlContext.getAccessId() == null) {
-                dbo.put(ACCESS_CONTROL_FIELD, Collections.emptyMap());
-            } else {
-                dbo.put(ACCESS_CONTROL_FIELD, Collections.singletonMap(accessControlContext.getAccessId(),
-                                                                       AccessType.ReadWrite.shortName()));
-            }
+            assignGrantedAccess(dbo, accessControlContext.getAccessId(), AccessType.ReadWrite);
         }
     }
 
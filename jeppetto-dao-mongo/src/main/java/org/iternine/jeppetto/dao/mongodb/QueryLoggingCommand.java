@@ -23,6 +23,7 @@ import org.iternine.jeppetto.dao.TooManyItemsException;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
 import org.slf4j.Logger;
 
 
@@ -95,4 +96,16 @@ public final class QueryLoggingCommand extends MongoDBCommand {
     public DBObject getQuery() {
         return delegate.getQuery();
     }
+
+
+    @Override
+    public ReadPreference getReadPreference() {
+        return delegate.getReadPreference();
+    }
+
+
+    @Override
+    public void setReadPreference(ReadPreference readPreference) {
+        delegate.setReadPreference(readPreference);
+    }
 }
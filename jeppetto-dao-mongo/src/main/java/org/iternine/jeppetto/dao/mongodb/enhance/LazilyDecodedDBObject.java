@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.mongodb.enhance;
+
+
+/**
+ * Implemented by enhanced objects that can defer decoding of some of their fields until first access.
+ */
+public interface LazilyDecodedDBObject {
+
+    /**
+     * @param lazyFields the undecoded fields of this object, or null if all fields have been decoded
+     */
+    void setLazyFields(LazyFields lazyFields);
+
+
+    /**
+     * @return the undecoded fields of this object, or null if all fields have been decoded
+     */
+    LazyFields getLazyFields();
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.mongodb.enhance;
+
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Retains the raw BSON of the fields of a document that have not yet been decoded.  Each field is decoded on its
+ * own, the first time it is needed, through the same callback that would have decoded it eagerly.  The raw bytes
+ * are released once no undecoded fields remain.
+ */
+public class LazyFields {
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private byte[] document;
+    private final Map<String, int[]> pendingElements;   // field -> { offset, length } of the element in document
+    private final Class rootClass;
+    private final DBCollection dbCollection;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    LazyFields(byte[] document, Map<String, int[]> pendingElements, Class rootClass, DBCollection dbCollection) {
+        this.document = document;
+        this.pendingElements = new HashMap<String, int[]>(pendingElements);
+        this.rootClass = rootClass;
+        this.dbCollection = dbCollection;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    /**
+     * @param field name of the field in the document
+     *
+     * @return true if the field is present in the document but has not been decoded
+     */
+    public boolean isPending(String field) {
+        return pendingElements.containsKey(field);
+    }
+
+
+    /**
+     * Discards the raw value of the field, e.g. because it has been overwritten.
+     *
+     * @param field name of the field in the document
+     */
+    public void resolve(String field) {
+        if (pendingElements.remove(field) != null && pendingElements.isEmpty()) {
+            document = null;
+        }
+    }
+
+
+    /**
+     * Decodes a single pending field.
+     *
+     * @param field name of the field in the document
+     *
+     * @return a new instance of the document's class on which only the given field has been set
+     */
+    public DBObject decode(String field) {
+        int[] element = pendingElements.get(field);
+
+        if (element == null) {
+            throw new IllegalStateException("Field '" + field + "' is not pending decoding.");
+        }
+
+        byte[] singleFieldDocument = LazyMongoDBDecoder.buildDocument(document, element);
+
+        resolve(field);
+
+        return new MongoDBDecoder(rootClass).decode(singleFieldDocument, dbCollection);
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.mongodb.enhance;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import org.bson.io.Bits;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * A MongoDBDecoder that leaves the top-level embedded documents and arrays of an entity undecoded.  Their raw BSON
+ * is retained in a LazyFields instance and each is decoded the first time its getter is called.  All other fields
+ * (and any fields that don't correspond to a property of the entity) are decoded immediately.
+ */
+public class LazyMongoDBDecoder extends MongoDBDecoder {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final byte EMBEDDED_DOCUMENT = 0x03;
+    private static final byte ARRAY = 0x04;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private static final ConcurrentMap<Class, Set<String>> propertyFieldsCache = new ConcurrentHashMap<Class, Set<String>>();
+
+    private Class rootClass;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    public LazyMongoDBDecoder(Class rootClass) {
+        super(rootClass);
+
+        this.rootClass = rootClass;
+    }
+
+
+    //-------------------------------------------------------------
+    // Implementation - DBDecoder
+    //-------------------------------------------------------------
+
+    @Override
+    public DBObject decode(InputStream in, DBCollection collection)
+            throws IOException {
+        byte[] lengthBytes = new byte[4];
+
+        Bits.readFully(in, lengthBytes);
+
+        int length = Bits.readInt(lengthBytes);
+        byte[] document = new byte[length];
+
+        System.arraycopy(lengthBytes, 0, document, 0, 4);
+        Bits.readFully(in, document, 4, length - 4);
+
+        return decode(document, collection);
+    }
+
+
+    @Override
+    public DBObject decode(byte[] document, DBCollection collection) {
+        if (collection == null || collection.getName().equals("$cmd")
+            || !LazilyDecodedDBObject.class.isAssignableFrom(rootClass)) {
+            return super.decode(document, collection);
+        }
+
+        Set<String> propertyFields = getPropertyFields();
+        Map<String, int[]> pendingElements = new LinkedHashMap<String, int[]>();
+        List<int[]> eagerElements = new ArrayList<int[]>();
+        int offset = 4;
+
+        while (document[offset] != 0) {
+            byte type = document[offset];
+            int nameEnd = offset + 1;
+
+            while (document[nameEnd] != 0) {
+                nameEnd++;
+            }
+
+            int elementLength = nameEnd + 1 - offset + valueLength(document, type, nameEnd + 1);
+            int[] element = new int[] { offset, elementLength };
+
+            if (type == EMBEDDED_DOCUMENT || type == ARRAY) {
+                String name = new String(document, offset + 1, nameEnd - offset - 1, UTF_8);
+
+                if (propertyFields.contains(name)) {
+                    pendingElements.put(name, element);
+                } else {
+                    eagerElements.add(element);
+                }
+            } else {
+                eagerElements.add(element);
+            }
+
+            offset += elementLength;
+        }
+
+        if (pendingElements.isEmpty()) {
+            return super.decode(document, collection);
+        }
+
+        DBObject result = super.decode(buildDocument(document, eagerElements.toArray(new int[eagerElements.size()][])),
+                                       collection);
+
+        ((LazilyDecodedDBObject) result).setLazyFields(new LazyFields(document, pendingElements, rootClass, collection));
+
+        return result;
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Package
+    //-------------------------------------------------------------
+
+    /**
+     * Assembles a BSON document from elements of another document.
+     *
+     * @param source BSON document containing the elements
+     * @param elements { offset, length } pairs identifying the elements to include
+     *
+     * @return new BSON document
+     */
+    static byte[] buildDocument(byte[] source, int[]... elements) {
+        int length = 5;     // int32 length + trailing 0x00
+
+        for (int[] element : elements) {
+            length += element[1];
+        }
+
+        byte[] document = new byte[length];
+        int position = 4;
+
+        document[0] = (byte) length;
+        document[1] = (byte) (length >> 8);
+        document[2] = (byte) (length >> 16);
+        document[3] = (byte) (length >> 24);
+
+        for (int[] element : elements) {
+            System.arraycopy(source, element[0], document, position, element[1]);
+
+            position += element[1];
+        }
+
+        document[position] = 0;
+
+        return document;
+    }
+
+
+    /**
+     * @param document BSON document containing the value
+     * @param type BSON type of the value
+     * @param valueOffset offset of the value within document
+     *
+     * @return number of bytes the value occupies
+     */
+    static int valueLength(byte[] document, byte type, int valueOffset) {
+        switch (type) {
+        case 0x06:  // undefined
+        case 0x0A:  // null
+        case (byte) 0xFF:  // min key
+        case 0x7F:  // max key
+            return 0;
+        case 0x08:  // boolean
+            return 1;
+        case 0x10:  // int32
+            return 4;
+        case 0x01:  // double
+        case 0x09:  // UTC datetime
+        case 0x11:  // timestamp
+        case 0x12:  // int64
+            return 8;
+        case 0x07:  // ObjectId
+            return 12;
+        case 0x13:  // decimal128
+            return 16;
+        case 0x02:  // string
+        case 0x0D:  // JavaScript code
+        case 0x0E:  // symbol
+            return 4 + Bits.readInt(document, valueOffset);
+        case 0x03:  // embedded document
+        case 0x04:  // array
+        case 0x0F:  // code with scope
+            return Bits.readInt(document, valueOffset);
+        case 0x05:  // binary
+            return 5 + Bits.readInt(document, valueOffset);
+        case 0x0C:  // DBPointer
+            return 4 + Bits.readInt(document, valueOffset) + 12;
+        case 0x0B:  // regular expression (two cstrings)
+            int end = valueOffset;
+
+            while (document[end] != 0) {
+                end++;
+            }
+
+            end++;
+
+            while (document[end] != 0) {
+                end++;
+            }
+
+            return end + 1 - valueOffset;
+        default:
+            throw new IllegalArgumentException("Unknown BSON type " + type + " at offset " + valueOffset);
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private Set<String> getPropertyFields() {
+        Set<String> propertyFields = propertyFieldsCache.get(rootClass);
+
+        if (propertyFields == null) {
+            try {
+                // A fresh instance's keys are exactly the fields backed by getters/setters.
+                propertyFields = new HashSet<String>(((DBObject) rootClass.newInstance()).keySet());
+            } catch (Exception e) {
+                throw new JeppettoException(e);
+            }
+
+            propertyFields.remove("_id");
+            propertyFields = Collections.unmodifiableSet(propertyFields);
+
+            propertyFieldsCache.putIfAbsent(rootClass, propertyFields);
+        }
+
+        return propertyFields;
+    }
+}
@@ -55,7 +55,15 @@ abstract class MapReduceCommand
 
     @Override
     public final Object singleResult(DBCollection dbCollection) {
-        MapReduceOutput output = dbCollection.mapReduce(createMapFunction(), createReduceFunction(), null, query);
+        MapReduceOutput output;
+
+        if (getReadPreference() == null) {
+            output = dbCollection.mapReduce(createMapFunction(), createReduceFunction(), null, query);
+        } else {
+            // Only inline map/reduce jobs may be routed to secondaries.
+            output = dbCollection.mapReduce(createMapFunction(), createReduceFunction(), null,
+                                            com.mongodb.MapReduceCommand.OutputType.INLINE, query, getReadPreference());
+        }
         Iterable<DBObject> results = output.results();
 
         try {
@@ -21,6 +21,7 @@ import org.iternine.jeppetto.dao.mongodb.MongoDBCommand;
 
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
 
 
 /**
@@ -51,6 +52,9 @@ class RowCountCommand
 
     @Override
     public Integer singleResult(DBCollection dbCollection) {
-        return dbCollection.find(query).count();
+        ReadPreference readPreference = getReadPreference() != null ? getReadPreference()
+                                                                    : dbCollection.getReadPreference();
+
+        return (int) dbCollection.getCount(query, null, readPreference);
     }
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.mongodb;
+
+
+import org.iternine.jeppetto.dao.test.SimpleObject;
+import org.iternine.jeppetto.testsupport.MongoDatabaseProvider;
+import org.iternine.jeppetto.testsupport.TestContext;
+
+import org.bson.types.BSONTimestamp;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Change feeds tail the oplog, so these tests require the server to be a replica set member (a single-node replica
+ * set is sufficient, e.g. mongod --replSet rs0 followed by rs.initiate()).
+ */
+public class MongoChangeFeedTest {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final long EVENT_TIMEOUT_SECONDS = 10;
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private TestContext testContext;
+    private MongoDBQueryModelDAO<SimpleObject, String> simpleObjectDAO;
+    private MongoDBChangeFeed<SimpleObject> changeFeed;
+
+
+    //-------------------------------------------------------------
+    // Methods - Set-Up / Tear-Down
+    //-------------------------------------------------------------
+
+    @Before
+    public void setUp() {
+        testContext = new TestContext("MongoGenericDAOTest.spring.xml",
+                                      "MongoDAOTest.properties",
+                                      new MongoDatabaseProvider());
+
+        //noinspection unchecked
+        simpleObjectDAO = (MongoDBQueryModelDAO<SimpleObject, String>) testContext.getBean("mongoGenericDAO");
+    }
+
+
+    @After
+    public void tearDown() {
+        if (changeFeed != null) {
+            changeFeed.stop();
+        }
+
+        if (testContext != null) {
+            testContext.close();
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Test Cases
+    //-------------------------------------------------------------
+
+    @Test
+    public void insertUpdateAndDeleteAreDelivered()
+            throws Exception {
+        BlockingQueue<MongoDBChangeEvent<SimpleObject>> events = startFeed(null);
+        SimpleObject simpleObject = new SimpleObject();
+
+        simpleObject.setIntValue(1);
+        simpleObjectDAO.save(simpleObject);
+
+        MongoDBChangeEvent<SimpleObject> insert = nextEvent(events);
+
+        assertEquals(MongoDBChangeEvent.Type.Insert, insert.getType());
+        assertEquals(1, insert.getEntity().getIntValue());
+
+        SimpleObject saved = simpleObjectDAO.findById(simpleObject.getId());
+
+        saved.setIntValue(2);
+        simpleObjectDAO.save(saved);
+
+        MongoDBChangeEvent<SimpleObject> update = nextEvent(events);
+
+        assertTrue(update.getType() == MongoDBChangeEvent.Type.Update
+                   || update.getType() == MongoDBChangeEvent.Type.Replace);
+        assertEquals(2, update.getEntity().getIntValue());
+
+        simpleObjectDAO.delete(saved);
+
+        MongoDBChangeEvent<SimpleObject> delete = nextEvent(events);
+
+        assertEquals(MongoDBChangeEvent.Type.Delete, delete.getType());
+        assertEquals(insert.getId(), delete.getId());
+        assertNull(delete.getEntity());
+        assertTrue(insert.getPosition().compareTo(update.getPosition()) < 0);
+        assertTrue(update.getPosition().compareTo(delete.getPosition()) < 0);
+    }
+
+
+    @Test
+    public void feedResumesAfterPosition()
+            throws Exception {
+        BlockingQueue<MongoDBChangeEvent<SimpleObject>> events = startFeed(null);
+
+        simpleObjectDAO.save(newSimpleObject(1));
+
+        BSONTimestamp position = nextEvent(events).getPosition();
+
+        waitForPosition(position);
+        changeFeed.stop();
+
+        simpleObjectDAO.save(newSimpleObject(2));
+        simpleObjectDAO.save(newSimpleObject(3));
+
+        events = startFeed(position);
+
+        assertEquals(2, nextEvent(events).getEntity().getIntValue());
+        assertEquals(3, nextEvent(events).getEntity().getIntValue());
+    }
+
+
+    @Test
+    public void listenerFailureStopsFeed()
+            throws Exception {
+        final RuntimeException listenerFailure = new IllegalStateException("listener failed");
+
+        changeFeed = simpleObjectDAO.changeFeed(null, 16);
+        changeFeed.addListener(new MongoDBChangeListener<SimpleObject>() {
+            @Override
+            public void onChange(MongoDBChangeEvent<SimpleObject> event) {
+                throw listenerFailure;
+            }
+        });
+        changeFeed.start();
+
+        BSONTimestamp startPosition = changeFeed.getPosition();
+
+        simpleObjectDAO.save(newSimpleObject(1));
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(EVENT_TIMEOUT_SECONDS);
+
+        while (changeFeed.isRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertFalse(changeFeed.isRunning());
+        assertSame(listenerFailure, changeFeed.getFailure());
+        assertEquals(startPosition, changeFeed.getPosition());
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private BlockingQueue<MongoDBChangeEvent<SimpleObject>> startFeed(BSONTimestamp startAfter) {
+        final BlockingQueue<MongoDBChangeEvent<SimpleObject>> events = new LinkedBlockingQueue<MongoDBChangeEvent<SimpleObject>>();
+
+        changeFeed = simpleObjectDAO.changeFeed(startAfter, 16);
+        changeFeed.addListener(new MongoDBChangeListener<SimpleObject>() {
+            @Override
+            public void onChange(MongoDBChangeEvent<SimpleObject> event) {
+                events.add(event);
+            }
+        });
+        changeFeed.start();
+
+        return events;
+    }
+
+
+    private MongoDBChangeEvent<SimpleObject> nextEvent(BlockingQueue<MongoDBChangeEvent<SimpleObject>> events)
+            throws InterruptedException {
+        MongoDBChangeEvent<SimpleObject> event = events.poll(EVENT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertNotNull("No change event delivered", event);
+
+        return event;
+    }
+
+
+    // The position advances once all listeners have returned, which may be just after the event is observed.
+    private void waitForPosition(BSONTimestamp position)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(EVENT_TIMEOUT_SECONDS);
+
+        while (!position.equals(changeFeed.getPosition()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(position, changeFeed.getPosition());
+    }
+
+
+    private static SimpleObject newSimpleObject(int intValue) {
+        SimpleObject simpleObject = new SimpleObject();
+
+        simpleObject.setIntValue(intValue);
+
+        return simpleObject;
+    }
+}
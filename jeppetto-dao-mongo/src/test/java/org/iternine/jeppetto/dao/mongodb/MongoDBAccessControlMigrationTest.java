@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.mongodb;
+
+
+import org.iternine.jeppetto.dao.AccessControlException;
+import org.iternine.jeppetto.dao.AccessType;
+import org.iternine.jeppetto.dao.NoSuchItemException;
+import org.iternine.jeppetto.dao.SettableAccessControlContextProvider;
+import org.iternine.jeppetto.dao.SimpleAccessControlContext;
+import org.iternine.jeppetto.dao.test.accesscontrol.DefaultAccessObject;
+import org.iternine.jeppetto.dao.test.accesscontrol.DefaultAccessObjectDAO;
+import org.iternine.jeppetto.testsupport.MongoDatabaseProvider;
+import org.iternine.jeppetto.testsupport.TestContext;
+
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.iternine.jeppetto.dao.mongodb.MongoDBQueryModelDAO.ACCESS_CONTROL_FIELD;
+import static org.iternine.jeppetto.dao.mongodb.MongoDBQueryModelDAO.ACCESS_CONTROL_READERS_FIELD;
+import static org.iternine.jeppetto.dao.mongodb.MongoDBQueryModelDAO.ACCESS_CONTROL_WRITERS_FIELD;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+
+public class MongoDBAccessControlMigrationTest {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final SimpleAccessControlContext OWNER = new SimpleAccessControlContext("001");
+    private static final SimpleAccessControlContext READER = new SimpleAccessControlContext("002");
+    private static final SimpleAccessControlContext WRITER = new SimpleAccessControlContext("003");
+    private static final SimpleAccessControlContext STRANGER = new SimpleAccessControlContext("004");
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private TestContext testContext;
+    private DBCollection dbCollection;
+    private SettableAccessControlContextProvider accessControlContextProvider;
+    private DefaultAccessObjectDAO mapLayoutDAO;
+    private DefaultAccessObjectDAO multikeyLayoutDAO;
+
+
+    //-------------------------------------------------------------
+    // Methods - Set-Up / Tear-Down
+    //-------------------------------------------------------------
+
+    @Before
+    public void setUp() {
+        testContext = new TestContext("MongoDBAccessControlMigrationTest.spring.xml",
+                                      "MongoDAOTest.properties",
+                                      new MongoDatabaseProvider());
+
+        dbCollection = ((DB) testContext.getBean("mongoDb")).getCollection(DefaultAccessObject.class.getSimpleName());
+        accessControlContextProvider = (SettableAccessControlContextProvider) testContext.getBean("accessControlContextProvider");
+        mapLayoutDAO = (DefaultAccessObjectDAO) testContext.getBean("mapLayoutDAO");
+        multikeyLayoutDAO = (DefaultAccessObjectDAO) testContext.getBean("multikeyLayoutDAO");
+    }
+
+
+    @After
+    public void tearDown() {
+        if (testContext != null) {
+            testContext.close();
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Test Cases
+    //-------------------------------------------------------------
+
+    @Test
+    public void mapToMultikeyToMapRoundTrips() {
+        String id = saveWithGrants(mapLayoutDAO);
+        Map<String, AccessType> grantedAccesses = getGrantedAccesses(mapLayoutDAO, id);
+        Object originalAccessControl = dbCollection.findOne().get(ACCESS_CONTROL_FIELD);
+
+        assertEquals(1, MongoDBAccessControlMigration.toMultikeyLayout(dbCollection, WriteConcern.ACKNOWLEDGED));
+
+        DBObject multikeyDocument = dbCollection.findOne();
+
+        assertFalse(multikeyDocument.containsField(ACCESS_CONTROL_FIELD));
+        assertEquals(new HashSet<Object>(Arrays.asList("001", "002", "003")),
+                     new HashSet<Object>((Collection<?>) multikeyDocument.get(ACCESS_CONTROL_READERS_FIELD)));
+        assertEquals(new HashSet<Object>(Arrays.asList("001", "003")),
+                     new HashSet<Object>((Collection<?>) multikeyDocument.get(ACCESS_CONTROL_WRITERS_FIELD)));
+        assertEquals(grantedAccesses, getGrantedAccesses(multikeyLayoutDAO, id));
+
+        assertEquals(1, MongoDBAccessControlMigration.toMapLayout(dbCollection, WriteConcern.ACKNOWLEDGED));
+
+        DBObject mapDocument = dbCollection.findOne();
+
+        assertFalse(mapDocument.containsField(ACCESS_CONTROL_READERS_FIELD));
+        assertFalse(mapDocument.containsField(ACCESS_CONTROL_WRITERS_FIELD));
+        assertEquals(originalAccessControl, mapDocument.get(ACCESS_CONTROL_FIELD));
+        assertEquals(grantedAccesses, getGrantedAccesses(mapLayoutDAO, id));
+    }
+
+
+    @Test
+    public void migrationCanBeRerun() {
+        saveWithGrants(mapLayoutDAO);
+
+        assertEquals(1, MongoDBAccessControlMigration.toMultikeyLayout(dbCollection, WriteConcern.ACKNOWLEDGED));
+        assertEquals(0, MongoDBAccessControlMigration.toMultikeyLayout(dbCollection, WriteConcern.ACKNOWLEDGED));
+
+        assertEquals(1, MongoDBAccessControlMigration.toMapLayout(dbCollection, WriteConcern.ACKNOWLEDGED));
+        assertEquals(0, MongoDBAccessControlMigration.toMapLayout(dbCollection, WriteConcern.ACKNOWLEDGED));
+    }
+
+
+    @Test
+    public void migratedDocumentHonorsGrantedAccess() {
+        String id = saveWithGrants(mapLayoutDAO);
+
+        MongoDBAccessControlMigration.toMultikeyLayout(dbCollection, WriteConcern.ACKNOWLEDGED);
+
+        // Reader may read, but not write
+        DefaultAccessObject readerCopy = findById(multikeyLayoutDAO, id, READER);
+
+        readerCopy.setIntValue(1);
+
+        try {
+            multikeyLayoutDAO.save(readerCopy, READER);
+
+            fail("Expected AccessControlException");
+        } catch (AccessControlException ignore) {
+        }
+
+        // Writer may read and write
+        DefaultAccessObject writerCopy = findById(multikeyLayoutDAO, id, WRITER);
+
+        writerCopy.setIntValue(2);
+
+        multikeyLayoutDAO.save(writerCopy, WRITER);
+
+        assertEquals(2, findById(multikeyLayoutDAO, id, OWNER).getIntValue());
+
+        // Others see nothing
+        try {
+            findById(multikeyLayoutDAO, id, STRANGER);
+
+            fail("Expected NoSuchItemException");
+        } catch (NoSuchItemException ignore) {
+        }
+
+        // Grants made after the migration use the multikey layout as well
+        multikeyLayoutDAO.grantAccess(id, STRANGER.getAccessId(), AccessType.Read, OWNER);
+
+        assertEquals(2, findById(multikeyLayoutDAO, id, STRANGER).getIntValue());
+        assertFalse(dbCollection.findOne().containsField(ACCESS_CONTROL_FIELD));
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private String saveWithGrants(DefaultAccessObjectDAO dao) {
+        DefaultAccessObject defaultAccessObject = new DefaultAccessObject();
+
+        dao.save(defaultAccessObject, OWNER);
+        dao.grantAccess(defaultAccessObject.getId(), READER.getAccessId(), AccessType.Read, OWNER);
+        dao.grantAccess(defaultAccessObject.getId(), WRITER.getAccessId(), AccessType.ReadWrite, OWNER);
+
+        return defaultAccessObject.getId();
+    }
+
+
+    private Map<String, AccessType> getGrantedAccesses(DefaultAccessObjectDAO dao, String id) {
+        return new HashMap<String, AccessType>(dao.getGrantedAccesses(id, OWNER));
+    }
+
+
+    private DefaultAccessObject findById(DefaultAccessObjectDAO dao, String id, SimpleAccessControlContext context) {
+        accessControlContextProvider.setCurrent(context);
+
+        try {
+            return dao.findById(id);
+        } finally {
+            accessControlContextProvider.setCurrent(null);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.mongodb;
+
+
+import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.test.SimpleObject;
+import org.iternine.jeppetto.testsupport.MongoDatabaseProvider;
+import org.iternine.jeppetto.testsupport.TestContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class MongoParallelScanTest {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final int OBJECT_COUNT = 500;
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private TestContext testContext;
+    private MongoDBQueryModelDAO<SimpleObject, String> simpleObjectDAO;
+    private Set<Integer> savedValues;
+
+
+    //-------------------------------------------------------------
+    // Methods - Set-Up / Tear-Down
+    //-------------------------------------------------------------
+
+    @Before
+    public void setUp() {
+        testContext = new TestContext("MongoGenericDAOTest.spring.xml",
+                                      "MongoDAOTest.properties",
+                                      new MongoDatabaseProvider());
+
+        //noinspection unchecked
+        simpleObjectDAO = (MongoDBQueryModelDAO<SimpleObject, String>) testContext.getBean("mongoGenericDAO");
+        savedValues = new HashSet<Integer>();
+
+        for (int i = 0; i < OBJECT_COUNT; i++) {
+            SimpleObject simpleObject = new SimpleObject();
+
+            simpleObject.setIntValue(i);
+
+            simpleObjectDAO.save(simpleObject);
+            savedValues.add(i);
+        }
+    }
+
+
+    @After
+    public void tearDown() {
+        if (testContext != null) {
+            testContext.close();
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Test Cases
+    //-------------------------------------------------------------
+
+    @Test
+    public void iterationVisitsEveryObjectOnce() {
+        Set<Integer> visitedValues = new HashSet<Integer>();
+
+        for (SimpleObject simpleObject : simpleObjectDAO.parallelScan(8, 4)) {
+            assertTrue(visitedValues.add(simpleObject.getIntValue()));
+        }
+
+        assertEquals(savedValues, visitedValues);
+    }
+
+
+    @Test
+    public void forEachPartitionVisitsEveryObjectOnce() {
+        final Set<Integer> visitedValues = Collections.synchronizedSet(new HashSet<Integer>());
+
+        simpleObjectDAO.parallelScan(8, 4).forEachPartition(new MongoDBParallelScan.PartitionCallback<SimpleObject>() {
+            @Override
+            public void process(int partition, Iterable<SimpleObject> items) {
+                for (SimpleObject simpleObject : items) {
+                    assertTrue(visitedValues.add(simpleObject.getIntValue()));
+                }
+            }
+        });
+
+        assertEquals(savedValues, visitedValues);
+    }
+
+
+    @Test
+    public void partitionsMayBeAbandonedEarly() {
+        final Set<Integer> visitedPartitions = Collections.synchronizedSet(new HashSet<Integer>());
+        MongoDBParallelScan<SimpleObject> parallelScan = simpleObjectDAO.parallelScan(8, 4);
+
+        parallelScan.forEachPartition(new MongoDBParallelScan.PartitionCallback<SimpleObject>() {
+            @Override
+            public void process(int partition, Iterable<SimpleObject> items) {
+                Iterator<SimpleObject> iterator = items.iterator();
+
+                if (iterator.hasNext()) {
+                    iterator.next();
+                    visitedPartitions.add(partition);
+                }
+            }
+        });
+
+        assertEquals(parallelScan.getPartitionCount(), visitedPartitions.size());
+    }
+
+
+    @Test
+    public void closingIteratorStopsScan()
+            throws IOException {
+        Iterator<SimpleObject> iterator = simpleObjectDAO.parallelScan(8, 4).iterator();
+
+        assertTrue(iterator.hasNext());
+
+        iterator.next();
+
+        ((Closeable) iterator).close();
+
+        assertFalse(iterator.hasNext());
+    }
+
+
+    @Test
+    public void callbackExceptionIsPropagated() {
+        try {
+            simpleObjectDAO.parallelScan(8, 4).forEachPartition(new MongoDBParallelScan.PartitionCallback<SimpleObject>() {
+                @Override
+                public void process(int partition, Iterable<SimpleObject> items) {
+                    throw new IllegalStateException("partition " + partition);
+                }
+            });
+
+            fail("Expected a JeppettoException");
+        } catch (JeppettoException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+
+    @Test(expected = AssertionError.class)
+    public void callbackErrorIsPropagated() {
+        simpleObjectDAO.parallelScan(8, 4).forEachPartition(new MongoDBParallelScan.PartitionCallback<SimpleObject>() {
+            @Override
+            public void process(int partition, Iterable<SimpleObject> items) {
+                throw new AssertionError("partition " + partition);
+            }
+        });
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.mongodb;
+
+
+import org.iternine.jeppetto.dao.AccessType;
+import org.iternine.jeppetto.dao.ConditionType;
+import org.iternine.jeppetto.dao.DAOBuilder;
+import org.iternine.jeppetto.dao.GenericDAO;
+import org.iternine.jeppetto.dao.JeppettoException;
+import org.iternine.jeppetto.dao.QueryModel;
+import org.iternine.jeppetto.dao.annotation.Condition;
+import org.iternine.jeppetto.dao.annotation.DataAccessMethod;
+import org.iternine.jeppetto.dao.annotation.Hint;
+import org.iternine.jeppetto.dao.test.SimpleObject;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.ReadPreference;
+import com.mongodb.TaggableReadPreference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+/**
+ * Read preferences are applied to commands as they are built, so no server is needed: the client below never
+ * connects.
+ */
+public class MongoReadPreferenceTest {
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private MongoClient mongoClient;
+
+
+    //-------------------------------------------------------------
+    // Methods - Set-Up / Tear-Down
+    //-------------------------------------------------------------
+
+    @Before
+    public void setUp()
+            throws UnknownHostException {
+        mongoClient = new MongoClient("127.0.0.1");
+    }
+
+
+    @After
+    public void tearDown() {
+        mongoClient.close();
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Test Cases
+    //-------------------------------------------------------------
+
+    @Test
+    public void modeOnly() {
+        assertEquals(ReadPreference.secondaryPreferred(), MongoDBQueryModelDAO.parseReadPreference(" secondaryPreferred "));
+        assertEquals(ReadPreference.primary(), MongoDBQueryModelDAO.parseReadPreference("primary"));
+    }
+
+
+    @Test
+    public void modeWithTagSets() {
+        ReadPreference readPreference = MongoDBQueryModelDAO.parseReadPreference("secondary:dc=east, use=reporting;dc=east");
+
+        assertEquals(ReadPreference.secondary(new BasicDBObject("dc", "east").append("use", "reporting"),
+                                              new BasicDBObject("dc", "east")),
+                     readPreference);
+        assertEquals(2, ((TaggableReadPreference) readPreference).getTagSets().size());
+    }
+
+
+    @Test(expected = JeppettoException.class)
+    public void malformedTagIsRejected() {
+        MongoDBQueryModelDAO.parseReadPreference("secondary:dc");
+    }
+
+
+    @Test(expected = JeppettoException.class)
+    public void unknownModeIsRejected() {
+        MongoDBQueryModelDAO.parseReadPreference("tertiary");
+    }
+
+
+    @Test
+    public void methodHintOverridesDAODefault() {
+        ReadPreferenceDAO dao = buildDAO("nearest");
+
+        dao.findByIntValue(1);
+        assertEquals(ReadPreference.nearest(), ((RecordingDAO) dao).lastReadPreference);
+
+        dao.findFromSecondary(1);
+        assertEquals(ReadPreference.secondary(new BasicDBObject("use", "reporting")), ((RecordingDAO) dao).lastReadPreference);
+
+        dao.findFromPrimary(1);
+        assertEquals(ReadPreference.primary(), ((RecordingDAO) dao).lastReadPreference);
+    }
+
+
+    @Test
+    public void noDefaultLeavesCollectionPreference() {
+        ReadPreferenceDAO dao = buildDAO(null);
+
+        dao.findByIntValue(1);
+        assertNull(((RecordingDAO) dao).lastReadPreference);
+
+        dao.findFromPrimary(1);
+        assertEquals(ReadPreference.primary(), ((RecordingDAO) dao).lastReadPreference);
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private ReadPreferenceDAO buildDAO(String defaultReadPreference) {
+        Map<String, Object> daoProperties = new HashMap<String, Object>();
+
+        daoProperties.put("db", mongoClient.getDB("unittest"));
+
+        if (defaultReadPreference != null) {
+            daoProperties.put("readPreference", defaultReadPreference);
+        }
+
+        return DAOBuilder.buildDAO(SimpleObject.class, ReadPreferenceDAO.class, RecordingDAO.class, daoProperties);
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Interface
+    //-------------------------------------------------------------
+
+    public interface ReadPreferenceDAO extends GenericDAO<SimpleObject, String> {
+
+        List<SimpleObject> findByIntValue(int intValue);
+
+
+        @DataAccessMethod(
+                conditions = { @Condition(field = "intValue", type = ConditionType.Equal) },
+                hints = { @Hint(name = "readPreference", value = "secondary:use=reporting") }
+        )
+        List<SimpleObject> findFromSecondary(int intValue);
+
+
+        @DataAccessMethod(
+                conditions = { @Condition(field = "intValue", type = ConditionType.Equal) },
+                hints = { @Hint(name = "readPreference", value = "primary") }
+        )
+        List<SimpleObject> findFromPrimary(int intValue);
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class
+    //-------------------------------------------------------------
+
+    /**
+     * Records the read preference of the command each find would have executed, rather than executing it.
+     */
+    public static abstract class RecordingDAO extends MongoDBQueryModelDAO<SimpleObject, String>
+            implements ReadPreferenceDAO {
+
+        private ReadPreference lastReadPreference;
+
+
+        protected RecordingDAO(Class<SimpleObject> entityClass, Map<String, Object> daoProperties) {
+            super(entityClass, daoProperties);
+        }
+
+
+        @Override
+        public Iterable<SimpleObject> findUsingQueryModel(QueryModel queryModel) {
+            lastReadPreference = buildCommand(queryModel, AccessType.Read).getReadPreference();
+
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.mongodb.enhance;
+
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import org.bson.BasicBSONDecoder;
+import org.bson.BasicBSONEncoder;
+import org.bson.BSONObject;
+import org.bson.types.BSONTimestamp;
+import org.bson.types.Code;
+import org.bson.types.CodeWScope;
+import org.bson.types.MaxKey;
+import org.bson.types.MinKey;
+import org.bson.types.ObjectId;
+import org.bson.types.Symbol;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class LazyMongoDBDecoderTest {
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private MongoClient mongoClient;
+    private DBCollection dbCollection;
+    private LazyMongoDBDecoder decoder;
+
+
+    //-------------------------------------------------------------
+    // Methods - Set-Up / Tear-Down
+    //-------------------------------------------------------------
+
+    @Before
+    public void setUp()
+            throws Exception {
+        mongoClient = new MongoClient("127.0.0.1");     // Never connects; decoding only needs a collection reference
+        dbCollection = mongoClient.getDB("lazyMongoDBDecoderTest").getCollection("parent");
+        decoder = new LazyMongoDBDecoder(EnhancerHelper.getDirtyableDBObjectEnhancer(Parent.class).getEnhancedClass());
+    }
+
+
+    @After
+    public void tearDown() {
+        mongoClient.close();
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Test Cases
+    //-------------------------------------------------------------
+
+    @Test
+    public void buildDocumentCopiesSelectedElements() {
+        byte[] source = encode(new BasicDBObject("a", 1).append("b", "two").append("c", true));
+        int bOffset = 4 + 1 + 2 + 4;    // past the length, and a's type, name and int32 value
+        int bLength = 1 + 2 + 4 + 4;    // type, name, string length and "two\0"
+
+        byte[] document = LazyMongoDBDecoder.buildDocument(source, new int[] { bOffset, bLength });
+
+        assertEquals(new BasicDBObject("b", "two"), decode(document));
+    }
+
+
+    @Test
+    public void buildDocumentWithoutElementsIsEmpty() {
+        byte[] document = LazyMongoDBDecoder.buildDocument(encode(new BasicDBObject("a", 1)));
+
+        assertArrayEquals(new byte[] { 5, 0, 0, 0, 0 }, document);
+    }
+
+
+    @Test
+    public void valueLengthOfEncodedTypes() {
+        assertValueLength(1.5d);
+        assertValueLength("string");
+        assertValueLength(new BasicDBObject("nested", "document"));
+        assertValueLength(Arrays.asList("an", "array"));
+        assertValueLength(new byte[] { 1, 2, 3 });
+        assertValueLength(new ObjectId());
+        assertValueLength(true);
+        assertValueLength(new Date());
+        assertValueLength(null);
+        assertValueLength(Pattern.compile("^a.*b$", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE));
+        assertValueLength(new Code("function() { return 1; }"));
+        assertValueLength(new Symbol("symbol"));
+        assertValueLength(new CodeWScope("function() { return x; }", new BasicDBObject("x", 1)));
+        assertValueLength(42);
+        assertValueLength(new BSONTimestamp(1000, 1));
+        assertValueLength(42L);
+        assertValueLength(new MinKey());
+        assertValueLength(new MaxKey());
+    }
+
+
+    @Test
+    public void valueLengthOfUndefined() {
+        assertEquals(0, LazyMongoDBDecoder.valueLength(new byte[] { 0 }, (byte) 0x06, 0));
+    }
+
+
+    @Test
+    public void valueLengthOfDBPointer() {
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+
+        writeString(value, "namespace");
+        value.write(new ObjectId().toByteArray(), 0, 12);
+
+        assertEquals(value.size(), LazyMongoDBDecoder.valueLength(value.toByteArray(), (byte) 0x0C, 0));
+    }
+
+
+    @Test
+    public void valueLengthOfDecimal128() {
+        assertEquals(16, LazyMongoDBDecoder.valueLength(new byte[16], (byte) 0x13, 0));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void valueLengthOfUnknownType() {
+        LazyMongoDBDecoder.valueLength(new byte[] { 0 }, (byte) 0x20, 0);
+    }
+
+
+    @Test
+    public void fieldsFollowingEveryTypeAreDecoded() {
+        BasicDBObject source = new BasicDBObject("_id", new ObjectId())
+                .append("regex", Pattern.compile("a|b", Pattern.CASE_INSENSITIVE))
+                .append("name", "parent")
+                .append("code", new CodeWScope("x", new BasicDBObject("x", 1)))
+                .append("child", new BasicDBObject("value", "child"))
+                .append("binary", new byte[] { 1, 2, 3 })
+                .append("tags", Arrays.asList("a", "b"))
+                .append("timestamp", new BSONTimestamp(1000, 1))
+                .append("count", 7);
+
+        Parent parent = (Parent) decoder.decode(encode(source), dbCollection);
+
+        assertEquals("parent", parent.getName());
+        assertEquals(7, parent.getCount());
+        assertEquals("x", ((CodeWScope) ((DBObject) parent).get("code")).getCode());
+        assertTrue(((LazilyDecodedDBObject) parent).getLazyFields().isPending("child"));
+        assertTrue(((LazilyDecodedDBObject) parent).getLazyFields().isPending("tags"));
+        assertEquals("child", parent.getChild().getValue());
+        assertEquals(Arrays.asList("a", "b"), parent.getTags());
+    }
+
+
+    @Test
+    public void commandResultsAreDecodedEagerly() {
+        DBObject result = decoder.decode(encode(parentDocument()), (DBCollection) null);
+
+        assertFalse(result instanceof LazilyDecodedDBObject);
+        assertEquals("child", ((DBObject) result.get("child")).get("value"));
+    }
+
+
+    @Test
+    public void undecodedFieldsAreNotDirty() {
+        Parent parent = decodeParent();
+
+        assertFalse(((DirtyableDBObject) parent).isDirty());
+        assertFalse(((DirtyableDBObject) parent).getDirtyKeys().hasNext());
+        assertTrue(((LazilyDecodedDBObject) parent).getLazyFields().isPending("child"));
+        assertTrue(((LazilyDecodedDBObject) parent).getLazyFields().isPending("tags"));
+    }
+
+
+    @Test
+    public void decodedFieldsArePersisted() {
+        Parent parent = decodeParent();
+        Child child = parent.getChild();
+
+        assertFalse(((LazilyDecodedDBObject) parent).getLazyFields().isPending("child"));
+        assertTrue(((DirtyableDBObject) child).isPersisted(dbCollection));
+        assertFalse(((DirtyableDBObject) parent).isDirty());
+    }
+
+
+    @Test
+    public void changesToDecodedFieldsAreDirty() {
+        Parent parent = decodeParent();
+
+        parent.getChild().setValue("changed");
+
+        assertTrue(((DirtyableDBObject) parent).isDirty());
+        assertEquals(asSet("child"), asSet(((DirtyableDBObject) parent).getDirtyKeys()));
+    }
+
+
+    @Test
+    public void overwrittenFieldsAreNotDecoded() {
+        Parent parent = decodeParent();
+
+        parent.setTags(new ArrayList<String>(Arrays.asList("c")));
+
+        assertFalse(((LazilyDecodedDBObject) parent).getLazyFields().isPending("tags"));
+        assertTrue(((LazilyDecodedDBObject) parent).getLazyFields().isPending("child"));
+        assertEquals(Arrays.asList("c"), parent.getTags());
+        assertTrue(asSet(((DirtyableDBObject) parent).getDirtyKeys()).contains("tags"));
+    }
+
+
+    @Test
+    public void markPersistedLeavesFieldsPending() {
+        Parent parent = decodeParent();
+
+        parent.setName("renamed");
+        ((DirtyableDBObject) parent).markPersisted(dbCollection);
+
+        assertFalse(((DirtyableDBObject) parent).isDirty());
+        assertTrue(((LazilyDecodedDBObject) parent).getLazyFields().isPending("child"));
+        assertEquals("child", parent.getChild().getValue());
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private Parent decodeParent() {
+        Parent parent = (Parent) decoder.decode(encode(parentDocument()), dbCollection);
+
+        ((DirtyableDBObject) parent).markPersisted(dbCollection);
+
+        return parent;
+    }
+
+
+    private static BasicDBObject parentDocument() {
+        return new BasicDBObject("_id", new ObjectId())
+                .append("name", "parent")
+                .append("count", 3)
+                .append("child", new BasicDBObject("value", "child"))
+                .append("tags", Arrays.asList("a", "b"));
+    }
+
+
+    private static void assertValueLength(Object value) {
+        byte[] document = encode(new BasicDBObject("v", value));
+
+        // Single element: int32 length, type byte, "v\0", value, trailing 0x00
+        assertEquals(document.length - 8, LazyMongoDBDecoder.valueLength(document, document[4], 7));
+    }
+
+
+    private static byte[] encode(BSONObject bsonObject) {
+        return new BasicBSONEncoder().encode(bsonObject);
+    }
+
+
+    private static BSONObject decode(byte[] document) {
+        return new BasicBSONDecoder().readObject(document);
+    }
+
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        int length = value.length() + 1;
+
+        out.write(new byte[] { (byte) length, (byte) (length >> 8), (byte) (length >> 16), (byte) (length >> 24) }, 0, 4);
+        out.write(value.getBytes(), 0, value.length());
+        out.write(0);
+    }
+
+
+    private static Set<Object> asSet(Object... values) {
+        return new HashSet<Object>(Arrays.asList(values));
+    }
+
+
+    private static Set<Object> asSet(Iterator<?> iterator) {
+        Set<Object> result = new HashSet<Object>();
+
+        while (iterator.hasNext()) {
+            result.add(iterator.next());
+        }
+
+        return result;
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class - Parent
+    //-------------------------------------------------------------
+
+    public static class Parent {
+
+        //-------------------------------------------------------------
+        // Variables - Private
+        //-------------------------------------------------------------
+
+        private String id;
+        private String name;
+        private int count;
+        private Child child;
+        private List<String> tags;
+
+
+        //-------------------------------------------------------------
+        // Methods - Getter/Setter
+        //-------------------------------------------------------------
+
+        public String getId() {
+            return id;
+        }
+
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+
+        public String getName() {
+            return name;
+        }
+
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+
+        public int getCount() {
+            return count;
+        }
+
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+
+        public Child getChild() {
+            return child;
+        }
+
+
+        public void setChild(Child child) {
+            this.child = child;
+        }
+
+
+        public List<String> getTags() {
+            return tags;
+        }
+
+
+        public void setTags(List<String> tags) {
+            this.tags = tags;
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class - Child
+    //-------------------------------------------------------------
+
+    public static class Child {
+
+        //-------------------------------------------------------------
+        // Variables - Private
+        //-------------------------------------------------------------
+
+        private String value;
+
+
+        //-------------------------------------------------------------
+        // Methods - Getter/Setter
+        //-------------------------------------------------------------
+
+        public String getValue() {
+            return value;
+        }
+
+
+        public void setValue(String value) {
+            this.value = value;
+        }
+    }
+}
@@ -323,8 +323,8 @@ public class DAOBuilder {
 
         if (dataAccessMethod.conditions() != null && dataAccessMethod.conditions().length > 0) {
             for (org.iternine.jeppetto.dao.annotation.Condition conditionAnnotation : dataAccessMethod.conditions()) {
-                sb.append(String.format("    queryModel.addCondition(buildCondition(\"%s\", org.iternine.jeppetto.dao.ConditionType.%s, argsIterator));\n",
-                                        conditionAnnotation.field(), conditionAnnotation.type().name()));
+                sb.append(String.format("    queryModel.addCondition(buildCondition(%s, org.iternine.jeppetto.dao.ConditionType.%s, argsIterator));\n",
+                                        quote(conditionAnnotation.field()), conditionAnnotation.type().name()));
             }
 
             sb.append('\n');
@@ -333,8 +333,9 @@ public class DAOBuilder {
         if (dataAccessMethod.associations() != null && dataAccessMethod.associations().length > 0) {
             for (org.iternine.jeppetto.dao.annotation.Association associationAnnotation : dataAccessMethod.associations()) {
                 for (org.iternine.jeppetto.dao.annotation.Condition conditionAnnotation : associationAnnotation.conditions()) {
-                    sb.append(String.format("    queryModel.addAssociationCondition(\"%s\", buildCondition(\"%s\", org.iternine.jeppetto.dao.ConditionType.%s, argsIterator));\n",
-                                            associationAnnotation.field(), conditionAnnotation.field(), conditionAnnotation.type().name()));
+                    sb.append(String.format("    queryModel.addAssociationCondition(%s, buildCondition(%s, org.iternine.jeppetto.dao.ConditionType.%s, argsIterator));\n",
+                                            quote(associationAnnotation.field()), quote(conditionAnnotation.field()),
+                                            conditionAnnotation.type().name()));
                 }
             }
 
@@ -342,13 +343,21 @@ public class DAOBuilder {
         }
 
         if (dataAccessMethod.projections() != null && dataAccessMethod.projections().length > 0) {
-            sb.append(String.format("    queryModel.setProjection(buildProjection(\"%s\", org.iternine.jeppetto.dao.ProjectionType.%s, argsIterator));\n\n",
-                                    dataAccessMethod.projections()[0].field(), dataAccessMethod.projections()[0].type().name()));
+            sb.append(String.format("    queryModel.setProjection(buildProjection(%s, org.iternine.jeppetto.dao.ProjectionType.%s, argsIterator));\n\n",
+                                    quote(dataAccessMethod.projections()[0].field()), dataAccessMethod.projections()[0].type().name()));
         }
 
         if (dataAccessMethod.sorts() != null && dataAccessMethod.sorts().length > 0) {
             for (org.iternine.jeppetto.dao.annotation.Sort sort : dataAccessMethod.sorts()) {
-                sb.append(String.format("    queryModel.addSort(org.iternine.jeppetto.dao.SortDirection.%s, \"%s\");\n", sort.direction().name(), sort.field()));
+                sb.append(String.format("    queryModel.addSort(org.iternine.jeppetto.dao.SortDirection.%s, %s);\n", sort.direction().name(), quote(sort.field())));
+            }
+
+            sb.append('\n');
+        }
+
+        if (dataAccessMethod.hints() != null && dataAccessMethod.hints().length > 0) {
+            for (org.iternine.jeppetto.dao.annotation.Hint hint : dataAccessMethod.hints()) {
+                sb.append(String.format("    queryModel.addHint(%s, %s);\n", quote(hint.name()), quote(hint.value())));
             }
 
             sb.append('\n');
@@ -610,6 +619,44 @@ public class DAOBuilder {
     }
 
 
+    /**
+     * Quotes an annotation value for use as a string literal in a generated method body.  Javassist's compiler
+     * understands the \n, \t, \r and \f escapes, and takes any other character that follows a backslash literally.
+     */
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+
+        sb.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            switch (c) {
+            case '"':
+            case '\\':
+                sb.append('\\').append(c);
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\f':
+                sb.append("\\f");
+                break;
+            default:
+                sb.append(c);
+            }
+        }
+
+        return sb.append('"').toString();
+    }
+
+
     private static void logDerivedMethod(CtMethod interfaceMethod, StringBuilder sb) {
         try {
             String parameters = "";
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao;
+
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Iterates over the items of several producers as they arrive, in no particular order.  Producers are run on at most
+ * 'parallelism' tasks of the given executor, each task taking the next unstarted producer once its current one is
+ * done.  A bounded queue between the tasks and the consumer stops production while the consumer falls behind.
+ *
+ * If a producer fails, the failure is rethrown to the consumer (see rethrow()) and the remaining producers are
+ * stopped.  Consumers that stop iterating before reaching the end must close() the iterator to stop the producers.
+ *
+ * @param <T> type of the items produced
+ */
+public class MergingIterator<T>
+        implements Iterator<T>, Closeable {
+
+    //-------------------------------------------------------------
+    // Constants
+    //-------------------------------------------------------------
+
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final Object END_OF_PRODUCERS = new Object();
+
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private final List<? extends Producer<T>> producers;
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_CAPACITY);
+    private final List<Future<?>> futures;
+    private int remainingTasks;
+    private Object nextItem;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    /**
+     * @param executorService executor on which to run the producers
+     * @param producers producers of the items to iterate over
+     * @param parallelism maximum number of producers to run concurrently
+     */
+    public MergingIterator(ExecutorService executorService, final List<? extends Producer<T>> producers, int parallelism) {
+        final AtomicInteger nextProducer = new AtomicInteger(0);
+        final Sink<T> sink = new Sink<T>() {
+            @Override
+            public void put(T item)
+                    throws InterruptedException {
+                queue.put(item);
+            }
+        };
+
+        this.producers = producers;
+        this.remainingTasks = Math.max(0, Math.min(parallelism, producers.size()));
+        this.futures = new ArrayList<Future<?>>(remainingTasks);
+
+        for (int i = 0; i < remainingTasks; i++) {
+            futures.add(executorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        try {
+                            int index;
+
+                            while ((index = nextProducer.getAndIncrement()) < producers.size()) {
+                                Producer<T> producer = producers.get(index);
+
+                                try {
+                                    producer.produce(sink);
+                                } finally {
+                                    producer.close();
+                                }
+                            }
+
+                            queue.put(END_OF_PRODUCERS);
+                        } catch (InterruptedException e) {
+                            throw e;
+                        } catch (Throwable t) {
+                            queue.put(new Failure(t));
+                        }
+                    } catch (InterruptedException ignore) {
+                        // Iterator was closed; stop producing.
+                    }
+                }
+            }));
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Implementation - Iterator
+    //-------------------------------------------------------------
+
+    @Override
+    public boolean hasNext() {
+        while (nextItem == null && remainingTasks > 0) {
+            Object item;
+
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+
+                throw new JeppettoException(e);
+            }
+
+            if (item == END_OF_PRODUCERS) {
+                remainingTasks--;
+            } else if (item instanceof Failure) {
+                close();
+
+                throw rethrow(((Failure) item).cause);
+            } else {
+                nextItem = item;
+            }
+        }
+
+        return nextItem != null;
+    }
+
+
+    @Override
+    @SuppressWarnings( { "unchecked" })
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        T result = (T) nextItem;
+
+        nextItem = null;
+
+        return result;
+    }
+
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+
+    //-------------------------------------------------------------
+    // Implementation - Closeable
+    //-------------------------------------------------------------
+
+    /**
+     * Stops the producers: tasks are interrupted and every producer is closed, whether or not it has started.
+     */
+    @Override
+    public void close() {
+        remainingTasks = 0;
+        nextItem = null;
+
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+
+        for (Producer<T> producer : producers) {
+            producer.close();
+        }
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    /**
+     * Rethrows an Error as is; anything else is returned as a JeppettoException for the caller to throw.
+     *
+     * @param t failure of a concurrently run task
+     *
+     * @return the failure as a JeppettoException
+     */
+    public static JeppettoException rethrow(Throwable t) {
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+
+        return t instanceof JeppettoException ? (JeppettoException) t : new JeppettoException(t);
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Interface
+    //-------------------------------------------------------------
+
+    public interface Producer<T> {
+
+        /**
+         * Passes each item to the sink, returning once there are no more.
+         *
+         * @param sink destination of the items; blocks while the consumer is behind
+         */
+        void produce(Sink<T> sink)
+                throws InterruptedException;
+
+
+        /**
+         * Releases any resources held by the producer.  Called once produce() returns or fails, and again when the
+         * iterator is closed, possibly from another thread while produce() is running.
+         */
+        void close();
+    }
+
+
+    public interface Sink<T> {
+
+        void put(T item)
+                throws InterruptedException;
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class
+    //-------------------------------------------------------------
+
+    private static class Failure {
+        private final Throwable cause;
+
+        private Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+}
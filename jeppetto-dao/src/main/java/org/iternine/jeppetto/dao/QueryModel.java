@@ -18,6 +18,8 @@ package org.iternine.jeppetto.dao;
 
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +38,7 @@ public class QueryModel {
     private int maxResults = -1;
     private int firstResult = -1;
     private AccessControlContext accessControlContext;
+    private Map<String, String> hints;
 
 
     //-------------------------------------------------------------
@@ -142,6 +145,30 @@ public class QueryModel {
     }
 
 
+    public Map<String, String> getHints() {
+        return hints == null ? Collections.<String, String>emptyMap() : hints;
+    }
+
+
+    public void setHints(Map<String, String> hints) {
+        this.hints = hints;
+    }
+
+
+    public void addHint(String name, String value) {
+        if (hints == null) {
+            hints = new HashMap<String, String>(2);  // Usually only 1 or 2 hints
+        }
+
+        hints.put(name, value);
+    }
+
+
+    public String getHint(String name) {
+        return hints == null ? null : hints.get(name);
+    }
+
+
     //-------------------------------------------------------------
     // Methods - Object
     //-------------------------------------------------------------
@@ -164,7 +191,8 @@ public class QueryModel {
                && !(associationConditions != null ? !associationConditions.equals(that.associationConditions) : that.associationConditions != null)
                && !(conditions != null ? !conditions.equals(that.conditions) : that.conditions != null)
                && !(projection != null ? !projection.equals(that.projection) : that.projection != null)
-               && !(sorts != null ? !sorts.equals(that.sorts) : that.sorts != null);
+               && !(sorts != null ? !sorts.equals(that.sorts) : that.sorts != null)
+               && !(hints != null ? !hints.equals(that.hints) : that.hints != null);
     }
 
 
@@ -178,6 +206,7 @@ public class QueryModel {
         result = 31 * result + maxResults;
         result = 31 * result + firstResult;
         result = 31 * result + (accessControlContext != null ? accessControlContext.hashCode() : 0);
+        result = 31 * result + (hints != null ? hints.hashCode() : 0);
 
         return result;
     }
@@ -195,6 +224,7 @@ public class QueryModel {
         sb.append("\n  maxResults=").append(maxResults);
         sb.append("\n  firstResult=").append(firstResult);
         sb.append("\n  accessControlContext=").append(accessControlContext);
+        sb.append("\n  hints=").append(hints);
         sb.append("\n}");
 
         return sb.toString();
@@ -39,6 +39,8 @@ public @interface DataAccessMethod {
 
     Sort[] sorts() default {};
 
+    Hint[] hints() default {};
+
     boolean limitResults() default false;
 
     boolean skipResults() default false;
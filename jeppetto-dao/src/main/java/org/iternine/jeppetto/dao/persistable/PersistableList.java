@@ -21,11 +21,14 @@ import org.iternine.jeppetto.dao.JeppettoException;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 
 @SuppressWarnings({ "unchecked" })
@@ -39,6 +42,7 @@ public class PersistableList
     private List delegate;
     private boolean rewrite = false;
     private Set<Integer> modifiedIndexes = new HashSet<Integer>();
+    private SortedSet<Integer> removedIndexes = new TreeSet<Integer>();
     private int firstAppendedIndex;
     private boolean modifiableDelegate;
     private String storeIdentifier;
@@ -87,6 +91,7 @@ public class PersistableList
         return rewrite
                || delegate.size() > firstAppendedIndex
                || !modifiedIndexes.isEmpty()
+               || !removedIndexes.isEmpty()
                || __getDirtyFields().hasNext();
     }
 
@@ -105,6 +110,7 @@ public class PersistableList
 
         this.rewrite = false;
         this.modifiedIndexes.clear();
+        this.removedIndexes.clear();
         this.firstAppendedIndex = delegate.size();
         this.storeIdentifier = storeIdentifier;
     }
@@ -129,8 +135,8 @@ public class PersistableList
 
                     if (++i >= firstAppendedIndex
                         || modifiedIndexes.contains(i)
-                        || !(object instanceof Persistable)
-                        || ((Persistable) object).__isDirty()) {
+                        || (!(object instanceof Persistable) && !isImmutable(object))
+                        || (object instanceof Persistable && ((Persistable) object).__isDirty())) {
                         return true;
                     }
                 }
@@ -183,7 +189,7 @@ public class PersistableList
     public Object remove(int index) {
         Object removed = delegate.remove(index);
 
-        rewrite |= index < firstAppendedIndex;
+        recordRemoval(index);
 
         return removed;
     }
@@ -231,11 +237,15 @@ public class PersistableList
 
     @Override
     public boolean remove(Object element) {
-        boolean changed = delegate.remove(element);
+        int index = delegate.indexOf(element);
 
-        rewrite |= changed;
+        if (index < 0) {
+            return false;
+        }
 
-        return changed;
+        remove(index);
+
+        return true;
     }
 
 
@@ -365,7 +375,7 @@ public class PersistableList
             public void remove() {
                 delegateIterator.remove();
 
-                rewrite |= modifiableIndex < firstAppendedIndex;
+                recordRemoval(modifiableIndex);
             }
 
 
@@ -436,6 +446,25 @@ public class PersistableList
     }
 
 
+    /**
+     * @return the index at which elements appended since the list was last persisted begin
+     */
+    public int getFirstAppendedIndex() {
+        return firstAppendedIndex;
+    }
+
+
+    /**
+     * Indexes, as of when the list was last persisted, of the elements removed since.  Only tracked while removal
+     * is the sole change to the list; removals that follow other changes mark the list for rewrite instead.
+     *
+     * @return the removed indexes, in ascending order
+     */
+    public SortedSet<Integer> getRemovedIndexes() {
+        return Collections.unmodifiableSortedSet(removedIndexes);
+    }
+
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -456,4 +485,47 @@ public class PersistableList
     public int hashCode() {
         return delegate.hashCode();
     }
+
+
+    //-------------------------------------------------------------
+    // Methods - Private
+    //-------------------------------------------------------------
+
+    private void recordRemoval(int index) {
+        if (index >= firstAppendedIndex) {
+            return;
+        }
+
+        if (rewrite || !modifiedIndexes.isEmpty() || delegate.size() >= firstAppendedIndex) {
+            rewrite = true;     // Removals can only be expressed on their own, so rewrite the list instead.
+
+            return;
+        }
+
+        int originalIndex = index;
+
+        for (int removedIndex : removedIndexes) {
+            if (removedIndex > originalIndex) {
+                break;
+            }
+
+            originalIndex++;
+        }
+
+        removedIndexes.add(originalIndex);
+        firstAppendedIndex--;
+    }
+
+
+    /**
+     * Elements that can't change in place only become dirty when replaced, which is tracked by set().
+     */
+    private static boolean isImmutable(Object object) {
+        return object == null
+               || object instanceof String
+               || object instanceof Number
+               || object instanceof Boolean
+               || object instanceof Character
+               || object instanceof Enum;
+    }
 }
@@ -188,7 +188,7 @@ public class PersistableMap
 
     @Override
     public void clear() {
-        updatedKeys.clear();
+        updatedKeys.addAll(delegate.keySet());      // Each key is now removed
         delegate.clear();
     }
 
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao.persistable;
+
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+
+/**
+ * A Set that records the elements added and removed since it was last persisted so that a store can apply just
+ * those changes.  Elements are expected to be simple values (strings, numbers), so a set is never dirty because of
+ * a change within one of its elements.
+ */
+@SuppressWarnings({ "unchecked" })
+public class PersistableSet
+        implements Persistable, Set {
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private Set delegate;
+    private Set addedElements = new LinkedHashSet();
+    private Set removedElements = new LinkedHashSet();
+    private String storeIdentifier;
+
+
+    //-------------------------------------------------------------
+    // Constructors
+    //-------------------------------------------------------------
+
+    public PersistableSet() {
+        this(new HashSet());
+    }
+
+
+    public PersistableSet(int initialCapacity) {
+        this(new HashSet(initialCapacity));
+    }
+
+
+    public PersistableSet(Set delegate) {
+        this.delegate = delegate;
+    }
+
+
+    //-------------------------------------------------------------
+    // Implementation - Persistable
+    //-------------------------------------------------------------
+
+    @Override
+    public boolean __isDirty() {
+        return !addedElements.isEmpty() || !removedElements.isEmpty();
+    }
+
+
+    @Override
+    public void __markPersisted(String storeIdentifier) {
+        addedElements.clear();
+        removedElements.clear();
+
+        this.storeIdentifier = storeIdentifier;
+    }
+
+
+    @Override
+    public boolean __isPersisted(String storeIdentifier) {
+        return storeIdentifier.equals(this.storeIdentifier);
+    }
+
+
+    @Override
+    public Iterator<String> __getDirtyFields() {
+        return Collections.<String>emptySet().iterator();
+    }
+
+
+    @Override
+    public Object __getDelegate() {
+        return delegate;
+    }
+
+
+    //-------------------------------------------------------------
+    // Implementation - Set
+    //-------------------------------------------------------------
+
+    @Override
+    public boolean add(Object element) {
+        if (!delegate.add(element)) {
+            return false;
+        }
+
+        if (!removedElements.remove(element)) {
+            addedElements.add(element);
+        }
+
+        return true;
+    }
+
+
+    @Override
+    public boolean remove(Object element) {
+        if (!delegate.remove(element)) {
+            return false;
+        }
+
+        if (!addedElements.remove(element)) {
+            removedElements.add(element);
+        }
+
+        return true;
+    }
+
+
+    @Override
+    public boolean addAll(Collection elements) {
+        boolean changed = false;
+
+        for (Object element : elements) {
+            changed |= add(element);
+        }
+
+        return changed;
+    }
+
+
+    @Override
+    public boolean removeAll(Collection elements) {
+        boolean changed = false;
+
+        for (Object element : elements) {
+            changed |= remove(element);
+        }
+
+        return changed;
+    }
+
+
+    @Override
+    public boolean retainAll(Collection elements) {
+        boolean changed = false;
+
+        for (Iterator iterator = iterator(); iterator.hasNext(); ) {
+            if (!elements.contains(iterator.next())) {
+                iterator.remove();
+
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+
+    @Override
+    public void clear() {
+        for (Iterator iterator = iterator(); iterator.hasNext(); ) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+
+    @Override
+    public Iterator iterator() {
+        return new Iterator() {
+            private Iterator delegateIterator = delegate.iterator();
+            private Object current;
+
+            @Override
+            public boolean hasNext() {
+                return delegateIterator.hasNext();
+            }
+
+
+            @Override
+            public Object next() {
+                current = delegateIterator.next();
+
+                return current;
+            }
+
+
+            @Override
+            public void remove() {
+                delegateIterator.remove();
+
+                if (!addedElements.remove(current)) {
+                    removedElements.add(current);
+                }
+            }
+        };
+    }
+
+
+    @Override
+    public boolean contains(Object element) {
+        return delegate.contains(element);
+    }
+
+
+    @Override
+    public boolean containsAll(Collection elements) {
+        return delegate.containsAll(elements);
+    }
+
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return delegate.isEmpty();
+    }
+
+
+    @Override
+    public Object[] toArray() {
+        return delegate.toArray();
+    }
+
+
+    @Override
+    public Object[] toArray(Object[] objects) {
+        return delegate.toArray(objects);
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    /**
+     * @return the elements added since the set was last persisted
+     */
+    public Set getAddedElements() {
+        return Collections.unmodifiableSet(addedElements);
+    }
+
+
+    /**
+     * @return the elements removed since the set was last persisted
+     */
+    public Set getRemovedElements() {
+        return Collections.unmodifiableSet(removedElements);
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof Set)) {
+            return false;
+        }
+
+        Set thatSet = o instanceof PersistableSet ? ((PersistableSet) o).delegate : (Set) o;
+
+        return delegate.equals(thatSet);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return delegate.hashCode();
+    }
+
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
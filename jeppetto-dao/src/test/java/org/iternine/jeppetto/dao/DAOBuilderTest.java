@@ -48,6 +48,25 @@ public class DAOBuilderTest {
     }
 
 
+    @Test
+    public void hintsAreCopiedVerbatim() {
+        SampleDAO sampleDAO = DAOBuilder.buildDAO(Sample.class,
+                                                  SampleDAO.class,
+                                                  PartialSampleDAOImplementation.class,
+                                                  null);
+
+        sampleDAO.getManyWithHint(0);
+
+        QueryModel queryModel = ((DummyQueryModelDAO) sampleDAO).getLastQueryModel();
+
+        Assert.assertEquals("secondary:dc=\"east\",path=c:\\data\n", queryModel.getHint("readPreference"));
+
+        sampleDAO.getMany(0);
+
+        Assert.assertNull(((DummyQueryModelDAO) sampleDAO).getLastQueryModel().getHint("readPreference"));
+    }
+
+
     @Test
     public void idTest() {
         double base10 = (Math.log(10) / Math.log(2));
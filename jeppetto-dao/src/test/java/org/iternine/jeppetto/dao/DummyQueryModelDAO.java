@@ -31,6 +31,7 @@ public class DummyQueryModelDAO<T, ID>
     //-------------------------------------------------------------
 
     private Class<T> entityClass;
+    private QueryModel lastQueryModel;
 
 
     //-------------------------------------------------------------
@@ -49,6 +50,8 @@ public class DummyQueryModelDAO<T, ID>
     @Override
     public T findUniqueUsingQueryModel(QueryModel queryModel)
             throws NoSuchItemException {
+        lastQueryModel = queryModel;
+
         try {
             return entityClass.newInstance();
         } catch (Exception e) {
@@ -61,6 +64,8 @@ public class DummyQueryModelDAO<T, ID>
     public Iterable<T> findUsingQueryModel(QueryModel queryModel) {
         List<T> result = new ArrayList<T>();
 
+        lastQueryModel = queryModel;
+
         try {
             result.add(entityClass.newInstance());
             result.add(entityClass.newInstance());
@@ -177,4 +182,16 @@ public class DummyQueryModelDAO<T, ID>
     @Override
     public void flush() {
     }
+
+
+    //-------------------------------------------------------------
+    // Methods - Public
+    //-------------------------------------------------------------
+
+    /**
+     * @return the QueryModel most recently passed to findUniqueUsingQueryModel() or findUsingQueryModel()
+     */
+    public QueryModel getLastQueryModel() {
+        return lastQueryModel;
+    }
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2011-2017 Jeppetto and Jonathan Thompson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iternine.jeppetto.dao;
+
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+public class MergingIteratorTest {
+
+    //-------------------------------------------------------------
+    // Variables - Private
+    //-------------------------------------------------------------
+
+    private ExecutorService executorService;
+
+
+    //-------------------------------------------------------------
+    // Methods - Set-Up / Tear-Down
+    //-------------------------------------------------------------
+
+    @Before
+    public void setUp() {
+        executorService = Executors.newFixedThreadPool(4);
+    }
+
+
+    @After
+    public void tearDown()
+            throws InterruptedException {
+        executorService.shutdownNow();
+        executorService.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+
+    //-------------------------------------------------------------
+    // Methods - Test Cases
+    //-------------------------------------------------------------
+
+    @Test
+    public void returnsItemsOfAllProducers() {
+        List<RangeProducer> producers = Arrays.asList(new RangeProducer(0, 1000),
+                                                      new RangeProducer(1000, 2500),
+                                                      new RangeProducer(2500, 2500),
+                                                      new RangeProducer(2500, 3000));
+        MergingIterator<Integer> iterator = new MergingIterator<Integer>(executorService, producers, 2);
+        List<Integer> items = new ArrayList<Integer>();
+
+        while (iterator.hasNext()) {
+            items.add(iterator.next());
+        }
+
+        Collections.sort(items);
+
+        Assert.assertEquals(3000, items.size());
+        for (int i = 0; i < items.size(); i++) {
+            Assert.assertEquals(i, items.get(i).intValue());
+        }
+
+        for (RangeProducer producer : producers) {
+            Assert.assertTrue(producer.closed);
+        }
+    }
+
+
+    @Test
+    public void noProducersMeansNoItems() {
+        MergingIterator<Integer> iterator = new MergingIterator<Integer>(executorService,
+                                                                         Collections.<RangeProducer>emptyList(), 4);
+
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+
+    @Test
+    public void producerExceptionIsRethrownAsJeppettoException() {
+        final IllegalStateException failure = new IllegalStateException("boom");
+        RangeProducer endless = new RangeProducer(0, Integer.MAX_VALUE);
+        RangeProducer failing = new RangeProducer(0, 10) {
+            @Override
+            public void produce(MergingIterator.Sink<Integer> sink)
+                    throws InterruptedException {
+                super.produce(sink);
+
+                throw failure;
+            }
+        };
+        MergingIterator<Integer> iterator = new MergingIterator<Integer>(executorService,
+                                                                         Arrays.asList(endless, failing), 2);
+
+        try {
+            while (iterator.hasNext()) {
+                iterator.next();
+            }
+
+            Assert.fail("Expected the producer's failure");
+        } catch (JeppettoException e) {
+            Assert.assertSame(failure, e.getCause());
+        }
+
+        Assert.assertTrue(endless.closed);
+        Assert.assertTrue(failing.closed);
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+
+    @Test
+    public void producerErrorIsRethrownAsIs() {
+        final Error failure = new Error("boom");
+        RangeProducer failing = new RangeProducer(0, 0) {
+            @Override
+            public void produce(MergingIterator.Sink<Integer> sink) {
+                throw failure;
+            }
+        };
+        MergingIterator<Integer> iterator = new MergingIterator<Integer>(executorService,
+                                                                         Collections.singletonList(failing), 1);
+
+        try {
+            iterator.hasNext();
+
+            Assert.fail("Expected the producer's failure");
+        } catch (Error e) {
+            Assert.assertSame(failure, e);
+        }
+    }
+
+
+    @Test
+    public void closeStopsProducers()
+            throws InterruptedException {
+        final CountDownLatch stopped = new CountDownLatch(1);
+        RangeProducer endless = new RangeProducer(0, Integer.MAX_VALUE) {
+            @Override
+            public void produce(MergingIterator.Sink<Integer> sink)
+                    throws InterruptedException {
+                try {
+                    super.produce(sink);
+                } finally {
+                    stopped.countDown();
+                }
+            }
+        };
+        RangeProducer unstarted = new RangeProducer(0, 10);
+        MergingIterator<Integer> iterator = new MergingIterator<Integer>(executorService,
+                                                                         Arrays.asList(endless, unstarted), 1);
+
+        Assert.assertEquals(0, iterator.next().intValue());
+
+        iterator.close();
+
+        Assert.assertTrue(stopped.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(endless.closed);
+        Assert.assertTrue(unstarted.closed);
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+
+    @Test
+    public void rethrowKeepsJeppettoExceptionsAndWrapsOthers() {
+        JeppettoException jeppettoException = new JeppettoException("boom");
+        RuntimeException runtimeException = new RuntimeException("boom");
+
+        Assert.assertSame(jeppettoException, MergingIterator.rethrow(jeppettoException));
+        Assert.assertSame(runtimeException, MergingIterator.rethrow(runtimeException).getCause());
+    }
+
+
+    //-------------------------------------------------------------
+    // Inner Class
+    //-------------------------------------------------------------
+
+    private static class RangeProducer
+            implements MergingIterator.Producer<Integer> {
+        private final int from;
+        private final int to;
+        private volatile boolean closed;
+
+        private RangeProducer(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void produce(MergingIterator.Sink<Integer> sink)
+                throws InterruptedException {
+            for (int i = from; i < to; i++) {
+                sink.put(i);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.iternine.jeppetto.dao;
 
 import org.iternine.jeppetto.dao.annotation.Condition;
 import org.iternine.jeppetto.dao.annotation.DataAccessMethod;
+import org.iternine.jeppetto.dao.annotation.Hint;
 
 import java.util.List;
 
@@ -38,4 +39,11 @@ public interface SampleDAO extends GenericDAO<Sample, String> {
             conditions = { @Condition(field = "fieldOne", type = ConditionType.GreaterThan) }
     )
     List<Sample> getMany(int fieldOneValue);
+
+
+    @DataAccessMethod(
+            conditions = { @Condition(field = "fieldOne", type = ConditionType.Equal) },
+            hints = { @Hint(name = "readPreference", value = "secondary:dc=\"east\",path=c:\\data\n") }
+    )
+    List<Sample> getManyWithHint(int fieldOneValue);
 }